@@ -0,0 +1,82 @@
+package newbank.benchmarks;
+
+import newbank.server.model.Account;
+import newbank.server.model.CustomerID;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures account lookup as a customer's account count grows (1, 100 and 10,000):
+ * <ul>
+ *   <li>{@code scan}: the original lookup, a walk over the customer's list calling
+ *       {@code equalsIgnoreCase} on every name;</li>
+ *   <li>{@code lookup}: {@link AccountService#getAccount}, a lookup in the
+ *       per-customer index by normalized name;</li>
+ *   <li>{@code transfer}: {@link AccountService#transfer} between the last and the
+ *       first account opened, which costs the scan two full walks.</li>
+ * </ul>
+ * Names are given in a different case from the one they were opened with, so the
+ * case-insensitive path is what gets measured.
+ *
+ * Run with {@code java -cp out newbank.benchmarks.AccountLookupBenchmark [operations]}.
+ */
+public class AccountLookupBenchmark {
+
+    private static final int[] ACCOUNT_COUNTS = {1, 100, 10_000};
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        System.out.printf("%-10s %10s %12s%n", "accounts", "path", "ns/op");
+        for (int count : ACCOUNT_COUNTS) {
+            CustomerService customers = new CustomerService();
+            customers.registerCustomer("Corp", "secret");
+            AccountService service = new AccountService(customers);
+            List<Account> list = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Account account = new Account("Sub" + i, 100_000_000);
+                service.addAccount("Corp", account);
+                list.add(account);
+            }
+            CustomerID corp = new CustomerID("Corp");
+            String first = "SUB0";
+            String last = "SUB" + (count - 1);
+
+            // warm up each path so the JIT has compiled it before it is timed
+            for (int round = 0; round < 2; round++) {
+                boolean report = round == 1;
+                measure(report, count, "scan", operations, () -> sink = scan(list, last));
+                measure(report, count, "lookup", operations, () -> sink = service.getAccount(corp, last));
+                measure(report, count, "transfer", operations, () -> service.transfer(corp, last, first, 1));
+            }
+        }
+    }
+
+    private static void measure(boolean report, int count, String name, int operations, Runnable op) {
+        // the scan at 10,000 accounts is slow; scale its runs down to keep the benchmark short
+        int runs = name.equals("lookup") ? operations : Math.max(1_000, operations / Math.max(1, count / 100));
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (report) {
+            System.out.printf("%-10d %10s %12.1f%n", count, name, (double) elapsed / runs);
+        }
+    }
+
+    /** The lookup AccountService used before the index. */
+    private static Account scan(List<Account> accounts, String accountName) {
+        for (Account a : accounts) {
+            if (a.getAccountName().equalsIgnoreCase(accountName)) {
+                return a;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,155 @@
+package newbank.benchmarks;
+
+import newbank.server.model.Account;
+import newbank.server.model.CustomerID;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hammers a single account from 1 to 64 threads, each alternating a deposit and a
+ * withdrawal of one minor unit, and reports total operations per second for:
+ * <ul>
+ *   <li>{@code locked}: read, check and write under a {@link ReentrantLock}, as
+ *       {@code AccountService} did before the lock-free path;</li>
+ *   <li>{@code cas}: {@link Account#credit} and {@link Account#tryDebit}, a
+ *       compare-and-set retry loop;</li>
+ *   <li>{@code service}: {@link AccountService#deposit} and
+ *       {@link AccountService#withdraw}, i.e. {@code cas} plus the account lookup and
+ *       the shared customer lock.</li>
+ * </ul>
+ * The final balance is checked after every run.
+ *
+ * Run with {@code java -cp out newbank.benchmarks.BalanceContentionBenchmark [millisPerRun]}.
+ */
+public class BalanceContentionBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+    private static final long OPENING_BALANCE = 1_000_000;
+
+    /** The locked balance update this benchmark compares against. */
+    private static final class LockedAccount {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long balance = OPENING_BALANCE;
+
+        void deposit(long amount) {
+            lock.lock();
+            try {
+                balance += amount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean withdraw(long amount) {
+            lock.lock();
+            try {
+                if (balance < amount) {
+                    return false;
+                }
+                balance -= amount;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private interface Op {
+        void run(boolean deposit);
+    }
+
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 500;
+
+        System.out.printf("%s cores%n%-8s %14s %14s %14s%n", Runtime.getRuntime().availableProcessors(),
+                "threads", "locked ops/s", "cas ops/s", "service ops/s");
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;  // the first round is warm-up
+            for (int threads : THREAD_COUNTS) {
+                LockedAccount locked = new LockedAccount();
+                long lockedRate = run(threads, millis, deposit -> {
+                    if (deposit) {
+                        locked.deposit(1);
+                    } else {
+                        locked.withdraw(1);
+                    }
+                });
+                check(locked.balance);
+
+                Account account = new Account("Main", OPENING_BALANCE);
+                long casRate = run(threads, millis, deposit -> {
+                    if (deposit) {
+                        account.credit(1);
+                    } else {
+                        account.tryDebit(1);
+                    }
+                });
+                check(account.getBalance());
+
+                CustomerService customers = new CustomerService();
+                customers.registerCustomer("Bench", "secret");
+                AccountService service = new AccountService(customers);
+                service.addAccount("Bench", new Account("Main", OPENING_BALANCE));
+                CustomerID bench = new CustomerID("Bench");
+                long serviceRate = run(threads, millis, deposit -> {
+                    if (deposit) {
+                        service.deposit(bench, "Main", 1);
+                    } else {
+                        service.withdraw(bench, "Main", 1);
+                    }
+                });
+                check(service.getAccount(bench, "Main").getBalance());
+
+                if (report) {
+                    System.out.printf("%-8d %14d %14d %14d%n", threads, lockedRate, casRate, serviceRate);
+                }
+            }
+        }
+    }
+
+    /** Runs {@code op} on {@code threads} threads for {@code millis}; returns operations per second. */
+    private static long run(int threads, long millis, Op op) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder operations = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (!stop.get()) {
+                    // deposit then withdraw, so the balance ends where it started
+                    op.run(true);
+                    op.run(false);
+                    count += 2;
+                }
+                operations.add(count);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        return operations.sum() * 1_000_000_000L / elapsed;
+    }
+
+    private static void check(long balance) {
+        if (balance != OPENING_BALANCE) {
+            throw new IllegalStateException("Lost update: balance " + balance + ", expected " + OPENING_BALANCE);
+        }
+    }
+}
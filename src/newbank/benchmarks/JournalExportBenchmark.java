@@ -0,0 +1,98 @@
+package newbank.benchmarks;
+
+import newbank.server.model.JournalEntry;
+import newbank.server.service.TransactionJournal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Fills a file-backed {@link TransactionJournal} with N entries spread over 10,000
+ * accounts in a temporary directory, then reports how long a full-day export takes
+ * as a binary {@link TransactionJournal#export export}, copied from the segment files
+ * with {@code transferTo}, and as text built by formatting every entry into a
+ * {@code StringBuilder} first.
+ *
+ * Run with {@code java -cp out newbank.benchmarks.JournalExportBenchmark [entries] [directory]}.
+ */
+public class JournalExportBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        Path parent = args.length > 1 ? Path.of(args[1]) : Path.of(System.getProperty("java.io.tmpdir"));
+
+        Path dir = Files.createTempDirectory(parent, "newbank-journal-bench");
+        try {
+            long[] clock = {0};
+            TransactionJournal journal = TransactionJournal.open(dir.resolve("journal"), entries,
+                    () -> clock[0]);
+            long start = System.nanoTime();
+            for (int i = 0; i < entries; i++) {
+                clock[0] = i * 20L;  // spread over a day
+                journal.record(1 + i % ACCOUNTS, "Customer" + (i % ACCOUNTS), "Main", JournalEntry.Type.DEPOSIT, i, 0);
+            }
+            System.out.printf("journaled %,d entries in %d ms%n", entries, millisSince(start));
+
+            Path out = dir.resolve("export");
+            System.out.printf("%-12s %10s %14s %10s%n", "export", "ms", "bytes", "MB/s");
+            for (int round = 0; round < 2; round++) {
+                boolean report = round == 1;  // the first round is warm-up
+                long binaryStart = System.nanoTime();
+                try (FileChannel channel = create(out)) {
+                    journal.export(0, Long.MAX_VALUE, channel);
+                }
+                long binary = millisSince(binaryStart);
+                long binaryBytes = Files.size(out);
+
+                long textStart = System.nanoTime();
+                try (FileChannel channel = create(out)) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int a = 0; a < ACCOUNTS; a++) {
+                        for (JournalEntry entry : journal.newestFirst(1 + a, 0, Integer.MAX_VALUE)) {
+                            entry.appendTo(sb).append('\n');
+                        }
+                    }
+                    ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+                long text = millisSince(textStart);
+                long textBytes = Files.size(out);
+                if (report) {
+                    System.out.printf("%-12s %10d %14d %10.0f%n", "binary", binary, binaryBytes, rate(binaryBytes, binary));
+                    System.out.printf("%-12s %10d %14d %10.0f%n", "text", text, textBytes, rate(textBytes, text));
+                }
+            }
+            journal.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static FileChannel create(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    private static double rate(long bytes, long millis) {
+        return bytes / 1_048_576.0 / Math.max(1, millis) * 1_000;
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,77 @@
+package newbank.benchmarks;
+
+import newbank.protocol.Money;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares amount handling before and after {@link Money}:
+ * <ul>
+ *   <li>{@code double}: {@code Double.parseDouble} on the amount text, then
+ *       {@code name + ": " + balance} for the listing line, as {@code CommandProcessor}
+ *       and {@code Account} did;</li>
+ *   <li>{@code money}: {@link Money#parse} on the same text and
+ *       {@link Money#appendTo} into a reused {@code StringBuilder}.</li>
+ * </ul>
+ * Reports nanoseconds and bytes allocated per operation, then the error left by
+ * ten million 0.01 additions in each representation.
+ *
+ * Run with {@code java -cp out newbank.benchmarks.MoneyBenchmark [operations]}.
+ */
+public class MoneyBenchmark {
+
+    private static final String[] AMOUNTS = {"0.01", "12.50", "1000", "99999.99", "250.05"};
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        StringBuilder line = new StringBuilder(64);
+
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            if (report) {
+                System.out.printf("%-8s %10s %14s%n", "path", "ns/op", "bytes/op");
+            }
+            measure(report, "double", operations, i -> {
+                double amount = Double.parseDouble(AMOUNTS[i % AMOUNTS.length]);
+                sink = "Main" + ": " + amount;
+            });
+            measure(report, "money", operations, i -> {
+                long amount = Money.parse(AMOUNTS[i % AMOUNTS.length]);
+                line.setLength(0);
+                Money.appendTo(line.append("Main").append(": "), amount);
+            });
+        }
+
+        long cents = 0;
+        double legacy = 0;
+        for (int i = 0; i < 10_000_000; i++) {
+            cents += 1;
+            legacy += 0.01;
+        }
+        System.out.printf("%n10M x 0.01: money %s, double %s%n", Money.format(cents), legacy);
+    }
+
+    private interface Op {
+        void run(int i);
+    }
+
+    private static void measure(boolean report, String name, int operations, Op op) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            op.run(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        if (report) {
+            System.out.printf("%-8s %10.1f %14.1f%n", name, (double) elapsed / operations,
+                    (double) allocated / operations);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package newbank.benchmarks;
+
+import newbank.server.service.security.PasswordHashPolicy;
+import newbank.server.service.security.Pbkdf2Engine;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Measures what one login's password check costs before and after {@link Pbkdf2Engine}:
+ * <ul>
+ *   <li>{@code factory}: the original path, a {@code SecretKeyFactory} lookup per call,
+ *       Base64 salt and hash, and a {@code String.equals} comparison;</li>
+ *   <li>{@code engine}: {@link Pbkdf2Engine#verify}, a per-thread {@code Mac}, raw
+ *       {@code byte[]} and a constant-time comparison.</li>
+ * </ul>
+ * Reports milliseconds and bytes allocated per login (from the thread's allocation
+ * counter), then the cost of drawing a salt from {@code SecureRandom.getInstanceStrong()}
+ * against the engine's pre-seeded generator.
+ *
+ * Run with {@code java -cp out newbank.benchmarks.PasswordHashBenchmark [logins]}.
+ */
+public class PasswordHashBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final int ITERATIONS = PasswordHashPolicy.DEFAULT.getIterations();
+
+    public static void main(String[] args) throws Exception {
+        int logins = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        byte[] salt = Pbkdf2Engine.newSalt();
+        byte[] hash = Pbkdf2Engine.hash(PASSWORD, salt, ITERATIONS, 32);
+        String storedSalt = Base64.getEncoder().encodeToString(salt);
+        String storedHash = Base64.getEncoder().encodeToString(hash);
+
+        // warm up both paths so the JIT has compiled the HMAC loop
+        for (int i = 0; i < logins / 4 + 1; i++) {
+            legacyVerify(PASSWORD, storedHash, storedSalt);
+            Pbkdf2Engine.verify(PASSWORD, salt, ITERATIONS, hash);
+        }
+
+        System.out.printf("%-8s %12s %16s%n", "path", "ms/login", "bytes/login");
+        measure("factory", logins, () -> legacyVerify(PASSWORD, storedHash, storedSalt));
+        measure("engine", logins, () -> Pbkdf2Engine.verify(PASSWORD, salt, ITERATIONS, hash));
+
+        int salts = 1_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < salts; i++) {
+            byte[] s = new byte[16];
+            SecureRandom.getInstanceStrong().nextBytes(s);
+        }
+        long strong = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < salts; i++) {
+            Pbkdf2Engine.newSalt();
+        }
+        long engine = System.nanoTime() - start;
+        System.out.printf("%nsalt: getInstanceStrong %.1f us, engine %.1f us%n",
+                strong / 1_000.0 / salts, engine / 1_000.0 / salts);
+    }
+
+    private interface Login {
+        boolean check() throws Exception;
+    }
+
+    private static void measure(String name, int logins, Login login) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < logins; i++) {
+            if (!login.check()) {
+                throw new IllegalStateException(name + " rejected the right password");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        System.out.printf("%-8s %12.3f %16d%n", name, elapsed / 1e6 / logins, allocated / logins);
+    }
+
+    /** The verification PasswordManagerService used before the engine. */
+    private static boolean legacyVerify(String password, String storedHash, String storedSalt) throws Exception {
+        byte[] salt = Base64.getDecoder().decode(storedSalt);
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, 256);
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        byte[] hashBytes = factory.generateSecret(spec).getEncoded();
+        String newHash = Base64.getEncoder().encodeToString(hashBytes);
+        return newHash.equals(storedHash);
+    }
+}
@@ -0,0 +1,305 @@
+package newbank.benchmarks;
+
+import newbank.protocol.Frame;
+import newbank.protocol.FrameCodec;
+import newbank.server.ClientSession;
+import newbank.server.NewBank;
+import newbank.server.ResponseWriter;
+import newbank.server.StreamResponseWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares how many socket writes each reply costs with the three ways the server
+ * has written responses:
+ * <ul>
+ *   <li>{@code autoflush}: the original {@code PrintWriter} with autoflush, one flush per line;</li>
+ *   <li>{@code buffered}: a {@code BufferedOutputStream} flushed after every reply or frame;</li>
+ *   <li>{@code writer}: {@link StreamResponseWriter}, one write per reply and one per group
+ *       of pipelined replies that finish together.</li>
+ * </ul>
+ * Each {@code write} reaching the socket stream is one {@code send} system call, so
+ * the counts are taken on a counting stream and are exact. The second half times the
+ * same text session over a loopback socket.
+ *
+ * Run with {@code java -cp out newbank.benchmarks.ResponseWriteBenchmark [iterations]}.
+ */
+public class ResponseWriteBenchmark {
+
+    private static final int PIPELINE_THREADS = 8;
+    private static final int PIPELINED_REPLIES = 10_000;
+    private static final int BATCH_LINES = 400;
+
+    /** Roughly what one small {@code send} costs on loopback; only used for the pipelined count. */
+    private static final long SEND_NANOS = 5_000;
+
+    /** Counts writes that would each be a syscall on a socket; discards the bytes. */
+    private static final class CountingStream extends OutputStream {
+        private final long sendNanos;
+        long writes;
+
+        CountingStream(long sendNanos) {
+            this.sendNanos = sendNanos;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+            // a real send takes a while, which is when concurrent replies pile up
+            long end = System.nanoTime() + sendNanos;
+            while (sendNanos > 0 && System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /** The original write path: autoflush {@code PrintWriter}, flushed on every println. */
+    private static final class AutoflushWriter implements ResponseWriter {
+        private final PrintWriter out;
+
+        AutoflushWriter(OutputStream socket) {
+            out = new PrintWriter(socket, true);
+        }
+
+        @Override
+        public void writeLine(String line) {
+            out.println(line);
+        }
+
+        @Override
+        public void writeFrame(Frame frame) {
+            throw new UnsupportedOperationException("the original server had no binary frames");
+        }
+
+        @Override
+        public void flush() {
+            // every println has already been flushed
+        }
+    }
+
+    /** The previous write path: a buffered stream flushed after every reply or frame. */
+    private static final class BufferedWriter implements ResponseWriter {
+        private final OutputStream out;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        BufferedWriter(OutputStream socket) {
+            out = new BufferedOutputStream(socket);
+        }
+
+        @Override
+        public void writeLine(String line) {
+            try {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void writeFrame(Frame frame) {
+            lock.lock();
+            try {
+                FrameCodec.write(frame, out);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            lock.lock();
+            try {
+                out.flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private interface WriterFactory {
+        ResponseWriter create(OutputStream socket);
+    }
+
+    private static final String[] NAMES = {"autoflush", "buffered", "writer"};
+    private static final WriterFactory[] FACTORIES = {
+            AutoflushWriter::new, BufferedWriter::new, StreamResponseWriter::new};
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        NewBank bank = NewBank.getBank();
+        // the session logs every request; keep the report readable
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        report.println("Socket writes per command (lower is better)");
+        report.printf("%-28s %10s %10s %10s%n", "command", NAMES[0], NAMES[1], NAMES[2]);
+        for (Step step : script()) {
+            report.printf("%-28s", step.label);
+            for (WriterFactory factory : FACTORIES) {
+                report.printf(" %10s", format(countWrites(bank, factory, step)));
+            }
+            report.println();
+        }
+        report.printf("%-28s %10s", PIPELINED_REPLIES + " pipelined frames", "n/a");
+        for (int i = 1; i < FACTORIES.length; i++) {
+            report.printf(" %10s", format(countPipelined(FACTORIES[i]) / (double) PIPELINED_REPLIES));
+        }
+        report.println("   (per frame)");
+
+        report.println();
+        report.println("Loopback socket, " + iterations + " x (HELP, SHOWMYACCOUNTS, bad CREATEACCOUNT)");
+        for (int i = 0; i < FACTORIES.length; i++) {
+            timeLoopback(bank, FACTORIES[i], Math.max(1, iterations / 10));  // warm-up
+            long nanos = timeLoopback(bank, FACTORIES[i], iterations);
+            report.printf("%-10s %8.1f us/command%n", NAMES[i], nanos / 1000.0 / (iterations * 3.0));
+        }
+    }
+
+    // --- write counts ---
+
+    private static final class Step {
+        final String label;
+        final List<String> setup;
+        final List<String> lines;
+
+        Step(String label, List<String> setup, List<String> lines) {
+            this.label = label;
+            this.setup = setup;
+            this.lines = lines;
+        }
+    }
+
+    private static List<Step> script() {
+        List<String> login = List.of("Test", "Test");
+        List<String> batch = new ArrayList<>();
+        batch.add("BATCH");
+        for (int i = 0; i < BATCH_LINES; i++) {
+            batch.add("CREATEACCOUNT Main");  // already exists: every line fails, nothing changes
+        }
+        batch.add("END_BATCH");
+        return List.of(
+                new Step("login (wrong password)", List.of(), List.of("Test", "wrong")),
+                new Step("login", List.of(), login),
+                new Step("HELP", login, List.of("HELP")),
+                new Step("SHOWMYACCOUNTS", login, List.of("SHOWMYACCOUNTS")),
+                new Step("BATCH of " + BATCH_LINES, login, batch));
+    }
+
+    /** Socket writes for one step, after its setup lines have been answered. */
+    private static long countWrites(NewBank bank, WriterFactory factory, Step step) throws IOException {
+        CountingStream socket = new CountingStream(0);
+        ResponseWriter out = factory.create(socket);
+        ClientSession session = new ClientSession(bank);
+        session.start(out::writeLine);
+        out.flush();
+        for (String line : step.setup) {
+            session.handleLine(line, out::writeLine);
+            out.flush();
+        }
+        long before = socket.writes;
+        for (String line : step.lines) {
+            session.handleLine(line, out::writeLine);
+            out.flush();
+        }
+        return socket.writes - before;
+    }
+
+    /** Socket writes for replies written by several pipeline workers at once. */
+    private static long countPipelined(WriterFactory factory) throws InterruptedException {
+        CountingStream socket = new CountingStream(SEND_NANOS);
+        ResponseWriter out = factory.create(socket);
+        Frame reply = Frame.ok("SUCCESS: Transfer completed.");
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < PIPELINE_THREADS; t++) {
+            int first = t;
+            workers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                    for (int id = first; id < PIPELINED_REPLIES; id += PIPELINE_THREADS) {
+                        out.writeFrame(reply.withCorrelationId(id));
+                        out.flush();
+                    }
+                } catch (InterruptedException | IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return socket.writes;
+    }
+
+    // --- loopback timing ---
+
+    private static long timeLoopback(NewBank bank, WriterFactory factory, int iterations) throws Exception {
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+             Socket server = listener.accept()) {
+            client.setTcpNoDelay(true);
+            server.setTcpNoDelay(true);
+            Thread drain = Thread.ofPlatform().daemon().start(() -> drain(client));
+
+            ResponseWriter out = factory.create(server.getOutputStream());
+            ClientSession session = new ClientSession(bank);
+            session.start(out::writeLine);
+            session.handleLine("Test", out::writeLine);
+            session.handleLine("Test", out::writeLine);
+            out.flush();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                session.handleLine("HELP", out::writeLine);
+                out.flush();
+                session.handleLine("SHOWMYACCOUNTS", out::writeLine);
+                out.flush();
+                session.handleLine("CREATEACCOUNT Main", out::writeLine);
+                out.flush();
+            }
+            long elapsed = System.nanoTime() - start;
+            server.shutdownOutput();
+            drain.join();
+            return elapsed;
+        }
+    }
+
+    private static void drain(Socket client) {
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            InputStream in = client.getInputStream();
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        } catch (IOException e) {
+            // socket closed
+        }
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.format("%.2f", value);
+    }
+}
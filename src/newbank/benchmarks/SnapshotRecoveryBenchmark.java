@@ -0,0 +1,148 @@
+package newbank.benchmarks;
+
+import newbank.server.model.Account;
+import newbank.server.persistence.CommandClass;
+import newbank.server.persistence.Durability;
+import newbank.server.persistence.SnapshotStore;
+import newbank.server.persistence.WriteAheadLog;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+import newbank.server.service.LoanService;
+import newbank.server.service.NotificationService;
+import newbank.server.service.TransactionJournal;
+import newbank.server.service.security.PasswordHash;
+import newbank.server.service.security.PasswordHashPolicy;
+import newbank.server.service.security.PasswordRehasher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Builds a bank of N customers with two accounts each in a temporary data
+ * directory, then reports how long start-up recovery takes by replaying the whole
+ * write-ahead log, and by loading a {@link SnapshotStore snapshot} on one thread and
+ * on every core.
+ *
+ * Run with {@code java -cp out newbank.benchmarks.SnapshotRecoveryBenchmark [customers] [directory]}.
+ */
+public class SnapshotRecoveryBenchmark {
+
+    /** The services of one bank, as {@code NewBank} wires them. */
+    private static final class Bank {
+        final WriteAheadLog log;
+        final CustomerService customers;
+        final AccountService accounts;
+        final NotificationService notifications;
+        final LoanService loans;
+
+        Bank(WriteAheadLog log) {
+            this.log = log;
+            this.customers = new CustomerService(PasswordRehasher.direct(), log);
+            this.accounts = new AccountService(customers, new TransactionJournal(), log);
+            this.notifications = new NotificationService(log);
+            this.loans = new LoanService(customers, accounts, notifications, log);
+        }
+
+        SnapshotStore snapshots(Path dir) {
+            return new SnapshotStore(dir, customers, accounts, loans, notifications, log);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path parent = args.length > 1 ? Path.of(args[1]) : Path.of(System.getProperty("java.io.tmpdir"));
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Path dir = Files.createTempDirectory(parent, "newbank-snapshot-bench");
+        try {
+            Path logFile = dir.resolve(WriteAheadLog.FILE_NAME);
+            long start = System.nanoTime();
+            populate(dir, customers);
+            System.out.printf("built %,d customers, %,d accounts in %d ms; log %,d bytes%n", customers,
+                    customers * 2L, millisSince(start), Files.size(logFile));
+
+            Path snapshot = SnapshotStore.list(dir).get(0);
+            System.out.printf("snapshot %,d bytes%n", Files.size(snapshot));
+
+            System.out.printf("%-26s %10s%n", "recovery", "ms");
+            for (int round = 0; round < 2; round++) {
+                boolean report = round == 1;  // the first round is warm-up
+                long replay = time(() -> WriteAheadLog.replay(logFile, (type, in, lsn) -> { }));
+                long fullLog = time(() -> replayAll(logFile));
+                long oneThread = time(() -> new Bank(new WriteAheadLog()).snapshots(dir).load(snapshot, 1));
+                long allCores = time(() -> new Bank(new WriteAheadLog()).snapshots(dir).load(snapshot, cores));
+                if (report) {
+                    System.out.printf("%-26s %10d%n", "log read only", replay);
+                    System.out.printf("%-26s %10d%n", "full log replay", fullLog);
+                    System.out.printf("%-26s %10d%n", "snapshot, 1 thread", oneThread);
+                    System.out.printf("%-26s %10d%n", "snapshot, " + cores + " threads", allCores);
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    /** Logs every customer and account, then writes one snapshot. */
+    private static void populate(Path dir, int customers) throws IOException {
+        Map<CommandClass, Durability> modes = new HashMap<>();
+        for (CommandClass commandClass : CommandClass.values()) {
+            modes.put(commandClass, Durability.ASYNC);
+        }
+        WriteAheadLog log = new WriteAheadLog();
+        log.open(dir.resolve(WriteAheadLog.FILE_NAME), 0, modes);
+        Bank bank = new Bank(log);
+        // one hash for everybody: hashing a million passwords is not what is measured
+        PasswordHash hash = PasswordHash.create("secret", PasswordHashPolicy.pbkdf2(1_000, 32));
+        Map<String, List<Account>> batch = new HashMap<>();
+        for (int c = 0; c < customers; c++) {
+            String name = "Customer" + c;
+            bank.customers.registerCustomer(name, hash);
+            batch.put(name, List.of(new Account("Main", 100_000 + c), new Account("Savings", c)));
+            if (batch.size() == 10_000 || c == customers - 1) {
+                bank.accounts.addAccounts(batch);
+                batch = new HashMap<>();
+            }
+        }
+        bank.snapshots(dir).write();
+        log.close();
+    }
+
+    private static void replayAll(Path logFile) throws IOException {
+        Bank bank = new Bank(new WriteAheadLog());
+        WriteAheadLog.replay(logFile, (type, in, lsn) -> {
+            switch (type.getCommandClass()) {
+                case CUSTOMERS -> bank.customers.replay(type, in);
+                case LOANS -> bank.loans.replay(type, in, lsn);
+                case NOTIFICATIONS -> bank.notifications.replay(type, in, lsn);
+                default -> bank.accounts.replay(type, in, lsn);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private static long time(Task task) throws IOException {
+        System.gc();
+        long start = System.nanoTime();
+        task.run();
+        return millisSince(start);
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,117 @@
+package newbank.benchmarks;
+
+import newbank.server.ServerMetrics;
+import newbank.server.model.Account;
+import newbank.server.model.CustomerID;
+import newbank.server.persistence.CommandClass;
+import newbank.server.persistence.Durability;
+import newbank.server.persistence.WriteAheadLog;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+import newbank.server.service.TransactionJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs transfers through {@link AccountService} from 1 to 64 threads with the
+ * write-ahead log in a temporary directory, and reports transfers per second and
+ * transfers per {@code fsync} for each {@link Durability} of the {@code TRANSFERS}
+ * class. With {@code SYNC}, one thread pays a whole {@code fsync} per transfer; more
+ * threads share each one through group commit.
+ *
+ * Run with {@code java -cp out newbank.benchmarks.WalCommitBenchmark [millisPerRun] [directory]}.
+ */
+public class WalCommitBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1_000;
+        Path parent = args.length > 1 ? Path.of(args[1]) : Path.of(System.getProperty("java.io.tmpdir"));
+
+        System.out.printf("%-8s %-6s %14s %16s%n", "threads", "mode", "transfers/s", "transfers/fsync");
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;  // the first round is warm-up
+            for (Durability durability : Durability.values()) {
+                for (int threads : THREAD_COUNTS) {
+                    Path dir = Files.createTempDirectory(parent, "newbank-wal-bench");
+                    try {
+                        long[] result = run(dir, durability, threads, millis);
+                        if (report) {
+                            System.out.printf("%-8d %-6s %14d %16.1f%n", threads, durability, result[0],
+                                    result[2] == 0 ? 0.0 : (double) result[1] / result[2]);
+                        }
+                    } finally {
+                        Files.deleteIfExists(dir.resolve(WriteAheadLog.FILE_NAME));
+                        Files.deleteIfExists(dir);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns transfers per second, records logged and fsyncs made. */
+    private static long[] run(Path dir, Durability durability, int threads, long millis)
+            throws IOException, InterruptedException {
+        Map<CommandClass, Durability> modes = CommandClass.defaults();
+        modes.put(CommandClass.TRANSFERS, durability);
+        WriteAheadLog log = new WriteAheadLog();
+        log.open(dir.resolve(WriteAheadLog.FILE_NAME), 0, modes);
+
+        CustomerService customers = new CustomerService();
+        AccountService service = new AccountService(customers, new TransactionJournal(), log);
+        for (int t = 0; t < threads; t++) {
+            // one customer per thread, so the log is the only thing they share
+            customers.registerCustomer("Bench" + t, "secret");
+            service.addAccount("Bench" + t, new Account("Main", 1_000_000));
+            service.addAccount("Bench" + t, new Account("Savings", 1_000_000));
+        }
+
+        ServerMetrics metrics = ServerMetrics.getMetrics();
+        long records = metrics.value("wal.records");
+        long commits = metrics.value("wal.commits");
+
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder transfers = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            CustomerID customer = new CustomerID("Bench" + t);
+            workers[t] = new Thread(() -> {
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (!stop.get()) {
+                    service.transfer(customer, "Main", "Savings", 1);
+                    service.transfer(customer, "Savings", "Main", 1);
+                    count += 2;
+                }
+                transfers.add(count);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        log.close();
+
+        return new long[] {
+                transfers.sum() * 1_000_000_000L / elapsed,
+                metrics.value("wal.records") - records,
+                metrics.value("wal.commits") - commits};
+    }
+}
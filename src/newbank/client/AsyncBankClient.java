@@ -0,0 +1,394 @@
+package newbank.client;
+
+import newbank.protocol.Frame;
+import newbank.protocol.Money;
+import newbank.protocol.Opcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking NewBank client for integration code, backed by a pool of logged-in
+ * binary connections.
+ *
+ * Every call returns at once with a {@link CompletableFuture} for the reply frame:
+ * {@code REPLY_OK} when the command succeeded, {@code REPLY_FAIL} with the server's
+ * reason otherwise. Requests are pipelined over {@link ClientConnection}s, so no
+ * thread waits for an in-flight request; each connection has one reader thread and
+ * the pool one maintenance thread. Futures complete on a reader thread, so callbacks
+ * must not block (use the {@code ...Async} variants for slow work).
+ *
+ * <ul>
+ *   <li>Requests go round-robin to connections that have fewer than
+ *       {@code maxPendingPerConnection} requests in flight. When every connection is
+ *       full or down, the future fails straight away with
+ *       {@link RejectedExecutionException} instead of queueing without bound.</li>
+ *   <li>A connection that drops, fails a request with an I/O error or does not answer
+ *       a periodic {@link Opcode#PING} is replaced in the background: the pool opens a
+ *       new connection and resumes with the session token from the last login
+ *       ({@link Opcode#RESUME}), falling back to a full login when the token is no
+ *       longer accepted, and backs off exponentially while the server is unreachable.</li>
+ *   <li>Requests that were in flight on a dropped connection fail with the
+ *       {@link IOException}; they are not resent, because a transfer may already have
+ *       been applied. A {@link #pay payment} with a reference can safely be submitted
+ *       again, since the server pays each reference once.</li>
+ * </ul>
+ */
+public class AsyncBankClient implements Closeable {
+
+    private static final class Slot {
+        volatile ClientConnection connection;  // null while reconnecting
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicBoolean reconnecting = new AtomicBoolean();
+        volatile int failedAttempts;
+    }
+
+    private final String host;
+    private final int port;
+    private final String userName;
+    private final String password;
+    private final ClientPoolConfig config;
+
+    private final Slot[] slots;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong resumes = new AtomicLong();
+    private volatile String sessionToken;  // shared by every connection of the pool
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed;
+
+    private AsyncBankClient(String host, int port, String userName, String password, ClientPoolConfig config) {
+        this.host = host;
+        this.port = port;
+        this.userName = userName;
+        this.password = password;
+        this.config = config;
+        this.slots = new Slot[config.getPoolSize()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "newbank-client-pool");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Opens and logs in every connection of the pool.
+     *
+     * @throws IOException if a connection cannot be opened or the server rejects the
+     *         login; the message is the server's reason
+     */
+    public static AsyncBankClient connect(String host, int port, String userName, String password,
+                                          ClientPoolConfig config) throws IOException {
+        AsyncBankClient client = new AsyncBankClient(host, port, userName, password, config);
+        try {
+            for (Slot slot : client.slots) {
+                slot.connection = client.open(slot);
+            }
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
+        client.startHealthChecks();
+        return client;
+    }
+
+    // --- commands ---
+
+    public CompletableFuture<Frame> showAccounts() {
+        return submit(new Frame(Opcode.SHOW_ACCOUNTS));
+    }
+
+    public CompletableFuture<Frame> createAccount(String accountName) {
+        return submit(new Frame(Opcode.CREATE_ACCOUNT, accountName));
+    }
+
+    public CompletableFuture<Frame> closeAccount(String accountName) {
+        return submit(new Frame(Opcode.CLOSE_ACCOUNT, accountName));
+    }
+
+    /** {@code amount} is in {@link Money} minor units, e.g. 1050 for 10.50 at the default scale. */
+    public CompletableFuture<Frame> transfer(String fromAccount, String toAccount, long amount) {
+        return submit(new Frame(Opcode.TRANSFER, fromAccount, toAccount, amount));
+    }
+
+    /**
+     * Pays {@code amount} (minor units) from the first account of this pool's user to
+     * the payee's first account. Resubmitting with the same {@code reference} after a
+     * failure never pays twice; an empty reference opts out of that.
+     */
+    public CompletableFuture<Frame> pay(String payee, long amount, String reference) {
+        return submit(new Frame(Opcode.PAY, payee, amount, reference));
+    }
+
+    /** The newest page of the account's transactions. */
+    public CompletableFuture<Frame> viewTransactions(String accountName) {
+        return viewTransactions(accountName, 1);
+    }
+
+    /** {@code page} counts from 1, newest entries first. */
+    public CompletableFuture<Frame> viewTransactions(String accountName, int page) {
+        return submit(new Frame(Opcode.VIEW_TRANSACTIONS, accountName, page));
+    }
+
+    /** {@code amount} is in {@link Money} minor units. */
+    public CompletableFuture<Frame> offerLoan(String fromAccount, long amount, double interestRate,
+                                              int termMonths) {
+        return submit(new Frame(Opcode.OFFER_LOAN, fromAccount, amount, interestRate, termMonths));
+    }
+
+    public CompletableFuture<Frame> requestLoan(int loanId) {
+        return submit(new Frame(Opcode.REQUEST_LOAN, loanId));
+    }
+
+    public CompletableFuture<Frame> showAvailableLoans() {
+        return submit(new Frame(Opcode.SHOW_AVAILABLE_LOANS));
+    }
+
+    public CompletableFuture<Frame> myLoans() {
+        return submit(new Frame(Opcode.MY_LOANS));
+    }
+
+    public CompletableFuture<Frame> showNotifications() {
+        return submit(new Frame(Opcode.SHOW_NOTIFICATIONS));
+    }
+
+    public CompletableFuture<Frame> ping() {
+        return submit(new Frame(Opcode.PING));
+    }
+
+    /**
+     * Sends any request frame on one of the pooled connections. {@code LOGIN} and
+     * {@code LOGOUT} are managed by the pool and must not be sent this way.
+     */
+    public CompletableFuture<Frame> submit(Frame request) {
+        if (request.getOpcode() == Opcode.LOGIN || request.getOpcode() == Opcode.LOGOUT) {
+            throw new IllegalArgumentException("The pool logs its connections in and out itself");
+        }
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Client is closed"));
+        }
+
+        int start = Math.floorMod(nextSlot.getAndIncrement(), slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = slots[(start + i) % slots.length];
+            ClientConnection connection = slot.connection;
+            if (connection == null) {
+                continue;
+            }
+            if (!connection.isOpen()) {
+                scheduleReconnect(slot, connection);
+                continue;
+            }
+            if (tryReserve(slot)) {
+                return send(slot, connection, request);
+            }
+        }
+        return CompletableFuture.failedFuture(new RejectedExecutionException(
+                "No connection can take another request (" + slots.length + " connections, "
+                        + config.getMaxPendingPerConnection() + " pending each)"));
+    }
+
+    private boolean tryReserve(Slot slot) {
+        int max = config.getMaxPendingPerConnection();
+        while (true) {
+            int pending = slot.pending.get();
+            if (pending >= max) {
+                return false;
+            }
+            if (slot.pending.compareAndSet(pending, pending + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private CompletableFuture<Frame> send(Slot slot, ClientConnection connection, Frame request) {
+        CompletableFuture<Frame> reply = connection.submit(request);
+        if (config.getRequestTimeoutMillis() > 0) {
+            reply.orTimeout(config.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        reply.whenComplete((frame, error) -> {
+            slot.pending.decrementAndGet();
+            if (isConnectionFailure(error)) {
+                scheduleReconnect(slot, connection);
+            }
+        });
+        return reply;
+    }
+
+    private static boolean isConnectionFailure(Throwable error) {
+        if (error instanceof CompletionException) {
+            error = error.getCause();
+        }
+        return error instanceof IOException;
+    }
+
+    // --- connection upkeep ---
+
+    private ClientConnection open(Slot slot) throws IOException {
+        ClientConnection connection = ClientConnection.openBinary(host, port);
+        try {
+            logIn(connection);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        connection.closed().thenRun(() -> scheduleReconnect(slot, connection));
+        return connection;
+    }
+
+    /** Resumes with the pool's session token if it has one, otherwise logs in with the password. */
+    private void logIn(ClientConnection connection) throws IOException {
+        String token = sessionToken;
+        if (token != null) {
+            if (connection.resume(token).isOk()) {
+                resumes.incrementAndGet();
+                return;
+            }
+            sessionToken = null;  // expired or revoked
+        }
+        Frame reply = connection.login(userName, password);
+        if (!reply.isOk()) {
+            throw new IOException(reply.getText());
+        }
+        sessionToken = connection.getSessionToken();
+    }
+
+    private void startHealthChecks() {
+        long interval = config.getHealthCheckIntervalMillis();
+        if (interval > 0) {
+            maintenance.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void checkHealth() {
+        for (Slot slot : slots) {
+            ClientConnection connection = slot.connection;
+            if (connection == null) {
+                continue;  // already reconnecting
+            }
+            if (!connection.isOpen()) {
+                scheduleReconnect(slot, connection);
+                continue;
+            }
+            // bypasses the pending limit: a busy connection must still prove it is alive
+            connection.submit(new Frame(Opcode.PING))
+                    .orTimeout(config.getHealthCheckTimeoutMillis(), TimeUnit.MILLISECONDS)
+                    .whenComplete((reply, error) -> {
+                        if (error != null || !reply.isOk()) {
+                            scheduleReconnect(slot, connection);
+                        }
+                    });
+        }
+    }
+
+    /** Takes {@code broken} out of service and replaces it in the background, unless that already happened. */
+    private void scheduleReconnect(Slot slot, ClientConnection broken) {
+        if (closed || slot.connection != broken || !slot.reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        slot.connection = null;
+        closeQuietly(broken);
+        scheduleAttempt(slot);
+    }
+
+    private void scheduleAttempt(Slot slot) {
+        int shift = Math.min(slot.failedAttempts, 20);
+        long delay = Math.min(config.getReconnectDelayMillis() << shift, config.getMaxReconnectDelayMillis());
+        try {
+            maintenance.schedule(() -> reconnect(slot), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed meanwhile
+        }
+    }
+
+    private void reconnect(Slot slot) {
+        if (closed) {
+            return;
+        }
+        ClientConnection connection;
+        try {
+            connection = open(slot);
+        } catch (IOException e) {
+            slot.failedAttempts++;
+            System.err.println("NewBank client: reconnect failed (" + e.getMessage() + "), retrying");
+            scheduleAttempt(slot);
+            return;
+        }
+        slot.failedAttempts = 0;
+        slot.connection = connection;
+        slot.reconnecting.set(false);
+        reconnects.incrementAndGet();
+        if (closed) {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(ClientConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // already broken
+        }
+    }
+
+    // --- monitoring ---
+
+    /** Connections currently logged in and accepting requests. */
+    public int openConnections() {
+        int open = 0;
+        for (Slot slot : slots) {
+            ClientConnection connection = slot.connection;
+            if (connection != null && connection.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /** Requests sent and not yet answered, across all connections. */
+    public int pendingRequests() {
+        int pending = 0;
+        for (Slot slot : slots) {
+            pending += slot.pending.get();
+        }
+        return pending;
+    }
+
+    /** How many times a dropped connection has been replaced. */
+    public long reconnectCount() {
+        return reconnects.get();
+    }
+
+    /** Connections logged in with a session token instead of the password. */
+    public long resumeCount() {
+        return resumes.get();
+    }
+
+    /**
+     * Closes every connection without logging out; requests still in flight fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        for (Slot slot : slots) {
+            ClientConnection connection = slot.connection;
+            slot.connection = null;
+            if (connection != null) {
+                closeQuietly(connection);
+            }
+        }
+    }
+}
@@ -1,25 +1,259 @@
 package newbank.client;
 
+import newbank.protocol.BinaryProtocol;
+import newbank.protocol.Frame;
+import newbank.protocol.FrameCodec;
+import newbank.protocol.LineReader;
+import newbank.protocol.Opcode;
+import newbank.protocol.ProtocolException;
+import newbank.protocol.WriteBuffer;
+
 import java.io.*;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Socket connection to a NewBank server.
+ *
+ * By default it speaks the line protocol through {@link #send} and {@link #receive}.
+ * {@link #openBinary} instead negotiates binary framing, after which requests go
+ * through {@link #submit(Frame)} or the blocking {@link #call(Frame)}.
+ *
+ * In binary mode every request is tagged with a fresh correlation id and a reader
+ * thread completes the matching future when its reply arrives, so many requests can
+ * be in flight on one connection and replies may come back in any order.
+ */
+public class ClientConnection implements NetworkClient, Closeable {
 
-public class ClientConnection implements NetworkClient{
+    private final Socket socket;
+    private final InputStream serverIn;
+    private final OutputStream serverOut;
+    private final LineReader lineReader;
+    private volatile boolean binary;
 
-    private final BufferedReader serverIn;
-    private final PrintWriter serverOut;
+    // --- binary mode ---
+    private final AtomicInteger nextCorrelationId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<Frame>> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final WriteBuffer requestBuffer = new WriteBuffer();  // guarded by writeLock
+    private volatile IOException failure;
+    private volatile String sessionToken;
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
 
     public ClientConnection(String host, int port) throws IOException {
-        var socket = new java.net.Socket(host, port);
-        this.serverIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.serverOut = new PrintWriter(socket.getOutputStream(), true);
+        this.socket = new Socket(host, port);
+        this.serverIn = new BufferedInputStream(socket.getInputStream());
+        // unbuffered: every request is encoded whole and written with one call
+        this.serverOut = socket.getOutputStream();
+        this.lineReader = new LineReader(serverIn);
+    }
+
+    /**
+     * Connects and switches the connection to binary frames. The next step is
+     * {@link #login(String, String)}.
+     *
+     * @throws ProtocolException if the server does not accept the upgrade
+     */
+    public static ClientConnection openBinary(String host, int port) throws IOException {
+        ClientConnection connection = new ClientConnection(host, port);
+        try {
+            connection.upgradeToBinary();
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private void upgradeToBinary() throws IOException {
+        String prompt = receive();
+        if (prompt == null || prompt.startsWith("FAIL:")) {
+            // turned away by admission control, or already closed
+            throw new ProtocolException(prompt == null ? "Connection closed by server" : prompt);
+        }
+        send(BinaryProtocol.UPGRADE_REQUEST);
+        String reply = receive();
+        if (!BinaryProtocol.UPGRADE_ACCEPTED.equals(reply)) {
+            throw new ProtocolException("Server refused binary mode: " + reply);
+        }
+        binary = true;
+
+        Thread reader = new Thread(this::readReplies, "newbank-client-reader");
+        reader.setDaemon(true);
+        reader.start();
     }
 
     @Override
-    public void send(String message) {
-        serverOut.println(message);
+    public void send(String message) throws IOException {
+        if (binary) {
+            throw new IllegalStateException("Connection is in binary mode; use call(Frame)");
+        }
+        writeLock.lock();
+        try {
+            requestBuffer.appendLine(message);
+            requestBuffer.writeTo(serverOut);
+        } finally {
+            requestBuffer.clear();
+            writeLock.unlock();
+        }
     }
 
     @Override
     public String receive() throws IOException {
-        return serverIn.readLine();
+        if (binary) {
+            throw new IllegalStateException("Connection is in binary mode; use call(Frame)");
+        }
+        return lineReader.readLine();
+    }
+
+    @Override
+    public CompletableFuture<Frame> submit(Frame request) {
+        if (!binary) {
+            throw new IllegalStateException("Connection is not in binary mode");
+        }
+        int id = nextId();
+        CompletableFuture<Frame> reply = new CompletableFuture<>();
+        pending.put(id, reply);
+
+        writeLock.lock();
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            requestBuffer.appendFrame(request.withCorrelationId(id));
+            requestBuffer.writeTo(serverOut);
+        } catch (IOException e) {
+            pending.remove(id);
+            reply.completeExceptionally(e);
+        } finally {
+            requestBuffer.clear();
+            writeLock.unlock();
+        }
+        return reply;
+    }
+
+    /**
+     * Sends one request frame and waits for its reply.
+     *
+     * @throws EOFException if the server closed the connection
+     */
+    public Frame call(Frame request) throws IOException {
+        try {
+            return submit(request).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for reply");
+        }
+    }
+
+    private int nextId() {
+        int id;
+        do {
+            id = nextCorrelationId.incrementAndGet();
+        } while (id == 0);  // 0 means untagged
+        return id;
+    }
+
+    private void readReplies() {
+        DataInputStream frames = new DataInputStream(serverIn);
+        IOException cause;
+        try {
+            Frame reply;
+            while ((reply = FrameCodec.read(frames)) != null) {
+                CompletableFuture<Frame> future = pending.remove(reply.getCorrelationId());
+                if (future != null) {
+                    future.complete(reply);
+                }
+            }
+            cause = new EOFException("Connection closed by server");
+        } catch (IOException e) {
+            cause = e;
+        }
+
+        writeLock.lock();
+        try {
+            failure = cause;
+        } finally {
+            writeLock.unlock();
+        }
+        // nothing registered after this point can be written, so this drains everything
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<Frame> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+        closed.complete(null);
+    }
+
+    /**
+     * Logs in over a binary connection; the reply is {@code REPLY_OK} on success. The
+     * session token it carries, if any, is then available from {@link #getSessionToken()}.
+     */
+    public Frame login(String userName, String password) throws IOException {
+        Frame reply = call(new Frame(Opcode.LOGIN, userName, password));
+        if (reply.isOk()) {
+            sessionToken = tokenIn(reply.getText());
+        }
+        return reply;
+    }
+
+    /**
+     * Logs in with a token from an earlier {@link #login}, skipping the password check;
+     * {@code REPLY_FAIL} means the token has expired or been revoked.
+     */
+    public Frame resume(String token) throws IOException {
+        Frame reply = call(new Frame(Opcode.RESUME, token));
+        if (reply.isOk()) {
+            sessionToken = token;
+        }
+        return reply;
+    }
+
+    /** The session token of the current login, or {@code null} if the server issued none. */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    private static String tokenIn(String loginReply) {
+        for (String line : loginReply.split("\n")) {
+            if (line.startsWith(BinaryProtocol.SESSION_TOKEN_PREFIX)) {
+                return line.substring(BinaryProtocol.SESSION_TOKEN_PREFIX.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /** Whether a binary connection can still carry requests. */
+    public boolean isOpen() {
+        return failure == null && !socket.isClosed();
+    }
+
+    /**
+     * Completes once a binary connection has stopped reading replies, whether the
+     * server hung up or {@link #close()} was called. Every pending request has been
+     * failed by then.
+     */
+    public CompletableFuture<Void> closed() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
     }
 }
@@ -0,0 +1,113 @@
+package newbank.client;
+
+/**
+ * Settings for an {@link AsyncBankClient}. Start from {@link #defaults()} and adjust
+ * with the fluent setters, e.g.
+ * {@code ClientPoolConfig.defaults().withPoolSize(8).withMaxPendingPerConnection(512)}.
+ */
+public class ClientPoolConfig {
+
+    private int poolSize;
+    private int maxPendingPerConnection;
+    private long requestTimeoutMillis;
+    private long healthCheckIntervalMillis;
+    private long healthCheckTimeoutMillis;
+    private long reconnectDelayMillis;
+    private long maxReconnectDelayMillis;
+
+    private ClientPoolConfig() {
+        this.poolSize = 4;
+        this.maxPendingPerConnection = 256;
+        this.requestTimeoutMillis = 30_000;
+        this.healthCheckIntervalMillis = 30_000;
+        this.healthCheckTimeoutMillis = 5_000;
+        this.reconnectDelayMillis = 200;
+        this.maxReconnectDelayMillis = 30_000;
+    }
+
+    public static ClientPoolConfig defaults() {
+        return new ClientPoolConfig();
+    }
+
+    /** Number of logged-in connections kept open. */
+    public ClientPoolConfig withPoolSize(int poolSize) {
+        this.poolSize = atLeast("poolSize", poolSize, 1);
+        return this;
+    }
+
+    /** Requests allowed in flight on one connection; beyond this calls are rejected at once. */
+    public ClientPoolConfig withMaxPendingPerConnection(int maxPendingPerConnection) {
+        this.maxPendingPerConnection = atLeast("maxPendingPerConnection", maxPendingPerConnection, 1);
+        return this;
+    }
+
+    /** How long a request may wait for its reply before its future fails; {@code 0} waits forever. */
+    public ClientPoolConfig withRequestTimeoutMillis(long requestTimeoutMillis) {
+        this.requestTimeoutMillis = atLeast("requestTimeoutMillis", requestTimeoutMillis, 0);
+        return this;
+    }
+
+    /** How often every connection is pinged; {@code 0} turns health checks off. */
+    public ClientPoolConfig withHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+        this.healthCheckIntervalMillis = atLeast("healthCheckIntervalMillis", healthCheckIntervalMillis, 0);
+        return this;
+    }
+
+    public ClientPoolConfig withHealthCheckTimeoutMillis(long healthCheckTimeoutMillis) {
+        this.healthCheckTimeoutMillis = atLeast("healthCheckTimeoutMillis", healthCheckTimeoutMillis, 1);
+        return this;
+    }
+
+    /** First delay before reconnecting a dropped connection; doubles on each failed attempt. */
+    public ClientPoolConfig withReconnectDelayMillis(long reconnectDelayMillis) {
+        this.reconnectDelayMillis = atLeast("reconnectDelayMillis", reconnectDelayMillis, 1);
+        return this;
+    }
+
+    public ClientPoolConfig withMaxReconnectDelayMillis(long maxReconnectDelayMillis) {
+        this.maxReconnectDelayMillis = atLeast("maxReconnectDelayMillis", maxReconnectDelayMillis, 1);
+        return this;
+    }
+
+    private static int atLeast(String name, int value, int minimum) {
+        if (value < minimum) {
+            throw new IllegalArgumentException(name + " must be at least " + minimum + ": " + value);
+        }
+        return value;
+    }
+
+    private static long atLeast(String name, long value, long minimum) {
+        if (value < minimum) {
+            throw new IllegalArgumentException(name + " must be at least " + minimum + ": " + value);
+        }
+        return value;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getMaxPendingPerConnection() {
+        return maxPendingPerConnection;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public long getHealthCheckIntervalMillis() {
+        return healthCheckIntervalMillis;
+    }
+
+    public long getHealthCheckTimeoutMillis() {
+        return healthCheckTimeoutMillis;
+    }
+
+    public long getReconnectDelayMillis() {
+        return reconnectDelayMillis;
+    }
+
+    public long getMaxReconnectDelayMillis() {
+        return maxReconnectDelayMillis;
+    }
+}
@@ -26,7 +26,7 @@ public class CommandParser {
             return ParsedCommand.invalid(
                     "Unknown command '" + name + "'. Type HELP for a list of commands.");
         }
-        if (expected >= 0 && args.size() != expected) {
+        if (args.size() < expected || args.size() > expected + optionalArgumentCount(name)) {
             String usage = usageFor(name);
             String message = "Invalid number of arguments for " + name + "."
                     + (usage.isEmpty() ? "" : " Usage: " + usage);
@@ -46,7 +46,8 @@ public class CommandParser {
             case "CREATEACCOUNT" -> 1;       // CREATEACCOUNT <accountName>
             case "CLOSEACCOUNT" -> 1;        // CLOSEACCOUNT <accountName>
             case "TRANSFER" -> 3;            // TRANSFER <from> <to> <amount>
-            case "VIEWTRANSACTIONS" -> 1;    // VIEWTRANSACTIONS <accountName>
+            case "PAY" -> 2;                 // PAY <payee> <amount> [reference]
+            case "VIEWTRANSACTIONS" -> 1;    // VIEWTRANSACTIONS <accountName> [page]
 
             // Loan commands
             case "OFFERLOAN" -> 4;           // OFFERLOAN <fromAcc> <amount> <rate> <termMonths>
@@ -62,6 +63,15 @@ public class CommandParser {
         };
     }
 
+    /** Trailing arguments a command may leave out. */
+    private int optionalArgumentCount(String name) {
+        return switch (name) {
+            case "VIEWTRANSACTIONS" -> 1;    // [page]
+            case "PAY" -> 1;                 // [reference]
+            default -> 0;
+        };
+    }
+
     private String usageFor(String name) {
         return switch (name) {
             case "HELP" -> "HELP";
@@ -71,7 +81,8 @@ public class CommandParser {
             case "CREATEACCOUNT" -> "CREATEACCOUNT <accountName>";
             case "CLOSEACCOUNT" -> "CLOSEACCOUNT <accountName>";
             case "TRANSFER" -> "TRANSFER <fromAccount> <toAccount> <amount>";
-            case "VIEWTRANSACTIONS" -> "VIEWTRANSACTIONS <accountName>";
+            case "PAY" -> "PAY <payee> <amount> [reference]";
+            case "VIEWTRANSACTIONS" -> "VIEWTRANSACTIONS <accountName> [page]";
             case "OFFERLOAN" -> "OFFERLOAN <fromAccount> <amount> <rate> <termMonths>";
             case "REQUESTLOAN" -> "REQUESTLOAN <loanId>";
             case "SHOWAVAILABLELOANS" -> "SHOWAVAILABLELOANS";
@@ -20,12 +20,24 @@ public class ConsoleUI {
         // ===== LOGIN LOOP =====
         while (true) {
             // NewBankClientHandler handles login prompts and messages.
-            System.out.println(connection.receive()); // "Enter Username ..."
+            String prompt = connection.receive(); // "Enter Username ..."
+            if (prompt == null || prompt.startsWith("FAIL:") || prompt.startsWith("Session terminated")) {
+                // server at capacity, login timed out, or gone - it closes the connection after this line
+                System.out.println(prompt == null ? "Connection closed by server." : prompt);
+                return;
+            }
+            System.out.println(prompt);
             System.out.print("> ");
             String username = consoleReader.readLine();
             connection.send(username);
 
-            System.out.println(connection.receive()); // "Enter Password ..."
+            String passwordPrompt = connection.receive(); // "Enter Password ..."
+            if (passwordPrompt == null || passwordPrompt.startsWith("Session terminated")) {
+                // login took too long and the server hung up
+                System.out.println(passwordPrompt == null ? "Connection closed by server." : passwordPrompt);
+                return;
+            }
+            System.out.println(passwordPrompt);
             System.out.print("> ");
             String password = consoleReader.readLine();
             connection.send(password);
@@ -117,6 +129,14 @@ public class ConsoleUI {
                 continue;
             }
 
+            if ("VIEWTRANSACTIONS".equals(cmd.getName())) {
+                boolean ok = readMultilineResponseUntilEndMarker("END_OF_TRANSACTIONS");
+                if (!ok) {
+                    break;
+                }
+                continue;
+            }
+
             // Special handling for user's own loans (multi-line)
             if ("MYLOANS".equals(cmd.getName())) {
                 boolean ok = readMultilineResponseUntilEndMarker("END_OF_MYLOANS");
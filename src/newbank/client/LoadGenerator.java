@@ -0,0 +1,443 @@
+package newbank.client;
+
+import newbank.protocol.Frame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load-testing entry point: opens N logged-in sessions against a running server and
+ * replays a weighted command mix at a fixed target rate, then prints throughput and
+ * latency percentiles per command type.
+ *
+ * <pre>
+ * java -cp out newbank.client.LoadGenerator --sessions=32 --rate=2000 --durationSeconds=60 \
+ *     "--mix=50:BALANCE,20:TRANSFER Main Savings 0.01,20:TRANSFER Savings Main 0.01,10:SHOWAVAILABLELOANS"
+ * </pre>
+ *
+ * The load is open-loop: request {@code i} is due at {@code start + i / rate}
+ * whether or not earlier requests have been answered, and is sent on a binary
+ * connection without waiting (see {@link ClientConnection#submit}). Latency is
+ * measured from when the request was <em>due</em>, not from when it was actually
+ * sent, so a server stall shows up in the percentiles of every request that
+ * should have been sent during it instead of hiding in one slow sample
+ * (coordinated omission). The report also shows service time, measured from the
+ * actual send, to make the difference visible. Requests still unanswered
+ * {@code --drainSeconds} after the last one was sent are counted as timed out, with
+ * their latency so far; requests not sent because {@code --maxOutstanding} were
+ * already waiting are counted as skipped. Both get their own column, apart from
+ * connection errors.
+ *
+ * Mix entries are {@code weight:command line}; each line is checked with
+ * {@link CommandParser} before the run starts.
+ */
+public class LoadGenerator {
+
+    private static final String DEFAULT_MIX = "40:BALANCE,"
+            + "15:TRANSFER Main Savings 0.01,15:TRANSFER Savings Main 0.01,"
+            + "15:SHOWAVAILABLELOANS,5:OFFERLOAN Bonds 0.01 5 12,5:REQUESTLOAN 1,5:SHOWNOTIFICATIONS";
+
+    /** One entry of the command mix. */
+    private static final class MixEntry {
+        final String type;
+        final Frame request;
+        final int cumulativeWeight;
+
+        MixEntry(String type, Frame request, int cumulativeWeight) {
+            this.type = type;
+            this.request = request;
+            this.cumulativeWeight = cumulativeWeight;
+        }
+    }
+
+    /** One sent request until its result is recorded, by its reply or by the drain deadline. */
+    private static final class InFlight {
+        final long due;
+        final long sent;
+        final CommandStats stats;  // null during warm-up
+        final AtomicBoolean settled = new AtomicBoolean();
+
+        InFlight(long due, long sent, CommandStats stats) {
+            this.due = due;
+            this.sent = sent;
+            this.stats = stats;
+        }
+
+        /** Whether the caller is the one to record this request's result. */
+        boolean settle() {
+            return settled.compareAndSet(false, true);
+        }
+    }
+
+    /** Results for one command type. */
+    public static final class CommandStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final LongAdder failed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder timedOut = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        /** Requests answered with {@code REPLY_FAIL}. */
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        /** Requests that got no reply because their connection failed. */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * Requests still unanswered at the drain deadline. Their latency up to the
+         * deadline is included in {@link #getLatency()}.
+         */
+        public long getTimedOut() {
+            return timedOut.sum();
+        }
+
+        /** Requests never sent because {@code maxOutstanding} requests were already waiting. */
+        public long getSkipped() {
+            return skipped.sum();
+        }
+    }
+
+    private String host = "localhost";
+    private int port = 14002;
+    private String userName = "Test";
+    private String password = "Test";
+    private int sessions = 16;
+    private int rate = 1_000;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int maxOutstanding = 100_000;
+    private int drainSeconds = 30;
+    private String mix = DEFAULT_MIX;
+
+    public static LoadGenerator fromArgs(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Unrecognised argument '" + arg
+                        + "'. Expected --key=value, e.g. --rate=500");
+            }
+            String key = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "host": generator.host = value; break;
+                case "port": generator.port = parseInt(key, value, 1); break;
+                case "user": generator.userName = value; break;
+                case "password": generator.password = value; break;
+                case "sessions": generator.sessions = parseInt(key, value, 1); break;
+                case "rate": generator.rate = parseInt(key, value, 1); break;
+                case "durationSeconds": generator.durationSeconds = parseInt(key, value, 1); break;
+                case "warmupSeconds": generator.warmupSeconds = parseInt(key, value, 0); break;
+                case "maxOutstanding": generator.maxOutstanding = parseInt(key, value, 1); break;
+                case "drainSeconds": generator.drainSeconds = parseInt(key, value, 0); break;
+                case "mix": generator.mix = value; break;
+                default:
+                    throw new IllegalArgumentException("Unknown option --" + key);
+            }
+        }
+        return generator;
+    }
+
+    private static int parseInt(String key, String value, int minimum) {
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed < minimum) {
+                throw new IllegalArgumentException("--" + key + " must be at least " + minimum + ": " + value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for --" + key + ": " + value, e);
+        }
+    }
+
+    // --- fluent setters (mainly for tests) ---
+
+    public LoadGenerator withServer(String host, int port) {
+        this.host = host;
+        this.port = port;
+        return this;
+    }
+
+    public LoadGenerator withSessions(int sessions) {
+        this.sessions = sessions;
+        return this;
+    }
+
+    public LoadGenerator withRate(int rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    public LoadGenerator withDuration(int warmupSeconds, int durationSeconds) {
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        return this;
+    }
+
+    /** Caps requests awaiting a reply ({@code maxOutstanding}) and how long to wait for them at the end. */
+    public LoadGenerator withOutstandingLimit(int maxOutstanding, int drainSeconds) {
+        this.maxOutstanding = maxOutstanding;
+        this.drainSeconds = drainSeconds;
+        return this;
+    }
+
+    public LoadGenerator withMix(String mix) {
+        this.mix = mix;
+        return this;
+    }
+
+    /**
+     * Parses a mix such as {@code "40:BALANCE,60:TRANSFER Main Savings 1"}.
+     *
+     * @throws IllegalArgumentException if an entry is malformed or not a valid command
+     */
+    private static List<MixEntry> parseMix(String mix) {
+        CommandParser parser = new CommandParser();
+        List<MixEntry> entries = new ArrayList<>();
+        int total = 0;
+        for (String part : mix.split(",")) {
+            int colon = part.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Mix entry '" + part + "' must be weight:command");
+            }
+            int weight = parseInt("mix weight", part.substring(0, colon), 1);
+            ParsedCommand command = parser.parse(part.substring(colon + 1));
+            if (!command.isValid()) {
+                throw new IllegalArgumentException("Mix entry '" + part + "': " + command.getErrorMessage());
+            }
+            total += weight;
+            entries.add(new MixEntry(command.getName(),
+                    Frame.fromCommand(command.getName(), command.getArguments()), total));
+        }
+        return entries;
+    }
+
+    /**
+     * Runs the load and returns the statistics per command type, in mix order.
+     *
+     * @throws IOException if a session cannot be opened or logged in
+     */
+    public Map<String, CommandStats> run() throws IOException {
+        List<MixEntry> entries = parseMix(mix);
+        Map<String, CommandStats> stats = new LinkedHashMap<>();
+        for (MixEntry entry : entries) {
+            stats.putIfAbsent(entry.type, new CommandStats());
+        }
+        int totalWeight = entries.get(entries.size() - 1).cumulativeWeight;
+
+        List<ClientConnection> connections = openSessions();
+        Set<InFlight> outstanding = ConcurrentHashMap.newKeySet();
+        try {
+            long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+            long total = (long) rate * (warmupSeconds + durationSeconds);
+            long warmupRequests = (long) rate * warmupSeconds;
+            long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+            for (long i = 0; i < total; i++) {
+                long due = start + i * intervalNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                // behind schedule: send at once; the latency still counts from "due"
+
+                MixEntry entry = pick(entries, totalWeight);
+                CommandStats commandStats = i < warmupRequests ? null : stats.get(entry.type);
+                if (outstanding.size() >= maxOutstanding) {
+                    if (commandStats != null) {
+                        commandStats.skipped.increment();
+                    }
+                    continue;
+                }
+                InFlight request = new InFlight(due, System.nanoTime(), commandStats);
+                outstanding.add(request);
+                ClientConnection connection = connections.get((int) (i % connections.size()));
+                connection.submit(entry.request).whenComplete((reply, error) -> {
+                    long now = System.nanoTime();
+                    if (!request.settle()) {
+                        return;  // already counted as timed out
+                    }
+                    if (commandStats != null) {
+                        if (error != null) {
+                            commandStats.errors.increment();
+                        } else {
+                            commandStats.latency.record(now - request.due);
+                            commandStats.serviceTime.record(now - request.sent);
+                            if (!reply.isOk()) {
+                                commandStats.failed.increment();
+                            }
+                        }
+                    }
+                    outstanding.remove(request);
+                });
+            }
+
+            long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+            while (!outstanding.isEmpty() && System.nanoTime() < drainDeadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            // what is still unanswered counts as timed out, with the wait so far as its latency
+            long now = System.nanoTime();
+            for (InFlight request : outstanding) {
+                if (request.settle()) {
+                    if (request.stats != null) {
+                        request.stats.timedOut.increment();
+                        request.stats.latency.record(now - request.due);
+                    }
+                    outstanding.remove(request);
+                }
+            }
+            // replies settled just before the deadline are still being recorded
+            while (!outstanding.isEmpty()) {
+                Thread.onSpinWait();
+            }
+        } finally {
+            for (ClientConnection connection : connections) {
+                connection.close();
+            }
+        }
+        return stats;
+    }
+
+    private static MixEntry pick(List<MixEntry> entries, int totalWeight) {
+        int roll = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (MixEntry entry : entries) {
+            if (roll < entry.cumulativeWeight) {
+                return entry;
+            }
+        }
+        return entries.get(entries.size() - 1);
+    }
+
+    /**
+     * Logs one session in with the password, then opens the rest concurrently and
+     * resumes them with its session token, so a large run costs one password check
+     * and stays under the server's per-user login limit.
+     */
+    private List<ClientConnection> openSessions() throws IOException {
+        List<Future<ClientConnection>> opening = new ArrayList<>();
+        List<ClientConnection> connections = new ArrayList<>();
+        ClientConnection first = openSession(null);
+        connections.add(first);
+        String token = first.getSessionToken();
+        try (ExecutorService openers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 1; i < sessions; i++) {
+                opening.add(openers.submit(() -> openSession(token)));
+            }
+            IOException failure = null;
+            for (Future<ClientConnection> future : opening) {
+                try {
+                    connections.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new IOException("Interrupted while opening sessions");
+                }
+            }
+            if (failure != null) {
+                for (ClientConnection connection : connections) {
+                    connection.close();
+                }
+                throw failure;
+            }
+        }
+        return connections;
+    }
+
+    private ClientConnection openSession(String token) throws IOException {
+        ClientConnection connection = ClientConnection.openBinary(host, port);
+        if (token != null && connection.resume(token).isOk()) {
+            return connection;
+        }
+        Frame reply = connection.login(userName, password);
+        if (!reply.isOk()) {
+            connection.close();
+            throw new IOException(reply.getText());
+        }
+        return connection;
+    }
+
+    /** Formats the per-command table printed at the end of a run. */
+    public String report(Map<String, CommandStats> stats) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d sessions, target %d req/s, %d s measured (after %d s warm-up)%n",
+                sessions, rate, durationSeconds, warmupSeconds));
+        sb.append(String.format("%-20s %9s %9s %6s %6s %7s %6s %9s %9s %9s %9s%n",
+                "command", "count", "req/s", "fail", "error", "timeout", "skip",
+                "p50 ms", "p99 ms", "p999 ms", "max ms"));
+
+        LatencyHistogram allLatency = new LatencyHistogram();
+        LatencyHistogram allService = new LatencyHistogram();
+        CommandStats all = new CommandStats();
+        for (Map.Entry<String, CommandStats> entry : stats.entrySet()) {
+            CommandStats s = entry.getValue();
+            appendRow(sb, entry.getKey(), s.latency, s);
+            allLatency.add(s.latency);
+            allService.add(s.serviceTime);
+            all.failed.add(s.getFailed());
+            all.errors.add(s.getErrors());
+            all.timedOut.add(s.getTimedOut());
+            all.skipped.add(s.getSkipped());
+        }
+        appendRow(sb, "ALL", allLatency, all);
+        appendRow(sb, "ALL (service time)", allService, all);
+        return sb.toString();
+    }
+
+    private void appendRow(StringBuilder sb, String name, LatencyHistogram h, CommandStats s) {
+        sb.append(String.format("%-20s %9d %9.1f %6d %6d %7d %6d %9.2f %9.2f %9.2f %9.2f%n",
+                name, h.count(), h.count() / (double) durationSeconds, s.getFailed(), s.getErrors(),
+                s.getTimedOut(), s.getSkipped(),
+                millis(h.percentile(0.50)), millis(h.percentile(0.99)),
+                millis(h.percentile(0.999)), millis(h.max())));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    public static void main(String[] args) {
+        try {
+            LoadGenerator generator = fromArgs(args);
+            Map<String, CommandStats> stats = generator.run();
+            System.out.print(generator.report(stats));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.out.println("Load test failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
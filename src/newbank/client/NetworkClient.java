@@ -1,6 +1,9 @@
 package newbank.client;
 
+import newbank.protocol.Frame;
+
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Abstraction for network communication between client UI and server.
@@ -10,4 +13,16 @@ public interface NetworkClient {
 
     void send (String message) throws IOException;
     String receive() throws IOException;
+
+    /**
+     * Sends a binary request without waiting for earlier ones to be answered.
+     * The returned future completes with the reply carrying the same correlation id,
+     * even if the server answers requests out of order.
+     *
+     * Only connections in binary mode support this; the default fails the future.
+     */
+    default CompletableFuture<Frame> submit(Frame request) {
+        return CompletableFuture.failedFuture(
+                new UnsupportedOperationException("Pipelined requests need a binary connection"));
+    }
 }
@@ -0,0 +1,27 @@
+package newbank.protocol;
+
+/**
+ * Constants for negotiating binary mode on a NewBank connection.
+ *
+ * Every connection starts in the line protocol. A client that wants binary framing
+ * sends {@link #UPGRADE_REQUEST} as its very first line (instead of a username);
+ * the server answers with the line {@link #UPGRADE_ACCEPTED} and from then on both
+ * sides exchange only {@link Frame}s, starting with an {@link Opcode#LOGIN} request.
+ */
+public final class BinaryProtocol {
+
+    public static final int VERSION = 1;
+
+    public static final String UPGRADE_REQUEST = "#NEWBANK-BINARY/" + VERSION;
+
+    public static final String UPGRADE_ACCEPTED = "+BINARY/" + VERSION;
+
+    /**
+     * Starts the line of a successful {@code LOGIN} reply that carries the session
+     * token for a later {@link Opcode#RESUME}.
+     */
+    public static final String SESSION_TOKEN_PREFIX = "SESSION_TOKEN ";
+
+    private BinaryProtocol() {
+    }
+}
@@ -0,0 +1,64 @@
+package newbank.protocol;
+
+/**
+ * Wire types of the fields carried in a binary {@link Frame}.
+ *
+ * Each field is written as a one-byte tag followed by its value:
+ * <ul>
+ *     <li>{@code STRING}  - int32 byte length, then UTF-8 bytes</li>
+ *     <li>{@code INT32}   - 4 bytes, big-endian</li>
+ *     <li>{@code INT64}   - 8 bytes, big-endian</li>
+ *     <li>{@code FLOAT64} - 8 bytes, IEEE 754</li>
+ *     <li>{@code MONEY}   - 8 bytes, big-endian count of {@link Money minor units};
+ *         written as a decimal such as {@code 12.50} in text commands</li>
+ * </ul>
+ */
+public enum FieldType {
+    STRING(1, String.class),
+    INT32(2, Integer.class),
+    INT64(3, Long.class),
+    FLOAT64(4, Double.class),
+    MONEY(5, Long.class);
+
+    private final byte tag;
+    private final Class<?> javaType;
+
+    FieldType(int tag, Class<?> javaType) {
+        this.tag = (byte) tag;
+        this.javaType = javaType;
+    }
+
+    public byte getTag() {
+        return tag;
+    }
+
+    public Class<?> getJavaType() {
+        return javaType;
+    }
+
+    public static FieldType fromTag(byte tag) throws ProtocolException {
+        for (FieldType type : values()) {
+            if (type.tag == tag) {
+                return type;
+            }
+        }
+        throw new ProtocolException("Unknown field type tag " + tag);
+    }
+
+    /** Parses a text argument into the Java value used for this type. */
+    Object parse(String text) {
+        switch (this) {
+            case INT32:
+                return Integer.parseInt(text);
+            case INT64:
+                return Long.parseLong(text);
+            case FLOAT64:
+                return Double.parseDouble(text);
+            case MONEY:
+                return Money.parse(text);
+            case STRING:
+            default:
+                return text;
+        }
+    }
+}
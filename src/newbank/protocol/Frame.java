@@ -0,0 +1,138 @@
+package newbank.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One binary protocol message: an {@link Opcode} plus the typed fields its schema declares.
+ *
+ * Field values are {@code String}, {@code Integer}, {@code Long} (also for
+ * {@code MONEY}) or {@code Double}, matching {@link FieldType}. The constructor checks
+ * them against the opcode's schema, so a frame that exists is always well-formed.
+ *
+ * Every frame also carries a correlation id chosen by the client. The server copies
+ * a request's id onto its reply, which lets a client pipeline many requests and
+ * match replies that arrive out of order. Id 0 means "untagged".
+ */
+public final class Frame {
+
+    private final int correlationId;
+    private final Opcode opcode;
+    private final Object[] fields;
+
+    public Frame(Opcode opcode, Object... fields) {
+        this(0, opcode, fields);
+    }
+
+    public Frame(int correlationId, Opcode opcode, Object... fields) {
+        List<FieldType> types = opcode.getFieldTypes();
+        if (fields.length != types.size()) {
+            throw new IllegalArgumentException(opcode + " expects " + types.size()
+                    + " field(s) but got " + fields.length);
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (!types.get(i).getJavaType().isInstance(fields[i])) {
+                throw new IllegalArgumentException(opcode + " field " + i + " must be "
+                        + types.get(i) + " but was " + fields[i]);
+            }
+        }
+        this.correlationId = correlationId;
+        this.opcode = opcode;
+        this.fields = fields;
+    }
+
+    /** Returns this frame tagged with {@code correlationId} (fields are shared, not copied). */
+    public Frame withCorrelationId(int correlationId) {
+        if (correlationId == this.correlationId) {
+            return this;
+        }
+        return new Frame(correlationId, opcode, fields);
+    }
+
+    /**
+     * Builds a request frame from a text command and its arguments, converting each
+     * argument to the type the opcode expects. Trailing arguments the text command may
+     * omit, such as the page of {@code VIEWTRANSACTIONS}, get their
+     * {@link Opcode#defaultArgument default}.
+     *
+     * @throws IllegalArgumentException if the command has no binary form, the argument
+     *                                  count is wrong, or a numeric argument does not parse
+     */
+    public static Frame fromCommand(String commandName, List<String> args) {
+        Opcode opcode = Opcode.forCommand(commandName);
+        if (opcode == null || opcode == Opcode.LOGIN || opcode == Opcode.RESUME) {
+            throw new IllegalArgumentException("No binary form for command '" + commandName + "'");
+        }
+        List<FieldType> types = opcode.getFieldTypes();
+        if (args.size() < types.size() && opcode.defaultArgument(args.size()) != null) {
+            args = new ArrayList<>(args);
+            while (args.size() < types.size() && opcode.defaultArgument(args.size()) != null) {
+                args.add(opcode.defaultArgument(args.size()));
+            }
+        }
+        if (args.size() != types.size()) {
+            throw new IllegalArgumentException(opcode.getCommandName() + " expects "
+                    + types.size() + " argument(s)");
+        }
+        Object[] fields = new Object[types.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = types.get(i).parse(args.get(i));
+        }
+        return new Frame(opcode, fields);
+    }
+
+    public static Frame ok(String text) {
+        return new Frame(Opcode.REPLY_OK, text);
+    }
+
+    public static Frame fail(String text) {
+        return new Frame(Opcode.REPLY_FAIL, text);
+    }
+
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public int fieldCount() {
+        return fields.length;
+    }
+
+    public Object getField(int index) {
+        return fields[index];
+    }
+
+    public String getString(int index) {
+        return (String) fields[index];
+    }
+
+    public int getInt(int index) {
+        return (Integer) fields[index];
+    }
+
+    public long getLong(int index) {
+        return (Long) fields[index];
+    }
+
+    public double getDouble(int index) {
+        return (Double) fields[index];
+    }
+
+    /** For reply frames: the reply text. */
+    public String getText() {
+        return getString(0);
+    }
+
+    public boolean isOk() {
+        return opcode == Opcode.REPLY_OK;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + correlationId + " " + opcode + Arrays.toString(fields);
+    }
+}
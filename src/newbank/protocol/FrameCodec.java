@@ -0,0 +1,210 @@
+package newbank.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes and decodes length-prefixed binary frames.
+ *
+ * <pre>
+ * int32  length        number of bytes that follow
+ * int32  correlationId copied from request to reply
+ * byte   opcode        see {@link Opcode}
+ * byte   fieldCount
+ * field* fieldCount x (byte tag, value)   see {@link FieldType}
+ * </pre>
+ *
+ * The stream methods serve blocking sockets; {@link #decode(ByteBuffer)} serves the
+ * NIO engine, where a frame may arrive split across several reads.
+ */
+public final class FrameCodec {
+
+    /** Frames larger than this are treated as a protocol error. */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    private static final int HEADER_LENGTH = 4;
+
+    /** Correlation id, opcode and field count. */
+    private static final int MIN_BODY_LENGTH = 6;
+
+    private FrameCodec() {
+    }
+
+    // --- encoding ---
+
+    public static ByteBuffer encode(Frame frame) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedLength(frame));
+        encode(frame, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Size of {@code frame} on the wire, including the length prefix. */
+    public static int encodedLength(Frame frame) {
+        return HEADER_LENGTH + bodyLength(frame);
+    }
+
+    /**
+     * Encodes {@code frame} at the position of a heap buffer with at least
+     * {@link #encodedLength(Frame)} bytes remaining, advancing its position.
+     */
+    public static void encode(Frame frame, ByteBuffer buffer) {
+        buffer.putInt(bodyLength(frame));
+        buffer.putInt(frame.getCorrelationId());
+        buffer.put(frame.getOpcode().getCode());
+        buffer.put((byte) frame.fieldCount());
+
+        List<FieldType> types = frame.getOpcode().getFieldTypes();
+        for (int i = 0; i < frame.fieldCount(); i++) {
+            FieldType type = types.get(i);
+            buffer.put(type.getTag());
+            Object value = frame.getField(i);
+            switch (type) {
+                case STRING: {
+                    String text = (String) value;
+                    buffer.putInt(Utf8.encodedLength(text));
+                    int end = Utf8.encode(text, buffer.array(), buffer.arrayOffset() + buffer.position());
+                    buffer.position(end - buffer.arrayOffset());
+                    break;
+                }
+                case INT32:
+                    buffer.putInt((Integer) value);
+                    break;
+                case INT64:
+                case MONEY:
+                    buffer.putLong((Long) value);
+                    break;
+                case FLOAT64:
+                    buffer.putDouble((Double) value);
+                    break;
+            }
+        }
+    }
+
+    public static void write(Frame frame, OutputStream out) throws IOException {
+        ByteBuffer buffer = encode(frame);
+        out.write(buffer.array(), 0, buffer.limit());
+    }
+
+    private static int bodyLength(Frame frame) {
+        int length = MIN_BODY_LENGTH;
+        for (int i = 0; i < frame.fieldCount(); i++) {
+            Object value = frame.getField(i);
+            length += 1;  // tag
+            if (value instanceof String) {
+                length += 4 + Utf8.encodedLength((String) value);
+            } else if (value instanceof Integer) {
+                length += 4;
+            } else {
+                length += 8;
+            }
+        }
+        return length;
+    }
+
+    // --- decoding ---
+
+    /**
+     * Reads one frame from a blocking stream.
+     *
+     * @return the frame, or {@code null} if the stream ended cleanly between frames
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decodeBody(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Decodes one frame from {@code buffer} (in read mode) if it is complete.
+     *
+     * @return the frame, with the buffer advanced past it; or {@code null}, with the
+     *         buffer untouched, if more bytes are needed
+     */
+    public static Frame decode(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < HEADER_LENGTH) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        checkLength(length);
+        if (buffer.remaining() < HEADER_LENGTH + length) {
+            return null;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_LENGTH);
+        body.limit(start + HEADER_LENGTH + length);
+        Frame frame = decodeBody(body);
+        buffer.position(start + HEADER_LENGTH + length);
+        return frame;
+    }
+
+    private static void checkLength(int length) throws ProtocolException {
+        if (length < MIN_BODY_LENGTH || length > MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Invalid frame length " + length);
+        }
+    }
+
+    private static Frame decodeBody(ByteBuffer body) throws ProtocolException {
+        try {
+            int correlationId = body.getInt();
+            Opcode opcode = Opcode.fromCode(body.get());
+            int fieldCount = body.get() & 0xFF;
+            List<FieldType> expected = opcode.getFieldTypes();
+            if (fieldCount != expected.size()) {
+                throw new ProtocolException(opcode + " expects " + expected.size()
+                        + " field(s) but frame has " + fieldCount);
+            }
+
+            Object[] fields = new Object[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                FieldType type = FieldType.fromTag(body.get());
+                if (type != expected.get(i)) {
+                    throw new ProtocolException(opcode + " field " + i + " must be "
+                            + expected.get(i) + " but is " + type);
+                }
+                switch (type) {
+                    case STRING: {
+                        int byteLength = body.getInt();
+                        if (byteLength < 0 || byteLength > body.remaining()) {
+                            throw new ProtocolException("Invalid string length " + byteLength);
+                        }
+                        fields[i] = new String(body.array(), body.arrayOffset() + body.position(),
+                                byteLength, StandardCharsets.UTF_8);
+                        body.position(body.position() + byteLength);
+                        break;
+                    }
+                    case INT32:
+                        fields[i] = body.getInt();
+                        break;
+                    case INT64:
+                    case MONEY:
+                        fields[i] = body.getLong();
+                        break;
+                    case FLOAT64:
+                        fields[i] = body.getDouble();
+                        break;
+                }
+            }
+            if (body.hasRemaining()) {
+                throw new ProtocolException("Trailing bytes after " + opcode + " frame");
+            }
+            return new Frame(correlationId, opcode, fields);
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated frame");
+        }
+    }
+}
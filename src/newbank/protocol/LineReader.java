@@ -0,0 +1,50 @@
+package newbank.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads newline-terminated UTF-8 lines straight from an {@link InputStream}.
+ *
+ * Unlike {@link java.io.BufferedReader} it never reads past the end of the current
+ * line (beyond whatever the underlying stream buffers), so a connection can switch
+ * from the line protocol to binary frames on the same stream.
+ */
+public final class LineReader {
+
+    private final InputStream in;
+    private byte[] buffer = new byte[256];
+
+    public LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * @return the next line without its terminator ({@code \n} or {@code \r\n}),
+     *         or {@code null} at end of stream
+     */
+    public String readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return toLine(length);
+            }
+            if (length == buffer.length) {
+                byte[] bigger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, bigger, 0, length);
+                buffer = bigger;
+            }
+            buffer[length++] = (byte) b;
+        }
+        return length == 0 ? null : toLine(length);
+    }
+
+    private String toLine(int length) {
+        if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,135 @@
+package newbank.protocol;
+
+/**
+ * Money amounts as a {@code long} count of minor units, e.g. cents at the default
+ * scale of 2, so balance arithmetic is exact integer arithmetic.
+ *
+ * The scale (decimal places per major unit) is fixed for the whole process: the
+ * server sets it from {@code --moneyScale} before any account exists, and clients
+ * must use the same value when they send {@link FieldType#MONEY} fields.
+ *
+ * {@link #parse} and {@link #appendTo} convert between minor units and the decimal
+ * text used by the line protocol without creating intermediate objects. Only a
+ * failed parse allocates, for its exception.
+ */
+public final class Money {
+
+    public static final int DEFAULT_SCALE = 2;
+    public static final int MAX_SCALE = 6;
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+
+    private static volatile int scale = DEFAULT_SCALE;
+
+    private Money() {
+    }
+
+    public static int getScale() {
+        return scale;
+    }
+
+    /** Sets the scale; call once at start-up, before any amount is stored. */
+    public static void setScale(int newScale) {
+        if (newScale < 0 || newScale > MAX_SCALE) {
+            throw new IllegalArgumentException("Money scale must be between 0 and " + MAX_SCALE + ".");
+        }
+        scale = newScale;
+    }
+
+    /** Minor units in one major unit, e.g. 100 at scale 2. */
+    public static long unit() {
+        return POWERS_OF_TEN[scale];
+    }
+
+    /** {@code major} whole units in minor units. */
+    public static long ofMajor(long major) {
+        return Math.multiplyExact(major, unit());
+    }
+
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses a decimal amount such as {@code 12}, {@code -0.5} or {@code 1000.25} from
+     * {@code text[start, end)} into minor units.
+     *
+     * @throws NumberFormatException if it is not a plain decimal number, has more
+     *                               decimal places than the scale, or does not fit
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        int places = scale;
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long major = 0;
+        int digits = 0;
+        for (; i < end && isDigit(text.charAt(i)); i++, digits++) {
+            int digit = text.charAt(i) - '0';
+            if (major > (Long.MAX_VALUE - digit) / 10) {
+                throw invalid(text, start, end, "is too large");
+            }
+            major = major * 10 + digit;
+        }
+
+        long fraction = 0;
+        int fractionDigits = 0;
+        if (i < end && text.charAt(i) == '.') {
+            for (i++; i < end && isDigit(text.charAt(i)); i++, fractionDigits++) {
+                if (fractionDigits == places) {
+                    throw invalid(text, start, end, "has more than " + places + " decimal places");
+                }
+                fraction = fraction * 10 + (text.charAt(i) - '0');
+            }
+        }
+        if (i != end || digits + fractionDigits == 0) {
+            throw invalid(text, start, end, "is not a number");
+        }
+
+        long unit = POWERS_OF_TEN[places];
+        fraction *= POWERS_OF_TEN[places - fractionDigits];
+        if (major > (Long.MAX_VALUE - fraction) / unit) {
+            throw invalid(text, start, end, "is too large");
+        }
+        long minor = major * unit + fraction;
+        return negative ? -minor : minor;
+    }
+
+    /** Appends {@code minor} as a decimal with exactly {@link #getScale()} places, e.g. {@code 1000.50}. */
+    public static StringBuilder appendTo(StringBuilder out, long minor) {
+        int places = scale;
+        long unit = POWERS_OF_TEN[places];
+        long major = minor / unit;
+        long fraction = minor % unit;
+        if (minor < 0) {
+            out.append('-');
+            major = -major;
+            fraction = -fraction;
+        }
+        out.append(major);
+        if (places > 0) {
+            out.append('.');
+            for (long power = unit / 10; power > 0; power /= 10) {
+                out.append((char) ('0' + fraction / power));
+                fraction %= power;
+            }
+        }
+        return out;
+    }
+
+    public static String format(long minor) {
+        return appendTo(new StringBuilder(24), minor).toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static NumberFormatException invalid(CharSequence text, int start, int end, String reason) {
+        return new NumberFormatException("Amount '" + text.subSequence(start, end) + "' " + reason + ".");
+    }
+}
@@ -0,0 +1,124 @@
+package newbank.protocol;
+
+import java.util.List;
+
+/**
+ * Command and reply codes of the binary protocol, each with the field types it carries.
+ *
+ * Request opcodes mirror the text commands understood by the server; the
+ * {@link #getCommandName() command name} is the canonical text spelling. Replies
+ * carry the same text the line protocol would send, minus any {@code END_OF_*}
+ * marker, because the frame length already delimits it.
+ */
+public enum Opcode {
+
+    // --- session ---
+    LOGIN(0x01, "LOGIN", FieldType.STRING, FieldType.STRING),          // username, password
+    HELP(0x02, "HELP"),
+    LOGOUT(0x03, "LOGOUT"),
+    PING(0x04, "PING"),                                                 // health check, answered with PONG
+    RESUME(0x05, "RESUME", FieldType.STRING),                           // session token from an earlier login
+
+    // --- accounts ---
+    SHOW_ACCOUNTS(0x10, "SHOWMYACCOUNTS"),
+    CREATE_ACCOUNT(0x11, "CREATEACCOUNT", FieldType.STRING),            // accountName
+    CLOSE_ACCOUNT(0x12, "CLOSEACCOUNT", FieldType.STRING),              // accountName
+    TRANSFER(0x13, "TRANSFER", FieldType.STRING, FieldType.STRING, FieldType.MONEY),   // from, to, amount
+    VIEW_TRANSACTIONS(0x14, "VIEWTRANSACTIONS", FieldType.STRING, FieldType.INT32),    // accountName, page
+    PAY(0x15, "PAY", FieldType.STRING, FieldType.MONEY, FieldType.STRING),   // payee, amount, reference ("" if none)
+
+    // --- loans ---
+    OFFER_LOAN(0x20, "OFFERLOAN", FieldType.STRING, FieldType.MONEY, FieldType.FLOAT64, FieldType.INT32),
+    REQUEST_LOAN(0x21, "REQUESTLOAN", FieldType.INT32),                 // loanId
+    SHOW_AVAILABLE_LOANS(0x22, "SHOWAVAILABLELOANS"),
+    ACCEPT_LOAN(0x23, "ACCEPTLOAN", FieldType.INT32, FieldType.STRING), // loanId, toAccount
+    MY_LOANS(0x24, "MYLOANS"),
+    REPAY_LOAN(0x25, "REPAYLOAN", FieldType.INT32, FieldType.MONEY),    // loanId, amount
+
+    // --- notifications ---
+    SHOW_NOTIFICATIONS(0x30, "SHOWNOTIFICATIONS"),
+
+    // --- replies (server to client) ---
+    REPLY_OK(0x80, "OK", FieldType.STRING),                             // reply text
+    REPLY_FAIL(0x81, "FAIL", FieldType.STRING);                         // reason
+
+    private static final Opcode[] BY_CODE = new Opcode[256];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code & 0xFF] = opcode;
+        }
+    }
+
+    private final byte code;
+    private final String commandName;
+    private final List<FieldType> fieldTypes;
+
+    Opcode(int code, String commandName, FieldType... fieldTypes) {
+        this.code = (byte) code;
+        this.commandName = commandName;
+        this.fieldTypes = List.of(fieldTypes);
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public String getCommandName() {
+        return commandName;
+    }
+
+    public List<FieldType> getFieldTypes() {
+        return fieldTypes;
+    }
+
+    /**
+     * The text a command may leave out for {@code field}, as the text protocol fills it
+     * in, or {@code null} if the field is required. Only trailing fields have one.
+     */
+    public String defaultArgument(int field) {
+        switch (this) {
+            case VIEW_TRANSACTIONS:
+                return field == 1 ? "1" : null;   // page
+            case PAY:
+                return field == 2 ? "" : null;    // reference
+            default:
+                return null;
+        }
+    }
+
+    public boolean isReply() {
+        return this == REPLY_OK || this == REPLY_FAIL;
+    }
+
+    public static Opcode fromCode(byte code) throws ProtocolException {
+        Opcode opcode = BY_CODE[code & 0xFF];
+        if (opcode == null) {
+            throw new ProtocolException("Unknown opcode " + (code & 0xFF));
+        }
+        return opcode;
+    }
+
+    /**
+     * Maps a text command name (including the BALANCE/BALANCES and EXIT/QUIT aliases)
+     * to its opcode, or returns {@code null} if there is no binary equivalent.
+     */
+    public static Opcode forCommand(String commandName) {
+        String name = commandName.toUpperCase();
+        switch (name) {
+            case "BALANCE":
+            case "BALANCES":
+                return SHOW_ACCOUNTS;
+            case "EXIT":
+            case "QUIT":
+                return LOGOUT;
+            default:
+                for (Opcode opcode : values()) {
+                    if (!opcode.isReply() && opcode.commandName.equals(name)) {
+                        return opcode;
+                    }
+                }
+                return null;
+        }
+    }
+}
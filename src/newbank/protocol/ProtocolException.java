@@ -0,0 +1,16 @@
+package newbank.protocol;
+
+import java.io.IOException;
+
+/**
+ * Thrown when bytes received in binary mode do not form a valid {@link Frame}.
+ * The connection cannot be resynchronised afterwards and should be closed.
+ */
+public class ProtocolException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ProtocolException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,62 @@
+package newbank.protocol;
+
+/**
+ * Allocation-free UTF-8 encoding for {@link WriteBuffer} and {@link FrameCodec}.
+ *
+ * Unpaired surrogates are written as {@code '?'}, as {@link String#getBytes} does.
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    static int encodedLength(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 2;  // 4 bytes for 2 chars
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // replaced by '?', one byte
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /** Encodes {@code s} into {@code dst} at {@code offset}; returns the offset after it. */
+    static int encode(String s, byte[] dst, int offset) {
+        int length = s.length();
+        int p = offset;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[p++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[p++] = (byte) (0xC0 | (c >> 6));
+                dst[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                dst[p++] = (byte) (0xF0 | (cp >> 18));
+                dst[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                dst[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                dst[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dst[p++] = '?';
+            } else {
+                dst[p++] = (byte) (0xE0 | (c >> 12));
+                dst[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+}
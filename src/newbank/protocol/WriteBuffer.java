@@ -0,0 +1,75 @@
+package newbank.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, growable byte buffer that encodes reply lines and frames without
+ * intermediate {@code String}/{@code byte[]} copies.
+ *
+ * A writer appends every part of a response, hands the bytes to the transport in one
+ * call, and {@link #clear()}s the buffer for the next response. The backing array is
+ * kept between responses (up to {@link #RETAINED_CAPACITY}), so steady-state writes
+ * allocate nothing. Not thread-safe.
+ */
+public final class WriteBuffer {
+
+    /** Larger arrays are dropped on {@link #clear()} so one huge reply does not pin memory. */
+    public static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int length;
+
+    /** Appends {@code line} as UTF-8 followed by {@code \n}. */
+    public void appendLine(String line) {
+        ensureCapacity(Utf8.encodedLength(line) + 1);
+        length = Utf8.encode(line, bytes, length);
+        bytes[length++] = '\n';
+    }
+
+    public void appendFrame(Frame frame) {
+        int frameLength = FrameCodec.encodedLength(frame);
+        ensureCapacity(frameLength);
+        FrameCodec.encode(frame, ByteBuffer.wrap(bytes, length, frameLength));
+        length += frameLength;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** Writes the whole content with a single {@link OutputStream#write(byte[], int, int)}. */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    /** Copies the content into a new heap buffer, ready for reading. */
+    public ByteBuffer toByteBuffer() {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        return ByteBuffer.wrap(copy);
+    }
+
+    public void clear() {
+        length = 0;
+        if (bytes.length > RETAINED_CAPACITY) {
+            bytes = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        int needed = length + extra;
+        if (needed > bytes.length) {
+            byte[] bigger = new byte[Math.max(needed, bytes.length * 2)];
+            System.arraycopy(bytes, 0, bigger, 0, length);
+            bytes = bigger;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package newbank.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caps concurrent sessions so that overload degrades gracefully instead of
+ * stalling every connection.
+ *
+ * <p>Sessions: a new connection is admitted straight away while fewer than
+ * {@code maxSessions} are active. Otherwise it waits in a bounded FIFO queue for at
+ * most {@code admissionTimeoutMillis}; when a session ends its slot is handed to the
+ * oldest waiter. If the queue is full, or the deadline passes, the connection is
+ * rejected with {@link #BUSY_MESSAGE} and closed.
+ *
+ * <p>Logins are bounded separately, by the {@link AuthWorkerPool}.
+ *
+ * <p>Counters are published through {@link ServerMetrics}.
+ */
+public class AdmissionController {
+
+    /** Sent to a connection that is turned away, before it is closed. */
+    public static final String BUSY_MESSAGE = "FAIL: Server busy. Please try again later.";
+
+    private static final AdmissionController UNLIMITED =
+            new AdmissionController(Integer.MAX_VALUE, 0, 0);
+
+    /** A connection asking for a session slot; exactly one callback is invoked. */
+    public interface Candidate {
+        /** A session slot has been reserved; start serving the connection. */
+        void admit();
+
+        /** No slot available; send {@link #BUSY_MESSAGE} and close. */
+        void reject();
+    }
+
+    private static final class Waiter {
+        final Candidate candidate;
+        ScheduledFuture<?> expiry;
+        boolean done;
+
+        Waiter(Candidate candidate) {
+            this.candidate = candidate;
+        }
+    }
+
+    private final int maxSessions;
+    private final int maxQueued;
+    private final long admissionTimeoutMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiter> waiting = new ArrayDeque<>();
+    private int activeSessions;
+    private ScheduledExecutorService timer;
+
+    private final LongAdder accepted;
+    private final LongAdder queued;
+    private final LongAdder rejected;
+
+    public AdmissionController(int maxSessions, int maxQueued, long admissionTimeoutMillis) {
+        this.maxSessions = maxSessions;
+        this.maxQueued = maxQueued;
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+
+        ServerMetrics metrics = ServerMetrics.getMetrics();
+        this.accepted = metrics.counter("connections.accepted");
+        this.queued = metrics.counter("connections.queued");
+        this.rejected = metrics.counter("connections.rejected");
+    }
+
+    public static AdmissionController fromConfig(ServerConfig config) {
+        AdmissionController controller = new AdmissionController(
+                config.getMaxSessions(),
+                config.getMaxQueuedConnections(),
+                config.getAdmissionTimeoutMillis());
+        ServerMetrics metrics = ServerMetrics.getMetrics();
+        metrics.gauge("sessions.active", controller::getActiveSessions);
+        metrics.gauge("connections.waiting", controller::getWaitingConnections);
+        return controller;
+    }
+
+    /** A controller that never queues or rejects; used when no limits are configured. */
+    public static AdmissionController unlimited() {
+        return UNLIMITED;
+    }
+
+    // --- sessions ---
+
+    /**
+     * Admits, queues or rejects a new connection. Never blocks the caller (the accept loop).
+     */
+    public void offer(Candidate candidate) {
+        Waiter waiter = null;
+        boolean admitNow = false;
+
+        lock.lock();
+        try {
+            if (activeSessions < maxSessions && waiting.isEmpty()) {
+                activeSessions++;
+                admitNow = true;
+            } else if (waiting.size() < maxQueued) {
+                waiter = new Waiter(candidate);
+                waiting.addLast(waiter);
+                Waiter toExpire = waiter;
+                waiter.expiry = timer().schedule(() -> expire(toExpire),
+                        admissionTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (admitNow) {
+            accepted.increment();
+            candidate.admit();
+        } else if (waiter != null) {
+            queued.increment();
+        } else {
+            rejected.increment();
+            candidate.reject();
+        }
+    }
+
+    /**
+     * Gives back the slot of a finished session, handing it directly to the oldest waiter if any.
+     */
+    public void release() {
+        Waiter next;
+        lock.lock();
+        try {
+            next = waiting.pollFirst();
+            if (next == null) {
+                if (activeSessions > 0) {
+                    activeSessions--;
+                }
+            } else {
+                next.done = true;  // slot transferred, active count unchanged
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (next != null) {
+            next.expiry.cancel(false);
+            accepted.increment();
+            next.candidate.admit();
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        lock.lock();
+        try {
+            if (waiter.done) {
+                return;
+            }
+            waiter.done = true;
+            waiting.remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+        rejected.increment();
+        waiter.candidate.reject();
+    }
+
+    private ScheduledExecutorService timer() {
+        // called with the lock held; only servers that actually queue pay for the thread
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "newbank-admission");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return timer;
+    }
+
+    // --- gauges ---
+
+    public int getActiveSessions() {
+        lock.lock();
+        try {
+            return activeSessions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaitingConnections() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package newbank.server;
+
+import newbank.server.model.CustomerID;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs password verification (PBKDF2, CPU-bound by design) on its own bounded pool
+ * so that logins never tie up session or selector threads and never queue behind a
+ * global lock.
+ *
+ * <p>The pool has {@code maxConcurrentLogins} threads (default: one per core). When
+ * they are all busy, requests wait in a bounded FIFO queue and are served in arrival
+ * order. A request that has not started within {@code loginQueueTimeoutMillis}, or
+ * that finds the queue full, fails with {@link RejectedExecutionException}; the
+ * session then shows {@link #BUSY_MESSAGE} and lets the client retry.
+ *
+ * <p>Results are delivered through a {@link CompletableFuture} that completes on an
+ * auth thread, so the engine decides how to wait. Counters and gauges are published
+ * through {@link ServerMetrics}: {@code auth.queueDepth}, {@code auth.active},
+ * {@code auth.verified}, {@code auth.rejected}, and the totals
+ * {@code auth.verifyMicros} and {@code auth.queueWaitMicros} (divide by
+ * {@code auth.verified} for the mean).
+ *
+ * <p>The pool also carries the {@link LoginThrottle} that sessions consult before
+ * they submit a password check.
+ */
+public class AuthWorkerPool {
+
+    /** Shown (after "Log In Failed") when no auth worker frees up in time. */
+    public static final String BUSY_MESSAGE = "Too many logins in progress. Please try again shortly.";
+
+    private final ThreadPoolExecutor executor;  // null: verify on the caller's thread
+    private final long maxQueueWaitMillis;
+    private final LoginThrottle throttle;
+
+    private final LongAdder verified;
+    private final LongAdder rejected;
+    private final LongAdder verifyMicros;
+    private final LongAdder queueWaitMicros;
+
+    public AuthWorkerPool(int threads, int queueCapacity, long maxQueueWaitMillis) {
+        this(newExecutor(threads, queueCapacity), maxQueueWaitMillis, LoginThrottle.unlimited());
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity, true),
+                Thread.ofPlatform().name("newbank-auth-", 0).daemon().factory());
+        // threads come and go with login peaks
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private AuthWorkerPool(ThreadPoolExecutor executor, long maxQueueWaitMillis, LoginThrottle throttle) {
+        this.executor = executor;
+        this.maxQueueWaitMillis = maxQueueWaitMillis;
+        this.throttle = throttle;
+
+        ServerMetrics metrics = ServerMetrics.getMetrics();
+        this.verified = metrics.counter("auth.verified");
+        this.rejected = metrics.counter("auth.rejected");
+        this.verifyMicros = metrics.counter("auth.verifyMicros");
+        this.queueWaitMicros = metrics.counter("auth.queueWaitMicros");
+    }
+
+    public static AuthWorkerPool fromConfig(ServerConfig config) {
+        AuthWorkerPool pool = new AuthWorkerPool(
+                newExecutor(config.getMaxConcurrentLogins(), config.getAuthQueueCapacity()),
+                config.getLoginQueueTimeoutMillis(),
+                LoginThrottle.fromConfig(config));
+        ServerMetrics metrics = ServerMetrics.getMetrics();
+        metrics.gauge("auth.queueDepth", pool::getQueueDepth);
+        metrics.gauge("auth.active", pool::getActiveVerifications);
+        return pool;
+    }
+
+    /**
+     * A pool that verifies on the calling thread and returns a completed future;
+     * used when a {@link ClientSession} is driven directly, e.g. in tests.
+     */
+    public static AuthWorkerPool direct() {
+        return new AuthWorkerPool(null, 0, LoginThrottle.unlimited());
+    }
+
+    public LoginThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Checks the credentials on an auth thread.
+     *
+     * @return a future completing with the customer on success or {@code null} for a
+     *         wrong password, or failing with {@link RejectedExecutionException} when
+     *         the pool is saturated
+     */
+    public CompletableFuture<CustomerID> verify(NewBank bank, String userName, String password) {
+        return verify(() -> bank.checkLogInDetails(userName, password));
+    }
+
+    /** Runs an arbitrary credential check on the pool, with the same queueing and metrics. */
+    public CompletableFuture<CustomerID> verify(Supplier<CustomerID> check) {
+        if (executor == null) {
+            return CompletableFuture.completedFuture(timedVerify(check));
+        }
+
+        CompletableFuture<CustomerID> result = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        Runnable task = () -> {
+            queueWaitMicros.add((System.nanoTime() - queuedAt) / 1_000);
+            try {
+                result.complete(timedVerify(check));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        };
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(new RejectedExecutionException(BUSY_MESSAGE, e));
+            return result;
+        }
+
+        CompletableFuture.delayedExecutor(maxQueueWaitMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            // only a request still waiting in the queue times out; a started one runs to the end
+            if (executor.remove(task)) {
+                rejected.increment();
+                result.completeExceptionally(new RejectedExecutionException(BUSY_MESSAGE));
+            }
+        });
+        return result;
+    }
+
+    private CustomerID timedVerify(Supplier<CustomerID> check) {
+        long start = System.nanoTime();
+        try {
+            return check.get();
+        } finally {
+            verifyMicros.add((System.nanoTime() - start) / 1_000);
+            verified.increment();
+        }
+    }
+
+    /** Logins waiting for an auth thread. */
+    public int getQueueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /** Logins being verified right now. */
+    public int getActiveVerifications() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package newbank.server;
+
+import newbank.protocol.BinaryProtocol;
+import newbank.protocol.Frame;
+import newbank.protocol.Opcode;
+import newbank.server.model.Customer;
+import newbank.server.model.CustomerID;
+import newbank.server.service.security.SessionTokenService;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Line-oriented protocol state machine for a single client connection.
+ *
+ * The session owns the login dialogue (username, password, retry) and, once the
+ * customer is authenticated, hands every request line to the {@link CommandProcessor}.
+ * It does no I/O itself: every input line is pushed in through {@link #handleLine}
+ * and every reply line is pushed out through the supplied sink. This lets the
+ * blocking {@link NewBankClientHandler} and the selector-based engine in
+ * {@code newbank.server.nio} share exactly the same protocol behaviour.
+ *
+ * If the client's first line is {@link BinaryProtocol#UPGRADE_REQUEST} the transport
+ * switches to binary frames, which are pushed in through {@link #handleFrame}; the
+ * login checks and commands are the same in both modes. A successful binary
+ * {@code LOGIN} also returns a session token (see {@link SessionTokenService}) that a
+ * later connection can present with {@link Opcode#RESUME} instead of the password;
+ * {@code LOGOUT} revokes it.
+ *
+ * Every password attempt is first checked against the pool's {@link LoginThrottle},
+ * and a connection is ended after too many wrong passwords, unknown user names or
+ * invalid resume tokens. Attempts refused because the server is busy or throttling
+ * do not count towards that limit.
+ *
+ * Password checks run on an {@link AuthWorkerPool}, so handling the password line
+ * (or a {@code LOGIN} frame) returns a future that completes once the login reply
+ * has been written; every other request returns an already completed future.
+ *
+ * A session is not thread-safe; callers must feed lines one at a time, and must not
+ * feed the next one until the future returned for the previous one has completed.
+ * The one exception is binary mode after login: frames for which
+ * {@link #isPipelined(Frame)} is true may be handled concurrently, as long as every
+ * other frame is handled alone once all earlier frames have finished.
+ */
+public class ClientSession {
+
+    public enum State {
+        AWAITING_USERNAME,
+        AWAITING_PASSWORD,
+        LOGGED_IN,
+        CLOSED
+    }
+
+    /** Reply text for {@link Opcode#PING}. */
+    public static final String PONG = "PONG";
+    /** Goodbye sent when a connection uses up its login attempts. */
+    public static final String TOO_MANY_ATTEMPTS = "Session terminated: too many failed login attempts.";
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final NewBank bank;
+    private final CommandProcessor commandProcessor;
+    private final AuthWorkerPool auth;
+    private final String remoteAddress;
+
+    private volatile State state = State.AWAITING_USERNAME;
+    private volatile boolean binary;
+    private String pendingUserName;
+    private volatile CustomerID customer;  // set on an auth thread
+    private volatile String sessionToken;  // binary mode: revoked on LOGOUT
+    private volatile int failedLogins;  // updated by one login at a time
+    private StringBuilder batch;  // non-null while collecting BATCH ... END_BATCH
+    private int batchLines;
+    private boolean batchTooLong;  // the batch passed MAX_BATCH_CHARS; skipping to END_BATCH
+
+    /** A session that checks passwords on the calling thread. */
+    public ClientSession(NewBank bank) {
+        this(bank, AuthWorkerPool.direct());
+    }
+
+    public ClientSession(NewBank bank, AuthWorkerPool auth) {
+        this(bank, auth, "local");
+    }
+
+    /** @param remoteAddress the client's address, which login attempts are throttled by */
+    public ClientSession(NewBank bank, AuthWorkerPool auth, String remoteAddress) {
+        this.bank = bank;
+        this.commandProcessor = new CommandProcessor(bank);
+        this.auth = auth;
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * Sends the opening prompt. Must be called once, before the first line is handled.
+     */
+    public void start(Consumer<String> out) {
+        out.accept("Enter Username (case-sensitive):");
+    }
+
+    /**
+     * Handles one line received from the client and writes any reply lines to {@code out}.
+     *
+     * @return a future that completes once every reply to this line has been written;
+     *         only the password line may leave it incomplete
+     */
+    public CompletableFuture<Void> handleLine(String line, Consumer<String> out) {
+        switch (state) {
+            case AWAITING_USERNAME:
+                pendingUserName = line;
+                state = State.AWAITING_PASSWORD;
+                out.accept("Enter Password (case-sensitive):");
+                return DONE;
+
+            case AWAITING_PASSWORD:
+                return handlePassword(line, out);
+
+            case LOGGED_IN:
+                handleRequest(line, out);
+                return DONE;
+
+            case CLOSED:
+            default:
+                // nothing more to do once the session has been terminated
+                return DONE;
+        }
+    }
+
+    private CompletableFuture<Void> handlePassword(String password, Consumer<String> out) {
+        String userName = pendingUserName;
+        pendingUserName = null;
+
+        out.accept("Checking Details...");
+
+        return authenticate(userName, password).thenAccept(failure -> {
+            if (state == State.CLOSED) {
+                return;  // timed out or disconnected while the password was checked
+            }
+            if (failure != null) {
+                out.accept("Log In Failed");
+                out.accept(failure);
+                if (attemptLimitReached()) {
+                    out.accept(TOO_MANY_ATTEMPTS);
+                } else {
+                    promptForUsername(out);
+                }
+                return;
+            }
+            out.accept("Log In Successful. Welcome " + customer.getKey() + "! What do you want to do?");
+        });
+    }
+
+    /**
+     * Checks the credentials on the auth pool and, on success, moves the session to
+     * {@link State#LOGGED_IN}.
+     *
+     * @return a future with {@code null} on success, otherwise the reason to show the client
+     */
+    private CompletableFuture<String> authenticate(String userName, String password) {
+        // Check if username exists
+        Customer customerObj = bank.getCustomer(userName);
+        if (customerObj == null) {
+            failedLogins++;
+            return CompletableFuture.completedFuture("Username does not exist. Please try again.");
+        }
+
+        // Refuse before spending a PBKDF2 computation on a user name or address that is retrying too fast
+        LoginThrottle throttle = auth.getThrottle();
+        String refusal = throttle.tryAcquire(userName, remoteAddress);
+        if (refusal != null) {
+            return CompletableFuture.completedFuture(refusal);
+        }
+
+        // Check password correctness off the session's thread
+        return auth.verify(bank, userName, password).handle((id, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof RejectedExecutionException) {
+                    return AuthWorkerPool.BUSY_MESSAGE;
+                }
+                System.err.println("Login check failed: " + cause);
+                return "Login could not be completed. Please try again.";
+            }
+            if (id == null) {
+                failedLogins++;
+                throttle.recordFailure(userName, remoteAddress);
+                return "Incorrect password. Please try again.";
+            }
+            throttle.recordSuccess(userName, remoteAddress);
+            if (state != State.CLOSED) {
+                customer = id;
+                state = State.LOGGED_IN;
+            }
+            return null;
+        });
+    }
+
+    private void handleRequest(String request, Consumer<String> out) {
+        if (batch != null || batchTooLong) {
+            collectBatchLine(request, out);
+            return;
+        }
+        if (CommandProcessor.isBatchStart(request)) {
+            // lines up to END_BATCH are collected and answered with one reply
+            batch = new StringBuilder(request);
+            batchLines = 0;
+            return;
+        }
+
+        System.out.println("Request from " + customer.getKey());
+        String response = commandProcessor.process(customer, request);
+        out.accept(response);
+
+        if (response != null && response.startsWith("Session terminated")) {
+            state = State.CLOSED;  // LOGOUT/EXIT/QUIT
+        }
+    }
+
+    // --- binary mode ---
+
+    /**
+     * Whether {@code line}, received as the first line of a connection, asks to switch
+     * the connection to binary frames.
+     */
+    public boolean isUpgradeRequest(String line) {
+        return !binary && state == State.AWAITING_USERNAME && BinaryProtocol.UPGRADE_REQUEST.equals(line);
+    }
+
+    /**
+     * Switches the session to binary frames and acknowledges with a final text line.
+     * From here on the transport must pass requests to {@link #handleFrame}.
+     */
+    public void upgradeToBinary(Consumer<String> out) {
+        binary = true;
+        out.accept(BinaryProtocol.UPGRADE_ACCEPTED);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Whether {@code request} may run concurrently with other pipelined requests of
+     * this session. LOGIN, RESUME, LOGOUT and anything sent before login act as barriers.
+     */
+    public boolean isPipelined(Frame request) {
+        Opcode opcode = request.getOpcode();
+        return state == State.LOGGED_IN
+                && opcode != Opcode.LOGIN && opcode != Opcode.RESUME && opcode != Opcode.LOGOUT;
+    }
+
+    /**
+     * Handles one binary request frame and writes exactly one reply frame, tagged with
+     * the request's correlation id, to {@code out}. The first request must be
+     * {@link Opcode#LOGIN} or {@link Opcode#RESUME}; a failed attempt may be retried.
+     *
+     * @return a future that completes once the reply has been written; only
+     *         {@code LOGIN} may leave it incomplete
+     */
+    public CompletableFuture<Void> handleFrame(Frame request, Consumer<Frame> sink) {
+        int correlationId = request.getCorrelationId();
+        Consumer<Frame> out = reply -> sink.accept(reply.withCorrelationId(correlationId));
+
+        if (state == State.CLOSED) {
+            return DONE;
+        }
+        if (request.getOpcode().isReply()) {
+            out.accept(Frame.fail("FAIL: Unexpected reply frame from client."));
+            return DONE;
+        }
+        if (request.getOpcode() == Opcode.PING) {
+            // health check: allowed before login, touches no account data
+            out.accept(Frame.ok(PONG));
+            return DONE;
+        }
+
+        if (state != State.LOGGED_IN) {
+            if (request.getOpcode() == Opcode.RESUME) {
+                out.accept(resume(request.getString(0)));
+                return DONE;
+            }
+            if (request.getOpcode() != Opcode.LOGIN) {
+                out.accept(Frame.fail("FAIL: Not logged in."));
+                return DONE;
+            }
+            return authenticate(request.getString(0), request.getString(1)).thenAccept(failure -> {
+                if (state == State.CLOSED) {
+                    return;
+                }
+                if (failure != null) {
+                    out.accept(Frame.fail(attemptLimitReached()
+                            ? "Log In Failed. " + failure + "\n" + TOO_MANY_ATTEMPTS
+                            : "Log In Failed. " + failure));
+                    return;
+                }
+                String welcome = "Log In Successful. Welcome " + customer.getKey() + "!";
+                sessionToken = bank.getSessionTokenService().issue(customer.getKey());
+                out.accept(Frame.ok(sessionToken == null ? welcome
+                        : welcome + "\n" + BinaryProtocol.SESSION_TOKEN_PREFIX + sessionToken));
+            });
+        }
+
+        if (request.getOpcode() == Opcode.LOGIN || request.getOpcode() == Opcode.RESUME) {
+            out.accept(Frame.fail("FAIL: Already logged in."));
+            return DONE;
+        }
+
+        System.out.println("Request from " + customer.getKey());
+        out.accept(commandProcessor.process(customer, request));
+
+        if (request.getOpcode() == Opcode.LOGOUT) {
+            state = State.CLOSED;
+            if (sessionToken != null) {
+                bank.getSessionTokenService().revoke(sessionToken);
+            }
+        }
+        return DONE;
+    }
+
+    /**
+     * Logs the session in with a token from an earlier login: one HMAC check instead
+     * of a password verification, so it runs inline rather than on the auth pool.
+     */
+    private Frame resume(String token) {
+        SessionTokenService tokens = bank.getSessionTokenService();
+        String userName = tokens.verify(token);
+        if (userName == null || bank.getCustomer(userName) == null) {
+            ServerMetrics.getMetrics().counter("auth.resumeRejected").increment();
+            String reason = "Resume Failed. Session token is invalid or expired. Please log in.";
+            failedLogins++;
+            return Frame.fail(attemptLimitReached() ? reason + "\n" + TOO_MANY_ATTEMPTS : reason);
+        }
+        ServerMetrics.getMetrics().counter("auth.resumed").increment();
+        customer = new CustomerID(userName);
+        sessionToken = token;
+        state = State.LOGGED_IN;
+        return Frame.ok("Session Resumed. Welcome " + userName + "!");
+    }
+
+    /**
+     * Buffers one line of a batch. Once the batch passes
+     * {@link CommandProcessor#MAX_BATCH_CHARS} the buffer is dropped and the rest of
+     * the batch is skipped; the failure is still the one reply, sent at {@code END_BATCH}.
+     */
+    private void collectBatchLine(String line, Consumer<String> out) {
+        boolean end = line.trim().equalsIgnoreCase(CommandProcessor.BATCH_END);
+        if (!batchTooLong && batch.length() + 1 + line.length() > CommandProcessor.MAX_BATCH_CHARS) {
+            batch = null;
+            batchTooLong = true;
+        }
+        if (batchTooLong) {
+            if (end) {
+                batchTooLong = false;
+                out.accept(CommandProcessor.batchTooLong());
+            }
+            return;
+        }
+        if (batchLines <= CommandProcessor.MAX_BATCH_COMMANDS) {
+            // one line past the limit is kept so CommandProcessor reports the overflow
+            batch.append('\n').append(line);
+        }
+        batchLines++;
+        if (!end) {
+            return;
+        }
+        String request = batch.toString();
+        if (batchLines > CommandProcessor.MAX_BATCH_COMMANDS + 1) {
+            request += '\n' + line;
+        }
+        batch = null;
+
+        System.out.println("Batch request from " + customer.getKey());
+        out.accept(commandProcessor.process(customer, request));
+    }
+
+    /**
+     * Whether the connection has used up its login attempts, closing the session if so.
+     * Only attempts that got as far as checking the credentials are counted.
+     */
+    private boolean attemptLimitReached() {
+        int limit = auth.getThrottle().getMaxAttemptsPerConnection();
+        if (limit == 0 || failedLogins < limit) {
+            return false;
+        }
+        auth.getThrottle().recordConnectionLimit();
+        state = State.CLOSED;
+        return true;
+    }
+
+    private void promptForUsername(Consumer<String> out) {
+        state = State.AWAITING_USERNAME;
+        out.accept("Enter Username (case-sensitive):");
+    }
+
+    /**
+     * Marks the session as finished, e.g. when the underlying connection has gone away.
+     */
+    public void close() {
+        state = State.CLOSED;
+    }
+
+    public boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public CustomerID getCustomer() {
+        return customer;
+    }
+}
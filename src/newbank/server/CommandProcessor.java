@@ -1,15 +1,41 @@
 package newbank.server;
 
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Set;
 
+import newbank.protocol.Frame;
+import newbank.protocol.Money;
 import newbank.server.model.Account;
 import newbank.server.model.CustomerID;
 import newbank.server.model.Loan;
 import newbank.server.model.Notification;
 
+/**
+ * Executes customer commands for both wire protocols.
+ *
+ * {@link #process(CustomerID, String)} parses a text request line and frames
+ * multi-line replies with the {@code END_OF_*} markers the console client scans for.
+ * {@link #process(CustomerID, Frame)} takes already-typed binary fields and returns
+ * the bare reply text in a {@link Frame}, since the frame length delimits it.
+ * Both paths share the typed command methods below.
+ *
+ * A text request may also be a batch: a {@code BATCH [ATOMIC]} line, one command per
+ * line, and an {@code END_BATCH} line. The reply is a single result vector, one
+ * numbered line per command, closed by {@code END_OF_BATCH}.
+ */
 public class CommandProcessor {
 
+    public static final String BATCH_END = "END_BATCH";
+
+    /** Most commands a single batch may carry. */
+    public static final int MAX_BATCH_COMMANDS = 10_000;
+    /** Most characters a session buffers for one batch, counting every line up to {@code END_BATCH}. */
+    public static final int MAX_BATCH_CHARS = 1 << 20;
+
+    private static final Set<String> BATCH_COMMANDS = Set.of("TRANSFER", "CREATEACCOUNT", "OFFERLOAN", "PAY");
+
     private final NewBank bank;
 
     public CommandProcessor(NewBank bank) {
@@ -25,6 +51,10 @@ public class CommandProcessor {
             return "FAIL: Unknown customer.";
         }
 
+        if (isBatchStart(request)) {
+            return processBatch(customer, request.trim());
+        }
+
         String[] tokens = request.trim().split("\\s+");
         String name = tokens[0].toUpperCase();
         List<String> args = Arrays.asList(tokens).subList(1, tokens.length);
@@ -32,55 +62,30 @@ public class CommandProcessor {
         switch (name) {
 
             case "HELP":
-                return buildHelpMessage();
+                return withEndMarker(helpText(), "END_OF_HELP");
 
             case "LOGOUT":
             case "EXIT":
             case "QUIT":
-                return "Session terminated. Goodbye.";
+                return logout();
 
             case "SHOWMYACCOUNTS":
             case "BALANCE":
-            case "BALANCES": {
-                // Use AccountService via NewBank
-                String accounts = bank.getAccountService().showAccounts(customer);
-                return accounts + "\nEND_OF_ACCOUNTS";
-            }
+            case "BALANCES":
+                return withEndMarker(showAccounts(customer), "END_OF_ACCOUNTS");
 
             case "CREATEACCOUNT": {
                 if (args.size() != 1) {
                     return "Usage: CREATEACCOUNT <accountName>";
                 }
-
-                String accountName = args.get(0);
-                String username = customer.getKey();
-
-                // Use CustomerService to check + create
-                if (bank.getAccountService().hasAccount(username, accountName)) {
-                    return "FAIL: Could not create account '" + accountName
-                            + "'. It may already exist.";
-                }
-
-                // Starting balance 0.0 by default
-                bank.getAccountService().addAccount(username, new Account(accountName, 0.0));
-
-                return "SUCCESS: Account '" + accountName + "' created.";
+                return createAccount(customer, args.get(0));
             }
 
             case "CLOSEACCOUNT": {
                 if (args.size() != 1) {
                     return "Usage: CLOSEACCOUNT <accountName>";
                 }
-
-                String closeAccountName = args.get(0);
-                String username = customer.getKey();
-
-                boolean removed = bank.getAccountService().removeAccount(username, closeAccountName);
-                if (removed) {
-                    return "SUCCESS: Account '" + closeAccountName + "' closed.";
-                } else {
-                    return "FAIL: Account '" + closeAccountName + "' not found or could not be closed.";
-                }
+                return closeAccount(customer, args.get(0));
             }
 
             case "TRANSFER": {
@@ -88,28 +93,43 @@ public class CommandProcessor {
                     return "Usage: TRANSFER <fromAccount> <toAccount> <amount>";
                 }
 
-                String fromAccount = args.get(0);
-                String toAccount   = args.get(1);
-                String amountStr   = args.get(2);
-
-                double amount;
+                long amount;
                 try {
-                    amount = Double.parseDouble(amountStr);
+                    amount = Money.parse(args.get(2));
                 } catch (NumberFormatException e) {
-                    return "FAIL: Amount must be a number. Usage: TRANSFER <fromAccount> <toAccount> <amount>";
+                    return "FAIL: " + e.getMessage() + " Usage: TRANSFER <fromAccount> <toAccount> <amount>";
                 }
+                return transfer(customer, args.get(0), args.get(1), amount);
+            }
 
-                if (amount <= 0) {
-                    return "FAIL: Amount must be positive.";
+            case "PAY": {
+                if (args.size() < 2 || args.size() > 3) {
+                    return "Usage: PAY <payee> <amount> [reference]";
                 }
 
+                long amount;
                 try {
-                    bank.getAccountService().transfer(customer, fromAccount, toAccount, amount);
-                    return "SUCCESS: Transferred " + amount + " from '" + fromAccount +
-                            "' to '" + toAccount + "'.";
-                } catch (IllegalArgumentException e) {
-                    return "FAIL: " + e.getMessage();
+                    amount = Money.parse(args.get(1));
+                } catch (NumberFormatException e) {
+                    return "FAIL: " + e.getMessage() + " Usage: PAY <payee> <amount> [reference]";
+                }
+                return pay(customer, args.get(0), amount, args.size() == 3 ? args.get(2) : "");
+            }
+
+            case "VIEWTRANSACTIONS": {
+                if (args.isEmpty() || args.size() > 2) {
+                    return withEndMarker("Usage: VIEWTRANSACTIONS <accountName> [page]", "END_OF_TRANSACTIONS");
                 }
+
+                int page = 1;
+                if (args.size() == 2) {
+                    try {
+                        page = Integer.parseInt(args.get(1));
+                    } catch (NumberFormatException e) {
+                        return withEndMarker("FAIL: Page must be a number.", "END_OF_TRANSACTIONS");
+                    }
+                }
+                return withEndMarker(viewTransactions(customer, args.get(0), page), "END_OF_TRANSACTIONS");
             }
 
             case "OFFERLOAN":
@@ -122,20 +142,15 @@ public class CommandProcessor {
                 try {
 
                     String fromAcc = args.get(0);
-                    double amountLoan = Double.parseDouble(args.get(1));
+                    long amountLoan = Money.parse(args.get(1));
                     double rate = Double.parseDouble(args.get(2));
                     int months = Integer.parseInt(args.get(3));
 
-                    Loan loan = bank.getLoanService().offerLoan(customer, fromAcc, amountLoan, rate, months, "");
-
-                    return "SUCCESS: Loan created with ID " + loan.getId();
+                    return offerLoan(customer, fromAcc, amountLoan, rate, months);
 
                 }catch (NumberFormatException e){
 
                     return "FAIL: amount or rate or termMonths must be numeric.";
-                }catch (IllegalArgumentException e){
-
-                    return "FAIL: " + e.getMessage();
                 }
 
             case "REQUESTLOAN":
@@ -145,55 +160,370 @@ public class CommandProcessor {
                 }
 
                 try {
-                    int requestedLoanId = Integer.parseInt(args.get(0));
-                    Loan loan = bank.getLoanService().requestLoan(customer, requestedLoanId);
+                    return requestLoan(customer, Integer.parseInt(args.get(0)));
 
-                    return "SUCCESS: Loan " + loan.getId() + " has been successfully requested.";
-
-                }catch (IllegalArgumentException e){
+                }catch (NumberFormatException e){
 
-                    return "FAIL: " + e.getMessage();
+                    return "FAIL: Loan id must be a number.";
                 }
 
-            case "SHOWNOTIFICATIONS": {
-                List<Notification> notifications = bank.getNotificationService().getNotifications(customer);
+            case "SHOWNOTIFICATIONS":
+                return showNotifications(customer);
 
-                if (notifications.isEmpty()) {
-                    return "You have no notifications.";
-                }
+            case "SHOWAVAILABLELOANS":
+                return withEndMarker(showAvailableLoans(), "END_OF_LOANS");
+
+            case "MYLOANS":
+                return withEndMarker(myLoans(customer), "END_OF_MYLOANS");
+
+            case "ACCEPTLOAN":
+
+            case "REPAYLOAN":
+                return notImplemented(name);
+
+            default:
+                return unknownCommand(name);
+        }
+    }
+
+    /**
+     * Executes a binary request frame and returns its reply frame: {@code REPLY_FAIL}
+     * when the command failed or was malformed, {@code REPLY_OK} otherwise.
+     */
+    public Frame process(CustomerID customer, Frame request) {
+        if (!bank.hasCustomer(customer)) {
+            return Frame.fail("FAIL: Unknown customer.");
+        }
+
+        String response;
+        switch (request.getOpcode()) {
+            case HELP:
+                response = helpText();
+                break;
+            case LOGOUT:
+                response = logout();
+                break;
+            case SHOW_ACCOUNTS:
+                response = showAccounts(customer);
+                break;
+            case CREATE_ACCOUNT:
+                response = createAccount(customer, request.getString(0));
+                break;
+            case CLOSE_ACCOUNT:
+                response = closeAccount(customer, request.getString(0));
+                break;
+            case TRANSFER:
+                response = transfer(customer, request.getString(0), request.getString(1),
+                        request.getLong(2));
+                break;
+            case PAY:
+                response = pay(customer, request.getString(0), request.getLong(1), request.getString(2));
+                break;
+            case VIEW_TRANSACTIONS:
+                response = viewTransactions(customer, request.getString(0), request.getInt(1));
+                break;
+            case OFFER_LOAN:
+                response = offerLoan(customer, request.getString(0), request.getLong(1),
+                        request.getDouble(2), request.getInt(3));
+                break;
+            case REQUEST_LOAN:
+                response = requestLoan(customer, request.getInt(0));
+                break;
+            case SHOW_AVAILABLE_LOANS:
+                response = showAvailableLoans();
+                break;
+            case MY_LOANS:
+                response = myLoans(customer);
+                break;
+            case SHOW_NOTIFICATIONS:
+                response = showNotifications(customer);
+                break;
+            case ACCEPT_LOAN:
+            case REPAY_LOAN:
+                response = notImplemented(request.getOpcode().getCommandName());
+                break;
+            default:
+                response = unknownCommand(request.getOpcode().getCommandName());
+                break;
+        }
+
+        response = response.strip();
+        if (isFailure(response)) {
+            return Frame.fail(response);
+        }
+        return Frame.ok(response);
+    }
+
+    // --- batches ---
+
+    /** Whether {@code line} opens a batch ({@code BATCH} or {@code BATCH ATOMIC}). */
+    public static boolean isBatchStart(String line) {
+        String trimmed = line.trim();
+        int end = 0;
+        while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+            end++;
+        }
+        return trimmed.substring(0, end).equalsIgnoreCase("BATCH");
+    }
+
+    private String processBatch(CustomerID customer, String request) {
+        String[] lines = request.split("\\R");
+        String[] header = lines[0].trim().split("\\s+");
+        boolean atomic = header.length == 2 && header[1].equalsIgnoreCase("ATOMIC");
+        if (header.length > 2 || (header.length == 2 && !atomic)) {
+            return "Usage: BATCH [ATOMIC], one command per line, then " + BATCH_END;
+        }
+        if (lines.length < 2 || !lines[lines.length - 1].trim().equalsIgnoreCase(BATCH_END)) {
+            return "FAIL: Batch must end with " + BATCH_END + ".";
+        }
+
+        List<String> commands = new ArrayList<>();
+        for (int i = 1; i < lines.length - 1; i++) {
+            if (!lines[i].isBlank()) {
+                commands.add(lines[i].trim());
+            }
+        }
+        if (commands.isEmpty()) {
+            return "FAIL: Batch contains no commands.";
+        }
+        if (commands.size() > MAX_BATCH_COMMANDS) {
+            return "FAIL: Batch too large (at most " + MAX_BATCH_COMMANDS + " commands).";
+        }
+        if (request.length() > MAX_BATCH_CHARS) {
+            return batchTooLong();
+        }
+
+        return atomic ? runAtomicBatch(customer, commands) : runBatch(customer, commands);
+    }
+
+    /** Reply to a batch longer than {@link #MAX_BATCH_CHARS}. */
+    public static String batchTooLong() {
+        return "FAIL: Batch too large (at most " + MAX_BATCH_CHARS + " characters).";
+    }
+
+    private String runBatch(CustomerID customer, List<String> commands) {
+        String[] results = new String[commands.size()];
+        int failed = 0;
+        for (int i = 0; i < results.length; i++) {
+            results[i] = runBatchCommand(customer, commands.get(i));
+            if (isFailure(results[i])) {
+                failed++;
+            }
+        }
+        String summary = "SUCCESS: Batch processed: " + results.length + " commands, "
+                + (results.length - failed) + " succeeded, " + failed + " failed.";
+        return resultVector(summary, results);
+    }
+
+    /**
+     * Applies every command or none. Only commands on the customer's own accounts
+     * qualify, because {@link newbank.server.service.AccountService#runAtomically} can
+     * undo only those.
+     */
+    private String runAtomicBatch(CustomerID customer, List<String> commands) {
+        for (int i = 0; i < commands.size(); i++) {
+            String name = commandName(commands.get(i));
+            if (name.equals("OFFERLOAN") || name.equals("PAY")) {
+                return "FAIL: " + name + " cannot be part of an atomic batch (line " + (i + 1) + ").";
+            }
+        }
 
-                StringBuilder sb = new StringBuilder("Your notifications:\n");
-                for (Notification n : notifications) {
-                    sb.append("  [").append(n.getId()).append("] ")
-                            .append(n.getMessage()).append(" (").append(n.isRead() ? "read" : "unread")
-                            .append(")\n");
+        String[] results = new String[commands.size()];
+        int[] failedAt = {-1};
+        boolean committed;
+        try {
+            committed = bank.getAccountService().runAtomically(customer.getKey(), () -> {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = runBatchCommand(customer, commands.get(i));
+                    if (isFailure(results[i])) {
+                        failedAt[0] = i;
+                        return false;
+                    }
                 }
-                return sb.toString().trim();
+                return true;
+            });
+        } catch (IllegalArgumentException e) {
+            // every command succeeded, but the log refused the batch
+            for (int i = 0; i < results.length; i++) {
+                results[i] = "ROLLED BACK: " + results[i];
+            }
+            return resultVector("FAIL: Atomic batch rolled back; " + e.getMessage(), results);
+        }
+
+        if (committed) {
+            return resultVector("SUCCESS: Atomic batch applied: " + results.length + " commands.", results);
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (i < failedAt[0]) {
+                results[i] = "ROLLED BACK: " + results[i];
+            } else if (i > failedAt[0]) {
+                results[i] = "SKIPPED";
             }
+        }
+        return resultVector("FAIL: Atomic batch rolled back; line " + (failedAt[0] + 1) + " failed.", results);
+    }
+
+    private String runBatchCommand(CustomerID customer, String command) {
+        String name = commandName(command);
+        if (!BATCH_COMMANDS.contains(name)) {
+            return "FAIL: " + name + " is not allowed in a batch.";
+        }
+        return process(customer, command);
+    }
+
+    private static String commandName(String command) {
+        return command.split("\\s+", 2)[0].toUpperCase();
+    }
 
-            case "SHOWAVAILABLELOANS": {
-                String result = bank.getLoanService().showAvailableLoans();
+    private static String resultVector(String summary, String[] results) {
+        StringBuilder sb = new StringBuilder(summary);
+        for (int i = 0; i < results.length; i++) {
+            sb.append('\n').append(i + 1).append(' ').append(results[i]);
+        }
+        return sb.append("\nEND_OF_BATCH").toString();
+    }
+
+    /** Whether a reply text reports a failed or malformed command. */
+    private static boolean isFailure(String response) {
+        return response.startsWith("FAIL") || response.startsWith("Usage");
+    }
+
+    // --- commands ---
+
+    public String logout() {
+        return "Session terminated. Goodbye.";
+    }
+
+    public String showAccounts(CustomerID customer) {
+        // Use AccountService via NewBank
+        return bank.getAccountService().showAccounts(customer);
+    }
 
-                return result + "END_OF_LOANS";
+    public String createAccount(CustomerID customer, String accountName) {
+        // Starting balance 0 by default; check and insert happen atomically
+        try {
+            if (!bank.getAccountService().addAccountIfAbsent(customer.getKey(), new Account(accountName, 0))) {
+                return "FAIL: Could not create account '" + accountName
+                        + "'. It may already exist.";
             }
+        } catch (IllegalArgumentException e) {
+            return "FAIL: " + e.getMessage();
+        }
+
+        return "SUCCESS: Account '" + accountName + "' created.";
+    }
+
+    public String closeAccount(CustomerID customer, String accountName) {
+        boolean removed;
+        try {
+            removed = bank.getAccountService().removeAccount(customer.getKey(), accountName);
+        } catch (IllegalArgumentException e) {
+            return "FAIL: " + e.getMessage();
+        }
+        if (removed) {
+            return "SUCCESS: Account '" + accountName + "' closed.";
+        } else {
+            return "FAIL: Account '" + accountName + "' not found or could not be closed.";
+        }
+    }
 
-            case "MYLOANS": {
-                String result = bank.getLoanService().showUserLoan(customer);
+    public String transfer(CustomerID customer, String fromAccount, String toAccount, long amount) {
+        if (amount <= 0) {
+            return "FAIL: Amount must be positive.";
+        }
+
+        try {
+            bank.getAccountService().transfer(customer, fromAccount, toAccount, amount);
+            return "SUCCESS: Transferred " + Money.format(amount) + " from '" + fromAccount +
+                    "' to '" + toAccount + "'.";
+        } catch (IllegalArgumentException e) {
+            return "FAIL: " + e.getMessage();
+        }
+    }
 
-                return result + System.lineSeparator() + "END_OF_MYLOANS";
+    public String pay(CustomerID customer, String payee, long amount, String reference) {
+        if (amount <= 0) {
+            return "FAIL: Amount must be positive.";
+        }
+
+        try {
+            if (!bank.getAccountService().pay(customer, payee, amount, reference)) {
+                return "SUCCESS: Payment '" + reference + "' was already made; nothing was paid again.";
             }
+            return "SUCCESS: Paid " + Money.format(amount) + " to '" + payee + "'"
+                    + (reference.isEmpty() ? "." : " with reference '" + reference + "'.");
+        } catch (IllegalArgumentException e) {
+            return "FAIL: " + e.getMessage();
+        }
+    }
 
-            case "ACCEPTLOAN":
+    public String viewTransactions(CustomerID customer, String accountName, int page) {
+        try {
+            return bank.getAccountService().showTransactions(customer, accountName, page);
+        } catch (IllegalArgumentException e) {
+            return "FAIL: " + e.getMessage();
+        }
+    }
 
-            case "REPAYLOAN":
-                return name + " not implemented yet on server side.";
+    public String offerLoan(CustomerID customer, String fromAccount, long amount, double rate, int termMonths) {
+        try {
+            Loan loan = bank.getLoanService().offerLoan(customer, fromAccount, amount, rate, termMonths, "");
+            return "SUCCESS: Loan created with ID " + loan.getId();
+        } catch (IllegalArgumentException e) {
+            return "FAIL: " + e.getMessage();
+        }
+    }
 
-            default:
-                return "FAIL: Unknown command '" + name + "'. Type HELP for available commands.";
+    public String requestLoan(CustomerID customer, int loanId) {
+        try {
+            Loan loan = bank.getLoanService().requestLoan(customer, loanId);
+            return "SUCCESS: Loan " + loan.getId() + " has been successfully requested.";
+        } catch (IllegalArgumentException e) {
+            return "FAIL: " + e.getMessage();
+        }
+    }
+
+    public String showNotifications(CustomerID customer) {
+        List<Notification> notifications = bank.getNotificationService().getNotifications(customer);
+
+        if (notifications.isEmpty()) {
+            return "You have no notifications.";
+        }
+
+        StringBuilder sb = new StringBuilder("Your notifications:\n");
+        for (Notification n : notifications) {
+            sb.append("  [").append(n.getId()).append("] ")
+                    .append(n.getMessage()).append(" (").append(n.isRead() ? "read" : "unread")
+                    .append(")\n");
+        }
+        return sb.toString().trim();
+    }
+
+    public String showAvailableLoans() {
+        return bank.getLoanService().showAvailableLoans();
+    }
+
+    public String myLoans(CustomerID customer) {
+        return bank.getLoanService().showUserLoan(customer);
+    }
+
+    private static String notImplemented(String name) {
+        return name + " not implemented yet on server side.";
+    }
+
+    private static String unknownCommand(String name) {
+        return "FAIL: Unknown command '" + name + "'. Type HELP for available commands.";
+    }
+
+    /** Appends a line-protocol end marker on its own line. */
+    private static String withEndMarker(String body, String marker) {
+        if (body.isEmpty() || body.endsWith("\n")) {
+            return body + marker;
         }
+        return body + "\n" + marker;
     }
 
-    private String buildHelpMessage() {
+    public String helpText() {
         return String.join("\n",
                 "Available commands:",
                 "  You can either:",
@@ -205,15 +535,16 @@ public class CommandProcessor {
                 "  CREATEACCOUNT <accountName>",
                 "  CLOSEACCOUNT <accountName>",
                 "  TRANSFER <fromAccount> <toAccount> <amount>",
-                "  VIEWTRANSACTIONS <accountName>",
+                "  PAY <payee> <amount> [reference]  (from your first account to the payee's)",
+                "  VIEWTRANSACTIONS <accountName> [page]",
                 "  OFFERLOAN <fromAccount> <amount> <annualRate%> <termMonths> [extra terms...]",
                 "  REQUESTLOAN <loanId>",
                 "  SHOWAVAILABLELOANS",
                 "  ACCEPTLOAN <loanId> <toAccount>",
                 "  MYLOANS",
                 "  REPAYLOAN <loanId> <amount>",
-                "  LOGOUT / EXIT / QUIT",
-                "END_OF_HELP"
+                "  BATCH [ATOMIC]  (then TRANSFER/CREATEACCOUNT/OFFERLOAN/PAY lines, then END_BATCH)",
+                "  LOGOUT / EXIT / QUIT"
         );
     }
 }
@@ -0,0 +1,181 @@
+package newbank.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel: one thread serves any number of coarse-grained timeouts.
+ *
+ * Time is split into ticks of {@code tickMillis}; a timeout lands in the bucket for
+ * its deadline tick (modulo the wheel size) together with the number of full turns
+ * still to wait. Scheduling and cancelling are O(1) and lock-free for callers, and
+ * each tick only looks at one bucket, so thousands of idle sessions cost almost
+ * nothing. Timeouts fire up to one tick late, which is fine for session reaping.
+ *
+ * Tasks run on the wheel thread and must be short; hand real work to an executor.
+ * The thread is a daemon and is started by the first {@link #schedule}.
+ */
+public class HashedTimerWheel {
+
+    /** Handle for a scheduled task. */
+    public interface Timeout {
+        /** @return {@code true} if the task had not run yet and now never will */
+        boolean cancel();
+    }
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static final class Entry implements Timeout {
+        final Runnable task;
+        final long deadlineNanos;
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        long remainingRounds;
+
+        Entry(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+    private final String name;
+    private final long tickNanos;
+    private final int mask;
+    private final List<List<Entry>> wheel;
+    private final Queue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // --- wheel thread only ---
+    private long startNanos;
+    private long tick;
+
+    private Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     */
+    public HashedTimerWheel(String name, long tickMillis, int ticksPerWheel) {
+        if (tickMillis <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tickMillis and ticksPerWheel must be positive");
+        }
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (size <= 0) {
+            size = 1;
+        }
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    /** Runs {@code task} on the wheel thread once {@code delay} has passed (rounded up to a tick). */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        startIfNeeded();
+        Entry entry = new Entry(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        incoming.add(entry);
+        return entry;
+    }
+
+    /** Timeouts scheduled but not yet run or discarded after cancellation. */
+    public int pendingTimeouts() {
+        return pending.get();
+    }
+
+    public void stop() {
+        running = false;
+        Thread t;
+        synchronized (this) {
+            t = worker;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private synchronized void startIfNeeded() {
+        // short, start-once guard; never held while tasks run
+        if (worker == null) {
+            startNanos = System.nanoTime();
+            worker = new Thread(this::run, name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;  // re-check: parkNanos may return early
+            }
+            transferIncoming();
+            expireBucket(wheel.get((int) (tick & mask)), System.nanoTime());
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Entry entry;
+        while ((entry = incoming.poll()) != null) {
+            if (entry.isCancelled()) {
+                pending.decrementAndGet();
+                continue;
+            }
+            long deadlineTick = Math.max(0, (entry.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+            // never in the past: a late entry goes into the bucket processed right now
+            long targetTick = Math.max(deadlineTick, tick);
+            entry.remainingRounds = (targetTick - tick) / wheel.size();
+            wheel.get((int) (targetTick & mask)).add(entry);
+        }
+    }
+
+    private void expireBucket(List<Entry> bucket, long now) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Entry entry = bucket.get(i);
+            if (entry.isCancelled()) {
+                pending.decrementAndGet();
+            } else if (entry.remainingRounds > 0) {
+                entry.remainingRounds--;
+                bucket.set(kept++, entry);
+            } else if (entry.deadlineNanos - now > tickNanos) {
+                // rounding put it one turn early; keep for the next turn
+                bucket.set(kept++, entry);
+            } else {
+                pending.decrementAndGet();
+                if (!entry.state.compareAndSet(PENDING, EXPIRED)) {
+                    continue;  // cancelled just now
+                }
+                try {
+                    entry.task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Timer task failed: " + e.getMessage());
+                    e.printStackTrace(System.err);
+                }
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+}
@@ -0,0 +1,260 @@
+package newbank.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits password attempts before they reach PBKDF2, so retrying logins cannot run
+ * the server out of CPU.
+ *
+ * <p>Every attempt is checked against two token buckets, one for the user name and
+ * one for the remote address, refilling at {@code userLoginsPerMinute} and
+ * {@code sourceLoginsPerMinute} with a minute's worth of burst. On top of that,
+ * after {@value #FREE_FAILURES} consecutive wrong passwords a user name or address
+ * must wait {@code loginBackoffMillis}, doubling with every further failure up to
+ * five minutes; a successful login clears both. {@link ClientSession} also ends a
+ * connection after {@code maxLoginAttemptsPerConnection} failed attempts.
+ *
+ * <p>Each bucket is a single {@code AtomicLong} holding the time the next attempt
+ * "arrives" when the bucket is drained (the GCRA form of a token bucket), so checks
+ * are one compare-and-set and never lock. The store is a {@link ConcurrentHashMap}
+ * capped at {@code maxEntries}; entries that are full and have no recent failures
+ * carry no information and are purged, at most once a second, when the cap is reached.
+ * If the store is still full, attempts from new keys are refused rather than
+ * unthrottled.
+ *
+ * <p>Counters: {@code logins.throttled.user}, {@code logins.throttled.source},
+ * {@code logins.throttled.backoff}, {@code logins.throttled.storeFull} and
+ * {@code logins.connectionLimit}; gauge {@code logins.throttleEntries}.
+ */
+public class LoginThrottle {
+
+    /** Wrong passwords in a row that are allowed before back-off starts. */
+    public static final int FREE_FAILURES = 3;
+
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final long BURST_NANOS = TimeUnit.MINUTES.toNanos(1);  // a minute's worth of attempts
+    private static final long PURGE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Rate, back-off and failure state of one user name or address. */
+    private static final class Entry {
+        final AtomicLong nextArrival;  // GCRA theoretical arrival time
+        final AtomicInteger failures = new AtomicInteger();
+        volatile long lastFailure;
+
+        Entry(long now) {
+            this.nextArrival = new AtomicLong(now);
+        }
+    }
+
+    private final Map<String, Entry> users = new ConcurrentHashMap<>();
+    private final Map<String, Entry> sources = new ConcurrentHashMap<>();
+    private final long userInterval;    // nanos per refilled attempt; 0 = unlimited
+    private final long sourceInterval;
+    private final long backoffNanos;    // 0 = no back-off
+    private final int maxAttemptsPerConnection;  // 0 = unlimited
+    private final int maxEntries;
+    private final LongSupplier clock;
+    private final AtomicLong nextPurge;
+
+    private final LongAdder throttledUser;
+    private final LongAdder throttledSource;
+    private final LongAdder throttledBackoff;
+    private final LongAdder throttledStoreFull;
+    private final LongAdder connectionLimit;
+
+    public LoginThrottle(int userLoginsPerMinute, int sourceLoginsPerMinute, long backoffMillis,
+                         int maxAttemptsPerConnection, int maxEntries, LongSupplier nanoClock) {
+        this.userInterval = intervalFor(userLoginsPerMinute);
+        this.sourceInterval = intervalFor(sourceLoginsPerMinute);
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        this.maxAttemptsPerConnection = maxAttemptsPerConnection;
+        this.maxEntries = maxEntries;
+        this.clock = nanoClock;
+        this.nextPurge = new AtomicLong(nanoClock.getAsLong());
+
+        ServerMetrics metrics = ServerMetrics.getMetrics();
+        this.throttledUser = metrics.counter("logins.throttled.user");
+        this.throttledSource = metrics.counter("logins.throttled.source");
+        this.throttledBackoff = metrics.counter("logins.throttled.backoff");
+        this.throttledStoreFull = metrics.counter("logins.throttled.storeFull");
+        this.connectionLimit = metrics.counter("logins.connectionLimit");
+    }
+
+    public static LoginThrottle fromConfig(ServerConfig config) {
+        LoginThrottle throttle = new LoginThrottle(
+                config.getUserLoginsPerMinute(),
+                config.getSourceLoginsPerMinute(),
+                config.getLoginBackoffMillis(),
+                config.getMaxLoginAttemptsPerConnection(),
+                100_000,
+                System::nanoTime);
+        ServerMetrics.getMetrics().gauge("logins.throttleEntries", throttle::size);
+        return throttle;
+    }
+
+    /** A throttle that lets every attempt through; used with {@link AuthWorkerPool#direct()}. */
+    public static LoginThrottle unlimited() {
+        return new LoginThrottle(0, 0, 0, 0, 0, System::nanoTime);
+    }
+
+    private static long intervalFor(int perMinute) {
+        return perMinute <= 0 ? 0 : TimeUnit.MINUTES.toNanos(1) / perMinute;
+    }
+
+    /**
+     * Takes one attempt from the buckets of {@code userName} and {@code source}.
+     *
+     * @return {@code null} if the password may be checked, otherwise the reason to
+     *         show the client
+     */
+    public String tryAcquire(String userName, String source) {
+        if (userInterval == 0 && sourceInterval == 0 && backoffNanos == 0) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        Entry user = entry(users, userName, now);
+        Entry from = entry(sources, source, now);
+        if (user == null || from == null) {
+            throttledStoreFull.increment();
+            return retryMessage(PURGE_INTERVAL_NANOS);
+        }
+
+        long wait = Math.max(backoffRemaining(user, now), backoffRemaining(from, now));
+        if (wait > 0) {
+            throttledBackoff.increment();
+            return retryMessage(wait);
+        }
+        wait = take(from, sourceInterval, now);
+        if (wait > 0) {
+            throttledSource.increment();
+            return retryMessage(wait);
+        }
+        wait = take(user, userInterval, now);
+        if (wait > 0) {
+            throttledUser.increment();
+            return retryMessage(wait);
+        }
+        return null;
+    }
+
+    /** Records a wrong password for back-off. */
+    public void recordFailure(String userName, String source) {
+        long now = clock.getAsLong();
+        fail(users.get(userName), now);
+        fail(sources.get(source), now);
+    }
+
+    /** Clears the failure history of both keys after a correct password. */
+    public void recordSuccess(String userName, String source) {
+        clear(users.get(userName));
+        clear(sources.get(source));
+    }
+
+    /** Failed attempts after which a connection is closed; 0 = unlimited. */
+    public int getMaxAttemptsPerConnection() {
+        return maxAttemptsPerConnection;
+    }
+
+    /** Counts a connection closed for too many failed attempts. */
+    void recordConnectionLimit() {
+        connectionLimit.increment();
+    }
+
+    /** User names and addresses currently tracked. */
+    public long size() {
+        return users.size() + sources.size();
+    }
+
+    // --- buckets ---
+
+    private Entry entry(Map<String, Entry> store, String key, long now) {
+        Entry existing = store.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (store.size() >= maxEntries) {
+            purge(now);
+            if (store.size() >= maxEntries) {
+                return null;
+            }
+        }
+        return store.computeIfAbsent(key, k -> new Entry(now));
+    }
+
+    /** Consumes one token; returns 0 on success, else the nanos until one is available. */
+    private static long take(Entry entry, long interval, long now) {
+        if (interval == 0) {
+            return 0;
+        }
+        while (true) {
+            long arrival = entry.nextArrival.get();
+            long start = arrival - now < 0 ? now : arrival;
+            long next = start + interval;
+            if (next - now > BURST_NANOS) {
+                return next - now - BURST_NANOS;
+            }
+            if (entry.nextArrival.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private long backoffRemaining(Entry entry, long now) {
+        if (backoffNanos == 0) {
+            return 0;
+        }
+        int failures = entry.failures.get();
+        if (failures < FREE_FAILURES) {
+            return 0;
+        }
+        long sinceFailure = now - entry.lastFailure;
+        if (sinceFailure >= MAX_BACKOFF_NANOS) {
+            return 0;
+        }
+        int doublings = Math.min(failures - FREE_FAILURES, 30);
+        long delay = Math.min(backoffNanos << doublings, MAX_BACKOFF_NANOS);
+        return Math.max(0, delay - sinceFailure);
+    }
+
+    private void fail(Entry entry, long now) {
+        if (entry == null) {
+            return;
+        }
+        if (entry.failures.get() > 0 && now - entry.lastFailure >= MAX_BACKOFF_NANOS) {
+            entry.failures.set(0);  // forgiven after a quiet spell
+        }
+        entry.lastFailure = now;
+        entry.failures.incrementAndGet();
+    }
+
+    private static void clear(Entry entry) {
+        if (entry != null) {
+            entry.failures.set(0);
+        }
+    }
+
+    private void purge(long now) {
+        long due = nextPurge.get();
+        if (now - due < 0 || !nextPurge.compareAndSet(due, now + PURGE_INTERVAL_NANOS)) {
+            return;
+        }
+        users.values().removeIf(entry -> isIdle(entry, now));
+        sources.values().removeIf(entry -> isIdle(entry, now));
+    }
+
+    private static boolean isIdle(Entry entry, long now) {
+        return entry.nextArrival.get() - now <= 0
+                && (entry.failures.get() == 0 || now - entry.lastFailure >= MAX_BACKOFF_NANOS);
+    }
+
+    private static String retryMessage(long waitNanos) {
+        long seconds = Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+        return "Too many login attempts. Please try again in " + seconds + " second" + (seconds == 1 ? "" : "s") + ".";
+    }
+}
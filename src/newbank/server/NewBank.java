@@ -1,37 +1,203 @@
 package newbank.server;
 
+import newbank.protocol.Money;
 import newbank.server.model.Account;
 import newbank.server.model.Customer;
 import newbank.server.model.CustomerID;
 import newbank.server.model.Loan;
+import newbank.server.persistence.CommandClass;
+import newbank.server.persistence.Durability;
+import newbank.server.persistence.RecordInput;
+import newbank.server.persistence.RecordType;
+import newbank.server.persistence.SnapshotStore;
+import newbank.server.persistence.WriteAheadLog;
 import newbank.server.service.AccountService;
 import newbank.server.service.CustomerService;
 import newbank.server.service.NotificationService;
 import newbank.server.service.LoanService;
+import newbank.server.service.TransactionJournal;
+import newbank.server.service.security.PasswordRehasher;
+import newbank.server.service.security.SessionTokenService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class NewBank {
 
-    private static final NewBank bank = new NewBank();
+    private static final ReentrantLock creation = new ReentrantLock();
+    private static volatile NewBank bank;
+
+    private final WriteAheadLog log = new WriteAheadLog();
+    private TransactionJournal journal = new TransactionJournal();
+    private final SessionTokenService sessionTokenService;
+
+    // replaced only while open() recovers, before the server accepts connections
+    private CustomerService customerService;
+    private AccountService accountService;
+    private LoanService loanService;
+    private NotificationService notificationService;
 
-    private final CustomerService customerService;
-    private final AccountService accountService;
-    private final LoanService loanService;
-    private final NotificationService notificationService;
+    private Path dataDir;  // null unless opened from a data directory
+    private Path recoveredSnapshot;
+    private long replayedRecords;
 
     private NewBank() {
-        this.customerService = new CustomerService();
-        this.accountService = new AccountService(customerService);
+        this.sessionTokenService = new SessionTokenService();
+        createServices();
+    }
+
+    private void createServices() {
+        this.customerService = new CustomerService(new PasswordRehasher(1_024), log);
+        this.accountService = new AccountService(customerService, journal, log);
+        this.notificationService = new NotificationService(log);
         this.loanService = new LoanService(this);
-        this.notificationService = new NotificationService();
+    }
+
+    // --- persistence ---
+
+    /**
+     * Creates the bank from {@code dataDir} and makes it durable there: the latest
+     * snapshot is loaded, the write-ahead log is replayed from where the snapshot
+     * ends, and from then on every change is logged before its command replies. The
+     * transaction journal lives in its own {@code journal} subdirectory, keeping the
+     * newest {@code journalMemoryEntries} entries in memory; the replay journals again
+     * the changes a crash took from it. An empty directory starts
+     * a new log holding the built-in test data. Must be called before anything calls
+     * {@link #getBank()}.
+     *
+     * @throws IllegalStateException if the bank already exists
+     */
+    public static NewBank open(Path dataDir, Map<CommandClass, Durability> durability, int journalMemoryEntries)
+            throws IOException {
+        creation.lock();
+        try {
+            if (bank != null) {
+                throw new IllegalStateException("The bank has already been created.");
+            }
+            NewBank opened = new NewBank();
+            opened.recover(dataDir, durability, journalMemoryEntries);
+            bank = opened;
+            return opened;
+        } finally {
+            creation.unlock();
+        }
+    }
+
+    private void recover(Path dataDir, Map<CommandClass, Durability> durability, int journalMemoryEntries)
+            throws IOException {
+        Files.createDirectories(dataDir);
+        this.dataDir = dataDir;
+        Path file = dataDir.resolve(WriteAheadLog.FILE_NAME);
+        List<Path> snapshots = SnapshotStore.list(dataDir);
+        boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+        if (fresh && !snapshots.isEmpty()) {
+            throw new IOException(dataDir + " holds snapshots but no " + WriteAheadLog.FILE_NAME
+                    + "; restore the log or remove the snapshots.");
+        }
+        // the journal keeps its own files; the replay below journals again only what a crash lost
+        journal = TransactionJournal.open(dataDir.resolve("journal"), journalMemoryEntries, System::currentTimeMillis);
+        createServices();
+
+        long from = 0;
+        for (Path snapshot : snapshots) {
+            try {
+                from = snapshotStore().load(snapshot, Runtime.getRuntime().availableProcessors());
+                recoveredSnapshot = snapshot;
+                break;
+            } catch (IOException e) {
+                // the log is never cut at a snapshot, so an older one, or none, also works
+                System.out.println("Skipping snapshot " + snapshot + ": " + e.getMessage());
+                createServices();
+            }
+        }
+        long validLength = WriteAheadLog.replay(file, from, (type, in, lsn) -> {
+            replay(type, in, lsn);
+            replayedRecords++;
+        });
+        journal.endRecovery();
+
+        log.open(file, validLength, durability);
+        if (fresh) {
+            // logged like any other change, since the log is open
+            addTestData();
+            addTestLoans();
+            log.sync();
+        }
+    }
 
-        addTestData();
-        addTestLoans();
+    private void replay(RecordType type, RecordInput in, long lsn) {
+        switch (type.getCommandClass()) {
+            case CUSTOMERS:
+                customerService.replay(type, in);
+                break;
+            case LOANS:
+                loanService.replay(type, in, lsn);
+                break;
+            case NOTIFICATIONS:
+                notificationService.replay(type, in, lsn);
+                break;
+            default:
+                accountService.replay(type, in, lsn);
+                break;
+        }
+    }
+
+    private SnapshotStore snapshotStore() {
+        return new SnapshotStore(dataDir, customerService, accountService, loanService, notificationService, log);
+    }
+
+    /**
+     * Writes a snapshot to the data directory while commands keep running, so the
+     * next start replays only the log written after it.
+     *
+     * @return the snapshot file
+     * @throws IllegalStateException if the bank was not {@link #open opened} from a data directory
+     */
+    public Path writeSnapshot() throws IOException {
+        if (dataDir == null) {
+            throw new IllegalStateException("The bank has no data directory.");
+        }
+        return snapshotStore().write();
+    }
+
+    /** The snapshot the bank was restored from; {@code null} if none. */
+    public Path getRecoveredSnapshot() {
+        return recoveredSnapshot;
+    }
+
+    /** Write-ahead log records replayed at start-up, after the snapshot. */
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    public WriteAheadLog getWriteAheadLog() {
+        return log;
     }
 
     // --- service getters ---
 
+    /** The bank; unless it was {@link #open opened} first, it is created holding the built-in test data. */
     public static NewBank getBank() {
-        return bank;
+        NewBank current = bank;
+        if (current != null) {
+            return current;
+        }
+        creation.lock();
+        try {
+            if (bank == null) {
+                NewBank seeded = new NewBank();
+                seeded.addTestData();
+                seeded.addTestLoans();
+                bank = seeded;
+            }
+            return bank;
+        } finally {
+            creation.unlock();
+        }
     }
 
     public LoanService getLoanService() {
@@ -50,26 +216,30 @@ public class NewBank {
         return accountService;
     }
 
+    public SessionTokenService getSessionTokenService() {
+        return sessionTokenService;
+    }
+
     // --- test data ---
 
     private void addTestData() {
         // Bhagy
         customerService.registerCustomer("Bhagy", "1234");
-        accountService.addAccount("Bhagy", new Account("Main", 1000.0));
+        accountService.addAccount("Bhagy", new Account("Main", Money.ofMajor(1000)));
 
         // Christina
         customerService.registerCustomer("Christina", "abcd");
-        accountService.addAccount("Christina", new Account("Savings", 1500.0));
+        accountService.addAccount("Christina", new Account("Savings", Money.ofMajor(1500)));
 
         // John
         customerService.registerCustomer("John", "pass");
-        accountService.addAccount("John", new Account("Checking", 250.0));
+        accountService.addAccount("John", new Account("Checking", Money.ofMajor(250)));
 
         // Test user
         customerService.registerCustomer("Test", "Test");
-        accountService.addAccount("Test", new Account("Main", 1000.0));
-        accountService.addAccount("Test", new Account("Savings", 1000.0));
-        accountService.addAccount("Test", new Account("Bonds", 1000.0));
+        accountService.addAccount("Test", new Account("Main", Money.ofMajor(1000)));
+        accountService.addAccount("Test", new Account("Savings", Money.ofMajor(1000)));
+        accountService.addAccount("Test", new Account("Bonds", Money.ofMajor(1000)));
     }
 
     private void addTestLoans() {
@@ -78,7 +248,7 @@ public class NewBank {
             loanService.offerLoan(
                     new CustomerID("Bhagy"),
                     "Main",
-                    200.0,
+                    Money.ofMajor(200),
                     5.0,
                     12,
                     "Test loan from Bhagy"
@@ -87,7 +257,7 @@ public class NewBank {
             loanService.offerLoan(
                     new CustomerID("Bhagy"),
                     "Main",
-                    200.0,
+                    Money.ofMajor(200),
                     5.0,
                     12,
                     "Test loan from Bhagy"
@@ -97,7 +267,7 @@ public class NewBank {
             loanService.offerLoan(
                     new CustomerID("Christina"),
                     "Savings",
-                    300.0,
+                    Money.ofMajor(300),
                     4.5,
                     6,
                     "Short-term loan"
@@ -107,7 +277,7 @@ public class NewBank {
             loanService.offerLoan(
                     new CustomerID("Test"),
                     "Savings",
-                    150.0,
+                    Money.ofMajor(150),
                     3.0,
                     3,
                     "Demo loan"
@@ -127,7 +297,11 @@ public class NewBank {
         return customerService.hasCustomer(customerID.getKey());
     }
 
-    public synchronized CustomerID checkLogInDetails(String userName, String password) {
+    /**
+     * Verifies the password (PBKDF2, deliberately slow). Safe to call from many threads
+     * at once; the servers run it on their {@link AuthWorkerPool}.
+     */
+    public CustomerID checkLogInDetails(String userName, String password) {
         if (customerService.authenticate(userName, password)) {
             return new CustomerID(userName);
         }
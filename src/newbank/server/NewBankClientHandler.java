@@ -1,103 +1,207 @@
 package newbank.server;
 
-import newbank.server.model.Customer;
-import newbank.server.model.CustomerID;
+import newbank.protocol.Frame;
+import newbank.protocol.FrameCodec;
+import newbank.protocol.LineReader;
+import newbank.protocol.ProtocolException;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
-public class NewBankClientHandler extends Thread {
+/**
+ * Serves one client socket with blocking reads.
+ *
+ * The handler is a plain {@link Runnable}; {@link NewBankServer} decides what runs it
+ * (a virtual thread per session, a bounded platform pool, or a new platform thread)
+ * according to {@link ServerConfig.SessionMode}.
+ *
+ * Connections start in the line protocol. If the client's first line is the binary
+ * upgrade request, the same streams are switched to length-prefixed frames
+ * (see {@link newbank.protocol.FrameCodec}). In binary mode this thread only reads:
+ * once the client is logged in, each request runs on its own virtual thread (at most
+ * {@code maxPipelined} at once) and its reply is written as soon as it is ready, so
+ * a client can pipeline requests and match the replies by correlation id.
+ *
+ * Password checks run on the server's {@link AuthWorkerPool}; this thread sends
+ * "Checking Details..." straight away and then waits for the verdict.
+ *
+ * A {@link SessionReaper} watches the connection. When the login or idle deadline
+ * passes it shuts down the socket's input, which ends the blocked read; this thread
+ * then sends the goodbye and releases everything as on a normal disconnect.
+ */
+public class NewBankClientHandler implements Runnable {
 
-    private final NewBank bank;
-    private final CommandProcessor commandProcessor;
-    private final BufferedReader in;
-    private final PrintWriter out;
+    private static final Executor PIPELINE_EXECUTOR =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("newbank-request-", 0).factory());
+
+    private final Socket socket;
+    private final ClientSession session;
+    private final AdmissionController admission;
+    private final InputStream in;
+    private final ResponseWriter out;
+    private final int maxPipelined;
+    private final SessionReaper reaper;
+    private volatile String timeoutGoodbye;
 
     public NewBankClientHandler(Socket s) {
-        bank = NewBank.getBank();
-        commandProcessor = new CommandProcessor(bank);
+        this(s, AdmissionController.unlimited());
+    }
+
+    public NewBankClientHandler(Socket s, AdmissionController admission) {
+        this(s, admission, AuthWorkerPool.direct(), SessionReaper.disabled(),
+                ServerConfig.defaults().getMaxPipelinedRequests());
+    }
+
+    /**
+     * Creates a handler for a connection that has already been admitted; its session
+     * slot is given back to {@code admission} when the handler finishes.
+     */
+    public NewBankClientHandler(Socket s, AdmissionController admission, AuthWorkerPool auth,
+                                SessionReaper reaper, int maxPipelined) {
+        this.socket = s;
+        this.reaper = reaper;
+        this.maxPipelined = maxPipelined;
+        this.admission = admission;
+        session = new ClientSession(NewBank.getBank(), auth, remoteAddressOf(s));
         try {
-            in = new BufferedReader(new InputStreamReader(s.getInputStream()));
-            out = new PrintWriter(s.getOutputStream(), true);
+            in = new BufferedInputStream(s.getInputStream());
+            // unbuffered: the response writer already hands over one whole reply per write
+            out = new StreamResponseWriter(s.getOutputStream());
         } catch (IOException e) {
             throw new RuntimeException("Failed to initialise client handler streams", e);
         }
     }
 
+    private static String remoteAddressOf(Socket s) {
+        return s.getInetAddress() == null ? "unknown" : s.getInetAddress().getHostAddress();
+    }
+
     @Override
     public void run() {
+        SessionReaper.Watch watch = reaper.watch(session, this::expire);
         try {
-            CustomerID customer = null;
-
-            // ===== LOGIN LOOP =====
-            while (customer == null) {
-                // ask for user name
-                out.println("Enter Username (case-sensitive):");
-                String userName = in.readLine();
-                if (userName == null) {
-                    // client disconnected during login
-                    return;
-                }
-
-                // ask for password
-                out.println("Enter Password (case-sensitive):");
-                String password = in.readLine();
-                if (password == null) {
-                    // client disconnected during login
-                    return;
-                }
+            // login prompts, retries and command dispatch all live in ClientSession
+            LineReader lines = new LineReader(in);
+            session.start(out::writeLine);
+            out.flush();
 
-                out.println("Checking Details...");
-
-                // authenticate user and get customer ID token
-                // Check if username exists
-                Customer customerObj = bank.getCustomer(userName);
-                if (customerObj == null) {
-                    out.println("Log In Failed");
-                    out.println("Username does not exist. Please try again.");
-                    continue;  // retry
-                }
-
-                // Check password correctness
-                customer = bank.checkLogInDetails(userName, password);
-                if (customer == null) {
-                    out.println("Log In Failed");
-                    out.println("Incorrect password. Please try again.");
+            while (!session.isClosed()) {
+                String line = lines.readLine();
+                if (line == null) {
+                    // client disconnected (during login or after), or the reaper shut input down
+                    break;
                 }
-            }
-
-            // ===== LOGGED-IN SESSION =====
-            out.println("Log In Successful. Welcome " + customer.getKey() + "! What do you want to do?");
-            while (true) {
-                String request = in.readLine();
-                if (request == null) {
-                    // client disconnected after login
+                watch.touch();
+                if (session.isUpgradeRequest(line)) {
+                    session.upgradeToBinary(out::writeLine);
+                    out.flush();
+                    serveFrames(watch);
                     break;
                 }
-                System.out.println("Request from " + customer.getKey());
-                String response = commandProcessor.process(customer, request);
-                out.println(response);
+                awaitReply(session.handleLine(line, out::writeLine));
+            }
 
-                if (response != null && response.startsWith("Session terminated")) {
-                    break;  // LOGOUT/EXIT/QUIT
+            String goodbye = timeoutGoodbye;
+            if (goodbye != null) {
+                if (session.isBinary()) {
+                    out.writeFrame(Frame.fail(goodbye));
+                } else {
+                    out.writeLine(goodbye);
                 }
+                out.flush();
             }
 
+        } catch (ProtocolException e) {
+            System.err.println("Dropping client after malformed frame: " + e.getMessage());
         } catch (IOException e) {
             System.err.println("I/O error in client handler: " + e.getMessage());
             e.printStackTrace(System.err);
         } finally {
+            watch.cancel();
+            session.close();
+            admission.release();
             try {
-                in.close();
-                out.close();
+                socket.close();
             } catch (IOException e) {
                 System.err.println("Error closing client handler streams: " + e.getMessage());
                 e.printStackTrace(System.err);
-                Thread.currentThread().interrupt();
             }
         }  // end try
     }      // end run
+
+    /** Called on the timer thread: wake the blocked read, which then says goodbye. */
+    private void expire(String goodbye) {
+        timeoutGoodbye = goodbye;
+        try {
+            socket.shutdownInput();
+        } catch (IOException e) {
+            // already closed; the read loop ends anyway
+        }
+    }
+
+    /**
+     * Sends what has been written so far and, if the reply is still being worked out
+     * (a password check on the auth pool), waits for it and sends the rest.
+     */
+    private void awaitReply(CompletableFuture<Void> reply) throws IOException {
+        if (!reply.isDone()) {
+            out.flush();
+            reply.join();
+        }
+        out.flush();
+    }
+
+    private void serveFrames(SessionReaper.Watch watch) throws IOException {
+        DataInputStream frames = new DataInputStream(in);
+        Semaphore slots = new Semaphore(maxPipelined);
+        try {
+            while (!session.isClosed()) {
+                Frame request = FrameCodec.read(frames);
+                if (request == null) {
+                    break;
+                }
+                watch.touch();
+                if (session.isPipelined(request)) {
+                    slots.acquireUninterruptibly();
+                    PIPELINE_EXECUTOR.execute(() -> {
+                        try {
+                            try {
+                                session.handleFrame(request, out::writeFrame);
+                            } catch (RuntimeException e) {
+                                // still answer this id, or the client waits for it forever
+                                System.err.println("Error processing pipelined request: " + e.getMessage());
+                                e.printStackTrace(System.err);
+                                out.writeFrame(Frame.fail("FAIL: Internal server error.")
+                                        .withCorrelationId(request.getCorrelationId()));
+                            }
+                            out.flush();
+                        } catch (IOException e) {
+                            // client went away; the read loop will see EOF
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } else {
+                    // LOGIN/LOGOUT: wait for every earlier request, then run alone
+                    slots.acquireUninterruptibly(maxPipelined);
+                    try {
+                        awaitReply(session.handleFrame(request, out::writeFrame));
+                    } finally {
+                        slots.release(maxPipelined);
+                    }
+                }
+            }
+        } finally {
+            // let in-flight replies go out before the socket is closed
+            slots.acquireUninterruptibly(maxPipelined);
+        }
+    }
+
 }          // end class
@@ -1,30 +1,168 @@
 package newbank.server;
 
+import newbank.protocol.Money;
+import newbank.server.nio.NioServerEngine;
+import newbank.server.service.CustomerImportService;
+import newbank.server.service.security.PasswordHashPolicy;
+
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class NewBankServer extends Thread{
-	
+
 	private ServerSocket server;
-	
+	private ExecutorService sessionExecutor;
+	private NioServerEngine nioEngine;
+	private final AdmissionController admission;
+	private final AuthWorkerPool auth;
+	private final int maxPipelinedRequests;
+	private final SessionReaper reaper;
+
 	public NewBankServer(int port) throws IOException {
-		server = new ServerSocket(port);
+		this(port, ServerConfig.fromSystemProperties());
+	}
+
+	public NewBankServer(int port, ServerConfig config) throws IOException {
+		// before the bank exists, so every stored balance uses the configured scale
+		Money.setScale(config.getMoneyScale());
+		// existing hashes keep their own parameters and are upgraded as their owners log in
+		PasswordHashPolicy.setCurrent(PasswordHashPolicy.pbkdf2(
+				config.getPasswordIterations(), config.getPasswordKeyLength()));
+		if (config.getDataDir() != null) {
+			openLog(Path.of(config.getDataDir()), config);
+		}
+		NewBank.getBank().getSessionTokenService().setTimeToLiveSeconds(config.getSessionTokenTtlSeconds());
+		NewBank.getBank().getAccountService().getJournal().setMemoryEntries(config.getJournalMemoryEntries());
+		if (config.getImportFile() != null) {
+			importCustomers(Path.of(config.getImportFile()));
+		}
+		admission = AdmissionController.fromConfig(config);
+		auth = AuthWorkerPool.fromConfig(config);
+		maxPipelinedRequests = config.getMaxPipelinedRequests();
+		reaper = SessionReaper.fromConfig(config);
+		if (config.getEngine() == ServerConfig.Engine.NIO) {
+			nioEngine = new NioServerEngine(port, config, admission, auth, reaper);
+		} else {
+			server = new ServerSocket(port);
+			sessionExecutor = createSessionExecutor(config);
+		}
+		if (config.getMetricsIntervalSeconds() > 0) {
+			startMetricsReporter(config.getMetricsIntervalSeconds());
+		}
+	}
+
+	private static void openLog(Path dataDir, ServerConfig config) throws IOException {
+		// recovers the state of the last run before anything else reads or changes it
+		long start = System.nanoTime();
+		NewBank bank = NewBank.open(dataDir, config.getWalDurability(), config.getJournalMemoryEntries());
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Path snapshot = bank.getRecoveredSnapshot();
+		System.out.println("Write-ahead log " + dataDir + ": " + (snapshot == null ? "no snapshot, " : "snapshot "
+				+ snapshot.getFileName() + " + ") + bank.getReplayedRecords() + " records replayed in " + millis
+				+ " ms, durability " + config.getWalDurability());
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				bank.getWriteAheadLog().close();
+				bank.getAccountService().getJournal().close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "newbank-wal-close"));
+		if (config.getSnapshotIntervalSeconds() > 0) {
+			startSnapshots(bank, config.getSnapshotIntervalSeconds());
+		}
+	}
+
+	private static void startSnapshots(NewBank bank, int intervalSeconds) {
+		ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "newbank-snapshot");
+			t.setDaemon(true);
+			return t;
+		});
+		snapshots.scheduleWithFixedDelay(() -> {
+			try {
+				bank.writeSnapshot();
+			} catch (IOException | RuntimeException e) {
+				// the log still holds everything; the next attempt may succeed
+				System.out.println("Snapshot failed: " + e);
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	private static void importCustomers(Path file) throws IOException {
+		// runs before the server listens, so nobody logs in to a half-imported bank
+		NewBank bank = NewBank.getBank();
+		System.out.println("Importing customers from " + file);
+		CustomerImportService.ImportReport report = new CustomerImportService(
+				bank.getCustomerService(), bank.getAccountService()).importFile(file);
+		System.out.println(report);
+	}
+
+	private static void startMetricsReporter(int intervalSeconds) {
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "newbank-metrics");
+			t.setDaemon(true);
+			return t;
+		});
+		reporter.scheduleAtFixedRate(() -> System.out.println(ServerMetrics.getMetrics().report()),
+				intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
 	}
-	
+
+	private static ExecutorService createSessionExecutor(ServerConfig config) {
+		switch (config.getSessionMode()) {
+			case VIRTUAL:
+				// cheap enough to give every session its own thread; blocking reads unmount the carrier
+				return Executors.newThreadPerTaskExecutor(
+						Thread.ofVirtual().name("newbank-session-", 0).factory());
+			case POOLED: {
+				ThreadFactory factory = Thread.ofPlatform().name("newbank-session-", 0).factory();
+				return Executors.newFixedThreadPool(config.getSessionPoolSize(), factory);
+			}
+			case LEGACY:
+			default:
+				return Executors.newThreadPerTaskExecutor(
+						Thread.ofPlatform().name("newbank-session-", 0).factory());
+		}
+	}
+
 	public void run() {
-		// starts up a new client handler thread to receive incoming connections and process requests
+		if (nioEngine != null) {
+			// selector-based engine: a few I/O threads serve every connection
+			nioEngine.run();
+			return;
+		}
+		// hands every incoming connection to a client handler on the configured session executor
 		System.out.println("New Bank Server listening on " + server.getLocalPort());
 		try {
 			while(true) {
 				Socket s = server.accept();
-				NewBankClientHandler clientHandler = new NewBankClientHandler(s);
-				clientHandler.start();
+				// admitted now, queued until a session ends, or turned away straight away
+				admission.offer(new AdmissionController.Candidate() {
+					@Override
+					public void admit() {
+						startSession(s);
+					}
+
+					@Override
+					public void reject() {
+						rejectConnection(s);
+					}
+				});
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		finally {
+			sessionExecutor.shutdown();
 			try {
 				server.close();
 			} catch (IOException e) {
@@ -33,9 +171,34 @@ public class NewBankServer extends Thread{
 			}
 		}
 	}
-	
+
+	private void startSession(Socket s) {
+		try {
+			sessionExecutor.execute(new NewBankClientHandler(s, admission, auth, reaper, maxPipelinedRequests));
+		} catch (RuntimeException e) {
+			// handler never ran, so give its slot back here
+			admission.release();
+			rejectConnection(s);
+		}
+	}
+
+	private static void rejectConnection(Socket s) {
+		try (s) {
+			OutputStream out = s.getOutputStream();
+			out.write((AdmissionController.BUSY_MESSAGE + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+		} catch (IOException e) {
+			// client already gone; nothing to tell it
+		}
+	}
+
+	public AdmissionController getAdmissionController() {
+		return admission;
+	}
+
 	public static void main(String[] args) throws IOException {
 		// starts a new NewBankServer thread on a specified port number
-		new NewBankServer(14002).start();
+		// e.g. --engine=nio selects the non-blocking engine (see ServerConfig)
+		new NewBankServer(14002, ServerConfig.fromArgs(args)).start();
 	}
 }
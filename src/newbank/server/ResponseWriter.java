@@ -0,0 +1,27 @@
+package newbank.server;
+
+import newbank.protocol.Frame;
+
+import java.io.IOException;
+
+/**
+ * The write path shared by both connection engines.
+ *
+ * A transport passes {@link #writeLine} / {@link #writeFrame} to {@link ClientSession}
+ * as its reply sink, then calls {@link #flush()} once the request has been handled.
+ * Implementations encode the parts into one reusable buffer and hand it to the socket
+ * in a single write, so a multi-line reply costs one syscall instead of one per line.
+ *
+ * Implementations are thread-safe: pipelined binary replies are written from
+ * several threads, and replies that complete while a write is in progress are sent
+ * together with the next one.
+ */
+public interface ResponseWriter {
+
+    void writeLine(String line);
+
+    void writeFrame(Frame frame);
+
+    /** Sends everything written so far. */
+    void flush() throws IOException;
+}
@@ -0,0 +1,490 @@
+package newbank.server;
+
+import newbank.protocol.Money;
+import newbank.server.persistence.CommandClass;
+import newbank.server.persistence.Durability;
+import newbank.server.service.TransactionJournal;
+
+import java.util.Map;
+
+/**
+ * Start-up configuration for {@link NewBankServer}.
+ *
+ * Values are read from {@code newbank.*} system properties and may be overridden
+ * on the command line with {@code --key=value}, e.g.
+ * {@code java newbank.server.NewBankServer --engine=nio --nio.ioThreads=2}
+ * is the same as {@code -Dnewbank.engine=nio -Dnewbank.nio.ioThreads=2}.
+ */
+public class ServerConfig {
+
+    /** Which connection engine accepts and serves client sockets. */
+    public enum Engine {
+        /** One blocking {@link NewBankClientHandler} per socket (original behaviour). */
+        BLOCKING,
+        /** Non-blocking {@code ServerSocketChannel}/{@code Selector} engine. */
+        NIO
+    }
+
+    /** How the blocking engine runs each {@link NewBankClientHandler}. */
+    public enum SessionMode {
+        /** A new virtual thread per session. */
+        VIRTUAL,
+        /** A bounded pool of platform threads; extra sessions wait for a free thread. */
+        POOLED,
+        /** A new platform thread per session (original behaviour). */
+        LEGACY
+    }
+
+    private static final String PREFIX = "newbank.";
+
+    private Engine engine;
+    private SessionMode sessionMode;
+    private int sessionPoolSize;
+    private int ioThreads;
+    private int workerThreads;
+    private int bufferSize;
+    private int maxSessions;
+    private int maxQueuedConnections;
+    private int admissionTimeoutMillis;
+    private int maxConcurrentLogins;
+    private int loginQueueTimeoutMillis;
+    private int authQueueCapacity;
+    private int metricsIntervalSeconds;
+    private int maxPipelinedRequests;
+    private int loginTimeoutMillis;
+    private int idleTimeoutMillis;
+    private int passwordIterations;
+    private int passwordKeyLength;
+    private int sessionTokenTtlSeconds;
+    private int userLoginsPerMinute;
+    private int sourceLoginsPerMinute;
+    private int loginBackoffMillis;
+    private int maxLoginAttemptsPerConnection;
+    private String importFile;
+    private int moneyScale;
+    private int journalMemoryEntries;
+    private String dataDir;
+    private Map<CommandClass, Durability> walDurability;
+    private int snapshotIntervalSeconds;
+
+    private ServerConfig() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.engine = Engine.BLOCKING;
+        this.sessionMode = SessionMode.LEGACY;
+        this.sessionPoolSize = 200;
+        this.ioThreads = Math.max(1, Math.min(4, cores / 2));
+        this.workerThreads = Math.max(2, cores);
+        this.bufferSize = 8192;
+        this.maxSessions = 10_000;
+        this.maxQueuedConnections = 256;
+        this.admissionTimeoutMillis = 5_000;
+        this.maxConcurrentLogins = cores;
+        this.loginQueueTimeoutMillis = 3_000;
+        this.authQueueCapacity = 1_024;
+        this.metricsIntervalSeconds = 0;
+        this.maxPipelinedRequests = 32;
+        this.loginTimeoutMillis = 60_000;
+        this.idleTimeoutMillis = 900_000;
+        this.passwordIterations = 65_536;
+        this.passwordKeyLength = 32;
+        this.sessionTokenTtlSeconds = 3_600;
+        this.userLoginsPerMinute = 10;
+        this.sourceLoginsPerMinute = 60;
+        this.loginBackoffMillis = 1_000;
+        this.maxLoginAttemptsPerConnection = 5;
+        this.moneyScale = Money.DEFAULT_SCALE;
+        this.journalMemoryEntries = TransactionJournal.DEFAULT_MEMORY_ENTRIES;
+        this.walDurability = CommandClass.defaults();
+        this.snapshotIntervalSeconds = 300;
+    }
+
+    public static ServerConfig defaults() {
+        return new ServerConfig();
+    }
+
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.engine = Engine.valueOf(
+                stringProperty("engine", config.engine.name()).trim().toUpperCase());
+        config.sessionMode = SessionMode.valueOf(
+                stringProperty("sessionMode", config.sessionMode.name()).trim().toUpperCase());
+        config.sessionPoolSize = intProperty("sessionPoolSize", config.sessionPoolSize);
+        config.ioThreads = intProperty("nio.ioThreads", config.ioThreads);
+        config.workerThreads = intProperty("nio.workerThreads", config.workerThreads);
+        config.bufferSize = intProperty("nio.bufferSize", config.bufferSize);
+        config.maxSessions = intProperty("maxSessions", config.maxSessions);
+        config.maxQueuedConnections = intProperty("maxQueuedConnections", config.maxQueuedConnections, 0);
+        config.admissionTimeoutMillis = intProperty("admissionTimeoutMillis", config.admissionTimeoutMillis, 0);
+        config.maxConcurrentLogins = intProperty("maxConcurrentLogins", config.maxConcurrentLogins);
+        config.loginQueueTimeoutMillis = intProperty("loginQueueTimeoutMillis", config.loginQueueTimeoutMillis, 0);
+        config.authQueueCapacity = intProperty("authQueueCapacity", config.authQueueCapacity);
+        config.metricsIntervalSeconds = intProperty("metricsIntervalSeconds", config.metricsIntervalSeconds, 0);
+        config.maxPipelinedRequests = intProperty("maxPipelinedRequests", config.maxPipelinedRequests);
+        config.loginTimeoutMillis = intProperty("loginTimeoutMillis", config.loginTimeoutMillis, 0);
+        config.idleTimeoutMillis = intProperty("idleTimeoutMillis", config.idleTimeoutMillis, 0);
+        config.passwordIterations = intProperty("passwordIterations", config.passwordIterations);
+        config.passwordKeyLength = intProperty("passwordKeyLength", config.passwordKeyLength, 16);
+        config.sessionTokenTtlSeconds = intProperty("sessionTokenTtlSeconds", config.sessionTokenTtlSeconds, 0);
+        config.userLoginsPerMinute = intProperty("userLoginsPerMinute", config.userLoginsPerMinute, 0);
+        config.sourceLoginsPerMinute = intProperty("sourceLoginsPerMinute", config.sourceLoginsPerMinute, 0);
+        config.loginBackoffMillis = intProperty("loginBackoffMillis", config.loginBackoffMillis, 0);
+        config.maxLoginAttemptsPerConnection = intProperty("maxLoginAttemptsPerConnection",
+                config.maxLoginAttemptsPerConnection, 0);
+        config.importFile = stringProperty("importFile", null);
+        config.moneyScale = intProperty("moneyScale", config.moneyScale, 0);
+        config.journalMemoryEntries = intProperty("journalMemoryEntries", config.journalMemoryEntries, 1);
+        config.dataDir = stringProperty("dataDir", null);
+        config.walDurability = CommandClass.parseDurabilities(stringProperty("walDurability", null));
+        config.snapshotIntervalSeconds = intProperty("snapshotIntervalSeconds", config.snapshotIntervalSeconds, 0);
+        return config;
+    }
+
+    /**
+     * Applies {@code --key=value} arguments as {@code newbank.key} system properties
+     * and then reads the resulting configuration.
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Unrecognised argument '" + arg
+                        + "'. Expected --key=value, e.g. --engine=nio");
+            }
+            int eq = arg.indexOf('=');
+            System.setProperty(PREFIX + arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return fromSystemProperties();
+    }
+
+    private static String stringProperty(String key, String defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return (value == null || value.isBlank()) ? defaultValue : value;
+    }
+
+    private static int intProperty(String key, int defaultValue) {
+        return intProperty(key, defaultValue, 1);
+    }
+
+    private static int intProperty(String key, int defaultValue, int minimum) {
+        String value = System.getProperty(PREFIX + key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed < minimum) {
+                throw new IllegalArgumentException(PREFIX + key + " must be at least " + minimum + ": " + value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + PREFIX + key + ": " + value, e);
+        }
+    }
+
+    // --- fluent setters (mainly for tests and embedding) ---
+
+    public ServerConfig withEngine(Engine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    public ServerConfig withSessionMode(SessionMode sessionMode) {
+        this.sessionMode = sessionMode;
+        return this;
+    }
+
+    public ServerConfig withSessionPoolSize(int sessionPoolSize) {
+        this.sessionPoolSize = sessionPoolSize;
+        return this;
+    }
+
+    public ServerConfig withIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    public ServerConfig withWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public ServerConfig withBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public ServerConfig withMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+        return this;
+    }
+
+    public ServerConfig withMaxQueuedConnections(int maxQueuedConnections) {
+        this.maxQueuedConnections = maxQueuedConnections;
+        return this;
+    }
+
+    public ServerConfig withAdmissionTimeoutMillis(int admissionTimeoutMillis) {
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        return this;
+    }
+
+    public ServerConfig withMaxConcurrentLogins(int maxConcurrentLogins) {
+        this.maxConcurrentLogins = maxConcurrentLogins;
+        return this;
+    }
+
+    public ServerConfig withLoginQueueTimeoutMillis(int loginQueueTimeoutMillis) {
+        this.loginQueueTimeoutMillis = loginQueueTimeoutMillis;
+        return this;
+    }
+
+    public ServerConfig withAuthQueueCapacity(int authQueueCapacity) {
+        this.authQueueCapacity = authQueueCapacity;
+        return this;
+    }
+
+    public ServerConfig withMaxPipelinedRequests(int maxPipelinedRequests) {
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        return this;
+    }
+
+    public ServerConfig withLoginTimeoutMillis(int loginTimeoutMillis) {
+        this.loginTimeoutMillis = loginTimeoutMillis;
+        return this;
+    }
+
+    public ServerConfig withIdleTimeoutMillis(int idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public ServerConfig withPasswordIterations(int passwordIterations) {
+        this.passwordIterations = passwordIterations;
+        return this;
+    }
+
+    public ServerConfig withPasswordKeyLength(int passwordKeyLength) {
+        this.passwordKeyLength = passwordKeyLength;
+        return this;
+    }
+
+    public ServerConfig withSessionTokenTtlSeconds(int sessionTokenTtlSeconds) {
+        this.sessionTokenTtlSeconds = sessionTokenTtlSeconds;
+        return this;
+    }
+
+    public ServerConfig withUserLoginsPerMinute(int userLoginsPerMinute) {
+        this.userLoginsPerMinute = userLoginsPerMinute;
+        return this;
+    }
+
+    public ServerConfig withSourceLoginsPerMinute(int sourceLoginsPerMinute) {
+        this.sourceLoginsPerMinute = sourceLoginsPerMinute;
+        return this;
+    }
+
+    public ServerConfig withLoginBackoffMillis(int loginBackoffMillis) {
+        this.loginBackoffMillis = loginBackoffMillis;
+        return this;
+    }
+
+    public ServerConfig withMaxLoginAttemptsPerConnection(int maxLoginAttemptsPerConnection) {
+        this.maxLoginAttemptsPerConnection = maxLoginAttemptsPerConnection;
+        return this;
+    }
+
+    public ServerConfig withImportFile(String importFile) {
+        this.importFile = importFile;
+        return this;
+    }
+
+    public ServerConfig withMoneyScale(int moneyScale) {
+        this.moneyScale = moneyScale;
+        return this;
+    }
+
+    public ServerConfig withJournalMemoryEntries(int journalMemoryEntries) {
+        this.journalMemoryEntries = journalMemoryEntries;
+        return this;
+    }
+
+    public ServerConfig withDataDir(String dataDir) {
+        this.dataDir = dataDir;
+        return this;
+    }
+
+    public ServerConfig withWalDurability(Map<CommandClass, Durability> walDurability) {
+        this.walDurability = walDurability;
+        return this;
+    }
+
+    public ServerConfig withSnapshotIntervalSeconds(int snapshotIntervalSeconds) {
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        return this;
+    }
+
+    // --- getters ---
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public SessionMode getSessionMode() {
+        return sessionMode;
+    }
+
+    public int getSessionPoolSize() {
+        return sessionPoolSize;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public int getMaxQueuedConnections() {
+        return maxQueuedConnections;
+    }
+
+    public int getAdmissionTimeoutMillis() {
+        return admissionTimeoutMillis;
+    }
+
+    public int getMaxConcurrentLogins() {
+        return maxConcurrentLogins;
+    }
+
+    public int getLoginQueueTimeoutMillis() {
+        return loginQueueTimeoutMillis;
+    }
+
+    public int getAuthQueueCapacity() {
+        return authQueueCapacity;
+    }
+
+    public int getMetricsIntervalSeconds() {
+        return metricsIntervalSeconds;
+    }
+
+    /** Binary requests of one connection allowed to run at the same time. */
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    /** Time allowed from connecting to a successful login; 0 = unlimited. */
+    public int getLoginTimeoutMillis() {
+        return loginTimeoutMillis;
+    }
+
+    /** Time a logged-in session may go without a request; 0 = unlimited. */
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /** PBKDF2 iterations for new and upgraded password hashes. */
+    public int getPasswordIterations() {
+        return passwordIterations;
+    }
+
+    /** Derived key length in bytes for new and upgraded password hashes. */
+    public int getPasswordKeyLength() {
+        return passwordKeyLength;
+    }
+
+    /** Lifetime of the session token issued at a binary login; 0 = no tokens. */
+    public int getSessionTokenTtlSeconds() {
+        return sessionTokenTtlSeconds;
+    }
+
+    /** Password attempts per user name per minute (burst: one minute's worth); 0 = unlimited. */
+    public int getUserLoginsPerMinute() {
+        return userLoginsPerMinute;
+    }
+
+    /** Password attempts per remote address per minute (burst: one minute's worth); 0 = unlimited. */
+    public int getSourceLoginsPerMinute() {
+        return sourceLoginsPerMinute;
+    }
+
+    /** First back-off after repeated wrong passwords, doubling each time; 0 = none. */
+    public int getLoginBackoffMillis() {
+        return loginBackoffMillis;
+    }
+
+    /** Failed login attempts before a connection is closed; 0 = unlimited. */
+    public int getMaxLoginAttemptsPerConnection() {
+        return maxLoginAttemptsPerConnection;
+    }
+
+    /** CSV of customers and accounts to import before accepting connections; null = none. */
+    public String getImportFile() {
+        return importFile;
+    }
+
+    /** Decimal places of money amounts; balances are stored as whole minor units. */
+    public int getMoneyScale() {
+        return moneyScale;
+    }
+
+    /** Newest transaction journal entries kept in memory for VIEWTRANSACTIONS. */
+    public int getJournalMemoryEntries() {
+        return journalMemoryEntries;
+    }
+
+    /** Directory holding the write-ahead log; null = state is kept in memory only. */
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    /** How long each class of command waits for its log record before replying. */
+    public Map<CommandClass, Durability> getWalDurability() {
+        return walDurability;
+    }
+
+    /** Seconds between snapshots of the data directory; 0 = never. */
+    public int getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "engine=" + engine
+                + ", sessionMode=" + sessionMode
+                + ", sessionPoolSize=" + sessionPoolSize
+                + ", ioThreads=" + ioThreads
+                + ", workerThreads=" + workerThreads
+                + ", bufferSize=" + bufferSize
+                + ", maxSessions=" + maxSessions
+                + ", maxQueuedConnections=" + maxQueuedConnections
+                + ", admissionTimeoutMillis=" + admissionTimeoutMillis
+                + ", maxConcurrentLogins=" + maxConcurrentLogins
+                + ", loginQueueTimeoutMillis=" + loginQueueTimeoutMillis
+                + ", metricsIntervalSeconds=" + metricsIntervalSeconds
+                + ", maxPipelinedRequests=" + maxPipelinedRequests
+                + ", loginTimeoutMillis=" + loginTimeoutMillis
+                + ", idleTimeoutMillis=" + idleTimeoutMillis
+                + ", passwordIterations=" + passwordIterations
+                + ", passwordKeyLength=" + passwordKeyLength
+                + ", sessionTokenTtlSeconds=" + sessionTokenTtlSeconds
+                + ", userLoginsPerMinute=" + userLoginsPerMinute
+                + ", sourceLoginsPerMinute=" + sourceLoginsPerMinute
+                + ", loginBackoffMillis=" + loginBackoffMillis
+                + ", maxLoginAttemptsPerConnection=" + maxLoginAttemptsPerConnection
+                + ", importFile=" + importFile
+                + ", moneyScale=" + moneyScale
+                + ", journalMemoryEntries=" + journalMemoryEntries
+                + ", dataDir=" + dataDir
+                + ", walDurability=" + walDurability
+                + ", snapshotIntervalSeconds=" + snapshotIntervalSeconds;
+    }
+}
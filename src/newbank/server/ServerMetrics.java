@@ -0,0 +1,64 @@
+package newbank.server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of server counters and gauges.
+ *
+ * Counters are {@link LongAdder}s so hot paths can bump them from many threads
+ * without contending on a single cache line. Gauges are read lazily when a
+ * snapshot is taken. {@link NewBankServer} can print {@link #report()} periodically
+ * (see {@code newbank.metricsIntervalSeconds}).
+ */
+public class ServerMetrics {
+
+    private static final ServerMetrics metrics = new ServerMetrics();
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private ServerMetrics() {
+    }
+
+    public static ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Returns the counter with the given name, creating it on first use. */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /** Registers (or replaces) a gauge that is sampled whenever a snapshot is taken. */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public long value(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter != null) {
+            return counter.sum();
+        }
+        LongSupplier gauge = gauges.get(name);
+        return gauge == null ? 0 : gauge.getAsLong();
+    }
+
+    /** Current value of every counter and gauge, sorted by name. */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        return snapshot;
+    }
+
+    /** One-line {@code name=value} summary suitable for the server log. */
+    public String report() {
+        StringBuilder sb = new StringBuilder("metrics:");
+        snapshot().forEach((name, value) -> sb.append(' ').append(name).append('=').append(value));
+        return sb.toString();
+    }
+}
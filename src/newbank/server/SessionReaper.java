@@ -0,0 +1,157 @@
+package newbank.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Closes sessions that never finish logging in, or that go quiet after login.
+ *
+ * Each connection gets one {@link Watch}. Transports call {@link Watch#touch()}
+ * whenever a request arrives; that only records a timestamp. A single
+ * {@link HashedTimerWheel} timeout per connection checks the deadline when it fires
+ * and re-arms itself for the remaining time if the session was active meanwhile,
+ * so busy connections never reschedule timers.
+ *
+ * <ul>
+ *     <li>Login phase: the customer must be logged in within {@code loginTimeoutMillis}
+ *     of connecting.</li>
+ *     <li>After login: the session is reaped after {@code idleTimeoutMillis} without
+ *     a request.</li>
+ * </ul>
+ * A value of 0 disables that limit. Reaped sessions are counted in
+ * {@link ServerMetrics} as {@code sessions.reaped.login} and {@code sessions.reaped.idle}.
+ */
+public final class SessionReaper {
+
+    /** Goodbye sent to a session that did not log in in time. */
+    public static final String LOGIN_TIMEOUT_MESSAGE = "Session terminated: login not completed in time. Goodbye.";
+
+    /** Goodbye sent to a logged-in session that stayed idle too long. */
+    public static final String IDLE_TIMEOUT_MESSAGE = "Session terminated: idle for too long. Goodbye.";
+
+    private static final long TICK_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private static final SessionReaper DISABLED = new SessionReaper(0, 0);
+
+    private final long loginTimeoutNanos;
+    private final long idleTimeoutNanos;
+    private final HashedTimerWheel wheel;
+    private final LongAdder reapedLogin;
+    private final LongAdder reapedIdle;
+
+    public SessionReaper(long loginTimeoutMillis, long idleTimeoutMillis) {
+        this.loginTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(loginTimeoutMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.wheel = isEnabled() ? new HashedTimerWheel("newbank-reaper", TICK_MILLIS, TICKS_PER_WHEEL) : null;
+
+        ServerMetrics metrics = ServerMetrics.getMetrics();
+        this.reapedLogin = metrics.counter("sessions.reaped.login");
+        this.reapedIdle = metrics.counter("sessions.reaped.idle");
+    }
+
+    public static SessionReaper fromConfig(ServerConfig config) {
+        SessionReaper reaper = new SessionReaper(config.getLoginTimeoutMillis(), config.getIdleTimeoutMillis());
+        if (reaper.wheel != null) {
+            ServerMetrics.getMetrics().gauge("timers.pending", reaper.wheel::pendingTimeouts);
+        }
+        return reaper;
+    }
+
+    /** A reaper that never closes anything. */
+    public static SessionReaper disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return loginTimeoutNanos > 0 || idleTimeoutNanos > 0;
+    }
+
+    /**
+     * Starts watching a new connection.
+     *
+     * @param onExpire called once, on the timer thread, with the goodbye message to send;
+     *                 it must not block (close or wake the connection, do not write to it)
+     */
+    public Watch watch(ClientSession session, Consumer<String> onExpire) {
+        Watch watch = new Watch(session, onExpire);
+        watch.arm(System.nanoTime());
+        return watch;
+    }
+
+    /** Deadline tracking for one connection. */
+    public final class Watch {
+
+        private final ClientSession session;
+        private final Consumer<String> onExpire;
+        private final long connectedNanos = System.nanoTime();
+        private volatile long lastActivityNanos = connectedNanos;
+        private volatile HashedTimerWheel.Timeout timeout;
+        private volatile boolean cancelled;
+
+        private Watch(ClientSession session, Consumer<String> onExpire) {
+            this.session = session;
+            this.onExpire = onExpire;
+        }
+
+        /** Records activity on the connection. Cheap enough to call for every request. */
+        public void touch() {
+            lastActivityNanos = System.nanoTime();
+        }
+
+        /** Stops watching, e.g. because the connection closed normally. */
+        public void cancel() {
+            cancelled = true;
+            HashedTimerWheel.Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+
+        private void arm(long now) {
+            if (wheel == null || cancelled) {
+                return;
+            }
+            long next = deadline();
+            if (session.getState() != ClientSession.State.LOGGED_IN && idleTimeoutNanos > 0) {
+                // a login may happen before the login deadline; look again in time for the idle limit
+                next = Math.min(next, now + idleTimeoutNanos);
+            }
+            if (next == Long.MAX_VALUE) {
+                return;  // nothing left to enforce
+            }
+            timeout = wheel.schedule(this::check, next - now, TimeUnit.NANOSECONDS);
+            if (cancelled) {
+                timeout.cancel();
+            }
+        }
+
+        private long deadline() {
+            if (session.getState() == ClientSession.State.LOGGED_IN) {
+                return idleTimeoutNanos > 0 ? lastActivityNanos + idleTimeoutNanos : Long.MAX_VALUE;
+            }
+            return loginTimeoutNanos > 0 ? connectedNanos + loginTimeoutNanos : Long.MAX_VALUE;
+        }
+
+        private void check() {
+            if (cancelled || session.isClosed()) {
+                return;
+            }
+            long now = System.nanoTime();
+            long deadline = deadline();
+            if (deadline == Long.MAX_VALUE || now - deadline < 0) {
+                arm(now);  // active since this timer was set, or logged in meanwhile
+                return;
+            }
+            cancelled = true;
+            if (session.getState() == ClientSession.State.LOGGED_IN) {
+                reapedIdle.increment();
+                onExpire.accept(IDLE_TIMEOUT_MESSAGE);
+            } else {
+                reapedLogin.increment();
+                onExpire.accept(LOGIN_TIMEOUT_MESSAGE);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package newbank.server;
+
+import newbank.protocol.Frame;
+import newbank.protocol.WriteBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ResponseWriter} for a blocking socket stream, used by {@link NewBankClientHandler}.
+ *
+ * Replies are appended to a pending buffer. {@link #flush()} swaps it with a spare
+ * buffer and writes the swapped-out bytes to the raw (unbuffered) socket stream
+ * outside the lock, so other threads can keep appending meanwhile. If a flush is
+ * already in progress, a second caller does not wait: the thread that is writing
+ * picks up the new bytes in its next round, so replies that finish together go out
+ * in one write.
+ */
+public class StreamResponseWriter implements ResponseWriter {
+
+    private final OutputStream out;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock
+    private WriteBuffer pending = new WriteBuffer();
+    private WriteBuffer spare = new WriteBuffer();
+    private boolean flushing;
+
+    public StreamResponseWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void writeLine(String line) {
+        lock.lock();
+        try {
+            pending.appendLine(line);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void writeFrame(Frame frame) {
+        lock.lock();
+        try {
+            pending.appendFrame(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        WriteBuffer toWrite;
+        lock.lock();
+        try {
+            if (flushing || pending.isEmpty()) {
+                return;  // the flushing thread will send our bytes too
+            }
+            flushing = true;
+            toWrite = swap();
+        } finally {
+            lock.unlock();
+        }
+
+        boolean done = false;
+        try {
+            while (true) {
+                toWrite.writeTo(out);
+                out.flush();
+                lock.lock();
+                try {
+                    toWrite.clear();
+                    spare = toWrite;
+                    if (pending.isEmpty()) {
+                        // cleared under the same lock that saw pending empty, so a writer
+                        // that appends after this point finds flushing false and sends itself
+                        flushing = false;
+                        done = true;
+                        return;
+                    }
+                    toWrite = swap();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            if (!done) {
+                lock.lock();
+                try {
+                    flushing = false;
+                    // the stream is broken; drop what it cannot take
+                    pending.clear();
+                    if (spare == null) {
+                        spare = new WriteBuffer();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /** Called with the lock held: makes the pending bytes writable and starts a fresh pending buffer. */
+    private WriteBuffer swap() {
+        WriteBuffer full = pending;
+        pending = spare;
+        spare = null;
+        return full;
+    }
+}
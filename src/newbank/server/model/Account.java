@@ -1,18 +1,74 @@
 package newbank.server.model;
 
+import newbank.protocol.Money;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A named account; the balance is in {@link Money} minor units (cents by default).
+ *
+ * When AccountService opens an account it gives it an {@link #getId() id}, unique
+ * across the bank and never reused, so a later account under the same name is told
+ * apart from this one.
+ *
+ * {@link #credit} and {@link #tryDebit} update the balance without a lock, with a
+ * compare-and-set retry loop, so concurrent deposits and withdrawals on one account
+ * never lose an update and a withdrawal never takes the balance below zero.
+ */
 public class Account {
 
+	private static final VarHandle BALANCE;
+
+	static {
+		try {
+			BALANCE = MethodHandles.lookup().findVarHandle(Account.class, "balance", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private long id;  // 0 until the account is opened
 	private String accountName;
-	private double balance;
+	// changed by compare-and-set, or by restoreBalance while AccountService excludes other writers
+	private volatile long balance;
 
-	public Account(String accountName, double openingBalance) {
+	public Account(String accountName, long openingBalance) {
 		this.accountName = accountName;
 		this.balance = openingBalance;
 	}
 
+	/** An account that was opened before, as restored from the log or a snapshot. */
+	public Account(long id, String accountName, long balance) {
+		this(accountName, balance);
+		this.id = id;
+	}
+
 	@Override
 	public String toString() {
-		return accountName + ": " + balance;
+		return appendTo(new StringBuilder(accountName.length() + 24)).toString();
+	}
+
+	/** Appends {@code name: balance}, e.g. {@code Main: 1000.00}. */
+	public StringBuilder appendTo(StringBuilder out) {
+		return Money.appendTo(out.append(accountName).append(": "), balance);
+	}
+
+	/** The id issued when the account was opened; 0 if it has not been opened yet. */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Gives the account the id AccountService issued when opening it.
+	 *
+	 * @throws IllegalStateException if the account already has an id
+	 */
+	public void assignId(long id) {
+		if (this.id != 0) {
+			throw new IllegalStateException("Account '" + accountName + "' already has id " + this.id + ".");
+		}
+		this.id = id;
 	}
 
 	public String getAccountName() {
@@ -23,11 +79,45 @@ public class Account {
 		this.accountName = accountName;
 	}
 
-	public double getBalance(){
+	public long getBalance(){
 		return balance;
 	}
 
-	public void setBalance(double balance) {
-		this.balance = balance;
+	/**
+	 * Puts back a balance saved earlier, for rolling back an atomic batch. Unlike
+	 * {@link #credit} and {@link #tryDebit} this overwrites whatever is there, so it is
+	 * only called while AccountService holds the customer's write lock, which keeps
+	 * every other writer of this account out.
+	 */
+	public void restoreBalance(long balance) {
+		BALANCE.setVolatile(this, balance);
+	}
+
+	/**
+	 * Adds {@code amount} to the balance atomically.
+	 *
+	 * @throws ArithmeticException if the balance would overflow; it is left unchanged
+	 */
+	public void credit(long amount) {
+		long current;
+		do {
+			current = balance;
+		} while (!BALANCE.weakCompareAndSet(this, current, Math.addExact(current, amount)));
+	}
+
+	/**
+	 * Takes {@code amount} from the balance atomically if the balance covers it.
+	 *
+	 * @return {@code false}, leaving the balance unchanged, if funds are insufficient
+	 */
+	public boolean tryDebit(long amount) {
+		long current;
+		do {
+			current = balance;
+			if (current < amount) {
+				return false;
+			}
+		} while (!BALANCE.weakCompareAndSet(this, current, current - amount));
+		return true;
 	}
 }
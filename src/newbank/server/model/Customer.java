@@ -1,30 +1,36 @@
 package newbank.server.model;
 
-import newbank.server.service.security.PasswordManagerService;
+import newbank.server.service.security.PasswordHash;
+import newbank.server.service.security.PasswordHashPolicy;
+
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Customer {
 
-    private final String passwordHash;
-    private final String passwordSalt;
+    // the hash records its own parameters, so it can be upgraded in place after a login
+    private final AtomicReference<PasswordHash> passwordHash;
 
     public Customer(String userInputPassword) {
-        try {
-            PasswordManagerService.HashResult result =
-                    PasswordManagerService.hashPassword(userInputPassword);
-
-            this.passwordHash = result.hash;
-            this.passwordSalt = result.salt;
+        this(PasswordHash.create(userInputPassword, PasswordHashPolicy.current()));
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("Error hashing password process", e);
-        }
+    public Customer(PasswordHash passwordHash) {
+        this.passwordHash = new AtomicReference<>(passwordHash);
     }
 
     public boolean checkPassword(String passwordToCheck) {
-        try {
-            return PasswordManagerService.verify(passwordToCheck, passwordHash, passwordSalt);
-        } catch (Exception e) {
-            throw new RuntimeException("Password verification failed", e);
-        }
+        return passwordHash.get().matches(passwordToCheck);
+    }
+
+    public PasswordHash getPasswordHash() {
+        return passwordHash.get();
+    }
+
+    /**
+     * Swaps in {@code replacement} if the stored hash is still {@code expected}, so an
+     * upgrade never overwrites a hash that changed meanwhile.
+     */
+    public boolean replacePasswordHash(PasswordHash expected, PasswordHash replacement) {
+        return passwordHash.compareAndSet(expected, replacement);
     }
 }
@@ -0,0 +1,114 @@
+package newbank.server.model;
+
+import newbank.protocol.Money;
+
+import java.time.Instant;
+
+/**
+ * One balance movement recorded by the transaction journal.
+ *
+ * Entries are immutable. {@code sequence} is unique and increases with every
+ * movement the bank makes, so it orders entries across all accounts; the amount is
+ * in {@link Money} minor units and always positive, with the direction given by the
+ * {@link Type}.
+ */
+public final class JournalEntry {
+
+    public enum Type {
+        DEPOSIT(1),
+        WITHDRAWAL(-1),
+        TRANSFER_IN(1),
+        TRANSFER_OUT(-1);
+
+        private final int sign;
+
+        Type(int sign) {
+            this.sign = sign;
+        }
+
+        /** +1 if this movement adds to the balance, -1 if it takes from it. */
+        public int getSign() {
+            return sign;
+        }
+    }
+
+    private final long sequence;
+    private final long timestampMillis;
+    private final String customer;
+    private final String accountName;
+    private final Type type;
+    private final long amount;
+    private final String counterparty;
+
+    public JournalEntry(long sequence, long timestampMillis, String customer, String accountName,
+                        Type type, long amount, String counterparty) {
+        this.sequence = sequence;
+        this.timestampMillis = timestampMillis;
+        this.customer = customer;
+        this.accountName = accountName;
+        this.type = type;
+        this.amount = amount;
+        this.counterparty = counterparty;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public String getCustomer() {
+        return customer;
+    }
+
+    public String getAccountName() {
+        return accountName;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    /** The other account of a transfer, or {@code null}. */
+    public String getCounterparty() {
+        return counterparty;
+    }
+
+    /** Appends e.g. {@code #42 2026-10-18T09:12:03Z TRANSFER_OUT -100.00 to 'Savings'}. */
+    public StringBuilder appendTo(StringBuilder out) {
+        return appendTo(out, sequence, timestampMillis, type, amount, null, counterparty);
+    }
+
+    /**
+     * Appends an entry given as its fields, as {@link #appendTo(StringBuilder)} does,
+     * without creating it. {@code counterpartyOwner} is {@code null} unless the
+     * counterparty belongs to another customer.
+     */
+    public static StringBuilder appendTo(StringBuilder out, long sequence, long timestampMillis, Type type,
+                                         long amount, String counterpartyOwner, String counterparty) {
+        out.append('#').append(sequence).append(' ')
+                .append(Instant.ofEpochMilli(timestampMillis / 1_000 * 1_000)).append(' ')
+                .append(type).append(' ')
+                .append(type.getSign() < 0 ? '-' : '+');
+        Money.appendTo(out, amount);
+        if (counterparty != null) {
+            out.append(type == Type.TRANSFER_OUT ? " to '" : " from '");
+            if (counterpartyOwner != null) {
+                out.append(counterpartyOwner).append('/');
+            }
+            out.append(counterparty).append('\'');
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(64)).toString();
+    }
+}
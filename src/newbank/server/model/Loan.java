@@ -1,12 +1,14 @@
 package newbank.server.model;
 
+import newbank.protocol.Money;
+
 /**
  * Represents a loan offered within the NewBank system.
  *
  * A Loan is created when a customer offers to lend money from one of their
  * accounts. The class stores all financial details of the offer: the principal
- * amount, interest rate, repayment term, the originating account, and optional
- * additional terms. It also tracks the current status of the loan as it moves
+ * amount (in {@link Money} minor units), interest rate, repayment term, the
+ * originating account, and optional additional terms. It also tracks the current status of the loan as it moves
  * through the loan lifecycle.
  *
  * Responsibilities of this class:
@@ -22,14 +24,14 @@ public class Loan {
     private final long id;
     private final CustomerID lender;
     private final String fromAccount;
-    private final double amount;
+    private final long amount;
     private final double interestRate;
     private final int termMonths;
     private final String extraTerms;
     private LoanStatus loanStatus;
 
 
-    public Loan (int id, CustomerID lender, String fromAccount, double amount, double interestRate, int termMonths, String extraTerms, LoanStatus loanStatus){
+    public Loan (int id, CustomerID lender, String fromAccount, long amount, double interestRate, int termMonths, String extraTerms, LoanStatus loanStatus){
 
         this.id = id;
         this.lender = lender;
@@ -54,7 +56,7 @@ public class Loan {
         return fromAccount;
     }
 
-    public double getAmount() {
+    public long getAmount() {
         return amount;
     }
 
@@ -86,7 +88,8 @@ public class Loan {
         sb.append("Load ID: ").append(id).
                 append(", Lender").append(lender.getKey()).
                 append(", From account: ").append(fromAccount).
-                append(", Amount of loan: ").append(amount).
+                append(", Amount of loan: ");
+        Money.appendTo(sb, amount).
                 append(", Term ").append(termMonths).append(" % per year").
                 append(", Status").append(loanStatus);
 
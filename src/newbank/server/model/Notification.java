@@ -36,12 +36,19 @@ public class Notification {
      * by default.
      */
     public Notification(int id, CustomerID recipient, String message){
+        this(id, recipient, message, LocalDateTime.now(), false);
+    }
 
+    /**
+     * Recreates a stored notification with its original timestamp and read status,
+     * e.g. when the bank's state is recovered at start-up.
+     */
+    public Notification(int id, CustomerID recipient, String message, LocalDateTime createdAt, boolean read) {
         this.id = id;
         this.recipient = recipient;
         this.message = message;
-        this.createdAt = LocalDateTime.now();
-        this.read = false;
+        this.createdAt = createdAt;
+        this.read = read;
     }
 
     public int getId() {
@@ -0,0 +1,44 @@
+package newbank.server.model;
+
+import newbank.protocol.Money;
+
+/**
+ * A payment one customer made to another under a reference, remembered so that a
+ * retried {@code PAY} with the same reference is not paid twice.
+ *
+ * Payments are immutable; the amount is in {@link Money} minor units.
+ */
+public final class Payment {
+
+    private final String reference;
+    private final String payee;
+    private final long amount;
+
+    public Payment(String reference, String payee, long amount) {
+        this.reference = reference;
+        this.payee = payee;
+        this.amount = amount;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public String getPayee() {
+        return payee;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    /** Whether {@code other} pays the same amount to the same payee. */
+    public boolean sameAs(Payment other) {
+        return payee.equals(other.payee) && amount == other.amount;
+    }
+
+    @Override
+    public String toString() {
+        return "Payment[" + reference + ": " + Money.format(amount) + " to " + payee + "]";
+    }
+}
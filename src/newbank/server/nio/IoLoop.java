@@ -0,0 +1,104 @@
+package newbank.server.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single I/O thread multiplexing many {@link NioConnection}s over one {@link Selector}.
+ *
+ * Other threads never touch the selector's keys directly. New connections and
+ * "reply ready" notifications are queued and applied by the loop itself after
+ * {@link Selector#wakeup()}.
+ */
+final class IoLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingFlushes = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    IoLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    void register(NioConnection connection) {
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+    }
+
+    void requestFlush(NioConnection connection) {
+        pendingFlushes.add(connection);
+        selector.wakeup();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                applyPending();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("I/O loop failed: " + e.getMessage());
+            e.printStackTrace(System.err);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void applyPending() {
+        NioConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                connection.register(selector);
+            } catch (IOException e) {
+                System.err.println("Failed to register NIO connection: " + e.getMessage());
+                connection.close();
+            }
+        }
+        while ((connection = pendingFlushes.poll()) != null) {
+            connection.flush();
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection) {
+                ((NioConnection) attachment).close();
+            }
+        }
+        NioConnection pending;
+        while ((pending = pendingRegistrations.poll()) != null) {
+            pending.close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Error closing selector: " + e.getMessage());
+        }
+    }
+}
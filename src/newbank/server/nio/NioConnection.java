@@ -0,0 +1,457 @@
+package newbank.server.nio;
+
+import newbank.protocol.BinaryProtocol;
+import newbank.protocol.Frame;
+import newbank.protocol.FrameCodec;
+import newbank.protocol.ProtocolException;
+import newbank.server.AdmissionController;
+import newbank.server.AuthWorkerPool;
+import newbank.server.ClientSession;
+import newbank.server.NewBank;
+import newbank.server.ServerMetrics;
+import newbank.server.SessionReaper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One client connection served by an {@link IoLoop}.
+ *
+ * Reading, line framing and socket writes happen on the owning I/O thread.
+ * Complete lines are queued and handed to the worker pool, which feeds them to the
+ * connection's {@link ClientSession} strictly one at a time, so slow work never
+ * blocks the selector. While a password is being checked on the
+ * {@link AuthWorkerPool} no worker is held: the connection's queue resumes when the
+ * check completes. Each reply is encoded into one
+ * buffer by a {@link NioResponseWriter} and written back by the I/O thread, which
+ * gathers all queued replies into a single write.
+ *
+ * If the first line is the binary upgrade request, the I/O thread switches to frame
+ * decoding straight away (bytes after the upgrade line in the same read are already
+ * frames) and queues decoded {@link Frame}s instead of lines. Once logged in, binary
+ * requests are dispatched to the workers concurrently (up to {@code maxPipelined} at
+ * a time) and their replies go out as they finish, tagged with the request's
+ * correlation id; LOGIN and LOGOUT wait until everything before them is done.
+ *
+ * Reading stops while {@value #MAX_QUEUED_REQUESTS} requests are queued or replies
+ * are waiting for the socket to accept them, so a client that sends faster than it
+ * is served, or does not read its replies, is held back by TCP instead of growing
+ * the queues. Reading resumes once the workers have caught up.
+ *
+ * When the {@link SessionReaper} expires the session, the goodbye is queued and the
+ * connection is closed after one flush attempt, even if the client is not reading.
+ */
+final class NioConnection {
+
+    /** Longest request line accepted before the connection is dropped. */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /** Queued requests at which the connection stops reading until the workers catch up. */
+    static final int MAX_QUEUED_REQUESTS = 1024;
+
+    /** Most buffers handed to one gathering write. */
+    private static final int MAX_GATHER = 64;
+
+    /** Queued in place of a line to tell the worker the client asked for binary mode. */
+    private static final Object UPGRADE = new Object();
+
+    private final SocketChannel channel;
+    private final IoLoop loop;
+    private final Executor workers;
+    private final AdmissionController admission;
+    private final ClientSession session;
+    private final SessionReaper reaper;
+    private final int maxPipelined;
+
+    // --- I/O thread only ---
+    private final ByteBuffer readBuffer;
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength;
+    private boolean sawFirstLine;
+    private ByteBuffer frameBuffer;  // non-null once in binary mode
+    private SelectionKey key;
+    private SessionReaper.Watch watch;
+    private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final LongAdder readPauses = ServerMetrics.getMetrics().counter("connections.readPaused");
+
+    // --- shared between I/O thread and workers ---
+    private final Queue<Object> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();  // size of inbound, without an O(n) size()
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final NioResponseWriter out = new NioResponseWriter(outbound);
+    private final AtomicBoolean processing = new AtomicBoolean();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean closeAfterFlush;
+    private volatile boolean reaped;
+    private volatile boolean closed;
+    private volatile boolean admitted;
+
+    NioConnection(SocketChannel channel, IoLoop loop, Executor workers, NewBank bank,
+                  AdmissionController admission, AuthWorkerPool auth, SessionReaper reaper,
+                  int bufferSize, int maxPipelined) {
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+        this.admission = admission;
+        this.reaper = reaper;
+        this.session = new ClientSession(bank, auth, remoteAddressOf(channel));
+        this.readBuffer = ByteBuffer.allocate(bufferSize);
+        this.maxPipelined = maxPipelined;
+    }
+
+    private static String remoteAddressOf(SocketChannel channel) {
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+            if (address instanceof InetSocketAddress) {
+                return ((InetSocketAddress) address).getAddress().getHostAddress();
+            }
+            return String.valueOf(address);
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    /** Called once the connection holds a session slot, which {@link #close()} gives back. */
+    void markAdmitted() {
+        admitted = true;
+    }
+
+    // ===== I/O thread =====
+
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        // nothing has been read yet, so no worker can be touching the session
+        session.start(out::writeLine);
+        out.flush();
+        watch = reaper.watch(session, this::expire);
+        flush();
+    }
+
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            // client disconnected
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        boolean gotRequest;
+        try {
+            gotRequest = frameBuffer == null ? readLines() : readFrames();
+        } catch (ProtocolException e) {
+            System.err.println("Dropping NIO connection: " + e.getMessage());
+            close();
+            return;
+        }
+        readBuffer.clear();
+
+        if (gotRequest) {
+            watch.touch();
+            scheduleProcessing();
+        }
+        updateReadInterest();
+    }
+
+    private void enqueue(Object request) {
+        inbound.add(request);
+        queued.incrementAndGet();
+    }
+
+    /**
+     * Stops reading while too many requests are queued or replies are stuck behind a
+     * full socket, and starts again once neither holds. Workers draining the queue
+     * request a flush, which runs this on the I/O thread.
+     */
+    private void updateReadInterest() {
+        if (closed || !key.isValid()) {
+            return;
+        }
+        boolean pause = queued.get() >= MAX_QUEUED_REQUESTS || !writing.isEmpty();
+        int ops = key.interestOps();
+        int wanted = pause ? ops & ~SelectionKey.OP_READ : ops | SelectionKey.OP_READ;
+        if (wanted != ops) {
+            if (pause) {
+                readPauses.increment();
+            }
+            key.interestOps(wanted);
+        }
+    }
+
+    private boolean readLines() throws ProtocolException {
+        boolean gotLine = false;
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                String line = takeLine();
+                gotLine = true;
+                if (!sawFirstLine && BinaryProtocol.UPGRADE_REQUEST.equals(line)) {
+                    sawFirstLine = true;
+                    enqueue(UPGRADE);
+                    frameBuffer = ByteBuffer.allocate(readBuffer.capacity());
+                    readFrames();
+                    return true;
+                }
+                sawFirstLine = true;
+                enqueue(line);
+            } else if (lineLength == MAX_LINE_LENGTH) {
+                throw new ProtocolException("request line too long");
+            } else {
+                appendToLine(b);
+            }
+        }
+        return gotLine;
+    }
+
+    private boolean readFrames() throws ProtocolException {
+        if (frameBuffer.remaining() < readBuffer.remaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.max(frameBuffer.capacity() * 2, frameBuffer.position() + readBuffer.remaining()));
+            frameBuffer.flip();
+            bigger.put(frameBuffer);
+            frameBuffer = bigger;
+        }
+        frameBuffer.put(readBuffer);
+
+        frameBuffer.flip();
+        boolean gotFrame = false;
+        Frame frame;
+        while ((frame = FrameCodec.decode(frameBuffer)) != null) {
+            enqueue(frame);
+            gotFrame = true;
+        }
+        frameBuffer.compact();
+        return gotFrame;
+    }
+
+    void flush() {
+        if (closed) {
+            return;
+        }
+        // read before draining: a worker queues its last reply before setting the flag,
+        // so a reply queued after the drain is never cut off by this close
+        boolean closing = closeAfterFlush || reaped;
+        try {
+            ByteBuffer buffer;
+            while ((buffer = outbound.poll()) != null) {
+                writing.addLast(buffer);
+            }
+            while (!writing.isEmpty()) {
+                // one gathering write for every queued response (up to MAX_GATHER)
+                int count = 0;
+                for (ByteBuffer queued : writing) {
+                    gather[count++] = queued;
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                }
+                channel.write(gather, 0, count);
+                boolean allWritten = !gather[count - 1].hasRemaining();
+                Arrays.fill(gather, 0, count, null);
+                while (!writing.isEmpty() && !writing.peekFirst().hasRemaining()) {
+                    writing.pollFirst();
+                }
+                if (!allWritten) {
+                    if (reaped) {
+                        // timed out and not reading: don't wait for it
+                        close();
+                        return;
+                    }
+                    // socket send buffer is full; resume when writable
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    updateReadInterest();
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closing) {
+                close();
+                return;
+            }
+            updateReadInterest();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        inbound.clear();
+        if (watch != null) {
+            watch.cancel();
+        }
+        if (admitted) {
+            admission.release();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing NIO connection: " + e.getMessage());
+        }
+    }
+
+    private void appendToLine(byte b) {
+        if (lineLength == lineBuffer.length) {
+            byte[] bigger = new byte[Math.min(lineBuffer.length * 2, MAX_LINE_LENGTH)];
+            System.arraycopy(lineBuffer, 0, bigger, 0, lineLength);
+            lineBuffer = bigger;
+        }
+        lineBuffer[lineLength++] = b;
+    }
+
+    private String takeLine() {
+        int length = lineLength;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        String line = new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+        lineLength = 0;
+        return line;
+    }
+
+    // ===== timer thread =====
+
+    private void expire(String goodbye) {
+        session.close();  // queued requests are dropped, not processed
+        if (session.isBinary()) {
+            out.writeFrame(Frame.fail(goodbye));
+        } else {
+            out.writeLine(goodbye);
+        }
+        out.flush();
+        reaped = true;
+        loop.requestFlush(this);
+    }
+
+    // ===== worker threads =====
+
+    private void scheduleProcessing() {
+        if (processing.compareAndSet(false, true)) {
+            workers.execute(this::processInbound);
+        }
+    }
+
+    private void processInbound() {
+        boolean suspended = false;
+        try {
+            Object request;
+            while (!closed && !session.isClosed() && canProceed() && (request = inbound.poll()) != null) {
+                queued.decrementAndGet();
+                CompletableFuture<Void> reply = null;
+                if (request == UPGRADE) {
+                    session.upgradeToBinary(out::writeLine);
+                } else if (request instanceof Frame) {
+                    Frame frame = (Frame) request;
+                    if (session.isPipelined(frame)) {
+                        inFlight.incrementAndGet();
+                        workers.execute(() -> runPipelined(frame));
+                    } else {
+                        reply = session.handleFrame(frame, out::writeFrame);
+                    }
+                } else {
+                    reply = session.handleLine((String) request, out::writeLine);
+                }
+                out.flush();
+                if (reply != null && !reply.isDone()) {
+                    // password check on the auth pool: free this worker and carry on
+                    // with the queue (still marked as processing) once it answers
+                    suspended = true;
+                    reply.whenComplete((ignored, error) -> resumeAfterLogin());
+                    return;
+                }
+            }
+            if (session.isClosed()) {
+                // LOGOUT/EXIT/QUIT: send the goodbye, then hang up
+                closeAfterFlush = true;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error processing NIO request: " + e.getMessage());
+            e.printStackTrace(System.err);
+            closeAfterFlush = true;
+        } finally {
+            loop.requestFlush(this);
+            if (suspended) {
+                return;
+            }
+            processing.set(false);
+            // re-check after clearing the flag: a pipelined request may have finished meanwhile
+            if (!closeAfterFlush && canProceed()) {
+                scheduleProcessing();
+            }
+        }
+    }
+
+    private void resumeAfterLogin() {
+        out.flush();
+        loop.requestFlush(this);
+        try {
+            workers.execute(this::processInbound);
+        } catch (RejectedExecutionException e) {
+            // engine shut down
+        }
+    }
+
+    /**
+     * Whether the request at the head of the queue may start now. A pipelined frame
+     * needs a free slot; any other frame waits until no pipelined request is running.
+     */
+    private boolean canProceed() {
+        Object next = inbound.peek();
+        if (next == null) {
+            return false;
+        }
+        if (!(next instanceof Frame)) {
+            return true;
+        }
+        if (session.isPipelined((Frame) next)) {
+            return inFlight.get() < maxPipelined;
+        }
+        return inFlight.get() == 0;
+    }
+
+    private void runPipelined(Frame frame) {
+        try {
+            session.handleFrame(frame, out::writeFrame);
+        } catch (RuntimeException e) {
+            System.err.println("Error processing NIO request: " + e.getMessage());
+            e.printStackTrace(System.err);
+            out.writeFrame(Frame.fail("FAIL: Internal server error.").withCorrelationId(frame.getCorrelationId()));
+        } finally {
+            out.flush();
+            inFlight.decrementAndGet();
+            loop.requestFlush(this);
+            if (!inbound.isEmpty()) {
+                scheduleProcessing();
+            }
+        }
+    }
+}
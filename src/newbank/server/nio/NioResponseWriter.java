@@ -0,0 +1,62 @@
+package newbank.server.nio;
+
+import newbank.protocol.Frame;
+import newbank.protocol.WriteBuffer;
+import newbank.server.ResponseWriter;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ResponseWriter} for a {@link NioConnection}.
+ *
+ * Each response is encoded into one reusable {@link WriteBuffer}; {@link #flush()}
+ * seals it into a single {@code ByteBuffer} on the connection's outbound queue. The
+ * connection then asks its I/O thread to write, which sends every queued response
+ * with one gathering write.
+ */
+final class NioResponseWriter implements ResponseWriter {
+
+    private final Queue<ByteBuffer> outbound;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final WriteBuffer buffer = new WriteBuffer();  // guarded by lock
+
+    NioResponseWriter(Queue<ByteBuffer> outbound) {
+        this.outbound = outbound;
+    }
+
+    @Override
+    public void writeLine(String line) {
+        lock.lock();
+        try {
+            buffer.appendLine(line);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void writeFrame(Frame frame) {
+        lock.lock();
+        try {
+            buffer.appendFrame(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Queues the response; the caller still has to request an I/O-thread flush. */
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            if (!buffer.isEmpty()) {
+                outbound.add(buffer.toByteBuffer());
+                buffer.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
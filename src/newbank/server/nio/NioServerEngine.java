@@ -0,0 +1,147 @@
+package newbank.server.nio;
+
+import newbank.server.AdmissionController;
+import newbank.server.AuthWorkerPool;
+import newbank.server.NewBank;
+import newbank.server.ServerConfig;
+import newbank.server.SessionReaper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking connection engine built on {@link ServerSocketChannel} and {@link java.nio.channels.Selector}.
+ *
+ * Instead of one blocked thread per socket, a small fixed set of {@link IoLoop}
+ * threads multiplex every connection, and a fixed worker pool runs the protocol
+ * ({@link newbank.server.ClientSession}) whenever a full request line has arrived.
+ * Idle connections therefore cost a selection key and two buffers, not a thread stack.
+ *
+ * The accept loop runs on the thread that calls {@link #run()}. Each new channel
+ * goes through the {@link AdmissionController} and, once admitted, is handed to the
+ * I/O loops round-robin.
+ */
+public class NioServerEngine implements Runnable {
+
+    private final ServerSocketChannel serverChannel;
+    private final IoLoop[] loops;
+    private final ExecutorService workers;
+    private final NewBank bank;
+    private final AdmissionController admission;
+    private final AuthWorkerPool auth;
+    private final SessionReaper reaper;
+    private final int bufferSize;
+    private final int maxPipelinedRequests;
+
+    private int nextLoop;
+    private volatile boolean running = true;
+
+    public NioServerEngine(int port, ServerConfig config) throws IOException {
+        this(port, config, AdmissionController.fromConfig(config));
+    }
+
+    public NioServerEngine(int port, ServerConfig config, AdmissionController admission) throws IOException {
+        this(port, config, admission, AuthWorkerPool.fromConfig(config), SessionReaper.fromConfig(config));
+    }
+
+    public NioServerEngine(int port, ServerConfig config, AdmissionController admission,
+                           AuthWorkerPool auth, SessionReaper reaper) throws IOException {
+        this.bank = NewBank.getBank();
+        this.admission = admission;
+        this.auth = auth;
+        this.reaper = reaper;
+        this.bufferSize = config.getBufferSize();
+        this.maxPipelinedRequests = config.getMaxPipelinedRequests();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+
+        this.loops = new IoLoop[config.getIoThreads()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop();
+        }
+        this.workers = Executors.newFixedThreadPool(config.getWorkerThreads(), namedThreads("newbank-worker-"));
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        for (int i = 0; i < loops.length; i++) {
+            Thread ioThread = new Thread(loops[i], "newbank-io-" + i);
+            ioThread.start();
+        }
+        System.out.println("New Bank Server listening on " + getLocalPort()
+                + " (NIO engine, " + loops.length + " I/O threads)");
+
+        try {
+            while (running) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                IoLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                NioConnection connection = new NioConnection(channel, loop, workers, bank, admission,
+                        auth, reaper, bufferSize, maxPipelinedRequests);
+                admission.offer(new AdmissionController.Candidate() {
+                    @Override
+                    public void admit() {
+                        connection.markAdmitted();
+                        loop.register(connection);
+                    }
+
+                    @Override
+                    public void reject() {
+                        rejectChannel(channel);
+                    }
+                });
+            }
+        } catch (ClosedChannelException e) {
+            // shutdown() closed the listening channel
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            shutdown();
+        }
+    }
+
+    private static void rejectChannel(SocketChannel channel) {
+        try (channel) {
+            // a fresh socket's send buffer easily holds one line, so this write completes
+            channel.write(ByteBuffer.wrap(
+                    (AdmissionController.BUSY_MESSAGE + "\n").getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // client already gone; nothing to tell it
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (IoLoop loop : loops) {
+            loop.shutdown();
+        }
+        workers.shutdown();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> new Thread(r, prefix + counter.getAndIncrement());
+    }
+}
@@ -0,0 +1,60 @@
+package newbank.server.persistence;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Groups of state changes that share one {@link Durability} setting.
+ */
+public enum CommandClass {
+
+    CUSTOMERS(Durability.SYNC),
+    ACCOUNTS(Durability.SYNC),
+    TRANSFERS(Durability.SYNC),
+    LOANS(Durability.SYNC),
+    NOTIFICATIONS(Durability.WRITE);
+
+    private final Durability defaultDurability;
+
+    CommandClass(Durability defaultDurability) {
+        this.defaultDurability = defaultDurability;
+    }
+
+    public Durability getDefaultDurability() {
+        return defaultDurability;
+    }
+
+    /** Every class with its default durability. */
+    public static Map<CommandClass, Durability> defaults() {
+        Map<CommandClass, Durability> modes = new EnumMap<>(CommandClass.class);
+        for (CommandClass commandClass : values()) {
+            modes.put(commandClass, commandClass.defaultDurability);
+        }
+        return modes;
+    }
+
+    /**
+     * Reads overrides such as {@code transfers=write,notifications=async} on top of
+     * the defaults; names are case-insensitive. A null or blank spec gives the defaults.
+     */
+    public static Map<CommandClass, Durability> parseDurabilities(String spec) {
+        Map<CommandClass, Durability> modes = defaults();
+        if (spec == null || spec.isBlank()) {
+            return modes;
+        }
+        for (String part : spec.split(",")) {
+            String[] pair = part.split("=", -1);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected class=mode, got '" + part.trim() + "'.");
+            }
+            try {
+                modes.put(CommandClass.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)),
+                        Durability.valueOf(pair[1].trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown command class or durability in '" + part.trim() + "'.", e);
+            }
+        }
+        return modes;
+    }
+}
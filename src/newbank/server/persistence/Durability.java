@@ -0,0 +1,16 @@
+package newbank.server.persistence;
+
+/**
+ * How long a command waits for its {@link WriteAheadLog} record before it replies.
+ */
+public enum Durability {
+
+    /** Until the record is written and {@code fsync}ed: survives a power loss. */
+    SYNC,
+
+    /** Until the record is written to the operating system: survives a server crash, not a power loss. */
+    WRITE,
+
+    /** Not at all; the record is written and synced with the next group commit, normally within milliseconds. */
+    ASYNC
+}
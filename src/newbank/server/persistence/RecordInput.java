@@ -0,0 +1,56 @@
+package newbank.server.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields of one log record, or of one snapshot block, in the order
+ * {@link RecordOutput} wrote them.
+ */
+public final class RecordInput {
+
+    private final ByteBuffer buffer;
+
+    RecordInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public int getByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    public int getInt() {
+        return buffer.getInt();
+    }
+
+    public long getLong() {
+        return buffer.getLong();
+    }
+
+    public double getDouble() {
+        return buffer.getDouble();
+    }
+
+    public byte[] getBytes() {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return value;
+    }
+
+    public String getString() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (!buffer.hasArray()) {
+            // a memory-mapped snapshot block
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,79 @@
+package newbank.server.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A growable buffer that log records are encoded into: big-endian numbers and
+ * length-prefixed UTF-8 strings, read back by {@link RecordInput}.
+ */
+public final class RecordOutput {
+
+    private ByteBuffer buffer;
+
+    RecordOutput(int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    public RecordOutput putByte(int value) {
+        ensure(1).put((byte) value);
+        return this;
+    }
+
+    public RecordOutput putInt(int value) {
+        ensure(4).putInt(value);
+        return this;
+    }
+
+    public RecordOutput putLong(long value) {
+        ensure(8).putLong(value);
+        return this;
+    }
+
+    public RecordOutput putDouble(double value) {
+        ensure(8).putDouble(value);
+        return this;
+    }
+
+    /** Writes the UTF-8 length then the bytes; {@code null} is written as length -1. */
+    public RecordOutput putString(String value) {
+        if (value == null) {
+            return putInt(-1);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length).putInt(bytes.length).put(bytes);
+        return this;
+    }
+
+    /** Writes the length then the bytes. */
+    public RecordOutput putBytes(byte[] value) {
+        ensure(4 + value.length).putInt(value.length).put(value);
+        return this;
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    void putInt(int index, int value) {
+        buffer.putInt(index, value);
+    }
+
+    /** The bytes written so far from {@code from}, as a view sharing this buffer's array. */
+    ByteBuffer slice(int from) {
+        return buffer.duplicate().position(from).limit(buffer.position()).slice();
+    }
+
+    void clear() {
+        buffer.clear();
+    }
+
+    private ByteBuffer ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            larger.put(buffer.flip());
+            buffer = larger;
+        }
+        return buffer;
+    }
+}
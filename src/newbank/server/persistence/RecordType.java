@@ -0,0 +1,49 @@
+package newbank.server.persistence;
+
+/**
+ * Kinds of {@link WriteAheadLog} record. The comment on each lists its fields in
+ * the order they are written; codes are part of the file format and never reused.
+ */
+public enum RecordType {
+
+    CUSTOMER_REGISTERED(1, CommandClass.CUSTOMERS),     // username, encoded password hash
+    ACCOUNT_OPENED(2, CommandClass.ACCOUNTS),           // username, accountName, balance, account id
+    ACCOUNT_CLOSED(3, CommandClass.ACCOUNTS),           // username, accountName
+    DEPOSIT(4, CommandClass.TRANSFERS),                 // username, accountName, amount
+    WITHDRAWAL(5, CommandClass.TRANSFERS),              // username, accountName, amount
+    TRANSFER(6, CommandClass.TRANSFERS),                // username, from, username, to, amount
+    LOAN_OFFERED(7, CommandClass.LOANS),                // id, lender, fromAccount, amount, rate, termMonths, extraTerms
+    LOAN_STATUS(8, CommandClass.LOANS),                 // id, status
+    NOTIFICATION_CREATED(9, CommandClass.NOTIFICATIONS),// id, recipient, message, createdAt, read
+    BATCH(10, CommandClass.TRANSFERS),                  // count, then that many (code, fields) records
+    PAYMENT(11, CommandClass.TRANSFERS);                // payer, from, payee, to, amount, reference ("" if none)
+
+    private static final RecordType[] BY_CODE = new RecordType[256];
+
+    static {
+        for (RecordType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+    private final CommandClass commandClass;
+
+    RecordType(int code, CommandClass commandClass) {
+        this.code = code;
+        this.commandClass = commandClass;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public CommandClass getCommandClass() {
+        return commandClass;
+    }
+
+    /** The type with this code, or {@code null}. */
+    public static RecordType forCode(int code) {
+        return BY_CODE[code & 0xFF];
+    }
+}
@@ -0,0 +1,10 @@
+package newbank.server.persistence;
+
+/**
+ * Writes the fields of one log record.
+ */
+@FunctionalInterface
+public interface RecordWriter {
+
+    void writeTo(RecordOutput out);
+}
@@ -0,0 +1,392 @@
+package newbank.server.persistence;
+
+import newbank.protocol.Money;
+import newbank.server.ServerMetrics;
+import newbank.server.model.Account;
+import newbank.server.model.Customer;
+import newbank.server.model.CustomerID;
+import newbank.server.model.Loan;
+import newbank.server.model.LoanStatus;
+import newbank.server.model.Notification;
+import newbank.server.model.Payment;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+import newbank.server.service.LoanService;
+import newbank.server.service.NotificationService;
+import newbank.server.service.security.PasswordHash;
+import newbank.server.service.security.PasswordHashPolicy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshots of the whole bank, so a restart loads the latest snapshot and
+ * replays only the {@link WriteAheadLog} records written after it.
+ *
+ * {@link #write} runs alongside normal traffic. It copies one customer at a time
+ * under that customer's lock, and the loans and notifications under their services'
+ * locks, noting the log position of each copy. On recovery each service skips the
+ * log records its copy already holds, so the snapshot needs no moment at which the
+ * whole bank stands still. The log is replayed from the position read before the
+ * first copy, and the snapshot is made visible only once the log is synced past the
+ * last one.
+ *
+ * A snapshot file, {@code snapshot-<position>.snap}, is a 28-byte header (magic, the
+ * log position to replay from, the {@link Money} scale of its amounts and the highest
+ * account id issued before that position), then independent blocks, then an index giving
+ * each block's kind, offset, length and CRC-32, and a trailer pointing at the index.
+ * Customers are written {@value #CUSTOMERS_PER_BLOCK} to a block, each with its
+ * password hash (parameters, salt and key as raw bytes), accounts with their ids and recent payment
+ * references, so
+ * {@link #load} maps the blocks and decodes them on several threads at once.
+ */
+public final class SnapshotStore {
+
+    public static final String PREFIX = "snapshot-";
+    public static final String SUFFIX = ".snap";
+
+    /** "NBSNAP" and format version 4; an older snapshot is skipped for the log. */
+    static final long MAGIC = 0x4E42_534E_4150_0004L;
+    static final int HEADER_BYTES = 28;
+    static final int CUSTOMERS_PER_BLOCK = 4096;
+
+    private static final int INDEX_ENTRY_BYTES = 17;
+    private static final int TRAILER_BYTES = 20;
+    private static final int BLOCK_CUSTOMERS = 1;
+    private static final int BLOCK_LOANS = 2;
+    private static final int BLOCK_NOTIFICATIONS = 3;
+
+    /** Snapshots kept; the older one is a fallback if the newest cannot be read. */
+    private static final int RETAINED = 2;
+
+    private final Path dir;
+    private final CustomerService customers;
+    private final AccountService accounts;
+    private final LoanService loans;
+    private final NotificationService notifications;
+    private final WriteAheadLog log;
+
+    public SnapshotStore(Path dir, CustomerService customers, AccountService accounts, LoanService loans,
+                         NotificationService notifications, WriteAheadLog log) {
+        this.dir = dir;
+        this.customers = customers;
+        this.accounts = accounts;
+        this.loans = loans;
+        this.notifications = notifications;
+        this.log = log;
+    }
+
+    /** The complete snapshots in {@code dir}, newest first. */
+    public static List<Path> list(Path dir) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                snapshots.add(file);
+            }
+        }
+        // names carry a zero-padded log position, so they sort by age
+        snapshots.sort(Comparator.comparing((Path p) -> p.getFileName().toString()).reversed());
+        return snapshots;
+    }
+
+    // --- writing ---
+
+    /**
+     * Writes a snapshot of the current state and deletes all but the newest
+     * {@value #RETAINED}. Commands keep running meanwhile; each customer waits only
+     * while its own accounts are copied. If nothing was logged since the last
+     * snapshot, that one is kept as it is.
+     *
+     * @return the new snapshot file
+     */
+    public Path write() throws IOException {
+        long startLsn = log.getAppendedLsn();
+        // read after the position: every account logged as opened before it has an id up to here
+        long lastAccountId = accounts.getLastAccountId();
+        Path target = dir.resolve(String.format("%s%020d%s", PREFIX, startLsn, SUFFIX));
+        if (Files.exists(target)) {
+            return target;  // nothing has been logged since that snapshot
+        }
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.allocate(HEADER_BYTES).putLong(MAGIC).putLong(startLsn)
+                    .putInt(Money.getScale()).putLong(lastAccountId).flip());
+            RecordOutput index = new RecordOutput(4096);
+            RecordOutput block = new RecordOutput(1 << 20);
+            int blocks = 0;
+
+            List<String> names = new ArrayList<>();
+            List<Customer> owners = new ArrayList<>();
+            customers.forEachCustomer((name, customer) -> {
+                names.add(name);
+                owners.add(customer);
+            });
+            List<Account> copy = new ArrayList<>();
+            List<Payment> payments = new ArrayList<>();
+            for (int first = 0; first < names.size(); first += CUSTOMERS_PER_BLOCK) {
+                int last = Math.min(names.size(), first + CUSTOMERS_PER_BLOCK);
+                block.clear();
+                block.putInt(last - first);
+                for (int i = first; i < last; i++) {
+                    copy.clear();
+                    payments.clear();
+                    long lsn = accounts.snapshotAccounts(names.get(i), copy, payments);
+                    PasswordHash hash = owners.get(i).getPasswordHash();
+                    block.putString(names.get(i)).putInt(hash.getPolicy().getIterations())
+                            .putInt(hash.getPolicy().getKeyLength()).putBytes(hash.toBytes())
+                            .putLong(lsn).putInt(copy.size());
+                    for (Account account : copy) {
+                        block.putLong(account.getId()).putString(account.getAccountName())
+                                .putLong(account.getBalance());
+                    }
+                    block.putInt(payments.size());
+                    for (Payment payment : payments) {
+                        block.putString(payment.getReference()).putString(payment.getPayee())
+                                .putLong(payment.getAmount());
+                    }
+                }
+                writeBlock(out, BLOCK_CUSTOMERS, block, index);
+                blocks++;
+            }
+
+            List<Loan> loanCopy = new ArrayList<>();
+            long loansLsn = loans.snapshotLoans(loanCopy);
+            block.clear();
+            block.putLong(loansLsn).putInt(loanCopy.size());
+            for (Loan loan : loanCopy) {
+                block.putInt((int) loan.getId()).putString(loan.getLender().getKey())
+                        .putString(loan.getFromAccount()).putLong(loan.getAmount())
+                        .putDouble(loan.getInterestRate()).putInt(loan.getTermMonths())
+                        .putString(loan.getExtraTerms()).putString(loan.getLoanStatus().name());
+            }
+            writeBlock(out, BLOCK_LOANS, block, index);
+
+            List<Notification> notificationCopy = new ArrayList<>();
+            long notificationsLsn = notifications.snapshotNotifications(notificationCopy);
+            block.clear();
+            block.putLong(notificationsLsn).putInt(notificationCopy.size());
+            for (Notification n : notificationCopy) {
+                block.putInt(n.getId()).putString(n.getRecipient().getKey()).putString(n.getMessage())
+                        .putString(n.getCreatedAt().toString()).putByte(n.isRead() ? 1 : 0);
+            }
+            writeBlock(out, BLOCK_NOTIFICATIONS, block, index);
+            blocks += 2;
+
+            long indexOffset = out.position();
+            writeFully(out, index.slice(0));
+            writeFully(out, ByteBuffer.allocate(TRAILER_BYTES).putLong(indexOffset).putInt(blocks)
+                    .putLong(MAGIC).flip());
+            out.force(true);
+        }
+        // the copies may hold changes whose records are still only buffered
+        log.sync();
+        // every change logged before the copies began was journaled by the time its customer was copied
+        accounts.getJournal().sync(startLsn);
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        List<Path> all = list(dir);
+        for (int i = RETAINED; i < all.size(); i++) {
+            Files.deleteIfExists(all.get(i));
+        }
+        ServerMetrics.getMetrics().counter("snapshot.writes").increment();
+        return target;
+    }
+
+    private static void writeBlock(FileChannel out, int kind, RecordOutput block, RecordOutput index)
+            throws IOException {
+        ByteBuffer data = block.slice(0);
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        index.putByte(kind).putLong(out.position()).putInt(data.remaining()).putInt((int) crc.getValue());
+        writeFully(out, data);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+    }
+
+    private void syncDirectory() {
+        // makes the rename itself durable; not every platform can open a directory
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // the snapshot is still complete; at worst the previous one is used
+        }
+    }
+
+    // --- loading ---
+
+    /**
+     * Restores the services, which must be empty, from {@code file}: the blocks are
+     * memory-mapped, checked and decoded on {@code threads} threads.
+     *
+     * @return the log position to replay the log from
+     * @throws IOException if the file cannot be read, is damaged or was written under
+     *         another {@link Money#getScale() money scale}; the services may then hold
+     *         part of it
+     */
+    public long load(Path file, int threads) throws IOException {
+        long startLsn;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES) {
+                throw new IOException(file + " is not a NewBank snapshot.");
+            }
+            ByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            ByteBuffer trailer = in.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_BYTES, TRAILER_BYTES);
+            if (header.getLong() != MAGIC || trailer.getLong(12) != MAGIC) {
+                throw new IOException(file + " is not a complete NewBank snapshot.");
+            }
+            startLsn = header.getLong();
+            int scale = header.getInt();
+            if (scale != Money.getScale()) {
+                throw new IOException(file + " holds amounts at money scale " + scale
+                        + " but the server runs at scale " + Money.getScale() + ".");
+            }
+            accounts.restoreLastAccountId(header.getLong());
+            long indexOffset = trailer.getLong();
+            int blocks = trailer.getInt();
+            if (indexOffset < HEADER_BYTES || indexOffset + (long) blocks * INDEX_ENTRY_BYTES != size - TRAILER_BYTES) {
+                throw new IOException(file + " has a damaged index.");
+            }
+            ByteBuffer index = in.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) blocks * INDEX_ENTRY_BYTES);
+            for (int b = 0; b < blocks; b++) {
+                int kind = index.get();
+                long offset = index.getLong();
+                int length = index.getInt();
+                int crc = index.getInt();
+                if (offset < HEADER_BYTES || length < 0 || offset + length > indexOffset) {
+                    throw new IOException(file + " has a damaged index.");
+                }
+                // mappings stay valid after the channel is closed
+                MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                tasks.add(() -> {
+                    loadBlock(file, kind, offset, data, crc);
+                    return null;
+                });
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "newbank-snapshot-load");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + file + ".", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(file + " could not be loaded: " + cause, cause);
+        } finally {
+            pool.shutdown();
+        }
+        return startLsn;
+    }
+
+    private void loadBlock(Path file, int kind, long offset, ByteBuffer data, int expectedCrc) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException(file + " has a damaged block at offset " + offset + ".");
+        }
+        RecordInput in = new RecordInput(data);
+        switch (kind) {
+            case BLOCK_CUSTOMERS: {
+                int count = in.getInt();
+                List<Account> restored = new ArrayList<>();
+                List<Payment> payments = new ArrayList<>();
+                PasswordHashPolicy policy = null;
+                for (int i = 0; i < count; i++) {
+                    String username = in.getString();
+                    int iterations = in.getInt();
+                    int keyLength = in.getInt();
+                    if (policy == null || policy.getIterations() != iterations || policy.getKeyLength() != keyLength) {
+                        policy = PasswordHashPolicy.pbkdf2(iterations, keyLength);
+                    }
+                    PasswordHash hash = PasswordHash.fromBytes(policy, in.getBytes());
+                    long lsn = in.getLong();
+                    int accountCount = in.getInt();
+                    restored.clear();
+                    for (int a = 0; a < accountCount; a++) {
+                        restored.add(new Account(in.getLong(), in.getString(), in.getLong()));
+                    }
+                    int paymentCount = in.getInt();
+                    payments.clear();
+                    for (int p = 0; p < paymentCount; p++) {
+                        payments.add(new Payment(in.getString(), in.getString(), in.getLong()));
+                    }
+                    customers.registerCustomer(username, hash);
+                    accounts.restoreAccounts(username, restored, payments, lsn);
+                }
+                break;
+            }
+            case BLOCK_LOANS: {
+                long lsn = in.getLong();
+                int count = in.getInt();
+                List<Loan> restored = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int id = in.getInt();
+                    CustomerID lender = new CustomerID(in.getString());
+                    String fromAccount = in.getString();
+                    long amount = in.getLong();
+                    double rate = in.getDouble();
+                    int termMonths = in.getInt();
+                    String extraTerms = in.getString();
+                    restored.add(new Loan(id, lender, fromAccount, amount, rate, termMonths, extraTerms,
+                            LoanStatus.valueOf(in.getString())));
+                }
+                loans.restoreLoans(restored, lsn);
+                break;
+            }
+            case BLOCK_NOTIFICATIONS: {
+                long lsn = in.getLong();
+                int count = in.getInt();
+                List<Notification> restored = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int id = in.getInt();
+                    CustomerID recipient = new CustomerID(in.getString());
+                    String message = in.getString();
+                    LocalDateTime createdAt = LocalDateTime.parse(in.getString());
+                    restored.add(new Notification(id, recipient, message, createdAt, in.getByte() != 0));
+                }
+                notifications.restoreNotifications(restored, lsn);
+                break;
+            }
+            default:
+                throw new IOException(file + " has a block of unknown kind " + kind + ".");
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package newbank.server.persistence;
+
+import newbank.protocol.Money;
+import newbank.server.ServerMetrics;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only log of every change to bank state, replayed at start-up.
+ *
+ * Services {@link #append append} a record while they still hold the locks of the
+ * change, so the log order matches the order changes were applied, and then
+ * {@link #awaitDurable wait} for it without those locks before replying. Appending
+ * only copies the record into an in-memory buffer. A single flusher thread writes
+ * everything buffered so far with one {@code write} and one {@code fsync} (group
+ * commit): while one group is being synced, the next one fills, so many concurrent
+ * commands share each {@code fsync}. How long a command waits is its
+ * {@link CommandClass}'s {@link Durability}.
+ *
+ * The file is a 12-byte header, the magic followed by the {@link Money} scale its
+ * amounts are counted in, then records framed as
+ * {@code [int length][int CRC-32][byte type][fields]}. A record whose frame or
+ * checksum is incomplete, as left by a crash mid-write, ends the log; {@link #replay}
+ * reports where, and {@link #open} cuts the file there. A record's log position
+ * (LSN) is the file offset just past it, so positions only grow and a
+ * {@link SnapshotStore snapshot} can name the position its tail starts from. A log
+ * written under a different scale is refused rather than replayed, since its minor
+ * units would be read as the wrong amounts.
+ *
+ * A log is created disabled, so services can hold it before it is opened: appends
+ * are then ignored and return 0. If a write or sync fails, the log stops accepting
+ * records and every waiting and later command fails with an
+ * {@link IllegalStateException}, because replying would promise durability the log
+ * cannot give.
+ */
+public class WriteAheadLog implements Closeable {
+
+    public static final String FILE_NAME = "bank.wal";
+
+    /** "NBWAL" and format version 3. */
+    static final long MAGIC = 0x4E42_5741_4C00_0003L;
+    public static final int HEADER_BYTES = 12;
+
+    private static final int FRAME_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 << 20;
+
+    /** Applies one record during {@link #replay}; {@code lsn} is the log position just past it. */
+    @FunctionalInterface
+    public interface Handler {
+        void apply(RecordType type, RecordInput in, long lsn);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+
+    private final LongAdder records = ServerMetrics.getMetrics().counter("wal.records");
+    private final LongAdder commits = ServerMetrics.getMetrics().counter("wal.commits");
+    private final LongAdder bytes = ServerMetrics.getMetrics().counter("wal.bytes");
+
+    private Map<CommandClass, Durability> durability = CommandClass.defaults();
+    private FileChannel channel;  // null while disabled
+    private Thread flusher;
+
+    // appenders fill one buffer while the flusher writes the other
+    private RecordOutput pending = new RecordOutput(64 << 10);
+    private RecordOutput spare = new RecordOutput(64 << 10);
+    private long appendedLsn;  // log positions (file offsets) just past the last record...
+    private long writtenLsn;   // ...handed to the operating system
+    private long durableLsn;   // ...synced to disk
+    private IOException failure;
+    private boolean closed;
+
+    /** Creates a disabled log; see {@link #open}. */
+    public WriteAheadLog() {
+    }
+
+    /**
+     * Reads every intact record of {@code file} in order, passing each to
+     * {@code handler}. A missing or empty file has no records.
+     *
+     * @return the length of the intact part of the file, header included; 0 if the
+     *         file is missing or empty
+     * @throws IOException if the file cannot be read, is not a write-ahead log, or was
+     *                     written under another {@link Money#getScale() money scale}
+     */
+    public static long replay(Path file, Handler handler) throws IOException {
+        return replay(file, HEADER_BYTES, handler);
+    }
+
+    /**
+     * Like {@link #replay(Path, Handler)}, but skips the records before log position
+     * {@code from}, such as those a snapshot already holds.
+     *
+     * @throws IOException also if the log ends before {@code from}
+     */
+    public static long replay(Path file, long from, Handler handler) throws IOException {
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            if (from > HEADER_BYTES) {
+                throw new IOException(file + " is missing the records before position " + from + ".");
+            }
+            return 0;
+        }
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+            if (Files.size(file) < HEADER_BYTES || in.readLong() != MAGIC) {
+                throw new IOException(file + " is not a NewBank write-ahead log.");
+            }
+            checkScale(file, in.readInt());
+            long position = Math.max(from, HEADER_BYTES);
+            if (Files.size(file) < position) {
+                throw new IOException(file + " ends before position " + from + ".");
+            }
+            in.skipNBytes(position - HEADER_BYTES);
+            CRC32 checksum = new CRC32();
+            byte[] body = new byte[4096];
+            while (true) {
+                int length;
+                int expectedCrc;
+                try {
+                    length = in.readInt();
+                    expectedCrc = in.readInt();
+                    if (length < 1 || length > MAX_RECORD_BYTES) {
+                        return position;
+                    }
+                    if (body.length < length) {
+                        body = new byte[Math.max(length, body.length * 2)];
+                    }
+                    in.readFully(body, 0, length);
+                } catch (EOFException e) {
+                    return position;  // torn tail
+                }
+                checksum.reset();
+                checksum.update(body, 0, length);
+                if ((int) checksum.getValue() != expectedCrc) {
+                    return position;
+                }
+                ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+                RecordType type = RecordType.forCode(record.get());
+                if (type == null) {
+                    throw new IOException("Unknown record type at offset " + position + " of " + file + ".");
+                }
+                position += FRAME_BYTES + length;
+                handler.apply(type, new RecordInput(record.slice()), position);
+            }
+        }
+    }
+
+    /**
+     * Enables the log: opens {@code file}, cuts it to {@code validLength} (as
+     * returned by {@link #replay}; 0 starts a new log) and starts the flusher.
+     *
+     * @throws IOException also if an existing log was written under another
+     *                     {@link Money#getScale() money scale}
+     */
+    public void open(Path file, long validLength, Map<CommandClass, Durability> durability) throws IOException {
+        FileChannel opened = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (validLength < HEADER_BYTES) {
+                opened.truncate(0);
+                opened.write(ByteBuffer.allocate(HEADER_BYTES).putLong(MAGIC).putInt(Money.getScale()).flip(), 0);
+                validLength = HEADER_BYTES;
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                if (opened.read(header, 0) < HEADER_BYTES || header.getLong(0) != MAGIC) {
+                    throw new IOException(file + " is not a NewBank write-ahead log.");
+                }
+                checkScale(file, header.getInt(8));
+                opened.truncate(validLength);
+            }
+            opened.force(true);
+            opened.position(validLength);
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            if (channel != null) {
+                opened.close();
+                throw new IllegalStateException("Write-ahead log is already open.");
+            }
+            this.durability = new EnumMap<>(durability);
+            this.channel = opened;
+            this.appendedLsn = validLength;
+            this.writtenLsn = validLength;
+            this.durableLsn = validLength;
+        } finally {
+            lock.unlock();
+        }
+        flusher = new Thread(this::flushLoop, "newbank-wal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public boolean isEnabled() {
+        lock.lock();
+        try {
+            return channel != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Durability getDurability(CommandClass commandClass) {
+        lock.lock();
+        try {
+            return durability.get(commandClass);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Buffers one record for the next group commit.
+     *
+     * @return the log position to pass to {@link #awaitDurable}; 0 if the log is disabled
+     */
+    public long append(RecordType type, RecordWriter fields) {
+        lock.lock();
+        try {
+            if (channel == null) {
+                return 0;
+            }
+            checkUsable();
+            int start = pending.position();
+            pending.putInt(0).putInt(0).putByte(type.getCode());
+            fields.writeTo(pending);
+            int length = pending.position() - start - FRAME_BYTES;
+            crc.reset();
+            crc.update(pending.slice(start + FRAME_BYTES));
+            pending.putInt(start, length);
+            pending.putInt(start + 4, (int) crc.getValue());
+
+            appendedLsn += FRAME_BYTES + length;
+            records.increment();
+            flushNeeded.signal();
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waits for the record ending at {@code lsn} as far as its type's {@link Durability} requires. */
+    public void awaitDurable(long lsn, RecordType type) {
+        if (lsn == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            switch (durability.get(type.getCommandClass())) {
+                case SYNC:
+                    while (durableLsn < lsn) {
+                        checkUsable();
+                        flushed.awaitUninterruptibly();
+                    }
+                    break;
+                case WRITE:
+                    while (writtenLsn < lsn) {
+                        checkUsable();
+                        flushed.awaitUninterruptibly();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waits until everything appended so far is synced to disk, whatever the durability settings. */
+    public void sync() {
+        lock.lock();
+        try {
+            long target = appendedLsn;
+            while (channel != null && durableLsn < target) {
+                checkUsable();
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Log position just past the last appended record. */
+    public long getAppendedLsn() {
+        lock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Syncs what is buffered, stops the flusher and closes the file. */
+    @Override
+    public void close() throws IOException {
+        Thread running;
+        lock.lock();
+        try {
+            if (channel == null || closed) {
+                return;
+            }
+            closed = true;
+            flushNeeded.signal();
+            running = flusher;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            running.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void checkScale(Path file, int scale) throws IOException {
+        if (scale != Money.getScale()) {
+            throw new IOException(file + " holds amounts at money scale " + scale
+                    + " but the server runs at scale " + Money.getScale() + ".");
+        }
+    }
+
+    private void checkUsable() {
+        if (failure != null) {
+            throw new IllegalStateException("Write-ahead log failed: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed.");
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            RecordOutput group;
+            long target;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !closed) {
+                    flushNeeded.awaitUninterruptibly();
+                }
+                if (pending.position() == 0) {
+                    return;  // closed and drained
+                }
+                group = pending;
+                pending = spare;
+                spare = group;
+                target = appendedLsn;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                ByteBuffer data = group.slice(0);
+                int size = data.remaining();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                advance(target, false);
+                channel.force(false);
+                advance(target, true);
+                commits.increment();
+                bytes.add(size);
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    flushed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void advance(long target, boolean synced) {
+        lock.lock();
+        try {
+            writtenLsn = target;
+            if (synced) {
+                durableLsn = target;
+            }
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -2,41 +2,174 @@ package newbank.server.service;
 
 import newbank.server.model.Account;
 import newbank.server.model.CustomerID;
+import newbank.server.model.JournalEntry;
+import newbank.server.model.Payment;
+import newbank.server.persistence.RecordInput;
+import newbank.server.persistence.RecordType;
+import newbank.server.persistence.RecordWriter;
+import newbank.server.persistence.WriteAheadLog;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
 
+/**
+ * Keeps every customer's accounts and moves money between them.
+ *
+ * The class is thread-safe without a global lock, so requests for different
+ * customers (and for different accounts of one customer) run in parallel:
+ * <ul>
+ *     <li>customers live in a {@link ConcurrentHashMap}, each with its own
+ *         read-write lock. Balance operations and lookups take the read lock; opening
+ *         and closing accounts and {@link #runAtomically atomic batches} take the
+ *         write lock, so they never overlap with a transfer on that customer;</li>
+ *     <li>balances change only by compare-and-set ({@link Account#credit},
+ *         {@link Account#tryDebit}), so a deposit or withdrawal on one account needs
+ *         no lock beyond the shared customer one;</li>
+ *     <li>a transfer additionally locks both accounts' stripes, from a fixed array
+ *         picked by account identity, in ascending stripe order so two opposite
+ *         transfers cannot deadlock. A listing holds the same stripes and so never
+ *         shows half a transfer;</li>
+ *     <li>a {@link #pay payment} to another customer takes both customers' read locks,
+ *         in username order, then the payer's payment lock if it carries a reference,
+ *         then both stripes. Payments between different pairs of customers share no
+ *         lock beyond the stripes.</li>
+ * </ul>
+ * Locks are always taken customer first, then stripes.
+ *
+ * Each customer's accounts are indexed by their {@link #normalize normalized} name,
+ * so finding one is a hash lookup however many accounts the customer has, and are
+ * listed in the order they were opened.
+ *
+ * Amounts and balances are {@link newbank.protocol.Money} minor units, so transfers
+ * are exact however many are applied.
+ *
+ * Every change, including opening and closing accounts, is appended to the
+ * {@link WriteAheadLog} under the locks of the change, and the method returns only
+ * once the log has made it as durable as configured. Deposits, withdrawals and
+ * transfers are then recorded in the {@link TransactionJournal}, which is taken last,
+ * after the customer and stripe locks. If the log has failed or been closed, the
+ * change is undone before the method throws, so memory never holds a change the log
+ * refused. A customer's
+ * {@link #snapshotAccounts snapshot} copy is taken under its write lock, so it
+ * holds exactly the customer's changes logged before it.
+ */
 public class AccountService {
 
-    // username -> list of accounts
-    private final Map<String, List<Account>> accountsByCustomer = new HashMap<>();
+    /** Entries shown per {@link #showTransactions} page. */
+    public static final int TRANSACTIONS_PAGE_SIZE = 20;
+
+    /** Payment references remembered per payer; a retry of an older one is paid again. */
+    public static final int RECENT_PAYMENTS = 1_000;
+
+    /** Longest payment reference accepted. */
+    public static final int MAX_REFERENCE_LENGTH = 64;
+
+    /** A customer's accounts by normalized name, in opening order; guarded by {@code lock}. */
+    private static final class CustomerAccounts {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final LinkedHashMap<String, Account> accounts = new LinkedHashMap<>();
+        long restoredLsn;  // log position a snapshot restored these accounts at; 0 if none
+
+        // the customer's recent payments by reference, oldest first; guarded by paymentLock
+        final ReentrantLock paymentLock = new ReentrantLock();
+        final LinkedHashMap<String, Payment> payments = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Payment> eldest) {
+                return size() > RECENT_PAYMENTS;
+            }
+        };
+    }
+
+    // username -> accounts
+    private final Map<String, CustomerAccounts> accountsByCustomer = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes;
+    private final AtomicLong lastAccountId = new AtomicLong();  // the highest id issued or restored
+
+    /** A change made inside an atomic batch, journaled and logged only if the batch commits. */
+    private static final class PendingChange {
+        final LongConsumer journalWrite;  // given the log position; null if the change is not journaled
+        final RecordType type;
+        final RecordWriter record;
+
+        PendingChange(LongConsumer journalWrite, RecordType type, RecordWriter record) {
+            this.journalWrite = journalWrite;
+            this.type = type;
+            this.record = record;
+        }
+    }
 
     private final CustomerService customerService;
+    private final TransactionJournal journal;
+    private final WriteAheadLog log;
+
+    // changes held back by a runAtomically batch on this thread until it commits
+    private final ThreadLocal<List<PendingChange>> pendingChanges = new ThreadLocal<>();
 
     public AccountService(CustomerService customerService) {
+        this(customerService, new TransactionJournal());
+    }
+
+    public AccountService(CustomerService customerService, TransactionJournal journal) {
+        this(customerService, journal, new WriteAheadLog());
+    }
+
+    public AccountService(CustomerService customerService, TransactionJournal journal, WriteAheadLog log) {
         this.customerService = customerService;
+        this.journal = journal;
+        this.log = log;
+        // a power of two, well above the number of threads that can contend
+        int count = Integer.highestOneBit(Math.max(64, Runtime.getRuntime().availableProcessors() * 16) - 1) << 1;
+        this.stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
     }
 
-    private List<Account> getAccountListForUser(String username) {
+    private CustomerAccounts getAccountsForUser(String username) {
         // ensure customer exists
         customerService.getOrThrow(username);
-        return accountsByCustomer.computeIfAbsent(username, u -> new ArrayList<>());
+        return accountsByCustomer.computeIfAbsent(username, u -> new CustomerAccounts());
     }
 
-    private Account findAccount(String username, String accountName) {
-        List<Account> accounts = accountsByCustomer.get(username);
-        if (accounts == null) {
-            return null;
-        }
-        for (Account a : accounts) {
-            if (a.getAccountName().equalsIgnoreCase(accountName)) {
-                return a;
+    /**
+     * The index key for an account name: names that differ only in case map to the
+     * same key. Plain lower-case ASCII names, the usual case, are returned as they are
+     * without allocating.
+     */
+    static String normalize(String accountName) {
+        for (int i = 0; i < accountName.length(); i++) {
+            char c = accountName.charAt(i);
+            if (c >= 0x80) {
+                // fold the way equalsIgnoreCase compares: upper case, then lower case
+                return accountName.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+            }
+            if (c >= 'A' && c <= 'Z') {
+                return accountName.toLowerCase(Locale.ROOT);
             }
         }
-        return null;
+        return accountName;
     }
 
-    private Account getOrThrow(String username, String accountName) {
-        Account acc = findAccount(username, accountName);
+    private static Account findAccount(CustomerAccounts customer, String accountName) {
+        if (customer == null) {
+            return null;
+        }
+        return customer.accounts.get(normalize(accountName));
+    }
+
+    /** The customer's default account: the first one opened, or {@code null} if none is open. */
+    private static Account defaultAccount(CustomerAccounts customer) {
+        Iterator<Account> accounts = customer.accounts.values().iterator();
+        return accounts.hasNext() ? accounts.next() : null;
+    }
+
+    private static Account getOrThrow(CustomerAccounts customer, String username, String accountName) {
+        Account acc = findAccount(customer, accountName);
         if (acc == null) {
             throw new IllegalArgumentException("Account '" + accountName +
                     "' not found for customer '" + username + "'");
@@ -44,39 +177,502 @@ public class AccountService {
         return acc;
     }
 
+    private int stripeOf(Account account) {
+        int h = System.identityHashCode(account);
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+
+    /** Locks the stripes of both accounts, lower stripe first; one lock if they share it. */
+    private void lockBoth(int first, int second) {
+        stripes[Math.min(first, second)].lock();
+        if (first != second) {
+            stripes[Math.max(first, second)].lock();
+        }
+    }
+
+    private void unlockBoth(int first, int second) {
+        if (first != second) {
+            stripes[Math.max(first, second)].unlock();
+        }
+        stripes[Math.min(first, second)].unlock();
+    }
+
+    private static void credit(Account account, long amount) {
+        try {
+            account.credit(amount);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Balance limit exceeded.");
+        }
+    }
+
+    /**
+     * Logs and journals a change now, or when the enclosing atomic batch commits.
+     * Called under the locks of the change, so the log has changes in applied order.
+     * The journal is written only once the log has taken the change, with its position.
+     *
+     * @return the log position to wait for once the locks are released; 0 if none
+     * @throws IllegalArgumentException if the log refused the change; the caller undoes it
+     */
+    private long record(LongConsumer journalWrite, RecordType type, RecordWriter record) {
+        List<PendingChange> pending = pendingChanges.get();
+        if (pending != null) {
+            pending.add(new PendingChange(journalWrite, type, record));
+            return 0;
+        }
+        long lsn = append(type, record);
+        if (journalWrite != null) {
+            journalWrite.accept(lsn);
+        }
+        return lsn;
+    }
+
+    /** Appends to the log, turning a failed or closed log into a refused command. */
+    private long append(RecordType type, RecordWriter record) {
+        try {
+            return log.append(type, record);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("The change could not be saved, so it was not made: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /** Waits for the log like {@link WriteAheadLog#awaitDurable}, turning a log failure into a failed command. */
+    private void awaitDurable(long lsn, RecordType type) {
+        try {
+            log.awaitDurable(lsn, type);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("The change may not have been saved: " + e.getMessage(), e);
+        }
+    }
+
+    /** Gives a new account the next id, or notes the id of a restored one, and logs it as opened. */
+    private long recordOpened(String username, Account account) {
+        if (account.getId() == 0) {
+            account.assignId(lastAccountId.incrementAndGet());
+        } else {
+            lastAccountId.accumulateAndGet(account.getId(), Math::max);
+        }
+        long id = account.getId();
+        String name = account.getAccountName();
+        long balance = account.getBalance();
+        return record(null, RecordType.ACCOUNT_OPENED,
+                out -> out.putString(username).putString(name).putLong(balance).putLong(id));
+    }
+
+    public TransactionJournal getJournal() {
+        return journal;
+    }
+
     // --- CRUD operations (by username) ---
 
     public boolean hasAccount(String username, String accountName) {
-        return findAccount(username, accountName) != null;
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        if (customer == null) {
+            return false;
+        }
+        customer.lock.readLock().lock();
+        try {
+            return findAccount(customer, accountName) != null;
+        } finally {
+            customer.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds {@code account} unless the customer already has one with that name.
+     *
+     * @return {@code false} if an account with the same name already exists
+     */
+    public boolean addAccountIfAbsent(String username, Account account) {
+        CustomerAccounts customer = getAccountsForUser(username);
+        long lsn = 0;
+        customer.lock.writeLock().lock();
+        try {
+            String key = normalize(account.getAccountName());
+            if (customer.accounts.containsKey(key)) {
+                return false;
+            }
+            // logged first, so a refused change leaves the list as it was
+            lsn = recordOpened(username, account);
+            customer.accounts.put(key, account);
+        } finally {
+            customer.lock.writeLock().unlock();
+        }
+        awaitDurable(lsn, RecordType.ACCOUNT_OPENED);
+        return true;
     }
 
+    /** Adds {@code account}; it is ignored if the customer already has one with that name. */
     public void addAccount(String username, Account account) {
-        List<Account> accounts = getAccountListForUser(username);
-        accounts.add(account);
+        addAccountIfAbsent(username, account);
+    }
+
+    /**
+     * Adds many customers' accounts, taking each customer's lock once, for bulk
+     * imports. Names already taken by a customer are skipped. Returns once the log has
+     * synced these and every earlier record, so one wait covers a whole import batch.
+     *
+     * @return the number of accounts added
+     */
+    public int addAccounts(Map<String, List<Account>> accountsByUser) {
+        int added = 0;
+        for (Map.Entry<String, List<Account>> entry : accountsByUser.entrySet()) {
+            CustomerAccounts customer = getAccountsForUser(entry.getKey());
+            customer.lock.writeLock().lock();
+            try {
+                for (Account account : entry.getValue()) {
+                    String key = normalize(account.getAccountName());
+                    if (!customer.accounts.containsKey(key)) {
+                        recordOpened(entry.getKey(), account);
+                        customer.accounts.put(key, account);
+                        added++;
+                    }
+                }
+            } finally {
+                customer.lock.writeLock().unlock();
+            }
+        }
+        log.sync();
+        return added;
     }
 
     public boolean removeAccount(String username, String accountName) {
-        List<Account> accounts = accountsByCustomer.get(username);
-        if (accounts == null) {
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        if (customer == null) {
             return false;
         }
-        return accounts.removeIf(a -> a.getAccountName().equalsIgnoreCase(accountName));
+        long lsn;
+        customer.lock.writeLock().lock();
+        try {
+            Account removed = findAccount(customer, accountName);
+            if (removed == null) {
+                return false;
+            }
+            String name = removed.getAccountName();
+            lsn = record(null, RecordType.ACCOUNT_CLOSED, out -> out.putString(username).putString(name));
+            customer.accounts.remove(normalize(accountName));
+        } finally {
+            customer.lock.writeLock().unlock();
+        }
+        awaitDurable(lsn, RecordType.ACCOUNT_CLOSED);
+        return true;
     }
 
+    /** Lists the customer's accounts; the balances shown are one consistent snapshot. */
     public String accountsToString(String username) {
-        List<Account> accounts = accountsByCustomer.get(username);
-        if (accounts == null || accounts.isEmpty()) {
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        if (customer == null) {
             return "No accounts found.";
         }
+        customer.lock.readLock().lock();
+        try {
+            if (customer.accounts.isEmpty()) {
+                return "No accounts found.";
+            }
 
-        StringBuilder sb = new StringBuilder();
-        for (Account a : accounts) {
-            if (sb.length() != 0) {
-                sb.append(System.lineSeparator());
+            // hold every stripe involved, in ascending order, so no transfer is half-applied
+            BitSet held = new BitSet(stripes.length);
+            for (Account a : customer.accounts.values()) {
+                held.set(stripeOf(a));
+            }
+            for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+                stripes[i].lock();
             }
-            sb.append("> ").append(a.toString());
+            try {
+                StringBuilder sb = new StringBuilder();
+                for (Account a : customer.accounts.values()) {
+                    if (sb.length() != 0) {
+                        sb.append(System.lineSeparator());
+                    }
+                    a.appendTo(sb.append("> "));
+                }
+                return sb.toString();
+            } finally {
+                for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+                    stripes[i].unlock();
+                }
+            }
+        } finally {
+            customer.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs {@code work} as one all-or-nothing unit for {@code username}'s accounts.
+     *
+     * It holds the customer's write lock, so no other operation on this customer's
+     * accounts can interleave while it runs; other customers are not held up. If it
+     * returns {@code false} (or throws), the customer's account list and every
+     * balance are restored to what they were before, and the batch's changes never
+     * reach the journal or the log. A committed batch is logged as one record, so
+     * recovery also applies all of it or none; if the log refuses that record, the
+     * batch is rolled back too. Only account state is covered; effects on other
+     * services are not undone.
+     *
+     * @return the result of {@code work}
+     * @throws IllegalArgumentException if the log refused the committed batch
+     */
+    public boolean runAtomically(String username, BooleanSupplier work) {
+        CustomerAccounts customer = getAccountsForUser(username);
+        long lsn = 0;
+        boolean committed = false;
+        customer.lock.writeLock().lock();
+        try {
+            Map<String, Account> savedIndex = new LinkedHashMap<>(customer.accounts);
+            List<Account> savedAccounts = new ArrayList<>(savedIndex.values());
+            long[] savedBalances = new long[savedAccounts.size()];
+            for (int i = 0; i < savedBalances.length; i++) {
+                savedBalances[i] = savedAccounts.get(i).getBalance();
+            }
+
+            List<PendingChange> outer = pendingChanges.get();
+            List<PendingChange> pending = new ArrayList<>();
+            pendingChanges.set(pending);
+            boolean kept = false;
+            try {
+                try {
+                    committed = work.getAsBoolean();
+                } finally {
+                    pendingChanges.set(outer);
+                }
+                if (committed) {
+                    // still under the write lock, so nothing else touched these accounts
+                    lsn = commit(pending, outer);
+                    kept = true;
+                }
+            } finally {
+                if (!kept) {
+                    customer.accounts.clear();
+                    customer.accounts.putAll(savedIndex);
+                    for (int i = 0; i < savedBalances.length; i++) {
+                        savedAccounts.get(i).restoreBalance(savedBalances[i]);
+                    }
+                }
+            }
+        } finally {
+            customer.lock.writeLock().unlock();
+        }
+        awaitDurable(lsn, RecordType.BATCH);
+        return committed;
+    }
+
+    /** Passes a committed batch's changes to the enclosing batch, or logs them as one record and journals them. */
+    private long commit(List<PendingChange> changes, List<PendingChange> outer) {
+        if (outer != null) {
+            outer.addAll(changes);
+            return 0;
+        }
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        long lsn = append(RecordType.BATCH, out -> {
+            out.putInt(changes.size());
+            for (PendingChange change : changes) {
+                change.record.writeTo(out.putByte(change.type.getCode()));
+            }
+        });
+        for (PendingChange change : changes) {
+            if (change.journalWrite != null) {
+                change.journalWrite.accept(lsn);
+            }
+        }
+        return lsn;
+    }
+
+    // --- snapshots and recovery ---
+
+    /**
+     * Copies the customer's accounts into {@code into}, and their recent payments into
+     * {@code payments}, for a snapshot, under the customer's write lock so no change
+     * is half-applied.
+     *
+     * @return the log position of the copy: it holds every change to this customer's
+     *         accounts logged up to there, and none logged after
+     */
+    public long snapshotAccounts(String username, List<Account> into, List<Payment> payments) {
+        // read first: an account opened after a null lookup is logged after this
+        long lsn = log.getAppendedLsn();
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        if (customer == null) {
+            return lsn;
+        }
+        customer.lock.writeLock().lock();
+        try {
+            for (Account account : customer.accounts.values()) {
+                into.add(new Account(account.getId(), account.getAccountName(), account.getBalance()));
+            }
+            customer.paymentLock.lock();
+            try {
+                payments.addAll(customer.payments.values());
+            } finally {
+                customer.paymentLock.unlock();
+            }
+            return log.getAppendedLsn();
+        } finally {
+            customer.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The highest account id issued so far. A snapshot keeps it, so ids of accounts
+     * closed before the snapshot are not issued again after a restart.
+     */
+    public long getLastAccountId() {
+        return lastAccountId.get();
+    }
+
+    /** Raises the highest account id issued to at least {@code id}, from a snapshot. */
+    public void restoreLastAccountId(long id) {
+        lastAccountId.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Restores the customer's accounts and recent payments from a snapshot copied at
+     * log position {@code lsn}; {@link #replay} then skips the customer's records up
+     * to there. Used at start-up, before the log is opened, so nothing is logged.
+     */
+    public void restoreAccounts(String username, List<Account> accounts, List<Payment> payments, long lsn) {
+        CustomerAccounts customer = getAccountsForUser(username);
+        customer.lock.writeLock().lock();
+        try {
+            for (Account account : accounts) {
+                customer.accounts.put(normalize(account.getAccountName()), account);
+                lastAccountId.accumulateAndGet(account.getId(), Math::max);
+            }
+            for (Payment payment : payments) {
+                remember(customer, payment);
+            }
+            customer.restoredLsn = lsn;
+        } finally {
+            customer.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an account record from the write-ahead log, ending at log position
+     * {@code lsn}. Used at start-up, before the log is opened, so nothing is logged
+     * again; balance changes are applied without the funds check, since the log only
+     * holds changes that succeeded. Changes a restored snapshot already holds are
+     * skipped, per customer. Balance changes the journal may have lost are journaled
+     * again; see {@link TransactionJournal#replays}.
+     */
+    public void replay(RecordType type, RecordInput in, long lsn) {
+        switch (type) {
+            case ACCOUNT_OPENED: {
+                String username = in.getString();
+                String name = in.getString();
+                long balance = in.getLong();
+                long id = in.getLong();
+                lastAccountId.accumulateAndGet(id, Math::max);
+                if (replays(username, lsn)) {
+                    addAccount(username, new Account(id, name, balance));
+                }
+                break;
+            }
+            case ACCOUNT_CLOSED: {
+                String username = in.getString();
+                String name = in.getString();
+                if (replays(username, lsn)) {
+                    removeAccount(username, name);
+                }
+                break;
+            }
+            case DEPOSIT:
+            case WITHDRAWAL: {
+                String username = in.getString();
+                String name = in.getString();
+                long amount = in.getLong();
+                boolean deposit = type == RecordType.DEPOSIT;
+                adjust(username, name, deposit ? amount : -amount, lsn);
+                rejournal(lsn, username, name, deposit ? JournalEntry.Type.DEPOSIT : JournalEntry.Type.WITHDRAWAL,
+                        amount);
+                break;
+            }
+            case TRANSFER: {
+                String fromUser = in.getString();
+                String from = in.getString();
+                String toUser = in.getString();
+                String to = in.getString();
+                long amount = in.getLong();
+                adjust(fromUser, from, -amount, lsn);
+                adjust(toUser, to, amount, lsn);
+                rejournalTransfer(lsn, fromUser, from, toUser, to, amount);
+                break;
+            }
+            case PAYMENT: {
+                String payer = in.getString();
+                String from = in.getString();
+                String payee = in.getString();
+                String to = in.getString();
+                long amount = in.getLong();
+                String reference = in.getString();
+                if (!reference.isEmpty() && replays(payer, lsn)) {
+                    remember(accountsByCustomer.get(payer), new Payment(reference, payee, amount));
+                }
+                adjust(payer, from, -amount, lsn);
+                adjust(payee, to, amount, lsn);
+                rejournalTransfer(lsn, payer, from, payee, to, amount);
+                break;
+            }
+            case BATCH: {
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    replay(RecordType.forCode(in.getByte()), in, lsn);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Not an account record: " + type);
+        }
+    }
+
+    /** Whether a record at {@code lsn} is newer than the customer's restored snapshot. */
+    private boolean replays(String username, long lsn) {
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        return customer == null || lsn > customer.restoredLsn;
+    }
+
+    private static void remember(CustomerAccounts customer, Payment payment) {
+        customer.paymentLock.lock();
+        try {
+            customer.payments.put(payment.getReference(), payment);
+        } finally {
+            customer.paymentLock.unlock();
+        }
+    }
+
+    private void adjust(String username, String accountName, long delta, long lsn) {
+        if (!replays(username, lsn)) {
+            return;
+        }
+        // credit takes no funds check, so a negative delta replays a withdrawal as logged
+        getOrThrow(accountsByCustomer.get(username), username, accountName).credit(delta);
+    }
+
+    /** Journals a replayed deposit or withdrawal again unless the journal still holds it. */
+    private void rejournal(long lsn, String username, String accountName, JournalEntry.Type type, long amount) {
+        if (!journal.replays(lsn) || journal.claim(lsn, username, accountName, type, amount)) {
+            return;
+        }
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        Account account = customer == null ? null : findAccount(customer, accountName);
+        if (account != null) {
+            journal.record(account.getId(), username, account.getAccountName(), type, amount, lsn);
+        }
+    }
+
+    private void rejournalTransfer(long lsn, String fromUser, String from, String toUser, String to, long amount) {
+        if (!journal.replays(lsn) || journal.claimTransfer(lsn, fromUser, from, toUser, to, amount)) {
+            return;
+        }
+        CustomerAccounts fromCustomer = accountsByCustomer.get(fromUser);
+        CustomerAccounts toCustomer = accountsByCustomer.get(toUser);
+        Account fromAccount = fromCustomer == null ? null : findAccount(fromCustomer, from);
+        Account toAccount = toCustomer == null ? null : findAccount(toCustomer, to);
+        if (fromAccount != null && toAccount != null) {
+            journal.recordTransfer(fromAccount.getId(), fromUser, fromAccount.getAccountName(),
+                    toAccount.getId(), toUser, toAccount.getAccountName(), amount, lsn);
         }
-        return sb.toString();
     }
 
     // --- API using CustomerID (for commands etc.) ---
@@ -86,45 +682,276 @@ public class AccountService {
     }
 
     public Account getAccount(CustomerID customerID, String accountName) {
-        return findAccount(customerID.getKey(), accountName);
+        CustomerAccounts customer = accountsByCustomer.get(customerID.getKey());
+        if (customer == null) {
+            return null;
+        }
+        customer.lock.readLock().lock();
+        try {
+            return findAccount(customer, accountName);
+        } finally {
+            customer.lock.readLock().unlock();
+        }
     }
 
-    public void deposit(CustomerID customerID, String accountName, double amount) {
+    public void deposit(CustomerID customerID, String accountName, long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be positive.");
         }
         String username = customerID.getKey();
-        Account account = getOrThrow(username, accountName);
-        account.setBalance(account.getBalance() + amount);
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        if (customer == null) {
+            throw new IllegalArgumentException("Account '" + accountName +
+                    "' not found for customer '" + username + "'");
+        }
+        long lsn;
+        customer.lock.readLock().lock();
+        try {
+            Account account = getOrThrow(customer, username, accountName);
+            credit(account, amount);
+            long id = account.getId();
+            String name = account.getAccountName();
+            try {
+                lsn = record(at -> journal.record(id, username, name, JournalEntry.Type.DEPOSIT, amount, at),
+                        RecordType.DEPOSIT, out -> out.putString(username).putString(name).putLong(amount));
+            } catch (IllegalArgumentException e) {
+                account.credit(-amount);
+                throw e;
+            }
+        } finally {
+            customer.lock.readLock().unlock();
+        }
+        awaitDurable(lsn, RecordType.DEPOSIT);
     }
 
-    public void withdraw(CustomerID customerID, String accountName, double amount) {
+    public void withdraw(CustomerID customerID, String accountName, long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be positive.");
         }
         String username = customerID.getKey();
-        Account account = getOrThrow(username, accountName);
-        if (account.getBalance() < amount) {
-            throw new IllegalArgumentException("Insufficient funds.");
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        if (customer == null) {
+            throw new IllegalArgumentException("Account '" + accountName +
+                    "' not found for customer '" + username + "'");
         }
-        account.setBalance(account.getBalance() - amount);
+        long lsn;
+        customer.lock.readLock().lock();
+        try {
+            Account account = getOrThrow(customer, username, accountName);
+            if (!account.tryDebit(amount)) {
+                throw new IllegalArgumentException("Insufficient funds.");
+            }
+            long id = account.getId();
+            String name = account.getAccountName();
+            try {
+                lsn = record(at -> journal.record(id, username, name, JournalEntry.Type.WITHDRAWAL, amount, at),
+                        RecordType.WITHDRAWAL, out -> out.putString(username).putString(name).putLong(amount));
+            } catch (IllegalArgumentException e) {
+                account.credit(amount);
+                throw e;
+            }
+        } finally {
+            customer.lock.readLock().unlock();
+        }
+        awaitDurable(lsn, RecordType.WITHDRAWAL);
     }
 
-    public void transfer(CustomerID customerID, String fromAccount, String toAccount, double amount) {
+    public void transfer(CustomerID customerID, String fromAccount, String toAccount, long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be positive.");
         }
 
         String username = customerID.getKey();
+        CustomerAccounts customer = accountsByCustomer.get(username);
+        if (customer == null) {
+            throw new IllegalArgumentException("Account '" + fromAccount +
+                    "' not found for customer '" + username + "'");
+        }
+
+        long lsn;
+        customer.lock.readLock().lock();
+        try {
+            Account from = getOrThrow(customer, username, fromAccount);
+            Account to   = getOrThrow(customer, username, toAccount);
+            lsn = transferBetween(username, from, username, to, amount, RecordType.TRANSFER, null);
+        } finally {
+            customer.lock.readLock().unlock();
+        }
+        awaitDurable(lsn, RecordType.TRANSFER);
+    }
+
+    /**
+     * Pays {@code amount} from the payer's default account into the payee's default
+     * account, the first account each of them opened.
+     *
+     * A non-empty {@code reference} makes the payment idempotent: if the payer's
+     * {@value #RECENT_PAYMENTS} most recent payments include one with the same
+     * reference, to the same payee and for the same amount, nothing is paid again and
+     * this returns {@code false} once that payment is durable. The references are kept
+     * in the log and in snapshots, so this also holds across a restart. Payments cannot
+     * be part of an {@link #runAtomically atomic batch}, which can only undo the
+     * batch customer's own accounts.
+     *
+     * @return {@code true} if the money moved now, {@code false} if the reference was already paid
+     * @throws IllegalArgumentException if the payment cannot be made, or the reference
+     *         was already used for a different payment
+     */
+    public boolean pay(CustomerID payerID, String payeeName, long amount, String reference) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive.");
+        }
+        String payerName = payerID.getKey();
+        if (payerName.equals(payeeName)) {
+            throw new IllegalArgumentException("You cannot pay yourself; use TRANSFER between your accounts.");
+        }
+        if (pendingChanges.get() != null) {
+            throw new IllegalArgumentException("A payment cannot be part of an atomic batch.");
+        }
+        CustomerAccounts payer = accountsByCustomer.get(payerName);
+        CustomerAccounts payee = accountsByCustomer.get(payeeName);
+        if (payer == null) {
+            throw new IllegalArgumentException("You have no account to pay from.");
+        }
+        if (payee == null) {
+            throw new IllegalArgumentException("Payee '" + payeeName + "' not found.");
+        }
+        String ref = reference == null ? "" : reference;
+        if (ref.length() > MAX_REFERENCE_LENGTH) {
+            throw new IllegalArgumentException("Reference must be at most " + MAX_REFERENCE_LENGTH + " characters.");
+        }
+        Payment payment = new Payment(ref, payeeName, amount);
 
-        Account from = getOrThrow(username, fromAccount);
-        Account to   = getOrThrow(username, toAccount);
+        // every caller takes two customers' locks in username order, so none can deadlock
+        CustomerAccounts first = payerName.compareTo(payeeName) < 0 ? payer : payee;
+        CustomerAccounts second = first == payer ? payee : payer;
+        long lsn;
+        first.lock.readLock().lock();
+        try {
+            second.lock.readLock().lock();
+            try {
+                Account from = defaultAccount(payer);
+                Account to = defaultAccount(payee);
+                if (from == null) {
+                    throw new IllegalArgumentException("You have no account to pay from.");
+                }
+                if (to == null) {
+                    throw new IllegalArgumentException("Payee '" + payeeName + "' has no account to pay into.");
+                }
+                if (!ref.isEmpty()) {
+                    // held across the payment, so a retry racing the original waits for it
+                    payer.paymentLock.lock();
+                }
+                try {
+                    Payment earlier = ref.isEmpty() ? null : payer.payments.get(ref);
+                    if (earlier != null) {
+                        if (!earlier.sameAs(payment)) {
+                            throw new IllegalArgumentException("Reference '" + ref
+                                    + "' was already used for a different payment.");
+                        }
+                        lsn = -1;
+                    } else {
+                        lsn = transferBetween(payerName, from, payeeName, to, amount, RecordType.PAYMENT, ref);
+                        if (!ref.isEmpty()) {
+                            payer.payments.put(ref, payment);
+                        }
+                    }
+                } finally {
+                    if (!ref.isEmpty()) {
+                        payer.paymentLock.unlock();
+                    }
+                }
+            } finally {
+                second.lock.readLock().unlock();
+            }
+        } finally {
+            first.lock.readLock().unlock();
+        }
+        if (lsn < 0) {
+            // the original may still be waiting for its sync; reply only once it is durable
+            awaitDurable(log.getAppendedLsn(), RecordType.PAYMENT);
+            return false;
+        }
+        awaitDurable(lsn, RecordType.PAYMENT);
+        return true;
+    }
 
-        if (from.getBalance() < amount) {
-            throw new IllegalArgumentException("Insufficient funds.");
+    /**
+     * Moves {@code amount} between two accounts under their stripes, then logs and
+     * journals it. Called under the customer locks of both accounts.
+     *
+     * @return the log position to wait for once the locks are released
+     */
+    private long transferBetween(String fromUser, Account from, String toUser, Account to, long amount,
+                                 RecordType type, String reference) {
+        int fromStripe = stripeOf(from);
+        int toStripe = stripeOf(to);
+        lockBoth(fromStripe, toStripe);
+        try {
+            // still compare-and-set: deposits and withdrawals do not take the stripes
+            if (!from.tryDebit(amount)) {
+                throw new IllegalArgumentException("Insufficient funds.");
+            }
+            try {
+                credit(to, amount);
+            } catch (IllegalArgumentException e) {
+                from.credit(amount);
+                throw e;
+            }
+            // under the stripes, so transfers between the same accounts are recorded in order
+            String fromName = from.getAccountName();
+            String toName = to.getAccountName();
+            try {
+                return record(at -> journal.recordTransfer(from.getId(), fromUser, fromName,
+                                to.getId(), toUser, toName, amount, at),
+                        type, out -> {
+                            out.putString(fromUser).putString(fromName).putString(toUser).putString(toName)
+                                    .putLong(amount);
+                            if (type == RecordType.PAYMENT) {
+                                out.putString(reference);
+                            }
+                        });
+            } catch (IllegalArgumentException e) {
+                // refused by the log: put the money back (no funds check, as in replay)
+                to.credit(-amount);
+                from.credit(amount);
+                throw e;
+            }
+        } finally {
+            unlockBoth(fromStripe, toStripe);
         }
+    }
 
-        from.setBalance(from.getBalance() - amount);
-        to.setBalance(to.getBalance() + amount);
+    /**
+     * One page of the account's journal, newest first, {@link #TRANSACTIONS_PAGE_SIZE}
+     * entries per page starting at page 1.
+     */
+    public String showTransactions(CustomerID customerID, String accountName, int page) {
+        String username = customerID.getKey();
+        Account account = getAccount(customerID, accountName);
+        if (account == null) {
+            throw new IllegalArgumentException("Account '" + accountName +
+                    "' not found for customer '" + username + "'");
+        }
+        if (page < 1) {
+            throw new IllegalArgumentException("Page must be 1 or more.");
+        }
+
+        int count = journal.count(account.getId());
+        if (count == 0) {
+            return "No transactions for '" + account.getAccountName() + "'.";
+        }
+        int pages = (count + TRANSACTIONS_PAGE_SIZE - 1) / TRANSACTIONS_PAGE_SIZE;
+        if (page > pages) {
+            throw new IllegalArgumentException("Page " + page + " is past the last page (" + pages + ").");
+        }
+
+        StringBuilder sb = new StringBuilder("Transactions for '").append(account.getAccountName())
+                .append("', page ").append(page).append(" of ").append(pages).append(" (newest first):");
+        // formatted straight from the journal's segments, no entry objects
+        journal.forEachNewestFirst(account.getId(), (page - 1) * TRANSACTIONS_PAGE_SIZE,
+                TRANSACTIONS_PAGE_SIZE, (sequence, timestamp, type, amount, owner, counterparty) ->
+                        JournalEntry.appendTo(sb.append(System.lineSeparator()).append("> "),
+                                sequence, timestamp, type, amount, owner, counterparty));
+        return sb.toString();
     }
 }
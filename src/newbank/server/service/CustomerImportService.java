@@ -0,0 +1,329 @@
+package newbank.server.service;
+
+import newbank.protocol.Money;
+import newbank.server.model.Account;
+import newbank.server.service.security.PasswordHash;
+import newbank.server.service.security.PasswordHashPolicy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Imports customers and their accounts from a CSV file, e.g. when migrating existing
+ * customers onto a new server.
+ *
+ * <p>Each row is {@code username,password[,accountName,openingBalance]...}; blank
+ * lines, lines starting with {@code #} and a header row starting with
+ * {@code username} are skipped. Fields may be double-quoted (with {@code ""} for a
+ * quote) to contain commas.
+ *
+ * <p>The file is streamed in batches of {@code batchSize} rows. While one batch is
+ * read and parsed, the previous one is hashed on a {@link ForkJoinPool} (PBKDF2 is
+ * the only expensive step), and once hashed it is inserted: customers one by one
+ * into {@link CustomerService}, their accounts with one
+ * {@link AccountService#addAccounts} call per batch, which also waits once for the
+ * write-ahead log to sync the whole batch. So at most two batches are in memory
+ * however large the file is.
+ *
+ * <p>A bad row (missing fields, bad balance, duplicate customer or account name) is
+ * reported with its line number and skipped; the run carries on. Progress is sent to
+ * the {@code progress} consumer after every batch.
+ */
+public class CustomerImportService {
+
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+
+    /** Errors kept in the {@link ImportReport}; every error is still sent to {@code progress}. */
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    /** Rows hashed by one fork-join leaf task. */
+    private static final int HASH_CHUNK = 4;
+
+    private final CustomerService customerService;
+    private final AccountService accountService;
+    private final int parallelism;
+    private final int batchSize;
+    private final Consumer<String> progress;
+
+    public CustomerImportService(CustomerService customerService, AccountService accountService,
+                                 int parallelism, int batchSize, Consumer<String> progress) {
+        if (parallelism < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Parallelism and batch size must be at least 1.");
+        }
+        this.customerService = customerService;
+        this.accountService = accountService;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.progress = progress;
+    }
+
+    /** An importer using every core, printing progress to standard output. */
+    public CustomerImportService(CustomerService customerService, AccountService accountService) {
+        this(customerService, accountService, Runtime.getRuntime().availableProcessors(),
+                DEFAULT_BATCH_SIZE, System.out::println);
+    }
+
+    /** Outcome of one import. */
+    public static final class ImportReport {
+        private long rows;
+        private long customers;
+        private long accounts;
+        private long errorCount;
+        private final List<String> errors = new ArrayList<>();
+        private long elapsedMillis;
+
+        /** Data rows read, including rejected ones. */
+        public long getRows() {
+            return rows;
+        }
+
+        public long getCustomers() {
+            return customers;
+        }
+
+        public long getAccounts() {
+            return accounts;
+        }
+
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /** The first errors, as {@code line N: reason}. */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            long perSecond = elapsedMillis == 0 ? rows : rows * 1_000 / elapsedMillis;
+            return "Imported " + customers + " customers and " + accounts + " accounts from "
+                    + rows + " rows in " + elapsedMillis + " ms (" + perSecond + " rows/s), "
+                    + errorCount + " rows rejected";
+        }
+    }
+
+    /** One data row; {@code hash} is filled in on the pool. */
+    private static final class Row {
+        final int line;
+        final String userName;
+        final String password;
+        final List<Account> accounts;
+        String error;
+        PasswordHash hash;
+
+        Row(int line, String userName, String password, List<Account> accounts) {
+            this.line = line;
+            this.userName = userName;
+            this.password = password;
+            this.accounts = accounts;
+        }
+
+        Row(int line, String error) {
+            this(line, null, null, List.of());
+            this.error = error;
+        }
+    }
+
+    /** Hashes a slice of a batch, splitting it until the slices are small. */
+    private static final class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // never serialized: tasks only live in the import's ForkJoinPool
+        private final transient List<Row> rows;
+        private final int from;
+        private final int to;
+        private final transient PasswordHashPolicy policy;
+
+        HashTask(List<Row> rows, int from, int to, PasswordHashPolicy policy) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.policy = policy;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= HASH_CHUNK) {
+                for (int i = from; i < to; i++) {
+                    Row row = rows.get(i);
+                    if (row.error == null) {
+                        row.hash = PasswordHash.create(row.password, policy);
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new HashTask(rows, from, middle, policy), new HashTask(rows, middle, to, policy));
+        }
+    }
+
+    public ImportReport importFile(Path file) throws IOException {
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importCsv(in);
+        }
+    }
+
+    public ImportReport importCsv(Reader source) throws IOException {
+        ImportReport report = new ImportReport();
+        long start = System.nanoTime();
+        BufferedReader in = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+        PasswordHashPolicy policy = PasswordHashPolicy.current();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            int[] lineNumber = {0};
+            List<Row> hashedBatch = null;
+            ForkJoinTask<?> hashing = null;
+            List<Row> batch;
+            while (!(batch = readBatch(in, lineNumber)).isEmpty()) {
+                ForkJoinTask<?> next = pool.submit(new HashTask(batch, 0, batch.size(), policy));
+                if (hashing != null) {
+                    hashing.join();
+                    insert(hashedBatch, report, start);
+                }
+                hashing = next;
+                hashedBatch = batch;
+            }
+            if (hashing != null) {
+                hashing.join();
+                insert(hashedBatch, report, start);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        report.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        return report;
+    }
+
+    private List<Row> readBatch(BufferedReader in, int[] lineNumber) throws IOException {
+        List<Row> batch = new ArrayList<>(batchSize);
+        String line;
+        while (batch.size() < batchSize && (line = in.readLine()) != null) {
+            lineNumber[0]++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")
+                    || (lineNumber[0] == 1 && trimmed.toLowerCase(Locale.ROOT).startsWith("username"))) {
+                continue;
+            }
+            batch.add(parse(lineNumber[0], line));
+        }
+        return batch;
+    }
+
+    private static Row parse(int line, String text) {
+        List<String> fields;
+        try {
+            fields = splitCsv(text);
+        } catch (IllegalArgumentException e) {
+            return new Row(line, e.getMessage());
+        }
+        if (fields.size() < 2 || fields.get(0).isBlank() || fields.get(1).isEmpty()) {
+            return new Row(line, "Expected username,password[,account,balance]...");
+        }
+        if (fields.size() % 2 != 0) {
+            return new Row(line, "Account '" + fields.get(fields.size() - 1) + "' has no opening balance.");
+        }
+
+        List<Account> accounts = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (int i = 2; i < fields.size(); i += 2) {
+            String name = fields.get(i).trim();
+            if (name.isEmpty()) {
+                return new Row(line, "Account name must not be empty.");
+            }
+            if (!names.add(name.toLowerCase(Locale.ROOT))) {
+                return new Row(line, "Account '" + name + "' is listed twice.");
+            }
+            long balance;
+            try {
+                balance = Money.parse(fields.get(i + 1).trim());
+            } catch (NumberFormatException e) {
+                return new Row(line, "Opening balance of '" + name + "': " + e.getMessage());
+            }
+            if (balance < 0) {
+                return new Row(line, "Opening balance of '" + name + "' must not be negative.");
+            }
+            accounts.add(new Account(name, balance));
+        }
+        return new Row(line, fields.get(0).trim(), fields.get(1), accounts);
+    }
+
+    /** Splits one CSV line; fields may be quoted, with {@code ""} standing for a quote. */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field.");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private void insert(List<Row> batch, ImportReport report, long start) {
+        Map<String, List<Account>> accounts = new LinkedHashMap<>();
+        for (Row row : batch) {
+            report.rows++;
+            if (row.error == null) {
+                try {
+                    customerService.registerCustomerNoWait(row.userName, row.hash);
+                    report.customers++;
+                    accounts.put(row.userName, row.accounts);
+                } catch (IllegalArgumentException e) {
+                    row.error = e.getMessage();
+                }
+            }
+            if (row.error != null) {
+                String error = "line " + row.line + ": " + row.error;
+                report.errorCount++;
+                if (report.errors.size() < MAX_REPORTED_ERRORS) {
+                    report.errors.add(error);
+                }
+                progress.accept("Import error, " + error);
+            }
+        }
+        report.accounts += accountService.addAccounts(accounts);
+        report.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        progress.accept(report.toString());
+    }
+}
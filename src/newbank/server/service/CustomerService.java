@@ -1,22 +1,101 @@
 package newbank.server.service;
 
 import newbank.server.model.Customer;
+import newbank.server.persistence.RecordInput;
+import newbank.server.persistence.RecordType;
+import newbank.server.persistence.WriteAheadLog;
+import newbank.server.service.security.PasswordHash;
+import newbank.server.service.security.PasswordRehasher;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 public class CustomerService {
 
-    private final Map<String, Customer> customers = new HashMap<>();
+    // logins look customers up from many auth threads at once, without a bank-wide lock
+    private final Map<String, Customer> customers = new ConcurrentHashMap<>();
+    private final PasswordRehasher rehasher;
+    private final WriteAheadLog log;
+
+    public CustomerService() {
+        this(new PasswordRehasher(1_024));
+    }
+
+    public CustomerService(PasswordRehasher rehasher) {
+        this(rehasher, new WriteAheadLog());
+    }
+
+    /**
+     * Registrations are written to {@code log}. Password hashes upgraded at login are
+     * not: after a restart the original hash is still valid and is upgraded again.
+     */
+    public CustomerService(PasswordRehasher rehasher, WriteAheadLog log) {
+        this.rehasher = rehasher;
+        this.log = log;
+    }
 
     public Customer registerCustomer(String username, String rawPassword) {
-        if (customers.containsKey(username)) {
+        return registerCustomer(username, new Customer(rawPassword));
+    }
+
+    /** Registers a customer whose password was hashed beforehand, e.g. by a bulk import. */
+    public Customer registerCustomer(String username, PasswordHash passwordHash) {
+        return registerCustomer(username, new Customer(passwordHash));
+    }
+
+    /**
+     * Like {@link #registerCustomer(String, PasswordHash)}, but returns without waiting
+     * for the log; bulk imports wait once per batch instead.
+     */
+    Customer registerCustomerNoWait(String username, PasswordHash passwordHash) {
+        Customer customer = new Customer(passwordHash);
+        add(username, customer);
+        return customer;
+    }
+
+    private Customer registerCustomer(String username, Customer customer) {
+        log.awaitDurable(add(username, customer), RecordType.CUSTOMER_REGISTERED);
+        return customer;
+    }
+
+    /** Returns the log position of the registration. */
+    private long add(String username, Customer customer) {
+        long[] lsn = {0};
+        // logged before the customer is visible, so no account record can precede it
+        Customer stored = customers.computeIfAbsent(username, u -> {
+            lsn[0] = logRegistration(username, customer);
+            return customer;
+        });
+        if (stored != customer) {
             throw new IllegalArgumentException("Customer '" + username + "' already exists.");
         }
+        return lsn[0];
+    }
 
-        Customer customer = new Customer(rawPassword);
-        customers.put(username, customer);
-        return customer;
+    /**
+     * Applies a {@code CUSTOMER_REGISTERED} record from the write-ahead log at start-up.
+     * A customer already restored from a snapshot is left as it is.
+     */
+    public void replay(RecordType type, RecordInput in) {
+        if (type != RecordType.CUSTOMER_REGISTERED) {
+            throw new IllegalArgumentException("Not a customer record: " + type);
+        }
+        String username = in.getString();
+        String encodedHash = in.getString();
+        if (!customers.containsKey(username)) {
+            add(username, new Customer(PasswordHash.decode(encodedHash)));
+        }
+    }
+
+    private long logRegistration(String username, Customer customer) {
+        return log.append(RecordType.CUSTOMER_REGISTERED,
+                out -> out.putString(username).putString(customer.getPasswordHash().encode()));
+    }
+
+    /** Calls {@code action} for every customer, in no particular order. */
+    public void forEachCustomer(BiConsumer<String, Customer> action) {
+        customers.forEach(action);
     }
 
     public boolean authenticate(String username, String password) {
@@ -24,7 +103,11 @@ public class CustomerService {
         if (customer == null) {
             return false;
         }
-        return customer.checkPassword(password);
+        if (!customer.checkPassword(password)) {
+            return false;
+        }
+        rehasher.rehashIfOutdated(customer, password);
+        return true;
     }
 
     public Customer getCustomer(String username) {
@@ -7,10 +7,16 @@ import newbank.server.NewBank;
 import newbank.server.model.Loan;
 import newbank.server.model.LoanStatus;
 import newbank.server.model.Notification;
+import newbank.server.persistence.RecordInput;
+import newbank.server.persistence.RecordType;
+import newbank.server.persistence.WriteAheadLog;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service class responsible for managing loan-related operations within the NewBank system.
@@ -18,7 +24,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * This class encapsulates all business logic related to offering, tracking, and
  * maintaining loan records. It currently operates entirely in-memory using an
  * internal {@link HashMap}, and generates sequential loan identifiers through an
- * {@link AtomicInteger}. For @Version 1.0 A future implementation may persist loans to a database.
+ * {@link AtomicInteger}. Offers and status changes are appended to the bank's
+ * write-ahead log, so loans survive a restart.
  *
  * Responsibilities include:
  *   Validating loan creation requests (amount, interest rate, term length)
@@ -27,20 +34,34 @@ import java.util.concurrent.atomic.AtomicInteger;
  *   Creating new {@link Loan} instances and assigning sequential IDs
  *   Managing loan status values (initially ACTIVE for offered loans)
  *
- * The class is thread-safe for loan creation operations, as the main public entry
- * point {@link #offerLoan(CustomerID, String, double, double, int, String)}
- * is synchronized in order to avoid race condition on the seqence generated id
+ * The class is thread-safe: every public operation runs under a single
+ * {@link ReentrantLock} (virtual-thread friendly, unlike {@code synchronized}) in
+ * order to avoid race conditions on the loan store and the sequence generated id.
  *
  */
 public class LoanService {
 
-    private final NewBank newBank;
+    private final CustomerService customerService;
+    private final AccountService accountService;
+    private final NotificationService notificationService;
+    private final WriteAheadLog log;
 
     private final Map<Integer, Loan> loans = new HashMap<>();
     private final AtomicInteger nextLoanId = new AtomicInteger(1);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long restoredLsn;  // log position a snapshot restored the loans at; 0 if none
 
     public LoanService(NewBank bank){
-        this.newBank = bank;
+        this(bank.getCustomerService(), bank.getAccountService(), bank.getNotificationService(),
+                bank.getWriteAheadLog());
+    }
+
+    public LoanService(CustomerService customerService, AccountService accountService,
+                       NotificationService notificationService, WriteAheadLog log) {
+        this.customerService = customerService;
+        this.accountService = accountService;
+        this.notificationService = notificationService;
+        this.log = log;
     }
 
 
@@ -77,42 +98,48 @@ public class LoanService {
      *            The interest rate is zero or negative
      *            The term is zero or negative
      */
-    public synchronized Loan offerLoan(CustomerID lenderId, String fromAccount, double amount, double interestRate, int termMonths, String extraTerms) {
+    public Loan offerLoan(CustomerID lenderId, String fromAccount, long amount, double interestRate, int termMonths, String extraTerms) {
+        Loan loan;
+        long lsn;
+        lock.lock();
+        try {
+            if (!customerService.hasCustomer(lenderId.getKey())) {
+                throw new IllegalArgumentException("Unknown lender");
+            }
 
+            Account account = accountService.getAccount(lenderId, fromAccount);
+            if (account == null) {
+                throw new IllegalArgumentException("Account '" + fromAccount + "' does not exist.");
+            }
 
-        if (!newBank.getCustomerService().hasCustomer(lenderId.getKey())) {
-            throw new IllegalArgumentException("Unknown lender");
-        }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount must be greater than 0.");
+            }
 
-        Account account = newBank.getAccountService().getAccount(lenderId, fromAccount);
-        if (account == null) {
-            throw new IllegalArgumentException("Account '" + fromAccount + "' does not exist.");
-        }
+            if (amount > account.getBalance()) {
+                throw new IllegalArgumentException(
+                        "The loan amount cannot exceed the available balance of the account."
+                );
+            }
 
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount must be greater than 0.");
-        }
+            if (interestRate <= 0) {
+                throw new IllegalArgumentException("Interest rate must be greater than 0.");
+            }
 
-        if (amount > account.getBalance()) {
-            throw new IllegalArgumentException(
-                    "The loan amount cannot exceed the available balance of the account."
-            );
-        }
+            if (termMonths <= 0) {
+                throw new IllegalArgumentException("Term must be greater than 0.");
+            }
 
-        if (interestRate <= 0) {
-            throw new IllegalArgumentException("Interest rate must be greater than 0.");
-        }
+            int id = nextLoanId.getAndIncrement();
+            loan = new Loan(id, lenderId, fromAccount, amount, interestRate, termMonths, extraTerms, LoanStatus.AVAILABLE
+            );
 
-        if (termMonths <= 0) {
-            throw new IllegalArgumentException("Term must be greater than 0.");
+            loans.put(id, loan);
+            lsn = logOffer(loan);
+        } finally {
+            lock.unlock();
         }
-
-        int id = nextLoanId.getAndIncrement();
-        Loan loan = new Loan(id, lenderId, fromAccount, amount, interestRate, termMonths, extraTerms, LoanStatus.AVAILABLE
-        );
-
-        loans.put(id, loan);
-
+        log.awaitDurable(lsn, RecordType.LOAN_OFFERED);
         return loan;
     }
 
@@ -142,89 +169,193 @@ public class LoanService {
      *                           or if the loan is not in AVAILABLE status
      *  IllegalStateException    if the loan references a lender that does not exist
      *
-     * The method is synchronized to ensure thread safety when modifying loan
-     * status and generating notifications.
+     * The method runs under the service lock to ensure thread safety when modifying
+     * loan status and generating notifications.
      */
-    public synchronized Loan requestLoan(CustomerID borrowerId, int loanId){
+    public Loan requestLoan(CustomerID borrowerId, int loanId){
+        Loan requestedLoan;
+        long lsn;
+        lock.lock();
+        try {
+            Customer borrower = customerService.getCustomer(borrowerId.getKey());
+            requestedLoan = loans.get(loanId);
+
+            if (borrower == null){
+                throw new IllegalArgumentException("Unknown borrower");
+            }
 
-        Customer borrower = newBank.getCustomer(borrowerId.getKey());
-        Loan requestedLoan = loans.get(loanId);
+            if(!loans.containsKey(loanId)){
+                throw new IllegalArgumentException("The loan id does not exist in the loan list");
+            }
 
-        if (borrower == null){
-            throw new IllegalArgumentException("Unknown borrower");
-        }
+            if(requestedLoan.getLender().getKey().equals(borrowerId.getKey())){
 
-        if(!loans.containsKey(loanId)){
-            throw new IllegalArgumentException("The loan id does not exist in the loan list");
-        }
+                throw new IllegalArgumentException("The borrower cannot be the same as the lender");
+            }
 
-        if(requestedLoan.getLender().getKey().equals(borrowerId.getKey())){
+            if(requestedLoan.getLoanStatus().equals(LoanStatus.AVAILABLE)){
 
-            throw new IllegalArgumentException("The borrower cannot be the same as the lender");
-        }
+                requestedLoan.setLoanStatus(LoanStatus.REQUESTED);
+                lsn = logStatus(requestedLoan);
 
-        if(requestedLoan.getLoanStatus().equals(LoanStatus.AVAILABLE)){
+                CustomerID lenderId = requestedLoan.getLender();
+                Customer lender = customerService.getCustomer(lenderId.getKey());
 
-            requestedLoan.setLoanStatus(LoanStatus.REQUESTED);
+                if (lender == null) {
+                    throw new IllegalStateException("Loan references a non-existent lender.");
+                }
 
-            CustomerID lenderId = requestedLoan.getLender();
-            Customer lender = newBank.getCustomer(lenderId.getKey());
+                Notification notification = notificationService.createNotification(lenderId,"Borrower " + borrowerId.getKey() +" has requested your loan " + loanId + ".");
 
-            if (lender == null) {
-                throw new IllegalStateException("Loan references a non-existent lender.");
+            }else{
+                throw new IllegalArgumentException("The loan is not in the AVAILABLE status");
             }
 
-            Notification notification = newBank.getNotificationService().createNotification(lenderId,"Borrower " + borrowerId.getKey() +" has requested your loan " + loanId + ".");
-
-        }else{
-            throw new IllegalArgumentException("The loan is not in the AVAILABLE status");
+        } finally {
+            lock.unlock();
         }
-
+        log.awaitDurable(lsn, RecordType.LOAN_STATUS);
         return  requestedLoan;
     }
 
-    public synchronized String showUserLoan(CustomerID customerID) {
-        if (customerID == null) {
-            return "FAIL: Not logged in.";
-        }
+    private long logOffer(Loan loan) {
+        return log.append(RecordType.LOAN_OFFERED, out -> out.putInt((int) loan.getId())
+                .putString(loan.getLender().getKey()).putString(loan.getFromAccount())
+                .putLong(loan.getAmount()).putDouble(loan.getInterestRate()).putInt(loan.getTermMonths())
+                .putString(loan.getExtraTerms()));
+    }
 
-        String customerName = customerID.getKey();
-        StringBuilder sb = new StringBuilder();
+    private long logStatus(Loan loan) {
+        return log.append(RecordType.LOAN_STATUS,
+                out -> out.putInt((int) loan.getId()).putString(loan.getLoanStatus().name()));
+    }
 
-        for (Loan loan : loans.values()) {
-            if (loan.getLender().getKey().equalsIgnoreCase(customerName)) {
-                if (sb.isEmpty()) {
-                    sb.append("Your loan offers:").append(System.lineSeparator());
-                } else {
-                    sb.append(System.lineSeparator());
-                }
-                sb.append(loan);
+    /**
+     * Copies every loan into {@code into}, in id order, for a snapshot.
+     *
+     * @return the log position of the copy: it holds every loan change logged up to
+     *         there, and none logged after
+     */
+    public long snapshotLoans(List<Loan> into) {
+        lock.lock();
+        try {
+            List<Integer> ids = new ArrayList<>(loans.keySet());
+            ids.sort(null);
+            for (int id : ids) {
+                Loan loan = loans.get(id);
+                into.add(new Loan(id, loan.getLender(), loan.getFromAccount(), loan.getAmount(),
+                        loan.getInterestRate(), loan.getTermMonths(), loan.getExtraTerms(), loan.getLoanStatus()));
             }
+            return log.getAppendedLsn();
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (sb.isEmpty()) {
-            return "You have not created any loan offers.";
+    /**
+     * Restores loans from a snapshot copied at log position {@code lsn}; {@link #replay}
+     * then skips the loan records up to there. Used at start-up, so nothing is logged.
+     */
+    public void restoreLoans(List<Loan> restored, long lsn) {
+        lock.lock();
+        try {
+            for (Loan loan : restored) {
+                int id = (int) loan.getId();
+                loans.put(id, loan);
+                nextLoanId.accumulateAndGet(id + 1, Math::max);
+            }
+            restoredLsn = lsn;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return sb.toString();
+    /**
+     * Applies a loan record from the write-ahead log, ending at log position
+     * {@code lsn}, at start-up; records a restored snapshot already holds are skipped.
+     */
+    public void replay(RecordType type, RecordInput in, long lsn) {
+        lock.lock();
+        try {
+            if (lsn <= restoredLsn) {
+                return;
+            }
+            int id = in.getInt();
+            switch (type) {
+                case LOAN_OFFERED: {
+                    CustomerID lender = new CustomerID(in.getString());
+                    String fromAccount = in.getString();
+                    long amount = in.getLong();
+                    double rate = in.getDouble();
+                    int termMonths = in.getInt();
+                    loans.put(id, new Loan(id, lender, fromAccount, amount, rate, termMonths, in.getString(),
+                            LoanStatus.AVAILABLE));
+                    nextLoanId.accumulateAndGet(id + 1, Math::max);
+                    break;
+                }
+                case LOAN_STATUS:
+                    loans.get(id).setLoanStatus(LoanStatus.valueOf(in.getString()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Not a loan record: " + type);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized String showAvailableLoans() {
-        StringBuilder sb = new StringBuilder();
+    public String showUserLoan(CustomerID customerID) {
+        lock.lock();
+        try {
+            if (customerID == null) {
+                return "FAIL: Not logged in.";
+            }
 
-        for (Loan loan : loans.values()) {
-            if (loan.getLoanStatus() == LoanStatus.AVAILABLE) {
-                if (sb.isEmpty()) {
-                    sb.append("Available loans:").append("\n");
+            String customerName = customerID.getKey();
+            StringBuilder sb = new StringBuilder();
+
+            for (Loan loan : loans.values()) {
+                if (loan.getLender().getKey().equalsIgnoreCase(customerName)) {
+                    if (sb.isEmpty()) {
+                        sb.append("Your loan offers:").append(System.lineSeparator());
+                    } else {
+                        sb.append(System.lineSeparator());
+                    }
+                    sb.append(loan);
                 }
-                sb.append(loan).append("\n");
             }
+
+            if (sb.isEmpty()) {
+                return "You have not created any loan offers.";
+            }
+
+            return sb.toString();
+        } finally {
+            lock.unlock();
         }
+    }
+
+    public String showAvailableLoans() {
+        lock.lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+
+            for (Loan loan : loans.values()) {
+                if (loan.getLoanStatus() == LoanStatus.AVAILABLE) {
+                    if (sb.isEmpty()) {
+                        sb.append("Available loans:").append("\n");
+                    }
+                    sb.append(loan).append("\n");
+                }
+            }
 
-        if (sb.isEmpty()) {
-            return "There are currently no available loans.";
+            if (sb.isEmpty()) {
+                return "There are currently no available loans.";
+            }
+            return sb.toString();
+        } finally {
+            lock.unlock();
         }
-        return sb.toString();
     }
 }
 
@@ -2,8 +2,13 @@ package newbank.server.service;
 
 import newbank.server.model.CustomerID;
 import newbank.server.model.Notification;
+import newbank.server.persistence.RecordInput;
+import newbank.server.persistence.RecordType;
+import newbank.server.persistence.WriteAheadLog;
 
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages the creation and retrieval of notifications for customers in the NewBank system.
@@ -16,16 +21,27 @@ import java.util.*;
  *  - Assigning unique incremental notification IDs
  *  - Retrieving all notifications belonging to a specific customer
  *
- * The class is thread-safe. All public operations are synchronized to avoid race
- * conditions during notification creation or retrieval.
+ * The class is thread-safe. All public operations run under a {@link ReentrantLock}
+ * to avoid race conditions during notification creation or retrieval.
  *
- * This implementation uses a simple in-memory map and is intended for version 1.0.
- * A future version may persist notifications in a database or external storage.
+ * Notifications are kept in an in-memory map. Each one created is also appended to
+ * the {@link WriteAheadLog}, so it survives a restart.
  */
 public class NotificationService {
 
     private final Map<String, List<Notification>> notifications = new HashMap<>();
     private int nextId = 1;
+    private long restoredLsn;  // log position a snapshot restored the notifications at; 0 if none
+    private final ReentrantLock lock = new ReentrantLock();
+    private final WriteAheadLog log;
+
+    public NotificationService() {
+        this(new WriteAheadLog());
+    }
+
+    public NotificationService(WriteAheadLog log) {
+        this.log = log;
+    }
 
     /**
      * Creates a new notification for the specified customer.
@@ -40,16 +56,99 @@ public class NotificationService {
      * Returns:
      *  the newly created Notification object
      *
-     * The method is synchronized to ensure thread-safe ID generation and storage.
+     * The method holds the service lock to ensure thread-safe ID generation and storage.
+     * It returns once the write-ahead log holds the notification as durably as configured.
      */
-    public synchronized Notification createNotification(CustomerID recipient, String message) {
-        Notification notification = new Notification(nextId++, recipient, message);
-
-        notifications.computeIfAbsent(recipient.getKey(), k -> new ArrayList<>()).add(notification);
+    public Notification createNotification(CustomerID recipient, String message) {
+        Notification notification;
+        long lsn;
+        lock.lock();
+        try {
+            notification = new Notification(nextId++, recipient, message);
 
+            notifications.computeIfAbsent(recipient.getKey(), k -> new ArrayList<>()).add(notification);
+            lsn = logNotification(notification);
+        } finally {
+            lock.unlock();
+        }
+        log.awaitDurable(lsn, RecordType.NOTIFICATION_CREATED);
         return notification;
     }
 
+    private long logNotification(Notification n) {
+        return log.append(RecordType.NOTIFICATION_CREATED, out -> out.putInt(n.getId())
+                .putString(n.getRecipient().getKey()).putString(n.getMessage())
+                .putString(n.getCreatedAt().toString()).putByte(n.isRead() ? 1 : 0));
+    }
+
+    /**
+     * Applies a {@code NOTIFICATION_CREATED} record from the write-ahead log, ending at
+     * log position {@code lsn}, at start-up; records a restored snapshot already holds
+     * are skipped.
+     */
+    public void replay(RecordType type, RecordInput in, long lsn) {
+        if (type != RecordType.NOTIFICATION_CREATED) {
+            throw new IllegalArgumentException("Not a notification record: " + type);
+        }
+        int id = in.getInt();
+        CustomerID recipient = new CustomerID(in.getString());
+        String message = in.getString();
+        LocalDateTime createdAt = LocalDateTime.parse(in.getString());
+        boolean read = in.getByte() != 0;
+        lock.lock();
+        try {
+            if (lsn > restoredLsn) {
+                add(new Notification(id, recipient, message, createdAt, read));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies every notification into {@code into}, each recipient's in creation order,
+     * for a snapshot.
+     *
+     * @return the log position of the copy: it holds every notification logged up to
+     *         there, and none logged after
+     */
+    public long snapshotNotifications(List<Notification> into) {
+        lock.lock();
+        try {
+            for (List<Notification> list : notifications.values()) {
+                for (Notification n : list) {
+                    into.add(new Notification(n.getId(), n.getRecipient(), n.getMessage(), n.getCreatedAt(),
+                            n.isRead()));
+                }
+            }
+            return log.getAppendedLsn();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Restores notifications from a snapshot copied at log position {@code lsn};
+     * {@link #replay} then skips the records up to there. Used at start-up, so nothing
+     * is logged.
+     */
+    public void restoreNotifications(List<Notification> restored, long lsn) {
+        lock.lock();
+        try {
+            for (Notification notification : restored) {
+                add(notification);
+            }
+            restoredLsn = lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(Notification notification) {
+        notifications.computeIfAbsent(notification.getRecipient().getKey(), k -> new ArrayList<>()).add(notification);
+        nextId = Math.max(nextId, notification.getId() + 1);
+    }
+
     /**
      * Returns all notifications belonging to the specified customer.
      *
@@ -63,13 +162,18 @@ public class NotificationService {
      * Returns:
      *  a list of Notification objects for the customer, or an empty list if none exist
      *
-     * The method is synchronized to ensure safe access to the internal data structure.
+     * The method holds the service lock to ensure safe access to the internal data structure.
      */
-    public synchronized List<Notification> getNotifications(CustomerID recipient) {
-        List<Notification> list = notifications.get(recipient.getKey());
-        if (list == null) {
-            return Collections.emptyList();
+    public List<Notification> getNotifications(CustomerID recipient) {
+        lock.lock();
+        try {
+            List<Notification> list = notifications.get(recipient.getKey());
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            return list;
+        } finally {
+            lock.unlock();
         }
-        return list;
     }
 }
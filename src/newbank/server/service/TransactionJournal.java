@@ -0,0 +1,1134 @@
+package newbank.server.service;
+
+import newbank.protocol.Money;
+import newbank.server.model.JournalEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Append-only journal of every balance movement, backing {@code VIEWTRANSACTIONS}
+ * and regulatory exports.
+ *
+ * Each movement gets the next sequence number (1, 2, 3, ... across the whole bank)
+ * and a timestamp, which never goes backwards. Entries are stored in fixed-size
+ * segments of {@value #ENTRY_BYTES}-byte records rather than one object per entry,
+ * so a sequence number maps straight to its segment and slot:
+ * <pre>
+ *   0  long timestamp (epoch millis)     16  int account id
+ *   8  long amount (minor units)         20  int counterparty id, -1 if none
+ *                                        24  byte type ordinal + 1 (0 = empty slot, 0xFF = voided)
+ *                                        25  7 bytes: log position (LSN) of the change
+ * </pre>
+ * Every account also keeps the sequence numbers of its own entries in order, so a
+ * page of its history, newest first, costs O(page size) however long the journal
+ * is, and {@link #forEachNewestFirst} hands each entry over as plain values.
+ * Accounts are known by the {@link newbank.server.model.Account#getId() id} issued
+ * when they were opened, not by name, so an account opened under the name of a
+ * closed one starts with no history.
+ *
+ * A journal {@link #open opened} on a directory keeps each segment in its own file,
+ * {@code journal-<first sequence>.seg}, mapped into memory with
+ * {@link FileChannel#map}, and the accounts' ids and names in {@value #DIRECTORY_FILE}. After a
+ * restart the per-account indexes are rebuilt by scanning the mapped segments, and
+ * {@link #export} copies entries from the files straight to a file or socket with
+ * {@link FileChannel#transferTo}. Each segment file's header records the
+ * {@link Money} scale of its amounts, and a journal written at another scale is
+ * refused when opened. A journal created with a constructor keeps its
+ * segments on the heap and forgets them on restart.
+ *
+ * The files are forced to disk by {@link #sync}, which the bank calls with each
+ * snapshot, and which notes in the newest segment's header a log position up to
+ * which every change is journaled. After a crash, {@link #open} voids the slots left
+ * empty among written ones, and the bank replays the log past that position through
+ * {@link #replays}: a change whose entries survived {@link #claim claims} them, one
+ * whose entries were lost is journaled again, stamped with the time of the replay,
+ * and {@link #endRecovery} voids the surviving entries whose log records were lost.
+ *
+ * Memory stays bounded: the journal keeps the newest {@code memoryEntries} entries
+ * (rounded up to whole segments) in memory. When a new segment starts and the limit
+ * is reached, the oldest segment is dropped once all its entries are written. Each
+ * account's index drops the sequence numbers of dropped segments the next time it is
+ * read or appended to. Older history is then no longer shown; a file-backed journal
+ * still exports it.
+ *
+ * Appends take no journal-wide lock. An append reserves its sequence numbers and
+ * timestamp with one compare-and-set, writes its slots, which no other append
+ * touches, then adds them to its account's index under that account's lock. The
+ * type byte is written last, behind a release fence, so a used slot is always
+ * complete. Only starting a segment, naming a new account in the directory and
+ * finding an export's range take the journal's {@link ReentrantLock}; exports then
+ * copy without it.
+ */
+public class TransactionJournal implements Closeable {
+
+    /** Entries per segment. */
+    public static final int SEGMENT_SIZE = 4_096;
+    public static final int DEFAULT_MEMORY_ENTRIES = 1 << 20;
+
+    /** Bytes per entry, in segments and in exports. */
+    public static final int ENTRY_BYTES = 32;
+    public static final String DIRECTORY_FILE = "accounts.dat";
+
+    /** "NBJSEG" and format version 4, at the start of every segment file. */
+    static final long SEGMENT_MAGIC = 0x4E42_4A53_4547_0004L;
+    /** "NBJEXP" and format version 3, at the start of every export. */
+    public static final long EXPORT_MAGIC = 0x4E42_4A45_5850_0003L;
+    /** Export header: magic, first sequence, entry count, directory bytes, entry bytes. */
+    public static final int EXPORT_HEADER_BYTES = 32;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    /** Segment header: magic, first sequence, money scale, padding, synced log position. */
+    private static final int SEGMENT_HEADER_BYTES = 32;
+    private static final int SYNCED_LSN = 24;
+    private static final int SEGMENT_BYTES = SEGMENT_SIZE * ENTRY_BYTES;
+
+    private static final int TIMESTAMP = 0;
+    private static final int AMOUNT = 8;
+    private static final int ACCOUNT = 16;
+    private static final int COUNTERPARTY = 20;
+    private static final int TYPE = 24;  // the high byte of a long whose low 7 bytes hold the LSN
+    private static final long LSN_MASK = (1L << 56) - 1;
+    private static final byte VOID = (byte) 0xFF;
+
+    private static final JournalEntry.Type[] TYPES = JournalEntry.Type.values();
+    private static final int NO_ACCOUNT = -1;
+
+    /**
+     * Receives one entry from {@link #forEachNewestFirst}, without an object per entry.
+     * {@code counterpartyOwner} is {@code null} unless the counterparty belongs to
+     * another customer; {@code counterparty} is {@code null} unless it is a transfer.
+     */
+    @FunctionalInterface
+    public interface EntryVisitor {
+        void visit(long sequence, long timestampMillis, JournalEntry.Type type, long amount,
+                   String counterpartyOwner, String counterparty);
+    }
+
+    /**
+     * An account as the journal knows it, with the sequence numbers of its entries.
+     * {@code id} numbers it within the journal's entries; {@code accountId} is the
+     * bank's id for it. The sequence numbers are guarded by {@code lock}.
+     */
+    private static final class AccountRef {
+        final int id;
+        final long accountId;
+        final String customer;
+        final String accountName;
+        final ReentrantLock lock = new ReentrantLock();
+        long[] sequences = new long[8];  // live entries are [start, end), oldest first
+        int start;
+        int end;
+
+        AccountRef(int id, long accountId, String customer, String accountName) {
+            this.id = id;
+            this.accountId = accountId;
+            this.customer = customer;
+            this.accountName = accountName;
+        }
+
+        /** Adds {@code sequence} in order; appends running side by side may add theirs out of order. */
+        void add(long sequence) {
+            if (end == sequences.length) {
+                int live = end - start;
+                long[] target = live * 2 > sequences.length ? new long[sequences.length * 2] : sequences;
+                System.arraycopy(sequences, start, target, 0, live);
+                sequences = target;
+                start = 0;
+                end = live;
+            }
+            int at = end++;
+            while (at > start && sequences[at - 1] > sequence) {
+                sequences[at] = sequences[at - 1];
+                at--;
+            }
+            sequences[at] = sequence;
+        }
+
+        void remove(long sequence) {
+            int at = Arrays.binarySearch(sequences, start, end, sequence);
+            if (at >= 0) {
+                System.arraycopy(sequences, at + 1, sequences, at, end - at - 1);
+                end--;
+            }
+        }
+
+        void expireBefore(long firstSequence) {
+            while (start < end && sequences[start] < firstSequence) {
+                start++;
+            }
+            if (start == end) {
+                start = 0;
+                end = 0;
+                if (sequences.length > 8) {
+                    sequences = new long[8];
+                }
+            }
+        }
+
+        int size() {
+            return end - start;
+        }
+    }
+
+    /** A surviving entry logged past the synced position, until recovery finds its log record. */
+    private static final class Unclaimed {
+        final ByteBuffer entries;
+        final int at;
+        final long sequence;
+        boolean claimed;
+
+        Unclaimed(ByteBuffer entries, int at, long sequence) {
+            this.entries = entries;
+            this.at = at;
+            this.sequence = sequence;
+        }
+    }
+
+    /** The next sequence number to hand out and the newest timestamp handed out, replaced as one. */
+    private static final class Cursor {
+        final long next;
+        final long timestamp;
+
+        Cursor(long next, long timestamp) {
+            this.next = next;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /** {@link #SEGMENT_SIZE} consecutive entries, on the heap or mapped from a file. */
+    private static final class Segment {
+        final long firstSequence;
+        final MappedByteBuffer file;  // the whole file, header included; null on the heap
+        final ByteBuffer entries;  // absolute gets and puts only
+
+        Segment(long firstSequence, MappedByteBuffer file, ByteBuffer entries) {
+            this.firstSequence = firstSequence;
+            this.file = file;
+            this.entries = entries;
+        }
+
+        long timestamp(int slot) {
+            return entries.getLong(slot * ENTRY_BYTES + TIMESTAMP);
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();  // segments, directory and new accounts
+    private final LongSupplier clock;
+    private final Path dir;  // null if the journal lives on the heap only
+
+    private final AtomicReference<Cursor> cursor = new AtomicReference<>(new Cursor(1, Long.MIN_VALUE));
+    private final AtomicLong written = new AtomicLong(1);  // every entry before it is written; raised lazily
+    private volatile Segment[] segments = new Segment[0];  // oldest first; replaced under the lock
+    private long nextSegment = 1;  // first sequence of the next segment to start; under the lock
+    private final Map<Long, AccountRef> refsByAccountId = new ConcurrentHashMap<>();
+    private volatile AccountRef[] refs = new AccountRef[16];  // by id; republished under the lock
+    private int refCount;  // under the lock
+    private volatile int maxSegments;  // set under the lock
+
+    private FileChannel directory;  // DIRECTORY_FILE, appended to; null on the heap
+    private long directoryLength;
+    private long firstOnDisk = 1;  // first sequence of the oldest segment file
+    private long forcedBelow = 1;  // the segments before it were complete when last forced; under the lock
+    private long syncedLsn;  // every change logged up to here is journaled on disk
+    private Map<Long, List<Unclaimed>> unclaimed;  // by LSN, while recovering; null otherwise
+
+    public TransactionJournal() {
+        this(DEFAULT_MEMORY_ENTRIES, System::currentTimeMillis);
+    }
+
+    public TransactionJournal(int memoryEntries, LongSupplier clockMillis) {
+        this(null, memoryEntries, clockMillis);
+    }
+
+    private TransactionJournal(Path dir, int memoryEntries, LongSupplier clockMillis) {
+        this.dir = dir;
+        this.clock = clockMillis;
+        this.maxSegments = segmentsFor(memoryEntries);
+    }
+
+    /**
+     * Opens the file-backed journal in {@code dir}, creating it if needed, and
+     * rebuilds the per-account indexes of the newest {@code memoryEntries} entries.
+     *
+     * @throws IOException also if the journal was written under another
+     *                     {@link Money#getScale() money scale}
+     */
+    public static TransactionJournal open(Path dir, int memoryEntries, LongSupplier clockMillis)
+            throws IOException {
+        Files.createDirectories(dir);
+        TransactionJournal journal = new TransactionJournal(dir, memoryEntries, clockMillis);
+        journal.load();
+        return journal;
+    }
+
+    /** Sets how many of the newest entries are kept, dropping older ones now if needed. */
+    public void setMemoryEntries(int memoryEntries) {
+        int segmentsToKeep = segmentsFor(memoryEntries);
+        lock.lock();
+        try {
+            maxSegments = segmentsToKeep;
+            segments = evict(segments);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Whole segments needed to keep {@code memoryEntries} entries. */
+    private static int segmentsFor(int memoryEntries) {
+        if (memoryEntries < 1) {
+            throw new IllegalArgumentException("Journal must keep at least one entry.");
+        }
+        return (int) (((long) memoryEntries + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    }
+
+    /**
+     * Records a deposit or withdrawal on the account with id {@code accountId}, which
+     * {@code customer} holds under {@code accountName}, logged at {@code lsn} (0 if
+     * there is no log).
+     *
+     * @return the entry's sequence number
+     */
+    public long record(long accountId, String customer, String accountName, JournalEntry.Type type, long amount,
+                       long lsn) {
+        AccountRef account = ref(accountId, customer, accountName);
+        Cursor reserved = reserve(1);
+        long sequence = reserved.next - 1;
+        append(account, type, amount, NO_ACCOUNT, sequence, reserved.timestamp, lsn);
+        return sequence;
+    }
+
+    /**
+     * Records a transfer as two consecutive entries: {@code TRANSFER_OUT} on the
+     * source account, then {@code TRANSFER_IN} on the destination.
+     *
+     * @return the sequence number of the first entry
+     */
+    public long recordTransfer(long fromId, String fromCustomer, String fromAccount,
+                               long toId, String toCustomer, String toAccount, long amount, long lsn) {
+        AccountRef from = ref(fromId, fromCustomer, fromAccount);
+        AccountRef to = ref(toId, toCustomer, toAccount);
+        Cursor reserved = reserve(2);
+        long first = reserved.next - 2;
+        append(from, JournalEntry.Type.TRANSFER_OUT, amount, to.id, first, reserved.timestamp, lsn);
+        append(to, JournalEntry.Type.TRANSFER_IN, amount, from.id, first + 1, reserved.timestamp, lsn);
+        return first;
+    }
+
+    /** Entries of the account with id {@code accountId} still held in memory. */
+    public int count(long accountId) {
+        AccountRef ref = refsByAccountId.get(accountId);
+        if (ref == null) {
+            return 0;
+        }
+        ref.lock.lock();
+        try {
+            ref.expireBefore(oldestInMemory(segments));
+            return ref.size();
+        } finally {
+            ref.lock.unlock();
+        }
+    }
+
+    /**
+     * The account's entries newest first, skipping the {@code skip} newest and
+     * returning at most {@code limit}.
+     */
+    public List<JournalEntry> newestFirst(long accountId, int skip, int limit) {
+        AccountRef ref = refsByAccountId.get(accountId);
+        if (ref == null) {
+            return new ArrayList<>();
+        }
+        String customer = ref.customer;
+        String accountName = ref.accountName;
+        List<JournalEntry> page = new ArrayList<>(Math.min(limit, 64));
+        forEachNewestFirst(accountId, skip, limit,
+                (sequence, timestamp, type, amount, owner, counterparty) -> page.add(new JournalEntry(sequence,
+                        timestamp, customer, accountName, type, amount,
+                        owner == null ? counterparty : owner + "/" + counterparty)));
+        return page;
+    }
+
+    /**
+     * Passes the account's entries to {@code visitor} newest first, skipping the
+     * {@code skip} newest and visiting at most {@code limit}; nothing is allocated per
+     * entry. The visitor runs under the account's lock, which holds up appends to
+     * this account only, so it should only copy or format.
+     *
+     * @return the number of entries visited
+     */
+    public int forEachNewestFirst(long accountId, int skip, int limit, EntryVisitor visitor) {
+        AccountRef ref = refsByAccountId.get(accountId);
+        if (ref == null) {
+            return 0;
+        }
+        ref.lock.lock();
+        try {
+            Segment[] inMemory = segments;
+            ref.expireBefore(oldestInMemory(inMemory));
+            if (skip >= ref.size() || limit <= 0) {
+                return 0;
+            }
+            int from = ref.end - 1 - skip;
+            int to = Math.max(ref.start, from - limit + 1);
+            AccountRef[] names = refs;
+            for (int i = from; i >= to; i--) {
+                long sequence = ref.sequences[i];
+                Segment segment = find(inMemory, sequence);
+                int at = (int) (sequence - segment.firstSequence) * ENTRY_BYTES;
+                ByteBuffer entries = segment.entries;
+                int other = entries.getInt(at + COUNTERPARTY);
+                AccountRef counterparty = other == NO_ACCOUNT ? null : names[other];
+                visitor.visit(sequence, entries.getLong(at + TIMESTAMP), TYPES[entries.get(at + TYPE) - 1],
+                        entries.getLong(at + AMOUNT),
+                        counterparty == null || counterparty.customer.equals(ref.customer) ? null : counterparty.customer,
+                        counterparty == null ? null : counterparty.accountName);
+            }
+            return from - to + 1;
+        } finally {
+            ref.lock.unlock();
+        }
+    }
+
+    /** Entries held in memory across all accounts. */
+    public long size() {
+        Segment[] inMemory = segments;
+        return inMemory.length == 0 ? 0 : writtenEnd() - inMemory[0].firstSequence;
+    }
+
+    /** The sequence number of the newest entry written after every older one, or 0 if nothing was recorded. */
+    public long lastSequence() {
+        return writtenEnd() - 1;
+    }
+
+    // --- sync and recovery ---
+
+    /**
+     * Forces the entries written so far, and the account directory, to disk and notes
+     * that every change logged up to {@code lsn} is among them, so {@link #replays}
+     * skips those changes after a crash. The caller must know they were all journaled;
+     * the bank passes the log position a snapshot starts from. Does nothing on the heap.
+     */
+    public void sync(long lsn) throws IOException {
+        if (dir == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            Segment[] inMemory = segments;
+            if (inMemory.length == 0) {
+                return;  // nothing journaled yet
+            }
+            long end = writtenEnd(inMemory);
+            directory.force(true);
+            for (Segment segment : inMemory) {
+                if (segment.firstSequence + SEGMENT_SIZE > forcedBelow) {
+                    segment.file.force();
+                }
+            }
+            forcedBelow = segmentStart(end);
+            syncedLsn = Math.max(syncedLsn, lsn);
+            MappedByteBuffer newest = inMemory[inMemory.length - 1].file;
+            newest.putLong(SYNCED_LSN, syncedLsn);
+            newest.force(0, SEGMENT_HEADER_BYTES);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The log position up to which every change was journaled when the journal was last synced. */
+    public long getSyncedLsn() {
+        return syncedLsn;
+    }
+
+    /**
+     * Whether the log record at {@code lsn}, replayed at start-up, may have been lost
+     * from the journal: the caller then {@link #claim claims} its entries, and
+     * journals those it cannot claim again. Only a journal just {@link #open opened}
+     * from files replays, until {@link #endRecovery}.
+     */
+    public boolean replays(long lsn) {
+        return unclaimed != null && lsn > syncedLsn;
+    }
+
+    /**
+     * Marks the surviving entry recording a replayed deposit or withdrawal as found.
+     *
+     * @return false if no such entry survived, so the change must be journaled again
+     */
+    public boolean claim(long lsn, String customer, String accountName, JournalEntry.Type type, long amount) {
+        for (Unclaimed entry : unclaimed.getOrDefault(lsn, List.of())) {
+            if (!entry.claimed && matches(entry, customer, accountName, type, amount)) {
+                entry.claimed = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Like {@link #claim}, for the two entries of a replayed transfer; both must have survived. */
+    public boolean claimTransfer(long lsn, String fromCustomer, String fromAccount, String toCustomer,
+                                 String toAccount, long amount) {
+        List<Unclaimed> entries = unclaimed.getOrDefault(lsn, List.of());
+        for (Unclaimed out : entries) {
+            if (out.claimed || !matches(out, fromCustomer, fromAccount, JournalEntry.Type.TRANSFER_OUT, amount)) {
+                continue;
+            }
+            for (Unclaimed in : entries) {
+                if (in.sequence == out.sequence + 1 && !in.claimed
+                        && matches(in, toCustomer, toAccount, JournalEntry.Type.TRANSFER_IN, amount)) {
+                    out.claimed = true;
+                    in.claimed = true;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ends the replay: surviving entries no log record claimed record changes the log
+     * lost, so they are voided and no longer shown.
+     */
+    public void endRecovery() {
+        if (unclaimed == null) {
+            return;
+        }
+        for (List<Unclaimed> entries : unclaimed.values()) {
+            for (Unclaimed entry : entries) {
+                if (!entry.claimed) {
+                    AccountRef ref = refs[entry.entries.getInt(entry.at + ACCOUNT)];
+                    entry.entries.put(entry.at + TYPE, VOID);
+                    ref.lock.lock();
+                    try {
+                        ref.remove(entry.sequence);
+                    } finally {
+                        ref.lock.unlock();
+                    }
+                }
+            }
+        }
+        unclaimed = null;
+    }
+
+    private boolean matches(Unclaimed entry, String customer, String accountName, JournalEntry.Type type,
+                            long amount) {
+        ByteBuffer entries = entry.entries;
+        AccountRef ref = refs[entries.getInt(entry.at + ACCOUNT)];
+        return entries.get(entry.at + TYPE) == type.ordinal() + 1 && entries.getLong(entry.at + AMOUNT) == amount
+                && ref.customer.equals(customer) && ref.accountName.equals(accountName);
+    }
+
+    // --- export ---
+
+    /**
+     * Writes every entry stamped from {@code fromMillis} (inclusive) to
+     * {@code toMillis} (exclusive), in sequence order, to {@code out}: an
+     * {@value #EXPORT_HEADER_BYTES}-byte header (magic, first sequence, entry count,
+     * account directory length, {@value #ENTRY_BYTES}), the account directory that
+     * maps the ids in the entries to each account's bank id, customer and name, then
+     * the entries in the segment layout, voided slots included.
+     *
+     * A file-backed journal copies from its files with {@link FileChannel#transferTo},
+     * so the entries never pass through the Java heap, and it exports entries no
+     * longer held in memory too. Appends continue while the copy runs; entries made
+     * after the export started are not included.
+     *
+     * @return the number of entries written
+     */
+    public long export(long fromMillis, long toMillis, WritableByteChannel out) throws IOException {
+        long oldest;
+        long end;
+        long directoryBytes;
+        Segment[] inMemory;
+        ByteBuffer heapDirectory = null;
+        lock.lock();
+        try {
+            // every account named in these entries was added to the directory before them
+            inMemory = segments;
+            end = writtenEnd(inMemory);
+            if (dir != null) {
+                oldest = firstOnDisk;
+                directoryBytes = directoryLength;
+            } else {
+                oldest = inMemory.length == 0 ? end : inMemory[0].firstSequence;
+                heapDirectory = encodeDirectory();
+                directoryBytes = heapDirectory.remaining();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        try (SegmentReader reader = new SegmentReader(inMemory)) {
+            // timestamps never decrease, so the range is one run of sequence numbers
+            long first = reader.firstAtOrAfter(fromMillis, oldest, end);
+            long last = Math.max(first, reader.firstAtOrAfter(toMillis, first, end));
+            writeFully(out, ByteBuffer.allocate(EXPORT_HEADER_BYTES).putLong(EXPORT_MAGIC).putLong(first)
+                    .putLong(last - first).putInt((int) directoryBytes).putInt(ENTRY_BYTES).flip());
+            if (heapDirectory != null) {
+                writeFully(out, heapDirectory);
+            } else {
+                transferFully(directory, 0, directoryBytes, out);
+            }
+            for (long sequence = first; sequence < last; ) {
+                long segmentFirst = segmentStart(sequence);
+                long upTo = Math.min(last, segmentFirst + SEGMENT_SIZE);
+                reader.copy(segmentFirst, (int) (sequence - segmentFirst), (int) (upTo - sequence), out);
+                sequence = upTo;
+            }
+            return last - first;
+        }
+    }
+
+    /** Reads timestamps and copies entries for one {@link #export}, from files or heap segments. */
+    private final class SegmentReader implements Closeable {
+        private final Segment[] inMemory;
+        private final ByteBuffer probe = ByteBuffer.allocate(8);
+        private long openFirst = -1;
+        private FileChannel open;
+
+        SegmentReader(Segment[] inMemory) {
+            this.inMemory = inMemory;
+        }
+
+        /** The first sequence in {@code [from, end)} stamped at or after {@code millis}, or {@code end}. */
+        long firstAtOrAfter(long millis, long from, long end) throws IOException {
+            long low = from;
+            long high = end;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (timestamp(mid) < millis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private long timestamp(long sequence) throws IOException {
+            long segmentFirst = segmentStart(sequence);
+            int slot = (int) (sequence - segmentFirst);
+            if (dir == null) {
+                return heapSegment(segmentFirst).timestamp(slot);
+            }
+            probe.clear();
+            long position = SEGMENT_HEADER_BYTES + (long) slot * ENTRY_BYTES + TIMESTAMP;
+            while (probe.hasRemaining()) {
+                if (channel(segmentFirst).read(probe, position + probe.position()) < 0) {
+                    throw new IOException("Journal segment " + segmentFile(segmentFirst) + " is truncated.");
+                }
+            }
+            return probe.getLong(0);
+        }
+
+        void copy(long segmentFirst, int slot, int count, WritableByteChannel out) throws IOException {
+            if (dir == null) {
+                ByteBuffer entries = heapSegment(segmentFirst).entries.duplicate();
+                entries.limit((slot + count) * ENTRY_BYTES).position(slot * ENTRY_BYTES);
+                writeFully(out, entries);
+            } else {
+                transferFully(channel(segmentFirst), SEGMENT_HEADER_BYTES + (long) slot * ENTRY_BYTES,
+                        (long) count * ENTRY_BYTES, out);
+            }
+        }
+
+        private Segment heapSegment(long segmentFirst) {
+            return find(inMemory, segmentFirst);
+        }
+
+        private FileChannel channel(long segmentFirst) throws IOException {
+            if (segmentFirst != openFirst) {
+                close();
+                open = FileChannel.open(segmentFile(segmentFirst), StandardOpenOption.READ);
+                openFirst = segmentFirst;
+            }
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open != null) {
+                open.close();
+                open = null;
+                openFirst = -1;
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+    }
+
+    private static void transferFully(FileChannel from, long position, long count, WritableByteChannel out)
+            throws IOException {
+        while (count > 0) {
+            long sent = from.transferTo(position, count, out);
+            if (sent <= 0 && position >= from.size()) {
+                throw new IOException("Journal file ended before its last entry.");
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    /** Forces the mapped segments and the account directory to disk and closes the directory file. */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.file != null) {
+                    segment.file.force();
+                }
+            }
+            if (directory != null) {
+                directory.force(true);
+                directory.close();
+                directory = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- files ---
+
+    private Path segmentFile(long firstSequence) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentStart(long sequence) {
+        return (sequence - 1) / SEGMENT_SIZE * SEGMENT_SIZE + 1;
+    }
+
+    /**
+     * Reads the account directory and rebuilds the indexes from the newest segment
+     * files. Slots a crash left empty among written ones, in the mapped segments or
+     * in an older segment not filled to its end, are voided. The entries logged past
+     * the synced position are collected for recovery to {@link #claim}.
+     */
+    private void load() throws IOException {
+        directory = FileChannel.open(dir.resolve(DIRECTORY_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        readDirectory();
+
+        List<Long> firsts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                firsts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        firsts.sort(null);
+        for (int i = 1; i < firsts.size(); i++) {
+            if (firsts.get(i) != firsts.get(i - 1) + SEGMENT_SIZE) {
+                throw new IOException("Journal segment " + segmentFile(firsts.get(i - 1) + SEGMENT_SIZE)
+                        + " is missing.");
+            }
+        }
+        unclaimed = new HashMap<>();
+        if (!firsts.isEmpty() && Files.size(segmentFile(firsts.get(firsts.size() - 1)))
+                != SEGMENT_HEADER_BYTES + SEGMENT_BYTES) {
+            // a crash between creating the newest file and mapping it: it holds no entry yet
+            Files.delete(segmentFile(firsts.remove(firsts.size() - 1)));
+        }
+        if (firsts.isEmpty()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            firstOnDisk = firsts.get(0);
+            int window = firsts.size() - Math.min(firsts.size(), maxSegments);
+            for (int i = 0; i < window; i++) {
+                if (!isFull(firsts.get(i))) {
+                    voidEmptySlots(map(firsts.get(i), false).entries, SEGMENT_SIZE);
+                }
+            }
+            Segment[] loaded = new Segment[firsts.size() - window];
+            long nextSequence = 1;
+            long lastTimestamp = Long.MIN_VALUE;
+            for (int i = window; i < firsts.size(); i++) {
+                Segment segment = map(firsts.get(i), false);
+                loaded[i - window] = segment;
+                syncedLsn = Math.max(syncedLsn, segment.file.getLong(SYNCED_LSN));
+                ByteBuffer entries = segment.entries;
+                int used = i < firsts.size() - 1 ? SEGMENT_SIZE : usedSlots(entries);
+                voidEmptySlots(entries, used);
+                // replay: read ints straight from the mapping, no object per entry
+                for (int slot = 0; slot < used; slot++) {
+                    int at = slot * ENTRY_BYTES;
+                    if (entries.get(at + TYPE) == VOID) {
+                        continue;
+                    }
+                    int account = entries.getInt(at + ACCOUNT);
+                    if (account < 0 || account >= refCount) {
+                        throw new IOException("Journal entry " + (segment.firstSequence + slot)
+                                + " names unknown account " + account + "; " + DIRECTORY_FILE + " is incomplete.");
+                    }
+                    refs[account].add(segment.firstSequence + slot);
+                    lastTimestamp = Math.max(lastTimestamp, entries.getLong(at + TIMESTAMP));
+                }
+                nextSequence = segment.firstSequence + used;
+            }
+            for (Segment segment : loaded) {
+                collectUnclaimed(segment);
+            }
+            // entries are logged in nearly sequence order, so older segments stop holding such entries soon
+            for (int i = window - 1; i >= 0; i--) {
+                if (!collectUnclaimed(map(firsts.get(i), false))) {
+                    break;
+                }
+            }
+            segments = loaded;
+            nextSegment = loaded[loaded.length - 1].firstSequence + SEGMENT_SIZE;
+            cursor.set(new Cursor(nextSequence, lastTimestamp));
+            written.set(nextSequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Slots used in {@code entries}: the last written one and every slot before it. */
+    private static int usedSlots(ByteBuffer entries) {
+        int used = SEGMENT_SIZE;
+        while (used > 0 && entries.get((used - 1) * ENTRY_BYTES + TYPE) == 0) {
+            used--;
+        }
+        return used;
+    }
+
+    /** Voids the empty slots among the first {@code used}: reserved by appends a crash cut short. */
+    private static void voidEmptySlots(ByteBuffer entries, int used) {
+        for (int slot = 0; slot < used; slot++) {
+            if (entries.get(slot * ENTRY_BYTES + TYPE) == 0) {
+                entries.put(slot * ENTRY_BYTES + TYPE, VOID);
+            }
+        }
+    }
+
+    /**
+     * Collects the entries of {@code segment} logged past the synced position.
+     *
+     * @return whether there were any
+     */
+    private boolean collectUnclaimed(Segment segment) {
+        boolean found = false;
+        ByteBuffer entries = segment.entries;
+        for (int slot = 0; slot < SEGMENT_SIZE; slot++) {
+            int at = slot * ENTRY_BYTES;
+            long word = entries.getLong(at + TYPE);
+            byte type = (byte) (word >>> 56);
+            if (type != 0 && type != VOID && (word & LSN_MASK) > syncedLsn) {
+                unclaimed.computeIfAbsent(word & LSN_MASK, lsn -> new ArrayList<>())
+                        .add(new Unclaimed(entries, at, segment.firstSequence + slot));
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /** Whether the segment file starting at {@code firstSequence} has its last slot used. */
+    private boolean isFull(long firstSequence) throws IOException {
+        Path file = segmentFile(firstSequence);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != SEGMENT_HEADER_BYTES + SEGMENT_BYTES) {
+                throw new IOException("Journal segment " + file + " has the wrong size.");
+            }
+            ByteBuffer type = ByteBuffer.allocate(1);
+            channel.read(type, SEGMENT_HEADER_BYTES + (long) (SEGMENT_SIZE - 1) * ENTRY_BYTES + TYPE);
+            return type.get(0) != 0;
+        }
+    }
+
+    /**
+     * Maps the segment file starting at {@code firstSequence}, creating it (zero-filled)
+     * if {@code create}; an existing file is never created over.
+     */
+    private Segment map(long firstSequence, boolean create) throws IOException {
+        Path file = segmentFile(firstSequence);
+        try (FileChannel channel = create
+                ? FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (!create && channel.size() != SEGMENT_HEADER_BYTES + SEGMENT_BYTES) {
+                throw new IOException("Journal segment " + file + " has the wrong size.");
+            }
+            // the mapping stays valid once the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    SEGMENT_HEADER_BYTES + SEGMENT_BYTES);
+            if (create) {
+                mapped.putLong(0, SEGMENT_MAGIC).putLong(8, firstSequence).putInt(16, Money.getScale());
+            } else if (mapped.getLong(0) != SEGMENT_MAGIC || mapped.getLong(8) != firstSequence) {
+                throw new IOException(file + " is not journal segment " + firstSequence + ".");
+            } else if (mapped.getInt(16) != Money.getScale()) {
+                throw new IOException(file + " holds amounts at money scale " + mapped.getInt(16)
+                        + " but the server runs at scale " + Money.getScale() + ".");
+            }
+            return new Segment(firstSequence, mapped, mapped.slice(SEGMENT_HEADER_BYTES, SEGMENT_BYTES));
+        }
+    }
+
+    /** Reads {@value #DIRECTORY_FILE}; a record cut short by a crash is dropped. */
+    private void readDirectory() throws IOException {
+        long size = directory.size();
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        while (data.hasRemaining() && directory.read(data, data.position()) >= 0) {
+            // read it all
+        }
+        data.flip();
+        while (data.remaining() >= 4) {
+            int length = data.getInt(data.position());
+            if (length < 20 || data.remaining() < 4 + length) {
+                break;
+            }
+            data.getInt();
+            int id = data.getInt();
+            long accountId = data.getLong();
+            String customer = getString(data);
+            String accountName = getString(data);
+            if (id != refCount) {
+                throw new IOException(dir.resolve(DIRECTORY_FILE) + " is out of order at account " + id + ".");
+            }
+            name(new AccountRef(id, accountId, customer, accountName));
+        }
+        directoryLength = data.position();
+        directory.truncate(directoryLength);
+    }
+
+    private static String getString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer encodeRef(AccountRef ref) {
+        byte[] customer = ref.customer.getBytes(StandardCharsets.UTF_8);
+        byte[] accountName = ref.accountName.getBytes(StandardCharsets.UTF_8);
+        int length = 20 + customer.length + accountName.length;
+        return ByteBuffer.allocate(4 + length).putInt(length).putInt(ref.id).putLong(ref.accountId)
+                .putInt(customer.length).put(customer).putInt(accountName.length).put(accountName).flip();
+    }
+
+    private ByteBuffer encodeDirectory() {
+        List<ByteBuffer> encoded = new ArrayList<>(refCount);
+        int total = 0;
+        for (int id = 0; id < refCount; id++) {
+            ByteBuffer one = encodeRef(refs[id]);
+            encoded.add(one);
+            total += one.remaining();
+        }
+        ByteBuffer all = ByteBuffer.allocate(total);
+        for (ByteBuffer one : encoded) {
+            all.put(one);
+        }
+        return all.flip();
+    }
+
+    // --- internals ---
+
+    /** Reserves the next {@code count} sequence numbers, which end just before the returned cursor's {@code next}. */
+    private Cursor reserve(int count) {
+        long now = clock.getAsLong();
+        while (true) {
+            Cursor current = cursor.get();
+            // taken with the sequence numbers, so timestamps never decrease along them
+            Cursor next = new Cursor(current.next + count, Math.max(current.timestamp, now));
+            if (cursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private AccountRef ref(long accountId, String customer, String accountName) {
+        AccountRef existing = refsByAccountId.get(accountId);
+        if (existing != null) {
+            return existing;
+        }
+        lock.lock();
+        try {
+            existing = refsByAccountId.get(accountId);
+            if (existing != null) {
+                return existing;
+            }
+            AccountRef ref = new AccountRef(refCount, accountId, customer, accountName);
+            if (directory != null) {
+                // named on disk before any entry refers to it
+                ByteBuffer record = encodeRef(ref);
+                int length = record.remaining();
+                try {
+                    while (record.hasRemaining()) {
+                        directory.write(record, directoryLength + record.position());
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Journal account directory failed: " + e.getMessage(), e);
+                }
+                directoryLength += length;
+            }
+            return name(ref);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Adds {@code ref} as the account with the next id; called under the lock. */
+    private AccountRef name(AccountRef ref) {
+        AccountRef[] names = refs;
+        if (refCount == names.length) {
+            names = Arrays.copyOf(names, refCount * 2);
+        }
+        names[refCount++] = ref;
+        refs = names;  // published before any entry names the account
+        refsByAccountId.put(ref.accountId, ref);
+        return ref;
+    }
+
+    private void append(AccountRef account, JournalEntry.Type type, long amount, int counterparty, long sequence,
+            long timestamp, long lsn) {
+        Segment segment = segmentFor(sequence);
+        int at = (int) (sequence - segment.firstSequence) * ENTRY_BYTES;
+        ByteBuffer entries = segment.entries;
+        entries.putLong(at + TIMESTAMP, timestamp);
+        entries.putLong(at + AMOUNT, amount);
+        entries.putInt(at + ACCOUNT, account.id);
+        entries.putInt(at + COUNTERPARTY, counterparty);
+        VarHandle.releaseFence();
+        // written last, type byte first: marks the slot used
+        entries.putLong(at + TYPE, (long) (type.ordinal() + 1) << 56 | (lsn & LSN_MASK));
+        if (segments.length > maxSegments) {
+            // a segment kept at rollover because this entry was still being written
+            lock.lock();
+            try {
+                segments = evict(segments);
+            } finally {
+                lock.unlock();
+            }
+        }
+        account.lock.lock();
+        try {
+            account.add(sequence);
+            account.expireBefore(oldestInMemory(segments));
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    /** The segment holding {@code sequence}, starting segments up to it if none does yet. */
+    private Segment segmentFor(long sequence) {
+        Segment segment = find(segments, sequence);
+        if (segment != null) {
+            return segment;
+        }
+        lock.lock();
+        try {
+            Segment[] current = segments;
+            while (nextSegment <= sequence) {
+                current = Arrays.copyOf(current, current.length + 1);
+                current[current.length - 1] = newSegment(nextSegment);
+                nextSegment += SEGMENT_SIZE;
+            }
+            current = evict(current);
+            segments = current;
+            return find(current, sequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Segment find(Segment[] inMemory, long sequence) {
+        if (inMemory.length == 0 || sequence < inMemory[0].firstSequence) {
+            return null;
+        }
+        long index = (sequence - inMemory[0].firstSequence) / SEGMENT_SIZE;
+        return index < inMemory.length ? inMemory[(int) index] : null;
+    }
+
+    private static long oldestInMemory(Segment[] inMemory) {
+        return inMemory.length == 0 ? 0 : inMemory[0].firstSequence;
+    }
+
+    private long writtenEnd() {
+        return writtenEnd(segments);
+    }
+
+    /**
+     * The sequence number after the last entry written after every older one: entries
+     * reserved but still being written, and those after them, are left out.
+     */
+    private long writtenEnd(Segment[] inMemory) {
+        long reserved = cursor.get().next;
+        long end = written.get();
+        while (end < reserved) {
+            Segment segment = find(inMemory, end);
+            if (segment == null || segment.entries.get((int) (end - segment.firstSequence) * ENTRY_BYTES + TYPE) == 0) {
+                break;
+            }
+            end++;
+        }
+        VarHandle.acquireFence();
+        return written.accumulateAndGet(end, Math::max);
+    }
+
+    private Segment newSegment(long firstSequence) {
+        if (dir == null) {
+            return new Segment(firstSequence, null, ByteBuffer.allocate(SEGMENT_BYTES));
+        }
+        try {
+            return map(firstSequence, true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Journal segment could not be created: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Drops the oldest segments past {@code maxSegments}, called under the lock. A
+     * segment stays until all its entries are written; account indexes let go of
+     * its sequence numbers when next read.
+     */
+    private Segment[] evict(Segment[] current) {
+        long end = writtenEnd(current);
+        int drop = 0;
+        while (current.length - drop > maxSegments && current[drop].firstSequence + SEGMENT_SIZE <= end) {
+            drop++;
+        }
+        return drop == 0 ? current : Arrays.copyOfRange(current, drop, current.length);
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "TransactionJournal[entries=" + size()
+                    + ", segments=" + segments.length + "/" + maxSegments
+                    + ", accounts=" + refCount + ", next=" + cursor.get().next
+                    + (dir == null ? "" : ", dir=" + dir) + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
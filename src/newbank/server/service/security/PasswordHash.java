@@ -0,0 +1,109 @@
+package newbank.server.service.security;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A stored password: the derived key and salt together with the
+ * {@link PasswordHashPolicy} parameters that produced them. Immutable.
+ *
+ * <p>{@link #encode()} gives a self-describing text form,
+ * {@code $pbkdf2-sha256$i=65536,l=32$<salt>$<hash>} (salt and hash in unpadded
+ * Base64), which {@link #decode(String)} reads back.
+ */
+public final class PasswordHash {
+
+    private static final String ENCODED_ID = "pbkdf2-sha256";
+
+    private final PasswordHashPolicy policy;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    private PasswordHash(PasswordHashPolicy policy, byte[] salt, byte[] hash) {
+        this.policy = policy;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    /** Hashes {@code password} with a fresh salt under {@code policy}. */
+    public static PasswordHash create(String password, PasswordHashPolicy policy) {
+        byte[] salt = Pbkdf2Engine.newSalt();
+        return new PasswordHash(policy, salt,
+                Pbkdf2Engine.hash(password, salt, policy.getIterations(), policy.getKeyLength()));
+    }
+
+    /** Whether {@code password} is the one this hash was made from; constant-time. */
+    public boolean matches(String password) {
+        return Pbkdf2Engine.verify(password, salt, policy.getIterations(), hash);
+    }
+
+    /** Whether this hash was made with parameters other than {@code target}. */
+    public boolean isOutdated(PasswordHashPolicy target) {
+        return !policy.equals(target);
+    }
+
+    public PasswordHashPolicy getPolicy() {
+        return policy;
+    }
+
+    public String encode() {
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return "$" + ENCODED_ID
+                + "$i=" + policy.getIterations() + ",l=" + policy.getKeyLength()
+                + "$" + base64.encodeToString(salt)
+                + "$" + base64.encodeToString(hash);
+    }
+
+    /**
+     * The salt and the derived key in one array, {@code [salt length][salt][key]}, for
+     * compact binary storage with the policy kept alongside; see {@link #fromBytes}.
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[1 + salt.length + hash.length];
+        bytes[0] = (byte) salt.length;
+        System.arraycopy(salt, 0, bytes, 1, salt.length);
+        System.arraycopy(hash, 0, bytes, 1 + salt.length, hash.length);
+        return bytes;
+    }
+
+    /** Reads the form written by {@link #toBytes()}, made under {@code policy}. */
+    public static PasswordHash fromBytes(PasswordHashPolicy policy, byte[] bytes) {
+        int saltLength = bytes.length == 0 ? -1 : bytes[0] & 0xFF;
+        if (saltLength < 0 || bytes.length != 1 + saltLength + policy.getKeyLength()) {
+            throw new IllegalArgumentException("Password hash length does not match its parameters.");
+        }
+        return new PasswordHash(policy, Arrays.copyOfRange(bytes, 1, 1 + saltLength),
+                Arrays.copyOfRange(bytes, 1 + saltLength, bytes.length));
+    }
+
+    /** Reads the form written by {@link #encode()}. */
+    public static PasswordHash decode(String encoded) {
+        String[] parts = encoded == null ? new String[0] : encoded.split("\\$", -1);
+        if (parts.length != 5 || !parts[0].isEmpty() || !ENCODED_ID.equals(parts[1])) {
+            throw new IllegalArgumentException("Not an encoded password hash.");
+        }
+        try {
+            String[] params = parts[2].split(",");
+            if (params.length != 2 || !params[0].startsWith("i=") || !params[1].startsWith("l=")) {
+                throw new IllegalArgumentException("Bad password hash parameters '" + parts[2] + "'.");
+            }
+            PasswordHashPolicy policy = PasswordHashPolicy.pbkdf2(
+                    Integer.parseInt(params[0].substring(2)),
+                    Integer.parseInt(params[1].substring(2)));
+            byte[] salt = Base64.getDecoder().decode(parts[3]);
+            byte[] hash = Base64.getDecoder().decode(parts[4]);
+            if (hash.length != policy.getKeyLength()) {
+                throw new IllegalArgumentException("Password hash length does not match its parameters.");
+            }
+            return new PasswordHash(policy, salt, hash);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad password hash parameters '" + parts[2] + "'.", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        // never print the key material
+        return "PasswordHash[" + policy + "]";
+    }
+}
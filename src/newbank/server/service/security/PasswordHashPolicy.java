@@ -0,0 +1,100 @@
+package newbank.server.service.security;
+
+/**
+ * The parameters new password hashes are made with: algorithm, iteration count and
+ * derived key length.
+ *
+ * <p>Every {@link PasswordHash} records the parameters that produced it, so the
+ * policy can change while the server runs. Existing hashes keep verifying with their
+ * own parameters and are upgraded the next time their owner logs in (see
+ * {@link PasswordRehasher}). The server sets the policy at start-up from
+ * {@code --passwordIterations} and {@code --passwordKeyLength}; a load-test server can
+ * run a cheaper profile the same way.
+ */
+public final class PasswordHashPolicy {
+
+    /** The only algorithm supported; also the name the JDK uses for it. */
+    public static final String PBKDF2_SHA256 = "PBKDF2WithHmacSHA256";
+
+    /** The profile every hash used before parameters were recorded. */
+    public static final PasswordHashPolicy DEFAULT = new PasswordHashPolicy(PBKDF2_SHA256, 65536, 32);
+
+    private static volatile PasswordHashPolicy current = DEFAULT;
+
+    private final String algorithm;
+    private final int iterations;
+    private final int keyLength;
+
+    private PasswordHashPolicy(String algorithm, int iterations, int keyLength) {
+        if (!PBKDF2_SHA256.equals(algorithm)) {
+            throw new IllegalArgumentException("Unsupported password hash algorithm '" + algorithm + "'.");
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Password hash iterations must be at least 1: " + iterations);
+        }
+        if (keyLength < 16 || keyLength > 64) {
+            throw new IllegalArgumentException("Password hash key length must be 16 to 64 bytes: " + keyLength);
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.keyLength = keyLength;
+    }
+
+    public static PasswordHashPolicy of(String algorithm, int iterations, int keyLength) {
+        return new PasswordHashPolicy(algorithm, iterations, keyLength);
+    }
+
+    /** A {@link #PBKDF2_SHA256} policy; {@code keyLength} is in bytes. */
+    public static PasswordHashPolicy pbkdf2(int iterations, int keyLength) {
+        return new PasswordHashPolicy(PBKDF2_SHA256, iterations, keyLength);
+    }
+
+    /** The policy new and upgraded hashes are made with. */
+    public static PasswordHashPolicy current() {
+        return current;
+    }
+
+    public static void setCurrent(PasswordHashPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Password hash policy must not be null.");
+        }
+        current = policy;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /** Derived key length in bytes. */
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PasswordHashPolicy)) {
+            return false;
+        }
+        PasswordHashPolicy other = (PasswordHashPolicy) o;
+        return iterations == other.iterations
+                && keyLength == other.keyLength
+                && algorithm.equals(other.algorithm);
+    }
+
+    @Override
+    public int hashCode() {
+        return (algorithm.hashCode() * 31 + iterations) * 31 + keyLength;
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + " i=" + iterations + " l=" + keyLength;
+    }
+}
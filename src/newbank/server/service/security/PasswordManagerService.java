@@ -1,8 +1,5 @@
 package newbank.server.service.security;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.SecureRandom;
 import java.util.Base64;
 
 /**
@@ -18,9 +15,16 @@ import java.util.Base64;
  *
  * N.B Never store raw passwords. Store only the hash and salt
  * produced by the {@link #hashPassword(String)} method.
+ *
+ * <p>This is the Base64 {@code String} front end for callers that store text, fixed
+ * at {@link PasswordHashPolicy#DEFAULT}. Customers store a {@link PasswordHash},
+ * which records its parameters and follows the current policy.
  */
 public class PasswordManagerService {
 
+    // a HashResult does not record its parameters, so it always uses the original profile
+    private static final PasswordHashPolicy LEGACY = PasswordHashPolicy.DEFAULT;
+
     /**
      * Represents the result of a password hashing operation.
      * <p>Contains both:
@@ -67,15 +71,8 @@ public class PasswordManagerService {
 
     public  static  HashResult hashPassword(String password) throws  Exception {
 
-        int iteration = 65536;
-        int keyLength = 256;
-
-        byte[] salt = new byte[16];
-        SecureRandom.getInstanceStrong().nextBytes(salt);
-
-        PBEKeySpec spc = new PBEKeySpec(password.toCharArray(), salt, iteration, keyLength);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        byte[] hashBytes = skf.generateSecret(spc).getEncoded();
+        byte[] salt = Pbkdf2Engine.newSalt();
+        byte[] hashBytes = Pbkdf2Engine.hash(password, salt, LEGACY.getIterations(), LEGACY.getKeyLength());
 
         HashResult hashResult = new HashResult(Base64.getEncoder().encodeToString(hashBytes), Base64.getEncoder().encodeToString(salt));
 
@@ -101,15 +98,9 @@ public class PasswordManagerService {
      */
     public static boolean verify(String password, String storedHash, String storedSalt) throws Exception{
 
-        int iteration = 65536;
-        int keyLength = 256;
-
         byte[] salt = Base64.getDecoder().decode(storedSalt);
+        byte[] hash = Base64.getDecoder().decode(storedHash);
 
-        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iteration, keyLength);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        byte[] newHash = skf.generateSecret(spec).getEncoded();
-
-        return Base64.getEncoder().encodeToString(newHash).equals(storedHash);
+        return Pbkdf2Engine.verify(password, salt, LEGACY.getIterations(), hash);
     }
 }
@@ -0,0 +1,89 @@
+package newbank.server.service.security;
+
+import newbank.server.ServerMetrics;
+import newbank.server.model.Customer;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Upgrades outdated password hashes after a successful login.
+ *
+ * <p>When a customer logs in with a hash made under an older
+ * {@link PasswordHashPolicy}, the password just checked is hashed again under the
+ * current policy on a single low-priority background thread, and the new hash
+ * replaces the old one. The login itself does not wait for it. Each customer has at
+ * most one rehash queued; if the queue is full the upgrade is skipped and tried again
+ * at the next login. Upgrades are counted in {@code auth.rehashed}.
+ */
+public class PasswordRehasher {
+
+    private final ThreadPoolExecutor executor;  // null: rehash on the caller's thread
+    private final Set<Customer> pending = ConcurrentHashMap.newKeySet();
+    private final LongAdder rehashed;
+
+    public PasswordRehasher(int queueCapacity) {
+        this(new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "newbank-rehash");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private PasswordRehasher(ThreadPoolExecutor executor) {
+        this.executor = executor;
+        this.rehashed = ServerMetrics.getMetrics().counter("auth.rehashed");
+    }
+
+    /** A rehasher that upgrades on the calling thread before returning; for tests. */
+    public static PasswordRehasher direct() {
+        return new PasswordRehasher(null);
+    }
+
+    /**
+     * Schedules an upgrade of {@code customer}'s hash if it was not made with the
+     * current policy. {@code password} must already have been verified.
+     */
+    public void rehashIfOutdated(Customer customer, String password) {
+        PasswordHashPolicy policy = PasswordHashPolicy.current();
+        PasswordHash stored = customer.getPasswordHash();
+        if (!stored.isOutdated(policy) || !pending.add(customer)) {
+            return;
+        }
+
+        Runnable task = () -> {
+            try {
+                if (customer.replacePasswordHash(stored, PasswordHash.create(password, policy))) {
+                    rehashed.increment();
+                }
+            } finally {
+                pending.remove(customer);
+            }
+        };
+
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(customer);
+        }
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
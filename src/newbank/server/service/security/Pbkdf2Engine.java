@@ -0,0 +1,152 @@
+package newbank.server.service.security;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * PBKDF2-HMAC-SHA256 password hashing tuned for the login path.
+ *
+ * <p>Produces exactly the same keys as the JDK's {@code PBKDF2WithHmacSHA256}
+ * {@code SecretKeyFactory} (password encoded as UTF-8) for any iteration count and
+ * key length; {@link PasswordHashPolicy} decides which. Compared with
+ * going through the factory on every call it:
+ * <ul>
+ *     <li>keeps one {@code HmacSHA256} {@link Mac} per thread, re-keyed for each hash,
+ *         instead of looking up a {@code SecretKeyFactory} and {@code Mac} per login;</li>
+ *     <li>runs the iteration loop on per-thread scratch buffers with
+ *         {@link Mac#doFinal(byte[], int)} rather than allocating a result per
+ *         iteration;</li>
+ *     <li>works on raw {@code byte[]} hash and salt (no Base64 on the hot path) and
+ *         compares them in constant time with {@link MessageDigest#isEqual};</li>
+ *     <li>draws salts from a non-blocking {@link SecureRandom} seeded once at start-up,
+ *         rather than {@code SecureRandom.getInstanceStrong()}, which may block on
+ *         entropy.</li>
+ * </ul>
+ */
+public final class Pbkdf2Engine {
+
+    public static final int SALT_LENGTH = 16;  // bytes
+
+    private static final String HMAC = "HmacSHA256";
+    private static final int DIGEST_LENGTH = 32;  // HMAC-SHA256 output, one PBKDF2 block
+
+    /**
+     * Stands in for an empty password, which {@link SecretKeySpec} refuses: HMAC pads
+     * short keys with zeros, so one zero byte gives the same MAC as no key at all.
+     */
+    private static final byte[] EMPTY_KEY = new byte[1];
+    /** Keyed into a thread's {@code Mac} after each hash, so the password's pads do not linger. */
+    private static final SecretKeySpec CLEARED_KEY = new SecretKeySpec(EMPTY_KEY, HMAC);
+
+    private static final SecureRandom RANDOM = createRandom();
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    /** A thread's MAC and scratch buffers, reused by every hash it computes. */
+    private static final class State {
+        final Mac hmac;
+        final byte[] u = new byte[DIGEST_LENGTH];
+        final byte[] block = new byte[DIGEST_LENGTH];
+
+        State() {
+            try {
+                hmac = Mac.getInstance(HMAC);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(HMAC + " is not available", e);
+            }
+        }
+    }
+
+    private Pbkdf2Engine() {
+    }
+
+    private static SecureRandom createRandom() {
+        SecureRandom random = new SecureRandom();  // /dev/urandom-backed, never blocks
+        random.nextBytes(new byte[SALT_LENGTH]);   // force seeding now, not on the first registration
+        return random;
+    }
+
+    /** A fresh random salt. */
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /** Derives a {@code keyLength}-byte key for {@code password} and {@code salt}. */
+    public static byte[] hash(String password, byte[] salt, int iterations, int keyLength) {
+        State state = STATE.get();
+        byte[] key = encode(password);
+        try {
+            return derive(state, key, salt, iterations, keyLength);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 failed", e);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+            Arrays.fill(state.u, (byte) 0);
+            Arrays.fill(state.block, (byte) 0);
+            try {
+                state.hmac.init(CLEARED_KEY);
+            } catch (GeneralSecurityException e) {
+                // cannot happen: the same algorithm accepted the password's key
+            }
+        }
+    }
+
+    /**
+     * Whether {@code password} matches {@code expectedHash}, which was derived with
+     * {@code iterations} over {@code salt}. The comparison takes the same time wherever
+     * the first differing byte is.
+     */
+    public static boolean verify(String password, byte[] salt, int iterations, byte[] expectedHash) {
+        return MessageDigest.isEqual(hash(password, salt, iterations, expectedHash.length), expectedHash);
+    }
+
+    private static byte[] derive(State state, byte[] key, byte[] salt, int iterations, int keyLength)
+            throws GeneralSecurityException {
+        Mac hmac = state.hmac;
+        byte[] u = state.u;
+        byte[] block = state.block;
+        hmac.init(new SecretKeySpec(key.length == 0 ? EMPTY_KEY : key, HMAC));
+
+        byte[] result = new byte[keyLength];
+        byte[] index = new byte[4];
+        for (int n = 1, offset = 0; offset < keyLength; n++, offset += DIGEST_LENGTH) {
+            // T_n = U1 ^ ... ^ Uc, with U1 = HMAC(P, S || INT(n)) and Ui = HMAC(P, Ui-1)
+            index[0] = (byte) (n >>> 24);
+            index[1] = (byte) (n >>> 16);
+            index[2] = (byte) (n >>> 8);
+            index[3] = (byte) n;
+            hmac.update(salt);
+            hmac.update(index);
+            hmac.doFinal(u, 0);
+            System.arraycopy(u, 0, block, 0, DIGEST_LENGTH);
+            for (int i = 1; i < iterations; i++) {
+                hmac.update(u);
+                hmac.doFinal(u, 0);
+                for (int j = 0; j < DIGEST_LENGTH; j++) {
+                    block[j] ^= u[j];
+                }
+            }
+            System.arraycopy(block, 0, result, offset, Math.min(DIGEST_LENGTH, keyLength - offset));
+        }
+        return result;
+    }
+
+    private static byte[] encode(String password) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] key = new byte[encoded.remaining()];
+        encoded.get(key);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,168 @@
+package newbank.server.service.security;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Issues and checks signed, expiring session tokens, so a client that reconnects can
+ * resume as the same customer without another PBKDF2 password check.
+ *
+ * <p>A token is {@code user.id.expiry.signature}: the Base64url user name, a random
+ * 128-bit token id, the expiry in epoch seconds, and an HMAC-SHA256 over the first
+ * three parts. Checking one costs a single HMAC. The signing key is random per
+ * server start, so tokens do not survive a restart.
+ *
+ * <p>{@link #revoke(String)} (called on {@code LOGOUT}) puts the token id in a
+ * revocation cache until the token would have expired anyway; expired entries are
+ * purged at most once a minute.
+ */
+public class SessionTokenService {
+
+    /** Default lifetime of a token. */
+    public static final int DEFAULT_TTL_SECONDS = 3_600;
+
+    private static final String HMAC = "HmacSHA256";
+    private static final long PURGE_INTERVAL_MILLIS = 60_000;
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> mac;
+    private final SecureRandom random = new SecureRandom();
+    private final LongSupplier clock;
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();  // token id -> expiry millis
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    private volatile int ttlSeconds = DEFAULT_TTL_SECONDS;
+
+    public SessionTokenService() {
+        this(System::currentTimeMillis);
+    }
+
+    /** @param clock current time in epoch milliseconds */
+    public SessionTokenService(LongSupplier clock) {
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        this.key = new SecretKeySpec(secret, HMAC);
+        this.clock = clock;
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance(HMAC);
+                m.init(key);
+                return m;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(HMAC + " is not available", e);
+            }
+        });
+    }
+
+    /** Lifetime of newly issued tokens; {@code 0} stops issuing them. */
+    public void setTimeToLiveSeconds(int ttlSeconds) {
+        if (ttlSeconds < 0) {
+            throw new IllegalArgumentException("Session token lifetime must not be negative: " + ttlSeconds);
+        }
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public boolean isEnabled() {
+        return ttlSeconds > 0;
+    }
+
+    /** A new token for {@code userName}, or {@code null} when tokens are disabled. */
+    public String issue(String userName) {
+        int ttl = ttlSeconds;
+        if (ttl == 0) {
+            return null;
+        }
+        byte[] id = new byte[16];
+        random.nextBytes(id);
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        String payload = base64.encodeToString(userName.getBytes(StandardCharsets.UTF_8))
+                + '.' + base64.encodeToString(id)
+                + '.' + (clock.getAsLong() / 1_000 + ttl);
+        return payload + '.' + base64.encodeToString(sign(payload));
+    }
+
+    /**
+     * The user name {@code token} was issued to, or {@code null} if it is malformed,
+     * forged, expired or revoked.
+     */
+    public String verify(String token) {
+        Parsed parsed = parse(token);
+        if (parsed == null || parsed.expiresAtMillis <= clock.getAsLong() || revoked.containsKey(parsed.id)) {
+            return null;
+        }
+        return parsed.userName;
+    }
+
+    /** Makes {@code token} unusable for the rest of its lifetime; ignores invalid tokens. */
+    public void revoke(String token) {
+        Parsed parsed = parse(token);
+        long now = clock.getAsLong();
+        if (parsed == null || parsed.expiresAtMillis <= now) {
+            return;
+        }
+        revoked.put(parsed.id, parsed.expiresAtMillis);
+        purgeExpired(now);
+    }
+
+    /** Revoked tokens that have not expired yet. */
+    public int getRevokedCount() {
+        return revoked.size();
+    }
+
+    private void purgeExpired(long now) {
+        long due = nextPurge.get();
+        if (now >= due && nextPurge.compareAndSet(due, now + PURGE_INTERVAL_MILLIS)) {
+            revoked.values().removeIf(expiry -> expiry <= now);
+        }
+    }
+
+    private static final class Parsed {
+        final String userName;
+        final String id;
+        final long expiresAtMillis;
+
+        Parsed(String userName, String id, long expiresAtMillis) {
+            this.userName = userName;
+            this.id = id;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private Parsed parse(String token) {
+        if (token == null) {
+            return null;
+        }
+        int signatureStart = token.lastIndexOf('.');
+        String[] parts = token.split("\\.", -1);
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            Base64.Decoder base64 = Base64.getUrlDecoder();
+            byte[] signature = base64.decode(parts[3]);
+            if (!MessageDigest.isEqual(sign(token.substring(0, signatureStart)), signature)) {
+                return null;
+            }
+            return new Parsed(
+                    new String(base64.decode(parts[0]), StandardCharsets.UTF_8),
+                    parts[1],
+                    Math.multiplyExact(Long.parseLong(parts[2]), 1_000L));
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            return null;  // bad Base64 or expiry; NumberFormatException is an IllegalArgumentException
+        }
+    }
+
+    private byte[] sign(String payload) {
+        Mac m = mac.get();
+        return m.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+}
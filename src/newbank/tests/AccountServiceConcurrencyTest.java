@@ -0,0 +1,176 @@
+package newbank.tests;
+
+import newbank.server.model.Account;
+import newbank.server.model.CustomerID;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AccountServiceConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 20_000;
+
+    private static AccountService newService(String... accounts) {
+        CustomerService customers = new CustomerService();
+        customers.registerCustomer("Alice", "secret");
+        AccountService service = new AccountService(customers);
+        for (String name : accounts) {
+            service.addAccount("Alice", new Account(name, 100_000));
+        }
+        return service;
+    }
+
+    private static void runConcurrently(int threads, ThrowingTask task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run(index);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(60));
+            assertFalse("worker did not finish, likely deadlocked", worker.isAlive());
+        }
+        assertNull(failure.get());
+    }
+
+    private interface ThrowingTask {
+        void run(int thread) throws Exception;
+    }
+
+    @Test
+    public void oppositeTransfersKeepTheTotalAndDoNotDeadlock() throws Exception {
+        AccountService service = newService("Main", "Savings", "Bonds");
+        CustomerID alice = new CustomerID("Alice");
+        String[] names = {"Main", "Savings", "Bonds"};
+
+        runConcurrently(THREADS, thread -> {
+            for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                String from = names[(thread + i) % names.length];
+                String to = names[(thread + i + 1 + (i & 1)) % names.length];
+                try {
+                    service.transfer(alice, from, to, 100);
+                } catch (IllegalArgumentException e) {
+                    assertEquals("Insufficient funds.", e.getMessage());
+                }
+            }
+        });
+
+        long total = 0;
+        for (String name : names) {
+            long balance = service.getAccount(alice, name).getBalance();
+            assertTrue(balance >= 0);
+            total += balance;
+        }
+        assertEquals(300_000, total);
+    }
+    // Verifies transfers in both directions between the same accounts neither lose money nor deadlock.
+
+    @Test
+    public void openingAndClosingAccountsDuringTransfersIsSafe() throws Exception {
+        AccountService service = newService("Main", "Savings");
+        CustomerID alice = new CustomerID("Alice");
+
+        runConcurrently(THREADS, thread -> {
+            String own = "Temp" + thread;
+            for (int i = 0; i < TRANSFERS_PER_THREAD / 10; i++) {
+                if (thread % 2 == 0) {
+                    service.transfer(alice, i % 2 == 0 ? "Main" : "Savings", i % 2 == 0 ? "Savings" : "Main", 100);
+                } else {
+                    assertTrue(service.addAccountIfAbsent("Alice", new Account(own, 0)));
+                    service.showAccounts(alice);
+                    assertTrue(service.removeAccount("Alice", own));
+                }
+            }
+        });
+
+        assertEquals(200_000, service.getAccount(alice, "Main").getBalance()
+                + service.getAccount(alice, "Savings").getBalance());
+        assertEquals("> Main: 1000.00" + System.lineSeparator() + "> Savings: 1000.00",
+                service.showAccounts(alice));
+    }
+    // Checks CREATEACCOUNT/CLOSEACCOUNT racing with transfers leaves the account list and balances intact.
+
+    @Test
+    public void failedAtomicRunRollsBackWhileOthersTransfer() throws Exception {
+        AccountService service = newService("Main", "Savings");
+        CustomerID alice = new CustomerID("Alice");
+
+        runConcurrently(2, thread -> {
+            for (int i = 0; i < 2_000; i++) {
+                if (thread == 0) {
+                    service.transfer(alice, "Main", "Savings", 100);
+                    service.transfer(alice, "Savings", "Main", 100);
+                } else {
+                    boolean committed = service.runAtomically("Alice", () -> {
+                        service.transfer(alice, "Main", "Savings", 50_000);
+                        return false;
+                    });
+                    assertFalse(committed);
+                }
+            }
+        });
+
+        assertEquals(100_000, service.getAccount(alice, "Main").getBalance());
+        assertEquals(100_000, service.getAccount(alice, "Savings").getBalance());
+    }
+    // Verifies an atomic batch's rollback never overwrites a concurrent transfer's effect.
+
+    @Test
+    public void paymentsBetweenCustomersKeepTheTotalAndDoNotDeadlock() throws Exception {
+        CustomerService customers = new CustomerService();
+        AccountService service = new AccountService(customers);
+        String[] names = {"Ann", "Bob", "Cat", "Dan"};
+        for (String name : names) {
+            customers.registerCustomer(name, "secret");
+            service.addAccount(name, new Account("Main", 100_000));
+        }
+        // few enough that every payer's references stay within AccountService.RECENT_PAYMENTS
+        int payments = 500;
+        AtomicInteger paid = new AtomicInteger();
+
+        runConcurrently(THREADS, thread -> {
+            // threads 2k and 2k+1 make the same payments, as a client retrying each one would
+            int pair = thread / 2;
+            for (int i = 0; i < payments; i++) {
+                // over the run, every pair of customers is paid in both directions
+                String payer = names[(pair + i) % names.length];
+                String payee = names[(pair + i + 1 + (i & 1)) % names.length];
+                if (service.pay(new CustomerID(payer), payee, 100, "T" + pair + "-" + i)) {
+                    paid.incrementAndGet();
+                }
+            }
+        });
+
+        long total = 0;
+        for (String name : names) {
+            long balance = service.getAccount(new CustomerID(name), "Main").getBalance();
+            assertTrue(balance >= 0);
+            total += balance;
+        }
+        assertEquals(400_000, total);
+        assertEquals(THREADS / 2 * payments, paid.get());
+    }
+    // Checks payments crossing between customers in both directions neither lose money, pay a reference twice nor deadlock.
+}
@@ -0,0 +1,108 @@
+package newbank.tests;
+
+import newbank.server.model.Account;
+import newbank.server.model.CustomerID;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AccountServiceTest {
+
+    private static final String NL = System.lineSeparator();
+
+    private static AccountService newService() {
+        CustomerService customers = new CustomerService();
+        customers.registerCustomer("Corp", "secret");
+        return new AccountService(customers);
+    }
+
+    @Test
+    public void lookupIgnoresCaseAndRejectsDuplicateNames() {
+        AccountService service = newService();
+        CustomerID corp = new CustomerID("Corp");
+        Account payroll = new Account("Payroll", 1_000);
+
+        assertTrue(service.addAccountIfAbsent("Corp", payroll));
+        assertFalse(service.addAccountIfAbsent("Corp", new Account("PAYROLL", 0)));
+
+        assertSame(payroll, service.getAccount(corp, "payroll"));
+        assertSame(payroll, service.getAccount(corp, "PayRoll"));
+        assertTrue(service.hasAccount("Corp", "PAYROLL"));
+        assertNull(service.getAccount(corp, "Payroll2"));
+
+        assertTrue(service.addAccountIfAbsent("Corp", new Account("Épargne", 0)));
+        assertNotNull(service.getAccount(corp, "éPARGNE"));
+    }
+    // Verifies the index matches names case-insensitively, including non-ASCII names.
+
+    @Test
+    public void listingKeepsOpeningOrderAcrossCloseAndReopen() {
+        AccountService service = newService();
+        CustomerID corp = new CustomerID("Corp");
+        for (String name : new String[] {"Main", "Savings", "Bonds"}) {
+            service.addAccount("Corp", new Account(name, 100));
+        }
+
+        assertTrue(service.removeAccount("Corp", "SAVINGS"));
+        assertFalse(service.removeAccount("Corp", "Savings"));
+        service.addAccount("Corp", new Account("Savings", 200));
+
+        assertEquals("> Main: 1.00" + NL + "> Bonds: 1.00" + NL + "> Savings: 2.00", service.showAccounts(corp));
+    }
+    // Checks SHOWMYACCOUNTS lists accounts in the order they were opened.
+
+    @Test
+    public void rollbackRestoresClosedAccountsInTheirPlace() {
+        AccountService service = newService();
+        CustomerID corp = new CustomerID("Corp");
+        service.addAccount("Corp", new Account("Main", 500));
+        service.addAccount("Corp", new Account("Savings", 500));
+
+        boolean committed = service.runAtomically("Corp", () -> {
+            service.removeAccount("Corp", "Main");
+            service.addAccountIfAbsent("Corp", new Account("Extra", 0));
+            service.transfer(corp, "Savings", "Extra", 500);
+            return false;
+        });
+
+        assertFalse(committed);
+        assertEquals("> Main: 5.00" + NL + "> Savings: 5.00", service.showAccounts(corp));
+        assertNull(service.getAccount(corp, "extra"));
+    }
+    // Verifies a failed atomic run restores the index and its order as well as the balances.
+
+    @Test
+    public void paymentsGoToThePayeesFirstAccountOncePerReference() {
+        CustomerService customers = new CustomerService();
+        customers.registerCustomer("Corp", "secret");
+        AccountService service = new AccountService(customers);
+        CustomerID corp = new CustomerID("Corp");
+        service.addAccount("Corp", new Account("Main", 10_000));
+        service.addAccount("Corp", new Account("Savings", 0));
+        assertThrows(IllegalArgumentException.class, () -> service.pay(corp, "Ann", 100, ""));
+
+        customers.registerCustomer("Ann", "secret");
+        service.addAccount("Ann", new Account("Checking", 0));
+        service.addAccount("Ann", new Account("Main", 0));
+        assertTrue(service.pay(corp, "Ann", 2_500, "INV-1"));
+        assertFalse(service.pay(corp, "Ann", 2_500, "INV-1"));
+        assertTrue(service.pay(corp, "Ann", 500, ""));
+        assertTrue(service.pay(corp, "Ann", 500, ""));
+
+        assertEquals(6_500, service.getAccount(corp, "Main").getBalance());
+        assertEquals(3_500, service.getAccount(new CustomerID("Ann"), "Checking").getBalance());
+        assertEquals(0, service.getAccount(new CustomerID("Ann"), "Main").getBalance());
+
+        IllegalArgumentException reused = assertThrows(IllegalArgumentException.class,
+                () -> service.pay(corp, "Ann", 2_600, "INV-1"));
+        assertEquals("Reference 'INV-1' was already used for a different payment.", reused.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> service.pay(corp, "Ann", 100_000, "INV-2"));
+        assertTrue("a refused payment does not use up its reference", service.pay(corp, "Ann", 100, "INV-2"));
+        assertThrows(IllegalArgumentException.class, () -> service.pay(corp, "Corp", 100, ""));
+        assertThrows(IllegalArgumentException.class, () -> service.runAtomically("Corp",
+                () -> service.pay(corp, "Ann", 100, "INV-3")));
+    }
+    // Verifies PAY credits the payee's first account, pays a reference once and refuses a reused one.
+}
@@ -5,45 +5,75 @@ import org.junit.Test;
 
 import static org.junit.Assert.*;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class AccountTest {
 
     @Test
     public void shouldStoreNameAndOpeningBalance() {
-        Account account = new Account("Savings", 200.0);
+        Account account = new Account("Savings", 20_000);
 
         String name = account.getAccountName();
-        double balance = account.getBalance();
+        long balance = account.getBalance();
 
         assertEquals("Account name should match constructor argument",
                 "Savings", name);
         assertEquals("Account balance should match constructor argument",
-                200.0, balance, 0.0001);
+                20_000, balance);
     }
     // Additional test cases for edge scenarios
 
     @Test
     public void shouldAllowZeroOpeningBalance() {
-        Account account = new Account("Empty", 0.0);
+        Account account = new Account("Empty", 0);
 
         String name = account.getAccountName();
-        double balance = account.getBalance();
+        long balance = account.getBalance();
 
         assertEquals("Account name should be 'Empty'",
                 "Empty", name);
-        assertEquals("Account balance should be zero when constructed with 0.0",
-                0.0, balance, 0.0001);
+        assertEquals("Account balance should be zero when constructed with 0",
+                0, balance);
     }
     // Test for negative balance scenario
 
     @Test
     public void toStringShouldIncludeNameAndBalance() {
-        Account account = new Account("Checking", 150.0);
+        Account account = new Account("Checking", 15_000);
 
         String s = account.toString();
 
         assertTrue("toString() should contain the account name",
                 s.contains("Checking"));
-        assertTrue("toString() should contain the balance (150.0)",
-                s.contains("150"));
+        assertTrue("toString() should contain the balance (150.00)",
+                s.contains("150.00"));
+    }
+
+    @Test
+    public void concurrentDebitsNeverOverdraw() throws InterruptedException {
+        Account account = new Account("Shared", 10_000);
+        AtomicInteger succeeded = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    account.credit(1);
+                    if (account.tryDebit(3)) {
+                        succeeded.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("Every credit and successful debit should be applied exactly once",
+                10_000 + 8 * 5_000 - 3L * succeeded.get(), account.getBalance());
+        assertTrue("Balance must never go negative", account.getBalance() >= 0);
+        assertFalse("A debit larger than the balance should be refused", account.tryDebit(account.getBalance() + 1));
+        assertThrows(ArithmeticException.class, () -> new Account("Full", Long.MAX_VALUE).credit(1));
     }
-}
\ No newline at end of file
+    // Verifies the compare-and-set path loses no updates under contention and enforces sufficient funds.
+}
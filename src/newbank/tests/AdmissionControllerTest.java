@@ -0,0 +1,68 @@
+package newbank.tests;
+
+import newbank.server.AdmissionController;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AdmissionControllerTest {
+
+    /** Records which callback the controller invoked. */
+    private static class RecordingCandidate implements AdmissionController.Candidate {
+        final AtomicReference<String> outcome = new AtomicReference<>("PENDING");
+        final CountDownLatch decided = new CountDownLatch(1);
+
+        @Override
+        public void admit() {
+            outcome.set("ADMITTED");
+            decided.countDown();
+        }
+
+        @Override
+        public void reject() {
+            outcome.set("REJECTED");
+            decided.countDown();
+        }
+    }
+
+    @Test
+    public void shouldAdmitQueueAndRejectAtCapacity() {
+        AdmissionController controller = new AdmissionController(1, 1, 10_000);
+
+        RecordingCandidate first = new RecordingCandidate();
+        RecordingCandidate second = new RecordingCandidate();
+        RecordingCandidate third = new RecordingCandidate();
+
+        controller.offer(first);
+        controller.offer(second);
+        controller.offer(third);
+
+        assertEquals("First connection should be admitted", "ADMITTED", first.outcome.get());
+        assertEquals("Second connection should wait in the queue", "PENDING", second.outcome.get());
+        assertEquals("Third connection should be rejected straight away", "REJECTED", third.outcome.get());
+
+        controller.release();
+        assertEquals("Released slot should go to the queued connection", "ADMITTED", second.outcome.get());
+        assertEquals(1, controller.getActiveSessions());
+    }
+    // Verifies sessions over the cap are queued, and that once the queue is full they are rejected without waiting.
+
+    @Test
+    public void queuedConnectionShouldBeRejectedAfterDeadline() throws Exception {
+        AdmissionController controller = new AdmissionController(1, 4, 100);
+
+        controller.offer(new RecordingCandidate());
+        RecordingCandidate waiting = new RecordingCandidate();
+        controller.offer(waiting);
+
+        assertTrue("Queued connection should be decided once its deadline passes",
+                waiting.decided.await(2, TimeUnit.SECONDS));
+        assertEquals("REJECTED", waiting.outcome.get());
+        assertEquals(0, controller.getWaitingConnections());
+    }
+    // Ensures a queued connection does not wait forever.
+}
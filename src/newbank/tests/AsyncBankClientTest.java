@@ -0,0 +1,118 @@
+package newbank.tests;
+
+import newbank.client.AsyncBankClient;
+import newbank.client.ClientPoolConfig;
+import newbank.protocol.Frame;
+import newbank.server.ServerConfig;
+import newbank.server.nio.NioServerEngine;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncBankClientTest {
+
+    private static NioServerEngine startServer(ServerConfig config) throws IOException {
+        NioServerEngine engine = new NioServerEngine(0, config
+                .withEngine(ServerConfig.Engine.NIO)
+                .withIoThreads(1)
+                .withWorkerThreads(4));
+        new Thread(engine, "async-client-test-acceptor").start();
+        return engine;
+    }
+
+    @Test
+    public void typedCallsRunConcurrentlyAcrossThePool() throws Exception {
+        NioServerEngine engine = startServer(ServerConfig.defaults());
+        try (AsyncBankClient client = AsyncBankClient.connect("localhost", engine.getLocalPort(), "Test", "Test",
+                ClientPoolConfig.defaults().withPoolSize(3))) {
+            assertEquals(3, client.openConnections());
+            String before = client.showAccounts().get(5, TimeUnit.SECONDS).getText();
+
+            List<CompletableFuture<Frame>> replies = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                replies.add(client.transfer("Main", "Savings", 100));
+                replies.add(client.transfer("Savings", "Main", 100));
+            }
+            for (CompletableFuture<Frame> reply : replies) {
+                Frame frame = reply.get(10, TimeUnit.SECONDS);
+                assertTrue(frame.getText(), frame.isOk());
+            }
+
+            assertEquals(before, client.showAccounts().get(5, TimeUnit.SECONDS).getText());
+            assertFalse(client.transfer("Main", "Nowhere", 100).get(5, TimeUnit.SECONDS).isOk());
+            assertEquals("PONG", client.ping().get(5, TimeUnit.SECONDS).getText());
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Verifies typed calls return futures, many run at once over the pool, and FAIL replies come back as frames.
+
+    @Test
+    public void wrongPasswordFailsConnect() throws Exception {
+        NioServerEngine engine = startServer(ServerConfig.defaults());
+        try {
+            IOException e = assertThrows(IOException.class, () -> AsyncBankClient.connect(
+                    "localhost", engine.getLocalPort(), "Test", "wrong", ClientPoolConfig.defaults()));
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Log In Failed"));
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Checks a rejected login surfaces the server's reason instead of leaving a half-built pool.
+
+    @Test
+    public void pendingRequestsAreBounded() throws Exception {
+        NioServerEngine engine = startServer(ServerConfig.defaults());
+        try (AsyncBankClient client = AsyncBankClient.connect("localhost", engine.getLocalPort(), "Test", "Test",
+                ClientPoolConfig.defaults().withPoolSize(1).withMaxPendingPerConnection(2))) {
+            List<CompletableFuture<Frame>> replies = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                replies.add(client.showAccounts());
+            }
+
+            int rejected = 0;
+            for (CompletableFuture<Frame> reply : replies) {
+                try {
+                    assertTrue(reply.get(5, TimeUnit.SECONDS).isOk());
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof RejectedExecutionException);
+                    rejected++;
+                }
+            }
+            assertTrue("Requests beyond the limit should be rejected", rejected > 0);
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Verifies callers get an immediate RejectedExecutionException instead of an unbounded queue.
+
+    @Test
+    public void droppedConnectionIsReplacedAndLoggedIn() throws Exception {
+        // the server reaps idle sessions quickly and health checks are off, so the pool sees the drop
+        NioServerEngine engine = startServer(ServerConfig.defaults().withIdleTimeoutMillis(300));
+        try (AsyncBankClient client = AsyncBankClient.connect("localhost", engine.getLocalPort(), "Test", "Test",
+                ClientPoolConfig.defaults().withPoolSize(1).withHealthCheckIntervalMillis(0)
+                        .withReconnectDelayMillis(50))) {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (client.reconnectCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue("Pool should reconnect after the server hangs up", client.reconnectCount() > 0);
+            assertTrue("Reconnect should resume with the session token", client.resumeCount() > 0);
+
+            Frame accounts = client.showAccounts().get(5, TimeUnit.SECONDS);
+            assertTrue(accounts.getText(), accounts.isOk());
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Checks the pool notices a server-side close, opens a new connection and resumes its session.
+}
@@ -0,0 +1,73 @@
+package newbank.tests;
+
+import newbank.server.AuthWorkerPool;
+import newbank.server.NewBank;
+import newbank.server.model.CustomerID;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class AuthWorkerPoolTest {
+
+    @Test
+    public void saturatedPoolQueuesThenTurnsLoginsAway() throws Exception {
+        AuthWorkerPool pool = new AuthWorkerPool(1, 1, 200);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<CustomerID> running = pool.verify(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new CustomerID("First");
+            });
+            CompletableFuture<CustomerID> queued = pool.verify(() -> new CustomerID("Second"));
+            CompletableFuture<CustomerID> overflow = pool.verify(() -> new CustomerID("Third"));
+
+            ExecutionException full = assertThrows(ExecutionException.class, () -> overflow.get(1, TimeUnit.SECONDS));
+            assertTrue(full.getCause() instanceof RejectedExecutionException);
+            assertEquals(1, pool.getQueueDepth());
+
+            ExecutionException timedOut = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+            assertEquals(AuthWorkerPool.BUSY_MESSAGE, timedOut.getCause().getMessage());
+            assertEquals(0, pool.getQueueDepth());
+
+            release.countDown();
+            assertEquals("First", running.get(5, TimeUnit.SECONDS).getKey());
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+    // Verifies only the pool's threads verify at once, the queue is bounded, and waiting too long means "busy".
+
+    @Test
+    public void loginsVerifyInParallel() throws Exception {
+        NewBank bank = NewBank.getBank();
+        AuthWorkerPool pool = new AuthWorkerPool(4, 16, 30_000);
+        try {
+            List<CompletableFuture<CustomerID>> logins = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                logins.add(pool.verify(bank, "Test", "Test"));
+            }
+            logins.add(pool.verify(bank, "Test", "wrong"));
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals("Test", logins.get(i).get(30, TimeUnit.SECONDS).getKey());
+            }
+            assertNull(logins.get(4).get(30, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+    // Checks real PBKDF2 logins complete on the pool without a bank-wide lock and wrong passwords yield null.
+}
@@ -0,0 +1,127 @@
+package newbank.tests;
+
+import newbank.server.ClientSession;
+import newbank.server.CommandProcessor;
+import newbank.server.NewBank;
+import newbank.server.model.CustomerID;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchCommandTest {
+
+    private final NewBank bank = NewBank.getBank();
+    private final CommandProcessor processor = new CommandProcessor(bank);
+    private final CustomerID test = new CustomerID("Test");
+
+    @Test
+    public void batchReturnsOneResultPerLine() {
+        String account = "Batch" + System.nanoTime();
+
+        String reply = processor.process(test, String.join("\n",
+                "BATCH",
+                "CREATEACCOUNT " + account,
+                "TRANSFER Main " + account + " 5",
+                "TRANSFER Main NoSuchAccount 5",
+                "BALANCE",
+                "END_BATCH"));
+
+        String[] lines = reply.split("\n");
+        assertEquals(6, lines.length);
+        assertEquals("SUCCESS: Batch processed: 4 commands, 2 succeeded, 2 failed.", lines[0]);
+        assertTrue(lines[1].startsWith("1 SUCCESS"));
+        assertTrue(lines[2].startsWith("2 SUCCESS"));
+        assertTrue(lines[3].startsWith("3 FAIL"));
+        assertTrue("Multi-line commands are refused inside a batch", lines[4].startsWith("4 FAIL"));
+        assertEquals("END_OF_BATCH", lines[5]);
+        assertEquals(500, bank.getAccountService().getAccount(test, account).getBalance());
+    }
+    // Verifies a plain batch runs every line independently and reports a numbered result vector.
+
+    @Test
+    public void atomicBatchRollsBackOnFailure() {
+        String account = "Atomic" + System.nanoTime();
+        long mainBefore = bank.getAccountService().getAccount(test, "Main").getBalance();
+
+        String reply = processor.process(test, String.join("\n",
+                "BATCH ATOMIC",
+                "CREATEACCOUNT " + account,
+                "TRANSFER Main " + account + " 10",
+                "TRANSFER " + account + " Main 999999",
+                "TRANSFER Main " + account + " 1",
+                "END_BATCH"));
+
+        String[] lines = reply.split("\n");
+        assertEquals("FAIL: Atomic batch rolled back; line 3 failed.", lines[0]);
+        assertTrue(lines[1].startsWith("1 ROLLED BACK: SUCCESS"));
+        assertTrue(lines[3].startsWith("3 FAIL"));
+        assertEquals("4 SKIPPED", lines[4]);
+        assertNull("Account created inside the batch must be removed",
+                bank.getAccountService().getAccount(test, account));
+        assertEquals(mainBefore, bank.getAccountService().getAccount(test, "Main").getBalance());
+    }
+    // Checks that all-or-nothing mode undoes account creation and transfers when any line fails.
+
+    @Test
+    public void atomicBatchRejectsLoanOffers() {
+        String reply = processor.process(test, String.join("\n",
+                "BATCH ATOMIC",
+                "OFFERLOAN Main 100 5 12",
+                "END_BATCH"));
+
+        assertTrue(reply.startsWith("FAIL: OFFERLOAN cannot be part of an atomic batch"));
+    }
+    // Verifies atomic batches are limited to account commands that can be rolled back.
+
+    @Test
+    public void sessionAnswersWholeBatchOnce() {
+        ClientSession session = new ClientSession(bank);
+        List<String> out = new ArrayList<>();
+        session.start(out::add);
+        session.handleLine("Test", out::add);
+        session.handleLine("Test", out::add);
+        out.clear();
+
+        session.handleLine("BATCH", out::add);
+        session.handleLine("TRANSFER Main Savings 1", out::add);
+        session.handleLine("TRANSFER Savings Main 1", out::add);
+        assertTrue("No reply until END_BATCH", out.isEmpty());
+
+        session.handleLine("END_BATCH", out::add);
+        assertEquals(1, out.size());
+        assertTrue(out.get(0).startsWith("SUCCESS: Batch processed: 2 commands, 2 succeeded"));
+        assertTrue(out.get(0).endsWith("END_OF_BATCH"));
+    }
+    // Verifies the line protocol collects BATCH ... END_BATCH and sends a single reply.
+
+    @Test
+    public void sessionDropsABatchThatGrowsTooLong() {
+        ClientSession session = new ClientSession(bank);
+        List<String> out = new ArrayList<>();
+        session.start(out::add);
+        session.handleLine("Test", out::add);
+        session.handleLine("Test", out::add);
+        out.clear();
+
+        String padding = "TRANSFER Main Savings 1 " + "x".repeat(60_000);
+        session.handleLine("BATCH", out::add);
+        for (int i = 0; i * padding.length() <= 2 * CommandProcessor.MAX_BATCH_CHARS; i++) {
+            session.handleLine(padding, out::add);
+        }
+        assertTrue("No reply until END_BATCH", out.isEmpty());
+        session.handleLine("END_BATCH", out::add);
+        assertEquals(List.of(CommandProcessor.batchTooLong()), out);
+
+        // the lines after the limit were skipped, not run one by one, and the session carries on
+        session.handleLine("BATCH", out::add);
+        session.handleLine("TRANSFER Main Savings 1", out::add);
+        session.handleLine("TRANSFER Savings Main 1", out::add);
+        session.handleLine("END_BATCH", out::add);
+        assertEquals(2, out.size());
+        assertTrue(out.get(1).startsWith("SUCCESS: Batch processed: 2 commands, 2 succeeded"));
+    }
+    // Checks a batch past MAX_BATCH_CHARS is failed with one reply without buffering the rest of its lines.
+}
@@ -0,0 +1,192 @@
+package newbank.tests;
+
+import newbank.client.ClientConnection;
+import newbank.protocol.Frame;
+import newbank.protocol.FrameCodec;
+import newbank.protocol.Opcode;
+import newbank.protocol.ProtocolException;
+import newbank.server.NewBank;
+import newbank.server.NewBankClientHandler;
+import newbank.server.ServerConfig;
+import newbank.server.model.CustomerID;
+import newbank.server.model.Loan;
+import newbank.server.model.LoanStatus;
+import newbank.server.nio.NioServerEngine;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class BinaryProtocolTest {
+
+    @Test
+    public void frameRoundTripsThroughCodec() throws Exception {
+        Frame frame = new Frame(77, Opcode.OFFER_LOAN, "Main", 25_050L, 4.25, 12);
+
+        Frame decoded = FrameCodec.decode(FrameCodec.encode(frame));
+
+        assertEquals(77, decoded.getCorrelationId());
+        assertEquals(Opcode.OFFER_LOAN, decoded.getOpcode());
+        assertEquals("Main", decoded.getString(0));
+        assertEquals(25_050L, decoded.getLong(1));
+        assertEquals(4.25, decoded.getDouble(2), 0.0);
+        assertEquals(12, decoded.getInt(3));
+    }
+    // Verifies the correlation id and every field type survive encode/decode unchanged.
+
+    @Test
+    public void decodeWaitsForCompleteFrame() throws Exception {
+        ByteBuffer encoded = FrameCodec.encode(Frame.ok("Grüße\nsecond line"));
+        ByteBuffer partial = ByteBuffer.allocate(encoded.remaining());
+        partial.put(encoded.duplicate().limit(encoded.remaining() - 3));
+        partial.flip();
+
+        assertNull(FrameCodec.decode(partial));
+        assertEquals("Incomplete frame must not be consumed", 0, partial.position());
+
+        Frame decoded = FrameCodec.decode(encoded);
+        assertEquals("Grüße\nsecond line", decoded.getText());
+        assertFalse(encoded.hasRemaining());
+    }
+    // Checks partial frames are left in the buffer and that multi-line UTF-8 text needs no end marker.
+
+    @Test
+    public void oversizedFrameIsRejected() {
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(FrameCodec.MAX_FRAME_LENGTH + 1);
+        header.flip();
+        assertThrows(ProtocolException.class, () -> FrameCodec.decode(header));
+    }
+    // Verifies a bogus length is refused before the server waits for the body.
+
+    @Test
+    public void binarySessionOverNioEngine() throws Exception {
+        ServerConfig config = ServerConfig.defaults()
+                .withEngine(ServerConfig.Engine.NIO)
+                .withIoThreads(1)
+                .withWorkerThreads(2);
+        NioServerEngine engine = new NioServerEngine(0, config);
+        new Thread(engine, "nio-binary-test-acceptor").start();
+        try (ClientConnection connection = ClientConnection.openBinary("localhost", engine.getLocalPort())) {
+            assertFalse(connection.login("Test", "wrong").isOk());
+            assertTrue(connection.login("Test", "Test").isOk());
+
+            Frame accounts = connection.call(new Frame(Opcode.SHOW_ACCOUNTS));
+            assertTrue(accounts.isOk());
+            assertTrue(accounts.getText().contains("Main"));
+            assertFalse(accounts.getText().contains("END_OF_ACCOUNTS"));
+
+            Frame transfer = connection.call(new Frame(Opcode.TRANSFER, "Main", "Nowhere", -100L));
+            assertEquals(Opcode.REPLY_FAIL, transfer.getOpcode());
+
+            assertTrue(connection.call(new Frame(Opcode.LOGOUT)).getText().startsWith("Session terminated"));
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Verifies upgrade, login retry, OK/FAIL replies and logout over the selector-based engine.
+
+    @Test
+    public void binarySessionOverBlockingHandler() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    Socket s = serverSocket.accept();
+                    new NewBankClientHandler(s).run();
+                } catch (Exception e) {
+                    // test fails on the client side
+                }
+            });
+            acceptor.start();
+
+            try (ClientConnection connection = ClientConnection.openBinary("localhost", serverSocket.getLocalPort())) {
+                assertEquals(Opcode.REPLY_FAIL, connection.call(new Frame(Opcode.HELP)).getOpcode());
+                assertTrue(connection.login("Test", "Test").isOk());
+
+                Frame help = connection.call(new Frame(Opcode.HELP));
+                assertTrue(help.getText().startsWith("Available commands:"));
+                assertFalse(help.getText().contains("END_OF_HELP"));
+
+                connection.call(new Frame(Opcode.LOGOUT));
+            }
+            acceptor.join(2000);
+            assertFalse("Handler should finish after LOGOUT", acceptor.isAlive());
+        }
+    }
+    // Checks the blocking handler negotiates the same binary mode and requires LOGIN first.
+
+    @Test
+    public void pipelinedRepliesMatchTheirRequests() throws Exception {
+        ServerConfig config = ServerConfig.defaults()
+                .withEngine(ServerConfig.Engine.NIO)
+                .withIoThreads(1)
+                .withWorkerThreads(4)
+                .withMaxPipelinedRequests(8);
+        NioServerEngine engine = new NioServerEngine(0, config);
+        new Thread(engine, "nio-pipeline-test-acceptor").start();
+        try (ClientConnection connection = ClientConnection.openBinary("localhost", engine.getLocalPort())) {
+            // sent without waiting: the login must still complete before the requests behind it
+            CompletableFuture<Frame> login = connection.submit(new Frame(Opcode.LOGIN, "Test", "Test"));
+
+            String prefix = "Pipe" + System.nanoTime() + "_";
+            List<CompletableFuture<Frame>> replies = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                replies.add(connection.submit(new Frame(Opcode.CREATE_ACCOUNT, prefix + i)));
+            }
+            CompletableFuture<Frame> logout = connection.submit(new Frame(Opcode.LOGOUT));
+
+            assertTrue(login.get(5, TimeUnit.SECONDS).isOk());
+            for (int i = 0; i < replies.size(); i++) {
+                Frame reply = replies.get(i).get(5, TimeUnit.SECONDS);
+                assertTrue(reply.getText(), reply.isOk());
+                assertTrue("Reply must belong to request " + i,
+                        reply.getText().contains("'" + prefix + i + "'"));
+            }
+            assertTrue(logout.get(5, TimeUnit.SECONDS).getText().startsWith("Session terminated"));
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Verifies many in-flight requests on one connection each get their own reply, with LOGIN/LOGOUT as barriers.
+
+    @Test
+    public void pipelinedRequestThatThrowsStillGetsAReply() throws Exception {
+        // a loan whose lender does not exist makes REQUEST_LOAN throw IllegalStateException
+        int loanId = 1_000_000;
+        NewBank.getBank().getLoanService().restoreLoans(Collections.singletonList(new Loan(loanId,
+                new CustomerID("NoSuchLender"), "Main", 100, 1.0, 1, "", LoanStatus.AVAILABLE)), 0);
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    Socket s = serverSocket.accept();
+                    new NewBankClientHandler(s).run();
+                } catch (Exception e) {
+                    // test fails on the client side
+                }
+            });
+            acceptor.start();
+
+            try (ClientConnection connection = ClientConnection.openBinary("localhost", serverSocket.getLocalPort())) {
+                assertTrue(connection.login("Test", "Test").isOk());
+                CompletableFuture<Frame> broken = connection.submit(new Frame(Opcode.REQUEST_LOAN, loanId));
+                CompletableFuture<Frame> help = connection.submit(new Frame(Opcode.HELP));
+
+                Frame reply = broken.get(5, TimeUnit.SECONDS);
+                assertEquals(Opcode.REPLY_FAIL, reply.getOpcode());
+                assertEquals("FAIL: Internal server error.", reply.getText());
+                assertTrue(help.get(5, TimeUnit.SECONDS).isOk());
+
+                connection.call(new Frame(Opcode.LOGOUT));
+            }
+            acceptor.join(2000);
+        }
+    }
+    // Checks the blocking handler answers a pipelined request whose handler throws, instead of leaving it pending.
+}
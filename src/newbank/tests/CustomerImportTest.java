@@ -0,0 +1,63 @@
+package newbank.tests;
+
+import newbank.server.model.CustomerID;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerImportService;
+import newbank.server.service.CustomerService;
+import newbank.server.service.security.PasswordHashPolicy;
+import newbank.server.service.security.PasswordRehasher;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CustomerImportTest {
+
+    @Test
+    public void importsValidRowsAndReportsBadOnesWithoutStopping() throws Exception {
+        PasswordHashPolicy previous = PasswordHashPolicy.current();
+        PasswordHashPolicy.setCurrent(PasswordHashPolicy.pbkdf2(1_000, 32));
+        try {
+            CustomerService customers = new CustomerService(PasswordRehasher.direct());
+            AccountService accounts = new AccountService(customers);
+            List<String> progress = new ArrayList<>();
+            CustomerImportService importer = new CustomerImportService(customers, accounts, 4, 3, progress::add);
+
+            StringBuilder csv = new StringBuilder("username,password,account,balance,...\n");
+            csv.append("# migrated from the old system\n");
+            for (int i = 0; i < 20; i++) {
+                csv.append("user").append(i).append(",pw").append(i).append(",Main,").append(i).append(".50\n");
+            }
+            csv.append("quoted,\"a,b\"\"c\",Main,1,Savings,2\n");  // line 23
+            csv.append("user3,again,Main,1\n");                    // duplicate customer
+            csv.append("bad,pw,Main,lots\n");                      // not a number
+            csv.append("odd,pw,Main\n");                           // no balance
+            csv.append("\n");
+            csv.append("twice,pw,Main,1,main,2\n");                // duplicate account
+
+            CustomerImportService.ImportReport report = importer.importCsv(new StringReader(csv.toString()));
+
+            assertEquals(25, report.getRows());
+            assertEquals(21, report.getCustomers());
+            assertEquals(22, report.getAccounts());
+            assertEquals(4, report.getErrorCount());
+            assertTrue(report.getErrors().get(0), report.getErrors().get(0).startsWith("line 24: Customer 'user3'"));
+
+            assertTrue(customers.authenticate("user7", "pw7"));
+            assertTrue(customers.authenticate("quoted", "a,b\"c"));
+            assertEquals(750, accounts.getAccount(new CustomerID("user7"), "Main").getBalance());
+            assertEquals(200, accounts.getAccount(new CustomerID("quoted"), "Savings").getBalance());
+            assertFalse(customers.hasCustomer("bad"));
+            assertFalse(customers.authenticate("user3", "again"));
+
+            assertTrue("Progress is reported per batch", progress.size() >= 25 / 3);
+            assertTrue(progress.get(progress.size() - 1).startsWith("Imported 21 customers and 22 accounts from 25 rows"));
+        } finally {
+            PasswordHashPolicy.setCurrent(previous);
+        }
+    }
+    // Verifies batched, parallel hashing imports every good row and reports each bad one by line number.
+}
@@ -0,0 +1,133 @@
+package newbank.tests;
+
+import newbank.client.LatencyHistogram;
+import newbank.client.LoadGenerator;
+import newbank.protocol.BinaryProtocol;
+import newbank.protocol.Frame;
+import newbank.protocol.FrameCodec;
+import newbank.protocol.Opcode;
+import newbank.server.ServerConfig;
+import newbank.server.nio.NioServerEngine;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void histogramPercentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros * 1_000);
+        }
+
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000_000L, histogram.max());
+        assertEquals(50_000_000, histogram.percentile(0.50), 50_000_000 * 0.02);
+        assertEquals(99_000_000, histogram.percentile(0.99), 99_000_000 * 0.02);
+        assertEquals(99_900_000, histogram.percentile(0.999), 99_900_000 * 0.02);
+        assertTrue(histogram.percentile(0.999) >= 99_900_000);
+        assertEquals(0, new LatencyHistogram().percentile(0.99));
+    }
+    // Verifies percentiles are never under-reported and are within 2% of the exact value.
+
+    @Test
+    public void invalidMixIsRejectedBeforeConnecting() {
+        LoadGenerator generator = LoadGenerator.fromArgs(new String[] {"--port=1", "--mix=10:TRANSFER Main"});
+        assertThrows(IllegalArgumentException.class, generator::run);
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.fromArgs(new String[] {"--rate=0"}));
+    }
+    // Checks mix lines go through CommandParser and bad options fail fast.
+
+    @Test
+    public void openLoopRunReportsEveryCommandType() throws Exception {
+        NioServerEngine engine = new NioServerEngine(0, ServerConfig.defaults()
+                .withEngine(ServerConfig.Engine.NIO)
+                .withIoThreads(1)
+                .withWorkerThreads(2));
+        new Thread(engine, "load-test-acceptor").start();
+        try {
+            LoadGenerator generator = new LoadGenerator()
+                    .withServer("localhost", engine.getLocalPort())
+                    .withSessions(2)
+                    .withRate(200)
+                    .withDuration(0, 1)
+                    .withMix("50:BALANCE,25:TRANSFER Main Savings 0.01,25:TRANSFER Savings Main 0.01");
+
+            Map<String, LoadGenerator.CommandStats> stats = generator.run();
+
+            assertEquals(2, stats.size());
+            long answered = 0;
+            for (LoadGenerator.CommandStats s : stats.values()) {
+                assertEquals(0, s.getErrors());
+                assertEquals(0, s.getFailed());
+                answered += s.getLatency().count();
+                // measured from when each request was due, so never below the time since it was sent
+                assertTrue(s.getLatency().max() >= s.getServiceTime().max());
+            }
+            assertEquals(200, answered);
+            assertTrue(generator.report(stats).contains("TRANSFER"));
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Verifies a short paced run sends the planned number of requests and groups results by command type.
+
+    @Test
+    public void stalledRequestsAreTimedOutOrSkippedNotDropped() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            // accepts the login, then never answers another request
+            Thread stalled = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    BufferedReader lines = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    out.write("Welcome\n".getBytes(StandardCharsets.UTF_8));
+                    lines.readLine();
+                    out.write((BinaryProtocol.UPGRADE_ACCEPTED + "\n").getBytes(StandardCharsets.UTF_8));
+                    DataInputStream frames = new DataInputStream(socket.getInputStream());
+                    Frame request;
+                    while ((request = FrameCodec.read(frames)) != null) {
+                        if (request.getOpcode() == Opcode.LOGIN) {
+                            FrameCodec.write(Frame.ok("Log In Successful").withCorrelationId(
+                                    request.getCorrelationId()), out);
+                        }
+                    }
+                } catch (Exception e) {
+                    // the generator hung up
+                }
+            }, "stalled-server");
+            stalled.start();
+
+            LoadGenerator generator = new LoadGenerator()
+                    .withServer("localhost", server.getLocalPort())
+                    .withSessions(1)
+                    .withRate(100)
+                    .withDuration(0, 1)
+                    .withOutstandingLimit(10, 1)
+                    .withMix("1:BALANCE");
+
+            LoadGenerator.CommandStats stats = generator.run().get("BALANCE");
+
+            assertEquals(10, stats.getTimedOut());
+            assertEquals(90, stats.getSkipped());
+            assertEquals(0, stats.getErrors());
+            assertEquals(10, stats.getLatency().count());
+            // waited at least the one-second drain after the last request was sent
+            assertTrue(stats.getLatency().percentile(0.5) >= TimeUnit.SECONDS.toNanos(1));
+            assertTrue(generator.report(Map.of("BALANCE", stats)).contains("timeout"));
+            stalled.join(5_000);
+        }
+    }
+    // Checks requests the server never answers show up as timed out with their latency, and skipped ones apart from errors.
+}
@@ -24,7 +24,7 @@ public class LoanServiceTest {
         String before = loanService.showAvailableLoans();
 
         assertThrows(IllegalArgumentException.class, () ->
-                loanService.offerLoan(lender, fromAccount, -100.0, 5.0, 12, "Negative loan")
+                loanService.offerLoan(lender, fromAccount, -10_000, 5.0, 12, "Negative loan")
         );
 
         String after = loanService.showAvailableLoans();
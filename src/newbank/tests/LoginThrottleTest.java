@@ -0,0 +1,135 @@
+package newbank.tests;
+
+import newbank.server.AuthWorkerPool;
+import newbank.server.ClientSession;
+import newbank.server.LoginThrottle;
+import newbank.server.NewBank;
+import newbank.server.ServerConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoginThrottleTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void bucketsLimitEachUserAndEachSource() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(3, 5, 0, 0, 100, now::get);
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(throttle.tryAcquire("Test", "10.0.0.1"));
+        }
+        String refused = throttle.tryAcquire("Test", "10.0.0.2");
+        assertEquals("Too many login attempts. Please try again in 20 seconds.", refused);
+
+        // same address, other users: the source bucket (5/min) runs out next
+        assertNull(throttle.tryAcquire("Bhagy", "10.0.0.1"));
+        assertNull(throttle.tryAcquire("John", "10.0.0.1"));
+        assertNotNull(throttle.tryAcquire("Christina", "10.0.0.1"));
+
+        now.addAndGet(20 * SECOND);
+        assertNull(throttle.tryAcquire("Test", "10.0.0.3"));
+        assertNotNull(throttle.tryAcquire("Test", "10.0.0.3"));
+    }
+    // Verifies both token buckets allow a minute's burst, then refill at the configured rate.
+
+    @Test
+    public void repeatedFailuresBackOffExponentially() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(0, 0, 1_000, 0, 100, now::get);
+
+        for (int i = 0; i < LoginThrottle.FREE_FAILURES; i++) {
+            assertNull(throttle.tryAcquire("Test", "10.0.0.1"));
+            throttle.recordFailure("Test", "10.0.0.1");
+        }
+        assertNotNull(throttle.tryAcquire("Test", "10.0.0.9"));  // the user name backs off on any address
+        now.addAndGet(SECOND);
+        assertNull(throttle.tryAcquire("Test", "10.0.0.1"));
+        throttle.recordFailure("Test", "10.0.0.1");
+
+        now.addAndGet(SECOND);
+        assertNotNull("Second back-off is twice as long", throttle.tryAcquire("Test", "10.0.0.1"));
+        now.addAndGet(SECOND);
+        assertNull(throttle.tryAcquire("Test", "10.0.0.1"));
+        throttle.recordSuccess("Test", "10.0.0.1");
+
+        throttle.recordFailure("Test", "10.0.0.1");
+        assertNull("Success clears the history", throttle.tryAcquire("Test", "10.0.0.1"));
+    }
+    // Checks back-off starts after the free failures, doubles, and is cleared by a correct password.
+
+    @Test
+    public void fullStoreRefusesNewKeysUntilIdleEntriesArePurged() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(60, 60, 0, 0, 2, now::get);
+
+        assertNull(throttle.tryAcquire("a", "1"));
+        assertNull(throttle.tryAcquire("b", "2"));
+        assertNotNull(throttle.tryAcquire("c", "3"));
+        assertEquals(4, throttle.size());
+
+        now.addAndGet(2 * SECOND);  // both buckets refilled: nothing worth keeping
+        assertNull(throttle.tryAcquire("c", "3"));
+        assertEquals(2, throttle.size());
+    }
+    // Verifies the store stays bounded and fails closed rather than letting attempts through untracked.
+
+    @Test
+    public void connectionIsClosedAfterTooManyFailedLogins() {
+        AuthWorkerPool auth = AuthWorkerPool.fromConfig(ServerConfig.defaults()
+                .withMaxLoginAttemptsPerConnection(2)
+                .withLoginBackoffMillis(0));
+        try {
+            ClientSession session = new ClientSession(NewBank.getBank(), auth, "10.0.0.1");
+            List<String> out = new ArrayList<>();
+
+            session.handleLine("Test", out::add).join();
+            session.handleLine("wrong", out::add).join();
+            assertEquals("Enter Username (case-sensitive):", out.get(out.size() - 1));
+
+            session.handleLine("Nobody", out::add).join();
+            session.handleLine("wrong", out::add).join();
+            assertEquals(ClientSession.TOO_MANY_ATTEMPTS, out.get(out.size() - 1));
+            assertTrue(session.isClosed());
+        } finally {
+            auth.shutdown();
+        }
+    }
+    // Checks the retry loop ends after the per-connection limit, counting unknown user names too.
+
+    @Test
+    public void throttledAttemptsDoNotUseUpTheConnection() {
+        AuthWorkerPool auth = AuthWorkerPool.fromConfig(ServerConfig.defaults()
+                .withMaxLoginAttemptsPerConnection(2)
+                .withUserLoginsPerMinute(1)
+                .withLoginBackoffMillis(0));
+        try {
+            ClientSession session = new ClientSession(NewBank.getBank(), auth, "10.0.0.2");
+            List<String> out = new ArrayList<>();
+
+            session.handleLine("Test", out::add).join();
+            session.handleLine("wrong", out::add).join();
+            assertEquals("Incorrect password. Please try again.", out.get(out.size() - 2));
+            for (int i = 0; i < 5; i++) {
+                session.handleLine("Test", out::add).join();
+                session.handleLine("wrong", out::add).join();
+                assertTrue(out.get(out.size() - 2), out.get(out.size() - 2).startsWith("Too many login attempts"));
+                assertFalse(session.isClosed());
+            }
+
+            session.handleLine("Nobody", out::add).join();
+            session.handleLine("wrong", out::add).join();
+            assertEquals(ClientSession.TOO_MANY_ATTEMPTS, out.get(out.size() - 1));
+        } finally {
+            auth.shutdown();
+        }
+    }
+    // Verifies refusals from the throttle are not counted as failed logins, so they never close the connection.
+}
@@ -0,0 +1,80 @@
+package newbank.tests;
+
+import newbank.protocol.Frame;
+import newbank.protocol.FrameCodec;
+import newbank.protocol.Money;
+import newbank.protocol.Opcode;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+public class MoneyTest {
+
+    @Test
+    public void parsesDecimalsIntoMinorUnits() {
+        assertEquals(100_000, Money.parse("1000"));
+        assertEquals(1_050, Money.parse("10.5"));
+        assertEquals(1_050, Money.parse("+10.50"));
+        assertEquals(1, Money.parse("0.01"));
+        assertEquals(50, Money.parse(".5"));
+        assertEquals(-250, Money.parse("-2.50"));
+        assertEquals(2_500, Money.parse("TRANSFER Main Savings 25.00", 22, 27));
+        assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+    }
+    // Verifies whole, fractional and signed amounts, and parsing a slice of a longer line.
+
+    @Test
+    public void rejectsWhatIsNotAnExactAmount() {
+        for (String text : List.of("", "-", ".", "1.2.3", "1e3", "12a", " 1", "0.001", "NaN",
+                "92233720368547758.08", "99999999999999999999")) {
+            assertThrows(text, NumberFormatException.class, () -> Money.parse(text));
+        }
+        NumberFormatException e = assertThrows(NumberFormatException.class, () -> Money.parse("0.001"));
+        assertEquals("Amount '0.001' has more than 2 decimal places.", e.getMessage());
+    }
+    // Checks that rounding and overflow are refused rather than silently applied.
+
+    @Test
+    public void formatsWithExactlyTheScale() {
+        assertEquals("1000.00", Money.format(100_000));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("-0.05", Money.format(-5));
+        assertEquals("-12.30", Money.format(-1_230));
+        assertEquals("92233720368547758.07", Money.format(Long.MAX_VALUE));
+        assertEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE));
+        assertEquals("Main: 10.50", Money.appendTo(new StringBuilder("Main: "), 1_050).toString());
+    }
+    // Verifies formatting round-trips with parse, including the extremes of long.
+
+    @Test
+    public void tenMillionCentTransfersStayExact() {
+        long balance = 0;
+        double legacy = 0;
+        for (int i = 0; i < 10_000_000; i++) {
+            balance += Money.parse("0.01");
+            legacy += 0.01;
+        }
+        assertEquals("100000.00", Money.format(balance));
+        assertTrue("double drifts", legacy != 100_000.0);
+    }
+    // Checks minor units accumulate exactly where double drifts.
+
+    @Test
+    public void amountFieldsTravelAsMinorUnits() throws Exception {
+        Frame transfer = Frame.fromCommand("TRANSFER", List.of("Main", "Savings", "12.34"));
+        assertEquals(1_234L, transfer.getLong(2));
+        assertEquals(1_234L, FrameCodec.decode(FrameCodec.encode(transfer)).getLong(2));
+        assertThrows(IllegalArgumentException.class,
+                () -> Frame.fromCommand("TRANSFER", List.of("Main", "Savings", "0.001")));
+        assertThrows(IllegalArgumentException.class, () -> new Frame(Opcode.TRANSFER, "Main", "Savings", 12.34));
+
+        Frame payment = Frame.fromCommand("PAY", List.of("Bob", "5"));
+        assertEquals(500L, payment.getLong(1));
+        assertEquals("", payment.getString(2));
+        assertEquals(1, Frame.fromCommand("VIEWTRANSACTIONS", List.of("Main")).getInt(1));
+        assertThrows(IllegalArgumentException.class, () -> Frame.fromCommand("PAY", List.of("Bob")));
+    }
+    // Verifies MONEY fields parse from text commands, are encoded as int64 minor units, and omitted optional arguments get defaults.
+}
@@ -22,16 +22,17 @@ public class NewBankClientHandlerTest {
             // accept on server side and create handler
             Socket serverSideSocket = serverSocket.accept();
             NewBankClientHandler handler = new NewBankClientHandler(serverSideSocket);
-            handler.start();
+            Thread handlerThread = new Thread(handler);
+            handlerThread.start();
 
             // simulate intentional client disconnect
             clientSocket.close();
 
             // wait for handler to finish (timeout to avoid hanging test)
-            handler.join(2000);
+            handlerThread.join(2000);
 
             // handler should have terminated after detecting null input
-            assertFalse("Handler should terminate when client disconnects", handler.isAlive());
+            assertFalse("Handler should terminate when client disconnects", handlerThread.isAlive());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+package newbank.tests;
+
+import newbank.server.ServerConfig;
+import newbank.server.ServerMetrics;
+import newbank.server.nio.NioServerEngine;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+public class NioServerEngineTest {
+
+    private NioServerEngine startEngine() throws Exception {
+        ServerConfig config = ServerConfig.defaults()
+                .withEngine(ServerConfig.Engine.NIO)
+                .withIoThreads(1)
+                .withWorkerThreads(2);
+        NioServerEngine engine = new NioServerEngine(0, config);
+        new Thread(engine, "nio-test-acceptor").start();
+        return engine;
+    }
+
+    @Test
+    public void loginAndBalanceOverNioEngine() throws Exception {
+        NioServerEngine engine = startEngine();
+        try (Socket socket = new Socket("localhost", engine.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+            assertEquals("Enter Username (case-sensitive):", in.readLine());
+            out.println("Test");
+            assertEquals("Enter Password (case-sensitive):", in.readLine());
+            out.println("Test");
+            assertEquals("Checking Details...", in.readLine());
+            assertTrue("Login should succeed for test user",
+                    in.readLine().startsWith("Log In Successful"));
+
+            out.println("BALANCE");
+            StringBuilder accounts = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null && !line.equals("END_OF_ACCOUNTS")) {
+                accounts.append(line).append('\n');
+            }
+            assertTrue("Account listing should contain 'Main'", accounts.toString().contains("Main"));
+
+            out.println("LOGOUT");
+            assertTrue(in.readLine().startsWith("Session terminated"));
+            assertNull("Server should close the connection after LOGOUT", in.readLine());
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Verifies the NIO engine runs the same login dialogue and command dispatch as the blocking handler.
+
+    @Test
+    public void failedLoginPromptsAgainOverNioEngine() throws Exception {
+        NioServerEngine engine = startEngine();
+        try (Socket socket = new Socket("localhost", engine.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+            in.readLine();
+            // username and password pipelined in one write
+            out.print("GhostUser\nnope\n");
+            out.flush();
+            assertEquals("Enter Password (case-sensitive):", in.readLine());
+            assertEquals("Checking Details...", in.readLine());
+            assertEquals("Log In Failed", in.readLine());
+            assertEquals("Username does not exist. Please try again.", in.readLine());
+            assertEquals("Enter Username (case-sensitive):", in.readLine());
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Checks that a failed login returns to the username prompt and that pipelined lines are framed correctly.
+
+    @Test
+    public void clientThatDoesNotReadIsHeldBackThenServedInFull() throws Exception {
+        NioServerEngine engine = startEngine();
+        try (Socket socket = new Socket("localhost", engine.getLocalPort())) {
+            socket.setSoTimeout(10_000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            in.readLine();
+            out.println("Test");
+            in.readLine();
+            out.println("Test");
+            in.readLine();
+            assertTrue(in.readLine().startsWith("Log In Successful"));
+
+            long pausesBefore = ServerMetrics.getMetrics().value("connections.readPaused");
+            int requests = 20_000;
+            // far more reply bytes than the socket buffers hold, sent without reading any
+            Thread sender = new Thread(() -> {
+                PrintWriter bulk = new PrintWriter(out, false);
+                for (int i = 0; i < requests; i++) {
+                    bulk.println("HELP");
+                }
+                bulk.flush();
+            }, "nio-flood-sender");
+            sender.start();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (ServerMetrics.getMetrics().value("connections.readPaused") == pausesBefore
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("The server should stop reading from a client that does not read",
+                    ServerMetrics.getMetrics().value("connections.readPaused") > pausesBefore);
+
+            int answered = 0;
+            String line;
+            while (answered < requests && (line = in.readLine()) != null) {
+                if (line.equals("END_OF_HELP")) {
+                    answered++;
+                }
+            }
+            assertEquals(requests, answered);
+            sender.join(10_000);
+            assertFalse(sender.isAlive());
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Verifies a client that floods requests without reading is paused rather than queued without limit, and loses nothing.
+}
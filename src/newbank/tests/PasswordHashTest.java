@@ -0,0 +1,69 @@
+package newbank.tests;
+
+import newbank.server.model.Customer;
+import newbank.server.service.CustomerService;
+import newbank.server.service.security.PasswordHash;
+import newbank.server.service.security.PasswordHashPolicy;
+import newbank.server.service.security.PasswordRehasher;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PasswordHashTest {
+
+    private static final PasswordHashPolicy CHEAP = PasswordHashPolicy.pbkdf2(1_000, 32);
+
+    @Test
+    public void encodedHashRecordsItsParameters() {
+        PasswordHash hash = PasswordHash.create("abcd", PasswordHashPolicy.pbkdf2(1_000, 40));
+
+        String encoded = hash.encode();
+        assertTrue(encoded, encoded.startsWith("$pbkdf2-sha256$i=1000,l=40$"));
+
+        PasswordHash decoded = PasswordHash.decode(encoded);
+        assertEquals(PasswordHashPolicy.pbkdf2(1_000, 40), decoded.getPolicy());
+        assertTrue(decoded.matches("abcd"));
+        assertFalse(decoded.matches("abce"));
+        assertThrows(IllegalArgumentException.class, () -> PasswordHash.decode("$pbkdf2-sha256$i=x,l=32$AA$AA"));
+        assertThrows(IllegalArgumentException.class, () -> PasswordHash.decode("abcd"));
+    }
+    // Verifies a hash survives encoding with its algorithm, iterations and key length.
+
+    @Test
+    public void outdatedHashIsUpgradedOnSuccessfulLogin() {
+        PasswordHashPolicy previous = PasswordHashPolicy.current();
+        try {
+            PasswordHashPolicy.setCurrent(CHEAP);
+            CustomerService customers = new CustomerService(PasswordRehasher.direct());
+            Customer customer = customers.registerCustomer("Rehash", "secret");
+            PasswordHash original = customer.getPasswordHash();
+
+            PasswordHashPolicy stronger = PasswordHashPolicy.pbkdf2(2_000, 32);
+            PasswordHashPolicy.setCurrent(stronger);
+
+            assertFalse(customers.authenticate("Rehash", "wrong"));
+            assertSame(original, customer.getPasswordHash());
+
+            assertTrue(customers.authenticate("Rehash", "secret"));
+            assertEquals(stronger, customer.getPasswordHash().getPolicy());
+            assertTrue(customer.checkPassword("secret"));
+            assertFalse(customer.checkPassword("wrong"));
+        } finally {
+            PasswordHashPolicy.setCurrent(previous);
+        }
+    }
+    // Checks only a correct login upgrades the hash, and the password still works afterwards.
+
+    @Test
+    public void upgradeNeverOverwritesANewerHash() {
+        Customer customer = new Customer(PasswordHash.create("old", CHEAP));
+        PasswordHash stale = customer.getPasswordHash();
+        PasswordHash changed = PasswordHash.create("new", CHEAP);
+
+        assertTrue(customer.replacePasswordHash(stale, changed));
+        assertFalse(customer.replacePasswordHash(stale, PasswordHash.create("old", CHEAP)));
+        assertTrue(customer.checkPassword("new"));
+        assertThrows(IllegalArgumentException.class, () -> PasswordHashPolicy.pbkdf2(0, 32));
+    }
+    // Verifies a background rehash loses to a hash that changed after it was scheduled.
+}
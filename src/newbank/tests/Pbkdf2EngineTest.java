@@ -0,0 +1,53 @@
+package newbank.tests;
+
+import newbank.server.service.security.PasswordHashPolicy;
+import newbank.server.service.security.Pbkdf2Engine;
+import org.junit.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class Pbkdf2EngineTest {
+
+    @Test
+    public void engineMatchesJdkSecretKeyFactory() throws Exception {
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        int iterations = PasswordHashPolicy.DEFAULT.getIterations();
+        for (String password : new String[] {"Test", "", "päss wörd €", "x".repeat(100)}) {
+            byte[] salt = Pbkdf2Engine.newSalt();
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+            assertArrayEquals(password, factory.generateSecret(spec).getEncoded(),
+                    Pbkdf2Engine.hash(password, salt, iterations, 32));
+        }
+
+        byte[] salt = Pbkdf2Engine.newSalt();
+        PBEKeySpec spec = new PBEKeySpec("Test".toCharArray(), salt, 1_000, 40 * 8);
+        assertArrayEquals(factory.generateSecret(spec).getEncoded(), Pbkdf2Engine.hash("Test", salt, 1_000, 40));
+    }
+    // Verifies existing hashes stay valid, including empty, non-ASCII and longer-than-a-block passwords and multi-block keys.
+
+    @Test
+    public void verifyAcceptsOnlyTheRightPassword() {
+        byte[] salt = Pbkdf2Engine.newSalt();
+        byte[] hash = Pbkdf2Engine.hash("abcd", salt, 1_000, 32);
+
+        assertTrue(Pbkdf2Engine.verify("abcd", salt, 1_000, hash));
+        assertFalse(Pbkdf2Engine.verify("abce", salt, 1_000, hash));
+        assertFalse(Pbkdf2Engine.verify("abcd", Pbkdf2Engine.newSalt(), 1_000, hash));
+        assertFalse(Pbkdf2Engine.verify("abcd", salt, 1_001, hash));
+    }
+    // Checks a wrong password, salt or iteration count never verifies.
+
+    @Test
+    public void saltsAreFreshAndFullLength() {
+        byte[] first = Pbkdf2Engine.newSalt();
+        byte[] second = Pbkdf2Engine.newSalt();
+
+        assertEquals(Pbkdf2Engine.SALT_LENGTH, first.length);
+        assertFalse(Arrays.equals(first, second));
+    }
+    // Verifies each registration gets its own 16-byte salt.
+}
@@ -0,0 +1,142 @@
+package newbank.tests;
+
+import newbank.protocol.Frame;
+import newbank.protocol.FrameCodec;
+import newbank.protocol.WriteBuffer;
+import newbank.server.StreamResponseWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class ResponseWriterTest {
+
+    /** Records every write call, standing in for a socket where each write is a send syscall. */
+    private static final class CountingStream extends OutputStream {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int writes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+            bytes.write(b, off, len);
+        }
+    }
+
+    @Test
+    public void writeBufferEncodesLikeStringGetBytes() {
+        String text = "Main: 1000.0 € – 日本 💰 \uD800 end";
+        WriteBuffer buffer = new WriteBuffer();
+        buffer.appendLine(text);
+
+        ByteBuffer encoded = buffer.toByteBuffer();
+        byte[] expected = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, java.util.Arrays.copyOf(encoded.array(), encoded.limit()));
+    }
+    // Verifies the allocation-free UTF-8 encoder matches the JDK, including surrogate pairs and lone surrogates.
+
+    @Test
+    public void multiLineReplyIsOneWrite() throws Exception {
+        CountingStream socket = new CountingStream();
+        StreamResponseWriter writer = new StreamResponseWriter(socket);
+
+        writer.writeLine("Checking Details...");
+        writer.writeLine("Log In Failed");
+        writer.writeLine("Incorrect password. Please try again.");
+        writer.writeLine("Enter Username (case-sensitive):");
+        writer.writeFrame(Frame.ok("Grüße"));
+        writer.flush();
+        writer.flush();  // nothing new: no write
+
+        assertEquals(1, socket.writes);
+        byte[] written = socket.bytes.toByteArray();
+        String lines = "Checking Details...\nLog In Failed\nIncorrect password. Please try again.\n"
+                + "Enter Username (case-sensitive):\n";
+        byte[] lineBytes = lines.getBytes(StandardCharsets.UTF_8);
+        assertEquals(lines, new String(written, 0, lineBytes.length, StandardCharsets.UTF_8));
+
+        ByteBuffer frame = ByteBuffer.wrap(written, lineBytes.length, written.length - lineBytes.length);
+        assertEquals("Grüße", FrameCodec.decode(frame).getText());
+    }
+    // Checks that every part of a reply goes to the socket in a single write and decodes intact.
+
+    @Test
+    public void concurrentWritersNeverStrandAFrame() throws Exception {
+        int threads = 8;
+        for (int round = 0; round < 50; round++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream socket = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    bytes.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    bytes.write(b, off, len);
+                }
+
+                @Override
+                public void flush() {
+                    try {
+                        Thread.sleep(1);  // widen the gap between the last write and the end of flush()
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            StreamResponseWriter writer = new StreamResponseWriter(socket);
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            List<Throwable> failures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String text = round + ":" + t;
+                Thread worker = new Thread(() -> {
+                    try {
+                        start.await();
+                        writer.writeFrame(Frame.ok(text));
+                        writer.flush();
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertTrue(failures.toString(), failures.isEmpty());
+
+            // no closing flush(): every frame must already be on the stream
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            Set<String> seen = new HashSet<>();
+            while (in.available() > 0) {
+                assertTrue(seen.add(FrameCodec.read(in).getText()));
+            }
+            assertEquals("round " + round, threads, seen.size());
+        }
+    }
+    // Guards against a lost wakeup: a frame appended while another thread finishes its flush must still be sent.
+}
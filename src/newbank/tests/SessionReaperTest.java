@@ -0,0 +1,109 @@
+package newbank.tests;
+
+import newbank.server.AdmissionController;
+import newbank.server.AuthWorkerPool;
+import newbank.server.HashedTimerWheel;
+import newbank.server.NewBankClientHandler;
+import newbank.server.ServerConfig;
+import newbank.server.ServerMetrics;
+import newbank.server.SessionReaper;
+import newbank.server.nio.NioServerEngine;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SessionReaperTest {
+
+    @Test
+    public void timerWheelRunsAndCancelsTasks() throws Exception {
+        HashedTimerWheel wheel = new HashedTimerWheel("test-wheel", 10, 8);
+        try {
+            CountDownLatch fired = new CountDownLatch(1);
+            AtomicBoolean cancelledRan = new AtomicBoolean();
+
+            HashedTimerWheel.Timeout cancelled = wheel.schedule(() -> cancelledRan.set(true), 50, TimeUnit.MILLISECONDS);
+            // longer than one turn of the 8-bucket wheel
+            wheel.schedule(fired::countDown, 200, TimeUnit.MILLISECONDS);
+            assertTrue(cancelled.cancel());
+
+            assertTrue("Scheduled task should fire", fired.await(2, TimeUnit.SECONDS));
+            assertFalse("Cancelled task must not run", cancelledRan.get());
+            assertFalse("Expired timeout cannot be cancelled", cancelled.cancel());
+        } finally {
+            wheel.stop();
+        }
+    }
+    // Verifies the wheel fires timeouts spanning several turns and skips cancelled ones.
+
+    @Test
+    public void blockingHandlerReapsSessionThatNeverLogsIn() throws Exception {
+        long before = ServerMetrics.getMetrics().value("sessions.reaped.login");
+        SessionReaper reaper = new SessionReaper(300, 0);
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Socket client = new Socket("localhost", serverSocket.getLocalPort());
+            Thread handlerThread = new Thread(new NewBankClientHandler(serverSocket.accept(),
+                    AdmissionController.unlimited(), AuthWorkerPool.direct(), reaper, 4));
+            handlerThread.start();
+
+            client.setSoTimeout(5000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            assertEquals("Enter Username (case-sensitive):", in.readLine());
+            // say nothing
+            assertEquals(SessionReaper.LOGIN_TIMEOUT_MESSAGE, in.readLine());
+            assertNull("Connection should be closed after the goodbye", in.readLine());
+
+            handlerThread.join(2000);
+            assertFalse("Handler thread should be released", handlerThread.isAlive());
+            assertEquals(before + 1, ServerMetrics.getMetrics().value("sessions.reaped.login"));
+            client.close();
+        }
+    }
+    // Checks a silent connection on the blocking engine gets a goodbye and frees its thread.
+
+    @Test
+    public void nioEngineReapsIdleSessionAfterLogin() throws Exception {
+        long before = ServerMetrics.getMetrics().value("sessions.reaped.idle");
+        ServerConfig config = ServerConfig.defaults()
+                .withEngine(ServerConfig.Engine.NIO)
+                .withIoThreads(1)
+                .withWorkerThreads(2)
+                .withIdleTimeoutMillis(400);
+        NioServerEngine engine = new NioServerEngine(0, config);
+        new Thread(engine, "nio-reaper-test-acceptor").start();
+        try (Socket socket = new Socket("localhost", engine.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+            in.readLine();
+            out.println("Test");
+            in.readLine();
+            out.println("Test");
+            in.readLine();
+            assertTrue(in.readLine().startsWith("Log In Successful"));
+
+            // activity keeps the session alive past the idle limit
+            for (int i = 0; i < 3; i++) {
+                Thread.sleep(200);
+                out.println("CREATEACCOUNT");
+                assertTrue(in.readLine().startsWith("Usage"));
+            }
+
+            assertEquals(SessionReaper.IDLE_TIMEOUT_MESSAGE, in.readLine());
+            assertNull(in.readLine());
+            assertEquals(before + 1, ServerMetrics.getMetrics().value("sessions.reaped.idle"));
+        } finally {
+            engine.shutdown();
+        }
+    }
+    // Verifies requests reset the idle clock and an idle NIO session is told goodbye and closed.
+}
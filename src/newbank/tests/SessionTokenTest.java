@@ -0,0 +1,99 @@
+package newbank.tests;
+
+import newbank.protocol.BinaryProtocol;
+import newbank.protocol.Frame;
+import newbank.protocol.Opcode;
+import newbank.server.ClientSession;
+import newbank.server.NewBank;
+import newbank.server.service.security.SessionTokenService;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SessionTokenTest {
+
+    private static Frame send(ClientSession session, Frame request) {
+        AtomicReference<Frame> reply = new AtomicReference<>();
+        session.handleFrame(request, reply::set).join();
+        return reply.get();
+    }
+
+    private static ClientSession binarySession() {
+        ClientSession session = new ClientSession(NewBank.getBank());
+        session.upgradeToBinary(line -> { });
+        return session;
+    }
+
+    @Test
+    public void tokensAreSignedAndExpire() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        SessionTokenService tokens = new SessionTokenService(now::get);
+        tokens.setTimeToLiveSeconds(60);
+
+        String token = tokens.issue("Test");
+        assertEquals("Test", tokens.verify(token));
+
+        // the signature's first character: the last one may hold only padding bits
+        int signature = token.lastIndexOf('.') + 1;
+        char first = token.charAt(signature);
+        assertNull(tokens.verify(token.substring(0, signature) + (first == 'A' ? 'B' : 'A')
+                + token.substring(signature + 1)));
+        assertNull(tokens.verify(token.replaceFirst("^[^.]+", "Qm9i")));  // user "Bob", old signature
+        assertNull(new SessionTokenService(now::get).verify(token));     // other server's key
+        assertNull(tokens.verify("not-a-token"));
+
+        now.addAndGet(60_000);
+        assertNull(tokens.verify(token));
+
+        tokens.setTimeToLiveSeconds(0);
+        assertNull(tokens.issue("Test"));
+    }
+    // Verifies a token only verifies unchanged, under the issuing key, and before it expires.
+
+    @Test
+    public void revokedTokenStaysRevokedUntilItExpires() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        SessionTokenService tokens = new SessionTokenService(now::get);
+        String revoked = tokens.issue("Test");
+        String other = tokens.issue("Test");
+
+        tokens.revoke(revoked);
+        assertNull(tokens.verify(revoked));
+        assertEquals("Test", tokens.verify(other));
+        assertEquals(1, tokens.getRevokedCount());
+
+        now.addAndGet(SessionTokenService.DEFAULT_TTL_SECONDS * 1_000L + 60_000);
+        tokens.revoke(tokens.issue("Test"));
+        assertEquals("Expired revocations are purged", 1, tokens.getRevokedCount());
+    }
+    // Checks revocation is per token and the cache only holds tokens that could still be used.
+
+    @Test
+    public void binaryLoginIssuesTokenThatResumesUntilLogout() {
+        ClientSession first = binarySession();
+        Frame login = send(first, new Frame(Opcode.LOGIN, "Test", "Test"));
+        assertTrue(login.getText(), login.isOk());
+        String tokenLine = login.getText().split("\n")[1];
+        assertTrue(tokenLine, tokenLine.startsWith(BinaryProtocol.SESSION_TOKEN_PREFIX));
+        String token = tokenLine.substring(BinaryProtocol.SESSION_TOKEN_PREFIX.length());
+
+        ClientSession second = binarySession();
+        assertEquals("Session Resumed. Welcome Test!", send(second, new Frame(Opcode.RESUME, token)).getText());
+        assertEquals("Test", second.getCustomer().getKey());
+        assertTrue(send(second, new Frame(Opcode.SHOW_ACCOUNTS)).isOk());
+        assertFalse(send(second, new Frame(Opcode.RESUME, token)).isOk());
+
+        assertTrue(send(second, new Frame(Opcode.LOGOUT)).isOk());
+
+        ClientSession third = binarySession();
+        Frame rejected = send(third, new Frame(Opcode.RESUME, token));
+        assertFalse(rejected.isOk());
+        assertTrue(rejected.getText(), rejected.getText().startsWith("Resume Failed"));
+        assertFalse(send(third, new Frame(Opcode.SHOW_ACCOUNTS)).isOk());
+        assertTrue(send(third, new Frame(Opcode.LOGIN, "Test", "Test")).isOk());
+    }
+    // Verifies a reconnect resumes without the password, and LOGOUT revokes the token for every connection.
+}
@@ -0,0 +1,254 @@
+package newbank.tests;
+
+import newbank.protocol.Money;
+import newbank.server.model.Account;
+import newbank.server.model.CustomerID;
+import newbank.server.model.LoanStatus;
+import newbank.server.persistence.CommandClass;
+import newbank.server.persistence.Durability;
+import newbank.server.persistence.SnapshotStore;
+import newbank.server.persistence.WriteAheadLog;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+import newbank.server.service.LoanService;
+import newbank.server.service.NotificationService;
+import newbank.server.service.TransactionJournal;
+import newbank.server.service.security.PasswordHash;
+import newbank.server.service.security.PasswordHashPolicy;
+import newbank.server.service.security.PasswordRehasher;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+public class SnapshotStoreTest {
+
+    private static final PasswordHash HASH = PasswordHash.create("secret", PasswordHashPolicy.pbkdf2(1_000, 32));
+
+    /** Every service a snapshot covers, sharing one log as in {@code NewBank}. */
+    private static final class Bank {
+        final WriteAheadLog log;
+        final CustomerService customers;
+        final AccountService accounts;
+        final NotificationService notifications;
+        final LoanService loans;
+
+        Bank(WriteAheadLog log) {
+            this.log = log;
+            this.customers = new CustomerService(PasswordRehasher.direct(), log);
+            this.accounts = new AccountService(customers, new TransactionJournal(), log);
+            this.notifications = new NotificationService(log);
+            this.loans = new LoanService(customers, accounts, notifications, log);
+        }
+
+        SnapshotStore snapshots(Path dir) {
+            return new SnapshotStore(dir, customers, accounts, loans, notifications, log);
+        }
+
+        /** A new bank from the latest snapshot in {@code dir} and the log after it. */
+        static Bank recover(Path dir, long[] replayed) throws IOException {
+            Bank bank = new Bank(new WriteAheadLog());
+            List<Path> snapshots = SnapshotStore.list(dir);
+            long from = snapshots.isEmpty() ? 0 : bank.snapshots(dir).load(snapshots.get(0), 4);
+            WriteAheadLog.replay(dir.resolve(WriteAheadLog.FILE_NAME), from, (type, in, lsn) -> {
+                switch (type.getCommandClass()) {
+                    case CUSTOMERS -> bank.customers.replay(type, in);
+                    case LOANS -> bank.loans.replay(type, in, lsn);
+                    case NOTIFICATIONS -> bank.notifications.replay(type, in, lsn);
+                    default -> bank.accounts.replay(type, in, lsn);
+                }
+                replayed[0]++;
+            });
+            return bank;
+        }
+    }
+
+    private static Bank openBank(Path dir, Durability transfers) throws IOException {
+        Map<CommandClass, Durability> modes = CommandClass.defaults();
+        modes.put(CommandClass.TRANSFERS, transfers);
+        WriteAheadLog log = new WriteAheadLog();
+        log.open(dir.resolve(WriteAheadLog.FILE_NAME), 0, modes);
+        Bank bank = new Bank(log);
+        bank.customers.registerCustomer("Corp", HASH);
+        bank.accounts.addAccount("Corp", new Account("Main", 10_000));
+        bank.accounts.addAccount("Corp", new Account("Savings", 0));
+        return bank;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void snapshotPlusLogTailRestoresEverything() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-snapshot");
+        try {
+            Bank bank = openBank(dir, Durability.SYNC);
+            CustomerID corp = new CustomerID("Corp");
+            CustomerID ann = new CustomerID("Ann");
+            bank.customers.registerCustomer("Ann", HASH);
+            bank.accounts.addAccount("Ann", new Account("Main", 500));
+            bank.accounts.transfer(corp, "Main", "Savings", 2_500);
+            int loanId = (int) bank.loans.offerLoan(corp, "Main", 1_000, 5.0, 12, "Monthly").getId();
+            bank.notifications.createNotification(corp, "Statement ready.");
+            bank.accounts.addAccount("Corp", new Account("Old", 0));
+            assertTrue(bank.accounts.removeAccount("Corp", "Old"));
+            bank.snapshots(dir).write();
+            // the log before the snapshot is not replayed, so only the snapshot knows "Old" took id 4
+            assertEquals(4, Bank.recover(dir, new long[1]).accounts.getLastAccountId());
+
+            bank.accounts.deposit(corp, "Main", 1);
+            bank.loans.requestLoan(ann, loanId);
+            bank.customers.registerCustomer("Bob", HASH);
+            bank.accounts.addAccount("Bob", new Account("Main", 70));
+            bank.log.close();
+
+            long[] replayed = new long[1];
+            Bank recovered = Bank.recover(dir, replayed);
+            // the deposit, the loan request and its notification, Bob and his account
+            assertEquals(5, replayed[0]);
+            assertTrue(recovered.customers.authenticate("Corp", "secret"));
+            assertEquals(7_501, recovered.accounts.getAccount(corp, "Main").getBalance());
+            assertEquals(2_500, recovered.accounts.getAccount(corp, "Savings").getBalance());
+            assertEquals(500, recovered.accounts.getAccount(ann, "Main").getBalance());
+            assertEquals(70, recovered.accounts.getAccount(new CustomerID("Bob"), "Main").getBalance());
+            assertEquals(2, recovered.accounts.getAccount(corp, "Savings").getId());
+            assertEquals(5, recovered.accounts.getAccount(new CustomerID("Bob"), "Main").getId());
+            assertTrue(recovered.loans.showUserLoan(corp).contains(LoanStatus.REQUESTED.toString()));
+            assertEquals(2, recovered.notifications.getNotifications(corp).size());
+            assertEquals(3, recovered.notifications.createNotification(corp, "Next").getId());
+            assertEquals(loanId + 1, recovered.loans.offerLoan(corp, "Main", 1, 1.0, 1, null).getId());
+        } finally {
+            delete(dir);
+        }
+    }
+    // Verifies a restart loads the snapshot and replays only the records logged after it.
+
+    @Test
+    public void changesDuringTheSnapshotAreAppliedExactlyOnce() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-snapshot");
+        try {
+            Bank bank = openBank(dir, Durability.ASYNC);
+            for (int c = 0; c < 50; c++) {
+                bank.customers.registerCustomer("C" + c, HASH);
+                bank.accounts.addAccount("C" + c, new Account("Main", 1_000));
+                bank.accounts.addAccount("C" + c, new Account("Savings", 1_000));
+            }
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread[] workers = new Thread[4];
+            for (int t = 0; t < workers.length; t++) {
+                int offset = t;
+                workers[t] = new Thread(() -> {
+                    for (int i = offset; !stop.get(); i++) {
+                        CustomerID customer = new CustomerID("C" + (i % 50));
+                        bank.accounts.transfer(customer, "Main", "Savings", 1);
+                        bank.accounts.deposit(customer, "Main", 1);
+                    }
+                });
+                workers[t].start();
+            }
+            for (int s = 0; s < 5; s++) {
+                bank.snapshots(dir).write();
+            }
+            stop.set(true);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            bank.log.close();
+
+            assertEquals(2, SnapshotStore.list(dir).size());
+            Bank recovered = Bank.recover(dir, new long[1]);
+            for (int c = 0; c < 50; c++) {
+                CustomerID customer = new CustomerID("C" + c);
+                for (String account : new String[] {"Main", "Savings"}) {
+                    assertEquals(bank.accounts.getAccount(customer, account).getBalance(),
+                            recovered.accounts.getAccount(customer, account).getBalance());
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+    // Checks a snapshot taken under load neither loses nor double-applies concurrent transfers.
+
+    @Test
+    public void damagedSnapshotIsRejected() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-snapshot");
+        try {
+            Bank bank = openBank(dir, Durability.SYNC);
+            Path snapshot = bank.snapshots(dir).write();
+            bank.log.close();
+
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+                // the first customer's name, just past the header and the block's count
+                channel.write(ByteBuffer.wrap(new byte[] {'X'}), 28);
+            }
+            Bank fresh = new Bank(new WriteAheadLog());
+            assertThrows(IOException.class, () -> fresh.snapshots(dir).load(snapshot, 2));
+        } finally {
+            delete(dir);
+        }
+    }
+    // Verifies a block whose checksum no longer matches fails the load instead of restoring bad data.
+
+    @Test
+    public void snapshotFromAnotherMoneyScaleIsRejected() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-snapshot");
+        int scale = Money.getScale();
+        try {
+            Bank bank = openBank(dir, Durability.SYNC);
+            Path snapshot = bank.snapshots(dir).write();
+            bank.log.close();
+
+            Money.setScale(scale + 1);
+            Bank fresh = new Bank(new WriteAheadLog());
+            IOException rejected = assertThrows(IOException.class, () -> fresh.snapshots(dir).load(snapshot, 2));
+            assertTrue(rejected.getMessage().contains("money scale " + scale));
+            assertNull(fresh.customers.getCustomer("Corp"));
+        } finally {
+            Money.setScale(scale);
+            delete(dir);
+        }
+    }
+    // Checks a snapshot written at one money scale is not loaded at another, where its balances would be off.
+
+    @Test
+    public void paymentReferencesSurviveRecovery() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-snapshot");
+        try {
+            Bank bank = openBank(dir, Durability.SYNC);
+            CustomerID corp = new CustomerID("Corp");
+            bank.customers.registerCustomer("Ann", HASH);
+            bank.accounts.addAccount("Ann", new Account("Main", 0));
+            assertTrue(bank.accounts.pay(corp, "Ann", 1_000, "INV-1"));
+            bank.snapshots(dir).write();
+            assertTrue(bank.accounts.pay(corp, "Ann", 2_000, "INV-2"));
+            bank.log.close();
+
+            Bank recovered = Bank.recover(dir, new long[1]);
+            // one reference restored from the snapshot, the other replayed from the log
+            assertFalse(recovered.accounts.pay(corp, "Ann", 1_000, "INV-1"));
+            assertFalse(recovered.accounts.pay(corp, "Ann", 2_000, "INV-2"));
+            assertEquals(7_000, recovered.accounts.getAccount(corp, "Main").getBalance());
+            assertEquals(3_000, recovered.accounts.getAccount(new CustomerID("Ann"), "Main").getBalance());
+        } finally {
+            delete(dir);
+        }
+    }
+    // Checks a payment retried after a restart is not paid again, whether its reference came from the snapshot or the log.
+}
@@ -0,0 +1,362 @@
+package newbank.tests;
+
+import newbank.protocol.Money;
+import newbank.server.CommandProcessor;
+import newbank.server.NewBank;
+import newbank.server.model.Account;
+import newbank.server.model.CustomerID;
+import newbank.server.model.JournalEntry;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+import newbank.server.service.TransactionJournal;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public class TransactionJournalTest {
+
+    private static final String NL = System.lineSeparator();
+
+    private static AccountService newService(TransactionJournal journal) {
+        CustomerService customers = new CustomerService();
+        customers.registerCustomer("Corp", "secret");
+        AccountService service = new AccountService(customers, journal);
+        service.addAccount("Corp", new Account("Main", 100_000));
+        service.addAccount("Corp", new Account("Savings", 0));
+        return service;
+    }
+
+    private static long id(AccountService service, String accountName) {
+        return service.getAccount(new CustomerID("Corp"), accountName).getId();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void pagesAnAccountNewestFirst() {
+        TransactionJournal journal = new TransactionJournal(1_000, () -> 0);
+        AccountService service = newService(journal);
+        CustomerID corp = new CustomerID("Corp");
+
+        service.deposit(corp, "main", 500);
+        service.transfer(corp, "Main", "SAVINGS", 1_000);
+        service.withdraw(corp, "Savings", 250);
+
+        assertEquals(4, journal.lastSequence());
+        assertEquals(2, journal.count(id(service, "Main")));
+        List<JournalEntry> savings = journal.newestFirst(id(service, "savings"), 0, 10);
+        assertEquals(2, savings.size());
+        assertEquals("#4 1970-01-01T00:00:00Z WITHDRAWAL -2.50", savings.get(0).toString());
+        assertEquals("#3 1970-01-01T00:00:00Z TRANSFER_IN +10.00 from 'Main'", savings.get(1).toString());
+        assertEquals("#2 1970-01-01T00:00:00Z TRANSFER_OUT -10.00 to 'Savings'",
+                journal.newestFirst(id(service, "Main"), 0, 1).get(0).toString());
+
+        for (int i = 0; i < 45; i++) {
+            service.deposit(corp, "Main", 1);
+        }
+        String page3 = service.showTransactions(corp, "MAIN", 3);
+        String[] lines = page3.split(NL);
+        assertEquals("Transactions for 'Main', page 3 of 3 (newest first):", lines[0]);
+        assertEquals(8, lines.length);
+        assertTrue(lines[7], lines[7].startsWith("> #1 "));
+        assertThrows(IllegalArgumentException.class, () -> service.showTransactions(corp, "Main", 4));
+        assertThrows(IllegalArgumentException.class, () -> service.showTransactions(corp, "Nope", 1));
+    }
+    // Verifies sequence numbers, per-account paging and the formatted lines, newest first.
+
+    @Test
+    public void keepsOnlyTheNewestSegmentsInMemory() {
+        TransactionJournal journal = new TransactionJournal(2 * TransactionJournal.SEGMENT_SIZE, () -> 0);
+        AccountService service = newService(journal);
+        CustomerID corp = new CustomerID("Corp");
+
+        int deposits = 5 * TransactionJournal.SEGMENT_SIZE + 10;
+        for (int i = 0; i < deposits; i++) {
+            service.deposit(corp, i % 2 == 0 ? "Main" : "Savings", 1);
+        }
+
+        // the filling segment plus the full one before it
+        assertEquals(TransactionJournal.SEGMENT_SIZE + 10, journal.size());
+        assertEquals(deposits, journal.lastSequence());
+        assertEquals(journal.size(), journal.count(id(service, "Main")) + journal.count(id(service, "Savings")));
+        List<JournalEntry> oldest = journal.newestFirst(id(service, "Main"), journal.count(id(service, "Main")) - 1, 5);
+        assertEquals(1, oldest.size());
+        assertTrue(oldest.get(0).getSequence() > deposits - journal.size());
+
+        journal.setMemoryEntries(1);
+        assertEquals(10, journal.size());
+    }
+    // Checks older segments are dropped with their index entries, bounding memory.
+
+    @Test
+    public void concurrentAppendsKeepEveryEntryInOrder() throws InterruptedException {
+        AtomicLong clock = new AtomicLong();
+        TransactionJournal journal = new TransactionJournal(2 * TransactionJournal.SEGMENT_SIZE,
+                clock::incrementAndGet);
+        int threads = 8;
+        int perThread = TransactionJournal.SEGMENT_SIZE;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            long accountId = t + 1;
+            long counterpartyId = (t + 1) % threads + 1;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    if (i % 2 == 0) {
+                        journal.record(accountId, "Corp", "A" + accountId, JournalEntry.Type.DEPOSIT, 1, 0);
+                    } else {
+                        journal.recordTransfer(accountId, "Corp", "A" + accountId,
+                                counterpartyId, "Corp", "A" + counterpartyId, 1, 0);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        long total = (long) threads * perThread * 3 / 2;
+        assertEquals(total, journal.lastSequence());
+        assertTrue(journal.size() <= 2L * TransactionJournal.SEGMENT_SIZE);
+        long held = 0;
+        for (long accountId = 1; accountId <= threads; accountId++) {
+            int count = journal.count(accountId);
+            held += count;
+            List<JournalEntry> entries = journal.newestFirst(accountId, 0, count);
+            for (int i = 1; i < entries.size(); i++) {
+                assertTrue(entries.get(i - 1).getSequence() > entries.get(i).getSequence());
+                assertTrue(entries.get(i - 1).getTimestampMillis() >= entries.get(i).getTimestampMillis());
+            }
+        }
+        assertEquals(journal.size(), held);
+    }
+    // Checks appends from many threads across segment rollovers lose no entry and stay ordered per account.
+
+    @Test
+    public void rolledBackBatchesLeaveNoEntries() {
+        TransactionJournal journal = new TransactionJournal(1_000, () -> 0);
+        AccountService service = newService(journal);
+        CustomerID corp = new CustomerID("Corp");
+
+        assertFalse(service.runAtomically("Corp", () -> {
+            service.transfer(corp, "Main", "Savings", 100);
+            return false;
+        }));
+        assertEquals(0, journal.lastSequence());
+        assertEquals("No transactions for 'Savings'.", service.showTransactions(corp, "Savings", 1));
+
+        assertTrue(service.runAtomically("Corp", () -> {
+            service.transfer(corp, "Main", "Savings", 100);
+            service.withdraw(corp, "Savings", 40);
+            return true;
+        }));
+        assertEquals(3, journal.lastSequence());
+        assertEquals(JournalEntry.Type.WITHDRAWAL, journal.newestFirst(id(service, "Savings"), 0, 1).get(0).getType());
+    }
+    // Verifies an atomic batch reaches the journal only when it commits.
+
+    @Test
+    public void accountReopenedUnderAClosedNameStartsWithNoHistory() {
+        TransactionJournal journal = new TransactionJournal(1_000, () -> 0);
+        AccountService service = newService(journal);
+        CustomerID corp = new CustomerID("Corp");
+        service.transfer(corp, "Main", "Savings", 1_000);
+        service.transfer(corp, "Savings", "Main", 1_000);
+        long closed = id(service, "Savings");
+        assertTrue(service.removeAccount("Corp", "Savings"));
+
+        service.addAccount("Corp", new Account("SAVINGS", 0));
+        assertNotEquals(closed, id(service, "Savings"));
+        assertEquals("No transactions for 'SAVINGS'.", service.showTransactions(corp, "Savings", 1));
+        assertEquals(2, journal.count(closed));
+        // the other side of the old transfers still names the account it was made with
+        assertEquals("#4 1970-01-01T00:00:00Z TRANSFER_IN +10.00 from 'Savings'",
+                journal.newestFirst(id(service, "Main"), 0, 1).get(0).toString());
+    }
+    // Checks history follows the account id issued at opening, not the name, so a new account does not inherit it.
+
+    @Test
+    public void viewTransactionsCommandEndsWithMarker() {
+        CommandProcessor processor = new CommandProcessor(NewBank.getBank());
+        CustomerID test = new CustomerID("Test");
+        String account = "Journal" + System.nanoTime();
+        processor.process(test, "CREATEACCOUNT " + account);
+        try {
+            assertTrue(processor.process(test, "TRANSFER Main " + account + " 1.00").startsWith("SUCCESS"));
+
+            String[] lines = processor.process(test, "VIEWTRANSACTIONS " + account).split("\n");
+            assertEquals(3, lines.length);
+            assertTrue(lines[1], lines[1].endsWith("TRANSFER_IN +1.00 from 'Main'"));
+            assertEquals("END_OF_TRANSACTIONS", lines[2]);
+
+            assertTrue(processor.process(test, "VIEWTRANSACTIONS " + account + " two")
+                    .startsWith("FAIL: Page must be a number."));
+            assertTrue(processor.process(test, "VIEWTRANSACTIONS " + account + " 2")
+                    .endsWith("\nEND_OF_TRANSACTIONS"));
+        } finally {
+            processor.process(test, "TRANSFER " + account + " Main 1.00");
+            processor.process(test, "CLOSEACCOUNT " + account);
+        }
+    }
+    // Checks the text command's reply, including failures, is closed by END_OF_TRANSACTIONS.
+
+    @Test
+    public void reopenedJournalKeepsItsHistory() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-journal");
+        try {
+            TransactionJournal journal = TransactionJournal.open(dir, 2 * TransactionJournal.SEGMENT_SIZE, () -> 0);
+            AccountService service = newService(journal);
+            CustomerID corp = new CustomerID("Corp");
+            int deposits = 3 * TransactionJournal.SEGMENT_SIZE + 7;
+            for (int i = 0; i < deposits; i++) {
+                service.deposit(corp, "Main", 1);
+            }
+            service.transfer(corp, "Main", "Savings", 1_000);
+            String page = service.showTransactions(corp, "Main", 1);
+            journal.close();
+
+            TransactionJournal reopened = TransactionJournal.open(dir, 2 * TransactionJournal.SEGMENT_SIZE, () -> 0);
+            assertEquals(deposits + 2, reopened.lastSequence());
+            assertEquals(TransactionJournal.SEGMENT_SIZE + 9, reopened.size());
+            assertEquals(journal.count(id(service, "Main")), reopened.count(id(service, "main")));
+            assertEquals("#" + (deposits + 2) + " 1970-01-01T00:00:00Z TRANSFER_IN +10.00 from 'Main'",
+                    reopened.newestFirst(id(service, "Savings"), 0, 1).get(0).toString());
+            assertEquals(page, newService(reopened).showTransactions(corp, "Main", 1));
+
+            reopened.record(id(service, "Main"), "Corp", "Main", JournalEntry.Type.WITHDRAWAL, 5, 0);
+            assertEquals(deposits + 3, reopened.lastSequence());
+            reopened.close();
+        } finally {
+            delete(dir);
+        }
+    }
+    // Verifies a file-backed journal rebuilds its account indexes after a restart and carries on numbering.
+
+    @Test
+    public void journalFromAnotherMoneyScaleIsRefused() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-journal");
+        int scale = Money.getScale();
+        try {
+            TransactionJournal journal = TransactionJournal.open(dir, 1_000, () -> 0);
+            journal.record(1, "Corp", "Main", JournalEntry.Type.DEPOSIT, 500, 0);
+            journal.close();
+
+            Money.setScale(scale + 1);
+            IOException refused = assertThrows(IOException.class, () -> TransactionJournal.open(dir, 1_000, () -> 0));
+            assertTrue(refused.getMessage().contains("money scale " + scale));
+        } finally {
+            Money.setScale(scale);
+            delete(dir);
+        }
+    }
+    // Checks journal segments written at one money scale are not read back as amounts at another.
+
+    @Test
+    public void slotLeftEmptyByACrashIsVoided() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-journal");
+        int size = TransactionJournal.SEGMENT_SIZE;
+        try {
+            TransactionJournal journal = TransactionJournal.open(dir, 10 * size, () -> 0);
+            for (int i = 0; i < 3 * size + 10; i++) {
+                journal.record(1, "Corp", "Main", JournalEntry.Type.DEPOSIT, 1, 0);
+            }
+            journal.close();
+
+            // the page holding entry size + 101 of the second segment never reached the disk
+            Path second = dir.resolve(String.format("journal-%020d.seg", size + 1));
+            try (FileChannel channel = FileChannel.open(second, StandardOpenOption.WRITE)) {
+                long header = channel.size() - (long) size * TransactionJournal.ENTRY_BYTES;
+                channel.write(ByteBuffer.allocate(1), header + 100L * TransactionJournal.ENTRY_BYTES + 24);
+            }
+
+            TransactionJournal reopened = TransactionJournal.open(dir, 10 * size, () -> 0);
+            assertEquals(3 * size + 10, reopened.lastSequence());
+            assertEquals(3 * size + 9, reopened.count(1));
+            // the entries on either side of the voided slot
+            List<JournalEntry> around = reopened.newestFirst(1, 2 * size - 92, 2);
+            assertEquals(size + 102, around.get(0).getSequence());
+            assertEquals(size + 100, around.get(1).getSequence());
+            reopened.record(1, "Corp", "Main", JournalEntry.Type.WITHDRAWAL, 1, 0);
+            reopened.close();
+
+            TransactionJournal again = TransactionJournal.open(dir, 10 * size, () -> 0);
+            assertEquals(3 * size + 11, again.lastSequence());
+            assertEquals(3 * size + 10, again.count(1));
+            again.close();
+        } finally {
+            delete(dir);
+        }
+    }
+    // Verifies a slot a crash left empty among written ones is voided, keeping the entries after it.
+
+    @Test
+    public void exportsATimeRangeFromFilesAndMemory() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-journal");
+        try {
+            AtomicLong clock = new AtomicLong();
+            TransactionJournal onDisk = TransactionJournal.open(dir.resolve("journal"), 1, clock::get);
+            TransactionJournal inMemory = new TransactionJournal(1_000_000, clock::get);
+            for (TransactionJournal journal : new TransactionJournal[] {onDisk, inMemory}) {
+                clock.set(0);
+                for (int i = 0; i < 2 * TransactionJournal.SEGMENT_SIZE; i++) {
+                    clock.set(i / 1_000 * 1_000);
+                    journal.record(1 + i % 2, "Corp", i % 2 == 0 ? "Main" : "Savings", JournalEntry.Type.DEPOSIT, i, 0);
+                }
+                journal.recordTransfer(1, "Corp", "Main", 3, "Ann", "Main", 7, 0);
+            }
+
+            for (TransactionJournal journal : new TransactionJournal[] {onDisk, inMemory}) {
+                Path file = dir.resolve("export.bin");
+                try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    // the entries stamped 3000 to 5999: sequences 3001 to 6000
+                    assertEquals(3_000, journal.export(3_000, 6_000, out));
+                }
+                ByteBuffer export = ByteBuffer.wrap(Files.readAllBytes(file));
+                assertEquals(TransactionJournal.EXPORT_MAGIC, export.getLong());
+                assertEquals(3_001, export.getLong());
+                assertEquals(3_000, export.getLong());
+                int directoryBytes = export.getInt();
+                assertEquals(TransactionJournal.ENTRY_BYTES, export.getInt());
+                assertEquals(TransactionJournal.EXPORT_HEADER_BYTES + directoryBytes
+                        + 3_000 * TransactionJournal.ENTRY_BYTES, export.capacity());
+
+                int first = TransactionJournal.EXPORT_HEADER_BYTES + directoryBytes;
+                assertEquals(3_000, export.getLong(first));
+                assertEquals(3_000, export.getLong(first + 8));
+                int last = export.capacity() - TransactionJournal.ENTRY_BYTES;
+                assertEquals(5_999, export.getLong(last + 8));
+                assertEquals(1, export.getInt(last + 16));  // Savings, the second account named
+
+                try (FileChannel out = FileChannel.open(file, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+                    assertEquals(2 * TransactionJournal.SEGMENT_SIZE + 2, journal.export(0, Long.MAX_VALUE, out));
+                    assertEquals(0, journal.export(100_000, Long.MAX_VALUE, out));
+                }
+            }
+            // only the newest segment stays in memory, but the files still hold every entry
+            assertEquals(2, onDisk.size());
+            onDisk.close();
+        } finally {
+            delete(dir);
+        }
+    }
+    // Checks an export holds exactly the entries of its time range, whether read from segment files or the heap.
+}
@@ -0,0 +1,352 @@
+package newbank.tests;
+
+import newbank.protocol.Money;
+import newbank.server.model.Account;
+import newbank.server.model.CustomerID;
+import newbank.server.model.JournalEntry;
+import newbank.server.persistence.CommandClass;
+import newbank.server.persistence.Durability;
+import newbank.server.persistence.RecordType;
+import newbank.server.persistence.WriteAheadLog;
+import newbank.server.service.AccountService;
+import newbank.server.service.CustomerService;
+import newbank.server.service.NotificationService;
+import newbank.server.service.TransactionJournal;
+import newbank.server.service.security.PasswordHash;
+import newbank.server.service.security.PasswordHashPolicy;
+import newbank.server.service.security.PasswordRehasher;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class WriteAheadLogTest {
+
+    private static final PasswordHash HASH = PasswordHash.create("secret", PasswordHashPolicy.pbkdf2(1_000, 32));
+
+    /** The services the log covers, sharing one log as in {@code NewBank}. */
+    private static final class Bank {
+        final WriteAheadLog log;
+        final CustomerService customers;
+        final AccountService accounts;
+        final NotificationService notifications;
+
+        Bank(WriteAheadLog log) {
+            this(log, new TransactionJournal());
+        }
+
+        Bank(WriteAheadLog log, TransactionJournal journal) {
+            this.log = log;
+            this.customers = new CustomerService(PasswordRehasher.direct(), log);
+            this.accounts = new AccountService(customers, journal, log);
+            this.notifications = new NotificationService(log);
+        }
+
+        /** A new bank rebuilt from {@code file}; returns the intact length through {@code length}. */
+        static Bank recover(Path file, long[] length) throws IOException {
+            return recover(file, length, new TransactionJournal());
+        }
+
+        static Bank recover(Path file, long[] length, TransactionJournal journal) throws IOException {
+            Bank bank = new Bank(new WriteAheadLog(), journal);
+            length[0] = WriteAheadLog.replay(file, (type, in, lsn) -> {
+                switch (type.getCommandClass()) {
+                    case CUSTOMERS -> bank.customers.replay(type, in);
+                    case NOTIFICATIONS -> bank.notifications.replay(type, in, lsn);
+                    default -> bank.accounts.replay(type, in, lsn);
+                }
+            });
+            journal.endRecovery();
+            return bank;
+        }
+    }
+
+    private static Bank openBank(Path file) throws IOException {
+        return openBank(file, new TransactionJournal());
+    }
+
+    private static Bank openBank(Path file, TransactionJournal journal) throws IOException {
+        WriteAheadLog log = new WriteAheadLog();
+        log.open(file, 0, CommandClass.defaults());
+        Bank bank = new Bank(log, journal);
+        bank.customers.registerCustomer("Corp", HASH);
+        bank.accounts.addAccount("Corp", new Account("Main", 10_000));
+        bank.accounts.addAccount("Corp", new Account("Savings", 0));
+        return bank;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void replayRebuildsEveryLoggedChange() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-wal");
+        try {
+            Path file = dir.resolve(WriteAheadLog.FILE_NAME);
+            Bank bank = openBank(file);
+            CustomerID corp = new CustomerID("Corp");
+            bank.accounts.deposit(corp, "main", 550);
+            bank.accounts.transfer(corp, "Main", "Savings", 2_500);
+            bank.accounts.withdraw(corp, "Savings", 100);
+            bank.accounts.addAccount("Corp", new Account("Old", 0));
+            assertTrue(bank.accounts.removeAccount("Corp", "old"));
+            bank.notifications.createNotification(corp, "Statement ready.");
+            bank.log.close();
+
+            Bank recovered = Bank.recover(file, new long[1]);
+            assertTrue(recovered.customers.authenticate("Corp", "secret"));
+            assertEquals(8_050, recovered.accounts.getAccount(corp, "Main").getBalance());
+            assertEquals(2_400, recovered.accounts.getAccount(corp, "Savings").getBalance());
+            assertNull(recovered.accounts.getAccount(corp, "Old"));
+            assertEquals(bank.accounts.getAccount(corp, "Main").getId(),
+                    recovered.accounts.getAccount(corp, "Main").getId());
+            // "Old" had id 3 and was closed; its id is not issued again
+            assertEquals(3, recovered.accounts.getLastAccountId());
+            assertEquals("Statement ready.", recovered.notifications.getNotifications(corp).get(0).getMessage());
+            assertEquals(2, recovered.notifications.createNotification(corp, "Next").getId());
+        } finally {
+            delete(dir);
+        }
+    }
+    // Verifies customers, accounts, balance movements and notifications survive a restart.
+
+    @Test
+    public void atomicBatchIsLoggedOnlyWhenItCommitsAndAsOneRecord() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-wal");
+        try {
+            Path file = dir.resolve(WriteAheadLog.FILE_NAME);
+            Bank bank = openBank(file);
+            CustomerID corp = new CustomerID("Corp");
+            long before = bank.log.getAppendedLsn();
+            assertFalse(bank.accounts.runAtomically("Corp", () -> {
+                bank.accounts.transfer(corp, "Main", "Savings", 1_000);
+                return false;
+            }));
+            assertEquals(before, bank.log.getAppendedLsn());
+
+            assertTrue(bank.accounts.runAtomically("Corp", () -> {
+                bank.accounts.transfer(corp, "Main", "Savings", 1_000);
+                bank.accounts.addAccountIfAbsent("Corp", new Account("Bonds", 0));
+                bank.accounts.transfer(corp, "Savings", "Bonds", 400);
+                return true;
+            }));
+            bank.log.close();
+
+            List<RecordType> types = new ArrayList<>();
+            WriteAheadLog.replay(file, (type, in, lsn) -> types.add(type));
+            assertEquals(List.of(RecordType.CUSTOMER_REGISTERED, RecordType.ACCOUNT_OPENED,
+                    RecordType.ACCOUNT_OPENED, RecordType.BATCH), types);
+
+            Bank recovered = Bank.recover(file, new long[1]);
+            assertEquals(9_000, recovered.accounts.getAccount(corp, "Main").getBalance());
+            assertEquals(600, recovered.accounts.getAccount(corp, "Savings").getBalance());
+            assertEquals(400, recovered.accounts.getAccount(corp, "Bonds").getBalance());
+        } finally {
+            delete(dir);
+        }
+    }
+    // Checks a rolled-back batch leaves no record and a committed one replays all or nothing.
+
+    @Test
+    public void changesRefusedByAClosedLogLeaveNoTrace() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-wal");
+        try {
+            Bank bank = openBank(dir.resolve(WriteAheadLog.FILE_NAME));
+            CustomerID corp = new CustomerID("Corp");
+            bank.accounts.transfer(corp, "Main", "Savings", 1_000);
+            String before = bank.accounts.showAccounts(corp);
+            long journaled = bank.accounts.getJournal().lastSequence();
+            bank.log.close();
+
+            assertThrows(IllegalArgumentException.class, () -> bank.accounts.deposit(corp, "Main", 5));
+            assertThrows(IllegalArgumentException.class, () -> bank.accounts.withdraw(corp, "Main", 5));
+            assertThrows(IllegalArgumentException.class, () -> bank.accounts.transfer(corp, "Main", "Savings", 5));
+            assertThrows(IllegalArgumentException.class,
+                    () -> bank.accounts.addAccountIfAbsent("Corp", new Account("Bonds", 0)));
+            assertThrows(IllegalArgumentException.class, () -> bank.accounts.removeAccount("Corp", "Savings"));
+            assertThrows(IllegalArgumentException.class, () -> bank.accounts.runAtomically("Corp", () -> {
+                bank.accounts.transfer(corp, "Main", "Savings", 5);
+                bank.accounts.addAccountIfAbsent("Corp", new Account("Bonds", 0));
+                return true;
+            }));
+
+            assertEquals(before, bank.accounts.showAccounts(corp));
+            assertEquals(9_000, bank.accounts.getAccount(corp, "Main").getBalance());
+            assertEquals(1_000, bank.accounts.getAccount(corp, "Savings").getBalance());
+            assertEquals(journaled, bank.accounts.getJournal().lastSequence());
+        } finally {
+            delete(dir);
+        }
+    }
+    // Ensures a change the log refuses is undone in memory and never journaled, and surfaces as a failed command.
+
+    @Test
+    public void replayRestoresTheJournalACrashLeftBehindTheLog() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-wal");
+        try {
+            Path file = dir.resolve(WriteAheadLog.FILE_NAME);
+            Path journalDir = dir.resolve("journal");
+            TransactionJournal journal = TransactionJournal.open(journalDir, 1_000, System::currentTimeMillis);
+            Bank bank = openBank(file, journal);
+            CustomerID corp = new CustomerID("Corp");
+            bank.accounts.deposit(corp, "Main", 550);
+            bank.log.sync();
+            journal.sync(bank.log.getAppendedLsn());
+            bank.accounts.transfer(corp, "Main", "Savings", 2_500);
+            bank.accounts.withdraw(corp, "Savings", 100);
+            long beforeLast = bank.log.getAppendedLsn();
+            bank.accounts.deposit(corp, "Main", 7);
+            bank.log.close();
+            journal.close();
+
+            // the journal lost the transfer's second entry, and the log its last deposit
+            Path segment = journalDir.resolve(String.format("journal-%020d.seg", 1));
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                long header = channel.size() - (long) TransactionJournal.SEGMENT_SIZE * TransactionJournal.ENTRY_BYTES;
+                channel.write(ByteBuffer.allocate(1), header + 2L * TransactionJournal.ENTRY_BYTES + 24);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(beforeLast);
+            }
+
+            TransactionJournal reopened = TransactionJournal.open(journalDir, 1_000, System::currentTimeMillis);
+            Bank recovered = Bank.recover(file, new long[1], reopened);
+            assertEquals(8_050, recovered.accounts.getAccount(corp, "Main").getBalance());
+            // the deposit before the sync, the transfer journaled again; the lost deposit is voided
+            assertEquals(7, reopened.lastSequence());
+            List<JournalEntry> main = reopened.newestFirst(1, 0, 10);
+            assertEquals(2, main.size());
+            assertEquals(JournalEntry.Type.TRANSFER_OUT, main.get(0).getType());
+            assertEquals(6, main.get(0).getSequence());
+            assertEquals(JournalEntry.Type.DEPOSIT, main.get(1).getType());
+            List<JournalEntry> savings = reopened.newestFirst(2, 0, 10);
+            assertEquals(2, savings.size());
+            assertEquals(7, savings.get(0).getSequence());
+            assertEquals(JournalEntry.Type.WITHDRAWAL, savings.get(1).getType());
+            assertEquals(4, savings.get(1).getSequence());
+            reopened.close();
+        } finally {
+            delete(dir);
+        }
+    }
+    // Verifies recovery journals again the changes the journal lost and voids entries whose log records were lost.
+
+    @Test
+    public void tornTailIsCutOffAndTheLogContinues() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-wal");
+        try {
+            Path file = dir.resolve(WriteAheadLog.FILE_NAME);
+            Bank bank = openBank(file);
+            CustomerID corp = new CustomerID("Corp");
+            bank.accounts.deposit(corp, "Main", 1);
+            bank.log.close();
+            long intact = Files.size(file);
+
+            // a record cut short by a crash: a frame promising more bytes than follow
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.allocate(11).putInt(200).putInt(42).put((byte) 4).flip());
+            }
+            long[] length = new long[1];
+            Bank recovered = Bank.recover(file, length);
+            assertEquals(intact, length[0]);
+            assertEquals(10_001, recovered.accounts.getAccount(corp, "Main").getBalance());
+
+            WriteAheadLog reopened = new WriteAheadLog();
+            reopened.open(file, length[0], Map.of(CommandClass.CUSTOMERS, Durability.SYNC,
+                    CommandClass.ACCOUNTS, Durability.SYNC, CommandClass.TRANSFERS, Durability.WRITE,
+                    CommandClass.LOANS, Durability.SYNC, CommandClass.NOTIFICATIONS, Durability.ASYNC));
+            AccountService accounts = new AccountService(recovered.customers, new TransactionJournal(), reopened);
+            accounts.addAccount("Corp", new Account("Main", 10_001));
+            accounts.deposit(corp, "Main", 9);
+            reopened.close();
+
+            assertEquals(10_010, Bank.recover(file, length).accounts.getAccount(corp, "Main").getBalance());
+        } finally {
+            delete(dir);
+        }
+    }
+    // Verifies an incomplete last record is ignored, truncated, and appends resume after it.
+
+    @Test
+    public void logFromAnotherMoneyScaleIsRefused() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-wal");
+        int scale = Money.getScale();
+        try {
+            Path file = dir.resolve(WriteAheadLog.FILE_NAME);
+            openBank(file).log.close();
+            long[] length = new long[1];
+            Bank.recover(file, length);
+
+            Money.setScale(scale + 1);
+            IOException replayed = assertThrows(IOException.class, () -> Bank.recover(file, new long[1]));
+            assertTrue(replayed.getMessage().contains("money scale " + scale));
+            assertThrows(IOException.class, () -> new WriteAheadLog().open(file, length[0], CommandClass.defaults()));
+            assertEquals(length[0], Files.size(file));
+        } finally {
+            Money.setScale(scale);
+            delete(dir);
+        }
+    }
+    // Checks a log written at one money scale is neither replayed nor appended to at another.
+
+    @Test
+    public void concurrentSyncTransfersAreAllDurable() throws Exception {
+        Path dir = Files.createTempDirectory("newbank-wal");
+        try {
+            Path file = dir.resolve(WriteAheadLog.FILE_NAME);
+            Bank bank = openBank(file);
+            CustomerID corp = new CustomerID("Corp");
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                boolean out = t % 2 == 0;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        bank.accounts.transfer(corp, out ? "Main" : "Savings", out ? "Savings" : "Main", 1);
+                    }
+                });
+            }
+            bank.accounts.deposit(corp, "Savings", 1_000);
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            // nothing was closed: every reply already waited for its sync
+            Bank recovered = Bank.recover(file, new long[1]);
+            assertEquals(10_000, recovered.accounts.getAccount(corp, "Main").getBalance());
+            assertEquals(1_000, recovered.accounts.getAccount(corp, "Savings").getBalance());
+            bank.log.close();
+        } finally {
+            delete(dir);
+        }
+    }
+    // Checks every acknowledged SYNC transfer is on disk without closing the log.
+
+    @Test
+    public void parsesDurabilityPerCommandClass() {
+        Map<CommandClass, Durability> modes = CommandClass.parseDurabilities("transfers=write, Notifications=ASYNC");
+        assertEquals(Durability.WRITE, modes.get(CommandClass.TRANSFERS));
+        assertEquals(Durability.ASYNC, modes.get(CommandClass.NOTIFICATIONS));
+        assertEquals(Durability.SYNC, modes.get(CommandClass.ACCOUNTS));
+        assertThrows(IllegalArgumentException.class, () -> CommandClass.parseDurabilities("transfers=fast"));
+        assertThrows(IllegalArgumentException.class, () -> CommandClass.parseDurabilities("transfers"));
+    }
+    // Verifies the --walDurability option overrides only the classes it names.
+}